@@ -69,6 +69,7 @@ import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
 import org.dcm4chee.archive.conf.QueryParam;
 import org.dcm4chee.archive.dto.ArchiveInstanceLocator;
 import org.dcm4chee.archive.dto.ServiceType;
+import org.dcm4chee.archive.retrieve.LocatorIterator;
 import org.dcm4chee.archive.retrieve.RetrieveService;
 import org.dcm4chee.archive.store.scu.CStoreSCUContext;
 import org.dcm4chee.archive.store.scu.CStoreSCUService;
@@ -129,40 +130,57 @@ public class ExportDicomImpl implements ExportDicom {
             return;
         }
         
-        ArrayList<ArchiveInstanceLocator> locators = (ArrayList<ArchiveInstanceLocator>)
-                toInstanceLocators(studyUIDs, null, ctx.getLocalAE());
-        for(ArchiveInstanceLocator locator : locators) {
-            Attributes objectAttrs = (Attributes) locator.getObject();
-            if(objectAttrs != null) {
-                Attributes conceptNameCode = objectAttrs.getNestedDataset(Tag.ConceptNameCodeSequence);
-                if(conceptNameCode != null) {
-                    Code code;
-                    try {
-                        code = new Code(conceptNameCode);
-                    } catch (NullPointerException npe) {
-                        LOG.error("Malformed concept name code for object {}", locator.iuid, npe);
-                        continue;
-                    }
-                    if (containsCode(keyObjectDocumentCodes, code)) {
-                        Sequence crpEvidenceSequence = objectAttrs
-                                .getSequence(Tag.CurrentRequestedProcedureEvidenceSequence);
-                        for (Attributes evidenceSeqItem : crpEvidenceSequence) {
-                            ArrayList<String> iuids = getReferencedInstanceUIDs(evidenceSeqItem);
-                            referencedInstances.addAll(toInstanceLocators(null, iuids, ctx.getLocalAE()));
-                        }
-                    }
+        // scan the studies for Key Object Selection Documents without keeping
+        // the locators of all their instances
+        QueryParam queryParam = queryParam(ctx.getLocalAE());
+        for (String studyUID : studyUIDs) {
+            LocatorIterator locators = retrieveService.iterateMatches(
+                    studyUID, null, null, queryParam, false);
+            try {
+                while (locators.hasNext()) {
+                    if (!addKeyObjectReferences(locators.next(),
+                            keyObjectDocumentCodes, referencedInstances, ctx))
+                        return;
                 }
-            }
-            else {
-                LOG.error("Error reading blob attributes for object {}, "
-                        + "No Export will take place", locator.iuid);
-                return;
+            } finally {
+                locators.close();
             }
         }
         cstoreSCUService.scheduleStoreSCU(UUID.randomUUID().toString(), ctx,
                 referencedInstances, 1, 1, 0);
     }
 
+    private boolean addKeyObjectReferences(ArchiveInstanceLocator locator,
+            List<Code> keyObjectDocumentCodes,
+            List<ArchiveInstanceLocator> referencedInstances,
+            CStoreSCUContext ctx) {
+        Attributes objectAttrs = (Attributes) locator.getObject();
+        if (objectAttrs == null) {
+            LOG.error("Error reading blob attributes for object {}, "
+                    + "No Export will take place", locator.iuid);
+            return false;
+        }
+        Attributes conceptNameCode = objectAttrs.getNestedDataset(Tag.ConceptNameCodeSequence);
+        if (conceptNameCode != null) {
+            Code code;
+            try {
+                code = new Code(conceptNameCode);
+            } catch (NullPointerException npe) {
+                LOG.error("Malformed concept name code for object {}", locator.iuid, npe);
+                return true;
+            }
+            if (containsCode(keyObjectDocumentCodes, code)) {
+                Sequence crpEvidenceSequence = objectAttrs
+                        .getSequence(Tag.CurrentRequestedProcedureEvidenceSequence);
+                for (Attributes evidenceSeqItem : crpEvidenceSequence) {
+                    ArrayList<String> iuids = getReferencedInstanceUIDs(evidenceSeqItem);
+                    referencedInstances.addAll(toInstanceLocators(null, iuids, ctx.getLocalAE()));
+                }
+            }
+        }
+        return true;
+    }
+
     private boolean containsCode(List<Code> keyObjectDocumentCodes, Code code) {
         for(Code keyObjectDocumentCode : keyObjectDocumentCodes)
         {
@@ -208,11 +226,8 @@ public class ExportDicomImpl implements ExportDicom {
             List<String> studyUIDs, List<String> iuids, 
             ApplicationEntity localAE) {
 
-        ArchiveAEExtension arcAE = localAE
-                .getAEExtension(ArchiveAEExtension.class);
         ArrayList<ArchiveInstanceLocator> matches = new ArrayList<>();
-        QueryParam queryParam = arcAE.getQueryParam(
-                EnumSet.noneOf(QueryOption.class), new String[0]);
+        QueryParam queryParam = queryParam(localAE);
         if (studyUIDs != null) {
             for (String studyUID : studyUIDs) {
                 matches.addAll(retrieveService.calculateMatches(studyUID, null,
@@ -227,6 +242,13 @@ public class ExportDicomImpl implements ExportDicom {
         return matches;
     }
 
+    private static QueryParam queryParam(ApplicationEntity localAE) {
+        ArchiveAEExtension arcAE = localAE
+                .getAEExtension(ArchiveAEExtension.class);
+        return arcAE.getQueryParam(
+                EnumSet.noneOf(QueryOption.class), new String[0]);
+    }
+
     private ApplicationEntity pickSuitableLocalAE() {
         ArchiveDeviceExtension arcDevExt = device
                 .getDeviceExtension(ArchiveDeviceExtension.class);
@@ -56,9 +56,12 @@ import org.dcm4chee.storage.conf.Availability;
 
 import javax.xml.transform.Templates;
 import javax.xml.transform.TransformerConfigurationException;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * @author Gunter Zeilinger <gunterze@gmail.com>
@@ -112,6 +115,12 @@ public class ArchiveAEExtension extends AEExtension {
     @ConfigurableProperty(name = "dcmPreserveSpoolFileOnFailure", defaultValue = "false")
     private boolean preserveSpoolFileOnFailure;
 
+    @ConfigurableProperty(name = "dcmStreamingIngest", defaultValue = "false",
+            label = "Streaming ingest",
+            description = "Parse, digest and write received objects in a single pass "
+                    + "over the incoming data, instead of spooling and parsing the spool file")
+    private boolean streamingIngest;
+
     @ConfigurableProperty(name = "dcmPersonNameComponentOrderInsensitiveMatching", defaultValue = "false")
     private boolean personNameComponentOrderInsensitiveMatching;
 
@@ -127,6 +136,19 @@ public class ArchiveAEExtension extends AEExtension {
     @ConfigurableProperty(name = "dcmSendPendingCMoveInterval", defaultValue = "0")
     private int sendPendingCMoveInterval;
 
+    @LDAP(
+            distinguishingField = "dicomAETitle",
+            mapValueAttribute = "dcmMaxStoreAssociations",
+            mapEntryObjectClass= "dcmStoreAssociationsEntry"
+    )
+    @ConfigurableProperty(name = "dcmMaxStoreAssociationsMap",
+        description = "Maximal number of associations opened in parallel to a C-MOVE destination, by AE title of the destination. \"*\" can be used for a default.")
+    private final Map<String, String> maxStoreAssociationsMap = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+
+    @ConfigurableProperty(name = "dcmStoreSCUReadAhead", defaultValue = "0",
+        description = "Number of instances read and coerced in advance while the current instance is sent by the Storage SCU. 0 reads each instance just before it is sent.")
+    private int storeSCUReadAhead;
+
     @ConfigurableProperty(name = "dcmStgCmtDelay", defaultValue = "0")
     private int storageCommitmentDelay;
 
@@ -172,6 +194,11 @@ public class ArchiveAEExtension extends AEExtension {
     @ConfigurableProperty(name = "dcmQidoMaxNumberOfResults", defaultValue = "0")
     private int QIDOMaxNumberOfResults;
 
+    @ConfigurableProperty(name = "dcmQidoApproximateCountValidity", defaultValue = "60",
+            label = "QIDO approximate count validity (s)",
+            description = "Time in seconds a total number of matches counted for a QIDO request with count=approximate is reused for equal requests")
+    private int QIDOApproximateCountValidity = 60;
+
     @ConfigurableProperty(name = "dcmWadoSRTemplateURI")
     private String wadoSRTemplateURI;
 
@@ -327,8 +354,24 @@ public class ArchiveAEExtension extends AEExtension {
                                                    TransferCapability.Role role, String aet)
             throws TransformerConfigurationException {
         AttributeCoercion ac = getAttributeCoercion(cuid, dimse, role, aet);
-        return ac != null ? TemplatesCache.getDefault().get(
-                StringUtils.replaceSystemProperties(ac.getURI())) : null;
+        return ac != null && !AttributeCoercionRules.isRulesURI(ac.getURI())
+                ? TemplatesCache.getDefault().get(
+                        StringUtils.replaceSystemProperties(ac.getURI()))
+                : null;
+    }
+
+    /**
+     * Returns the native coercion rules of the matching Attribute Coercion,
+     * or {@code null} if there is none or it refers to a XSL stylesheet.
+     */
+    public AttributeCoercionRules getAttributeCoercionRules(String cuid,
+            Dimse dimse, TransferCapability.Role role, String aet)
+            throws IOException {
+        AttributeCoercion ac = getAttributeCoercion(cuid, dimse, role, aet);
+        return ac != null && AttributeCoercionRules.isRulesURI(ac.getURI())
+                ? AttributeCoercionRulesCache.getDefault().get(
+                        StringUtils.replaceSystemProperties(ac.getURI()))
+                : null;
     }
 
     public boolean isSuppressWarningCoercionOfDataElements() {
@@ -365,6 +408,14 @@ public class ArchiveAEExtension extends AEExtension {
         this.preserveSpoolFileOnFailure = preserveSpoolFileOnFailure;
     }
 
+    public boolean isStreamingIngest() {
+        return streamingIngest;
+    }
+
+    public void setStreamingIngest(boolean streamingIngest) {
+        this.streamingIngest = streamingIngest;
+    }
+
     public boolean isPersonNameComponentOrderInsensitiveMatching() {
         return personNameComponentOrderInsensitiveMatching;
     }
@@ -406,6 +457,31 @@ public class ArchiveAEExtension extends AEExtension {
         this.sendPendingCMoveInterval = sendPendingCMoveInterval;
     }
 
+    public Map<String, String> getMaxStoreAssociationsMap() {
+        return maxStoreAssociationsMap;
+    }
+
+    public void setMaxStoreAssociationsMap(Map<String, String> maxStoreAssociationsMap) {
+        this.maxStoreAssociationsMap.clear();
+        if (maxStoreAssociationsMap != null)
+            this.maxStoreAssociationsMap.putAll(maxStoreAssociationsMap);
+    }
+
+    public int getMaxStoreAssociations(String remoteAET) {
+        String value = maxStoreAssociationsMap.get(remoteAET);
+        if (value == null)
+            value = maxStoreAssociationsMap.get("*");
+        return value != null ? Math.max(1, Integer.parseInt(value)) : 1;
+    }
+
+    public int getStoreSCUReadAhead() {
+        return storeSCUReadAhead;
+    }
+
+    public void setStoreSCUReadAhead(int storeSCUReadAhead) {
+        this.storeSCUReadAhead = storeSCUReadAhead;
+    }
+
     public final int getStorageCommitmentDelay() {
         return storageCommitmentDelay;
     }
@@ -508,6 +584,14 @@ public class ArchiveAEExtension extends AEExtension {
         this.QIDOMaxNumberOfResults = qidoMaxNumberOfResults;
     }
 
+    public int getQIDOApproximateCountValidity() {
+        return QIDOApproximateCountValidity;
+    }
+
+    public void setQIDOApproximateCountValidity(int qidoApproximateCountValidity) {
+        this.QIDOApproximateCountValidity = qidoApproximateCountValidity;
+    }
+
     public ArchivingRules getArchivingRules() {
         return archivingRules;
     }
@@ -116,6 +116,86 @@ public class ArchiveDeviceExtension extends DeviceExtension {
     @ConfigurableProperty(name = "dcmUpdateDbDelay", defaultValue = "1000")
     private int updateDbDelay = 1000;
 
+    @ConfigurableProperty(name = "dcmUpdateDbGroupCommitSize", defaultValue = "0",
+            label = "Group commit size",
+            description = "Maximal number of stored objects whose DB updates are committed in one transaction. 0 or 1 = one transaction per object")
+    private int updateDbGroupCommitSize;
+
+    @ConfigurableProperty(name = "dcmUpdateDbGroupCommitWindow", defaultValue = "20",
+            label = "Group commit window (ms)",
+            description = "Maximal time in ms a DB update waits for further objects to be committed in the same transaction")
+    private int updateDbGroupCommitWindow = 20;
+
+    @ConfigurableProperty(name = "dcmStorageIOConcurrency", defaultValue = "8",
+            label = "Storage I/O concurrency",
+            description = "Maximal number of concurrent store operations on one Storage System")
+    private int storageIOConcurrency = 8;
+
+    @ConfigurableProperty(name = "dcmStorageIOQueueDepth", defaultValue = "64",
+            label = "Storage I/O queue depth",
+            description = "Maximal number of store operations queued for one Storage System")
+    private int storageIOQueueDepth = 64;
+
+    @ConfigurableProperty(name = "dcmStorageIOQueueTimeout", defaultValue = "10000",
+            label = "Storage I/O queue timeout (ms)",
+            description = "Maximal time in ms a store operation waits for a place in the queue of a Storage System before it fails")
+    private int storageIOQueueTimeout = 10000;
+
+    @ConfigurableProperty(name = "dcmStorageSyncInterval", defaultValue = "10",
+            label = "Storage sync interval (ms)",
+            description = "Maximal time in ms stored files of all sessions are collected before they are synced together")
+    private int storageSyncInterval = 10;
+
+    @ConfigurableProperty(name = "dcmStorageSyncBatchSize", defaultValue = "100",
+            label = "Storage sync batch size",
+            description = "Number of collected stored files of one Storage System which are synced immediately")
+    private int storageSyncBatchSize = 100;
+
+    @ConfigurableProperty(name = "dcmSpoolBufferPoolSize", defaultValue = "67108864",
+            label = "Spool buffer pool size (bytes)",
+            description = "Maximal number of bytes retained by the pool of buffers objects are spooled to in memory")
+    private int spoolBufferPoolSize = 67108864;
+
+    @ConfigurableProperty(name = "dcmSeriesAttributesCacheSize", defaultValue = "1000",
+            label = "Series attributes cache size",
+            description = "Maximal number of merged Patient/Study/Series attributes cached for queries and retrieves, 0 = no cache")
+    private int seriesAttributesCacheSize = 1000;
+
+    @ConfigurableProperty(name = "dcmQueryFetchSize", defaultValue = "100",
+            label = "Query fetch size",
+            description = "Number of matches fetched from the database per round-trip by C-FIND queries, 0 = JDBC driver default")
+    private int queryFetchSize = 100;
+
+    @ConfigurableProperty(name = "dcmQueryPrefetchSize", defaultValue = "100",
+            label = "Query prefetch size",
+            description = "Maximal number of C-FIND matches fetched ahead of the sent responses by a separate thread, 0 = no prefetch")
+    private int queryPrefetchSize = 100;
+
+    @ConfigurableProperty(name = "dcmQueryResultCacheTTL", defaultValue = "0",
+            label = "Query result cache TTL (s)",
+            description = "Time in seconds the matches of a query are returned for repeated equal queries, 0 = no cache")
+    private int queryResultCacheTTL = 0;
+
+    @ConfigurableProperty(name = "dcmQueryResultCacheSize", defaultValue = "10000",
+            label = "Query result cache size",
+            description = "Maximal number of matches of all queries retained by the query result cache")
+    private int queryResultCacheSize = 10000;
+
+    @ConfigurableProperty(name = "dcmQueryMaxInListParameters", defaultValue = "0",
+            label = "Query max IN list parameters",
+            description = "Maximal number of UIDs of C-FIND and QIDO-RS keys, which are bound to one query statement - e.g. 2000 for SQL Server, which accepts at most 2100 parameters per statement -, 0 = no limit")
+    private int queryMaxInListParameters = 0;
+
+    @ConfigurableProperty(name = "dcmSeriesMetadataCacheSize", defaultValue = "0",
+            label = "Series metadata cache size (MB)",
+            description = "Maximal total size in MB of the compressed per series metadata documents used to answer WADO-RS metadata requests, 0 = no documents")
+    private int seriesMetadataCacheSize = 0;
+
+    @ConfigurableProperty(name = "dcmAttributesBlobCompressionThreshold", defaultValue = "1024",
+            label = "Attributes blob compression threshold",
+            description = "Encoded length in bytes of persisted attributes above which they are compressed, -1 = no compression")
+    private int attributesBlobCompressionThreshold = 1024;
+
     @LDAP(noContainerNode = true)
     @ConfigurableProperty(name = "dcmPrivateDerivedFields")
     private final PrivateDerivedFields privateDerivedFields = new PrivateDerivedFields();
@@ -351,6 +431,135 @@ public class ArchiveDeviceExtension extends DeviceExtension {
         this.updateDbDelay = updateDbDelay;
     }
 
+    public int getUpdateDbGroupCommitSize() {
+        return updateDbGroupCommitSize;
+    }
+
+    public void setUpdateDbGroupCommitSize(int updateDbGroupCommitSize) {
+        this.updateDbGroupCommitSize = updateDbGroupCommitSize;
+    }
+
+    public int getUpdateDbGroupCommitWindow() {
+        return updateDbGroupCommitWindow;
+    }
+
+    public void setUpdateDbGroupCommitWindow(int updateDbGroupCommitWindow) {
+        this.updateDbGroupCommitWindow = updateDbGroupCommitWindow;
+    }
+
+    public int getStorageIOConcurrency() {
+        return storageIOConcurrency;
+    }
+
+    public void setStorageIOConcurrency(int storageIOConcurrency) {
+        this.storageIOConcurrency = storageIOConcurrency;
+    }
+
+    public int getStorageIOQueueDepth() {
+        return storageIOQueueDepth;
+    }
+
+    public void setStorageIOQueueDepth(int storageIOQueueDepth) {
+        this.storageIOQueueDepth = storageIOQueueDepth;
+    }
+
+    public int getStorageIOQueueTimeout() {
+        return storageIOQueueTimeout;
+    }
+
+    public void setStorageIOQueueTimeout(int storageIOQueueTimeout) {
+        this.storageIOQueueTimeout = storageIOQueueTimeout;
+    }
+
+    public int getStorageSyncInterval() {
+        return storageSyncInterval;
+    }
+
+    public void setStorageSyncInterval(int storageSyncInterval) {
+        this.storageSyncInterval = storageSyncInterval;
+    }
+
+    public int getStorageSyncBatchSize() {
+        return storageSyncBatchSize;
+    }
+
+    public void setStorageSyncBatchSize(int storageSyncBatchSize) {
+        this.storageSyncBatchSize = storageSyncBatchSize;
+    }
+
+    public int getSpoolBufferPoolSize() {
+        return spoolBufferPoolSize;
+    }
+
+    public void setSpoolBufferPoolSize(int spoolBufferPoolSize) {
+        this.spoolBufferPoolSize = spoolBufferPoolSize;
+    }
+
+    public int getSeriesAttributesCacheSize() {
+        return seriesAttributesCacheSize;
+    }
+
+    public void setSeriesAttributesCacheSize(int seriesAttributesCacheSize) {
+        this.seriesAttributesCacheSize = seriesAttributesCacheSize;
+    }
+
+    public int getQueryFetchSize() {
+        return queryFetchSize;
+    }
+
+    public void setQueryFetchSize(int queryFetchSize) {
+        this.queryFetchSize = queryFetchSize;
+    }
+
+    public int getQueryPrefetchSize() {
+        return queryPrefetchSize;
+    }
+
+    public void setQueryPrefetchSize(int queryPrefetchSize) {
+        this.queryPrefetchSize = queryPrefetchSize;
+    }
+
+    public int getQueryResultCacheTTL() {
+        return queryResultCacheTTL;
+    }
+
+    public void setQueryResultCacheTTL(int queryResultCacheTTL) {
+        this.queryResultCacheTTL = queryResultCacheTTL;
+    }
+
+    public int getQueryResultCacheSize() {
+        return queryResultCacheSize;
+    }
+
+    public void setQueryResultCacheSize(int queryResultCacheSize) {
+        this.queryResultCacheSize = queryResultCacheSize;
+    }
+
+    public int getQueryMaxInListParameters() {
+        return queryMaxInListParameters;
+    }
+
+    public void setQueryMaxInListParameters(int queryMaxInListParameters) {
+        this.queryMaxInListParameters = queryMaxInListParameters;
+    }
+
+    public int getSeriesMetadataCacheSize() {
+        return seriesMetadataCacheSize;
+    }
+
+    public void setSeriesMetadataCacheSize(int seriesMetadataCacheSize) {
+        this.seriesMetadataCacheSize = seriesMetadataCacheSize;
+    }
+
+    public int getAttributesBlobCompressionThreshold() {
+        return attributesBlobCompressionThreshold;
+    }
+
+    public void setAttributesBlobCompressionThreshold(
+            int attributesBlobCompressionThreshold) {
+        this.attributesBlobCompressionThreshold = attributesBlobCompressionThreshold;
+    }
+
     public FuzzyStr getFuzzyStr() {
         if (fuzzyStr == null)
             if (fuzzyAlgorithmClass == null)
@@ -547,6 +756,7 @@ public class ArchiveDeviceExtension extends DeviceExtension {
         queryParam.setAttributeFilters(attributeFilters);
         queryParam.setDeIdentifyLogs(isDeIdentifyLogs());
         queryParam.setNullValueForQueryFields(getNullValueForQueryFields());
+        queryParam.setMaxInListParameters(queryMaxInListParameters);
         return queryParam;
     }
 
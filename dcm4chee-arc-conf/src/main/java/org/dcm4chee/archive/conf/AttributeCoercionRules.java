@@ -0,0 +1,399 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2014
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.conf;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.ElementDictionary;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.util.DateUtils;
+
+/**
+ * Attribute coercion applied directly on the attributes, as faster
+ * alternative to XSL stylesheets for simple coercions. Selected by an
+ * {@link org.dcm4che3.conf.api.AttributeCoercion} with an URI ending with
+ * {@value #FILE_SUFFIX}, which refers to a text file with one rule per line:
+ *
+ * <pre>
+ * # comment
+ * set &lt;tag&gt; [&lt;value&gt;]               sets or - without value - nullifies the attribute
+ * default &lt;tag&gt; &lt;value&gt;             sets the attribute, if it has no value
+ * copy &lt;from-tag&gt; &lt;to-tag&gt;          copies the value(s) of the attribute
+ * format-date &lt;tag&gt; &lt;pattern&gt;       converts a date given in SimpleDateFormat
+ *                                   pattern to the DICOM format of its VR
+ * prefix &lt;tag&gt; &lt;prefix&gt;             prefixes values not starting with prefix
+ * map-value &lt;tag&gt; &lt;from&gt; &lt;to&gt;      replaces the value from by to
+ * </pre>
+ *
+ * Tags are specified by keyword or as 8 hexadecimal digits, and refer to top
+ * level attributes. Values containing white space are enclosed in double
+ * quotes. The parameters {@code ${calling}}, {@code ${called}},
+ * {@code ${date}} and {@code ${time}} in values are replaced like the
+ * parameters of the XSL stylesheets. Rules are applied in their order, each
+ * rule on the values as coerced by the preceding rules. Consecutive
+ * {@code map-value} rules of the same tag form one mapping table, which
+ * replaces each value at most once.
+ */
+public class AttributeCoercionRules {
+
+    public static final String FILE_SUFFIX = ".rules";
+
+    private final List<Rule> rules;
+
+    public AttributeCoercionRules(List<Rule> rules) {
+        this.rules = new ArrayList<Rule>(rules);
+    }
+
+    public static boolean isRulesURI(String uri) {
+        return uri != null && uri.endsWith(FILE_SUFFIX);
+    }
+
+    public static Map<String, String> parameters(String calling, String called) {
+        Date date = new Date();
+        Map<String, String> params = new HashMap<String, String>(8);
+        params.put("date", DateUtils.formatDA(null, date));
+        params.put("time", DateUtils.formatTM(null, date));
+        params.put("calling", calling);
+        params.put("called", called);
+        return params;
+    }
+
+    public List<Rule> getRules() {
+        return Collections.unmodifiableList(rules);
+    }
+
+    /**
+     * Returns the coerced attributes, to be merged into {@code attrs} by
+     * the caller - like the result of an XSL stylesheet.
+     */
+    public Attributes coerce(Attributes attrs, Map<String, String> params) {
+        Attributes coerced = new Attributes();
+        for (Rule rule : rules)
+            rule.apply(attrs, coerced, params);
+        return coerced;
+    }
+
+    public static AttributeCoercionRules parse(Reader reader) throws IOException {
+        BufferedReader in = new BufferedReader(reader);
+        List<Rule> rules = new ArrayList<Rule>();
+        String line;
+        int lineNumber = 0;
+        while ((line = in.readLine()) != null) {
+            lineNumber++;
+            List<String> args = tokenize(line, lineNumber);
+            if (args.isEmpty())
+                continue;
+
+            try {
+                String op = args.get(0);
+                if (op.equals("set")) {
+                    checkArgs(args, 2, 3);
+                    rules.add(new SetValue(tagOf(args.get(1)),
+                            args.size() > 2 ? args.get(2) : null, false));
+                } else if (op.equals("default")) {
+                    checkArgs(args, 3, 3);
+                    rules.add(new SetValue(tagOf(args.get(1)), args.get(2), true));
+                } else if (op.equals("copy")) {
+                    checkArgs(args, 3, 3);
+                    rules.add(new Copy(tagOf(args.get(1)), tagOf(args.get(2))));
+                } else if (op.equals("format-date")) {
+                    checkArgs(args, 3, 3);
+                    rules.add(new FormatDate(tagOf(args.get(1)), args.get(2)));
+                } else if (op.equals("prefix")) {
+                    checkArgs(args, 3, 3);
+                    rules.add(new Prefix(tagOf(args.get(1)), args.get(2)));
+                } else if (op.equals("map-value")) {
+                    checkArgs(args, 4, 4);
+                    int tag = tagOf(args.get(1));
+                    Rule last = rules.isEmpty() ? null : rules.get(rules.size() - 1);
+                    MapValue mapValue;
+                    if (last instanceof MapValue && last.tag == tag) {
+                        mapValue = (MapValue) last;
+                    } else {
+                        mapValue = new MapValue(tag);
+                        rules.add(mapValue);
+                    }
+                    if (mapValue.map.containsKey(args.get(2)))
+                        throw new IllegalArgumentException(
+                                "duplicate mapping of value: " + args.get(2));
+                    mapValue.map.put(args.get(2), args.get(3));
+                } else
+                    throw new IllegalArgumentException("unknown operation: " + op);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("line " + lineNumber + ": " + e.getMessage());
+            }
+        }
+        return new AttributeCoercionRules(rules);
+    }
+
+    private static void checkArgs(List<String> args, int min, int max) {
+        if (args.size() < min || args.size() > max)
+            throw new IllegalArgumentException(
+                    "wrong number of arguments for " + args.get(0));
+    }
+
+    private static int tagOf(String s) {
+        int tag = s.length() == 8 && s.matches("[0-9A-Fa-f]{8}")
+                ? (int) Long.parseLong(s, 16)
+                : ElementDictionary.tagForKeyword(s, null);
+        if (tag == -1)
+            throw new IllegalArgumentException("unknown tag: " + s);
+        if (ElementDictionary.vrOf(tag, null) == VR.SQ)
+            throw new IllegalArgumentException("sequence not supported: " + s);
+        return tag;
+    }
+
+    private static List<String> tokenize(String line, int lineNumber)
+            throws IOException {
+        List<String> tokens = new ArrayList<String>(4);
+        int i = 0;
+        int n = line.length();
+        while (i < n) {
+            char c = line.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '#') {
+                break;
+            } else if (c == '"') {
+                int end = line.indexOf('"', i + 1);
+                if (end < 0)
+                    throw new IOException("line " + lineNumber + ": missing closing quote");
+                tokens.add(line.substring(i + 1, end));
+                i = end + 1;
+            } else {
+                int start = i;
+                while (i < n && !Character.isWhitespace(line.charAt(i)))
+                    i++;
+                tokens.add(line.substring(start, i));
+            }
+        }
+        return tokens;
+    }
+
+    private static String substitute(String value, Map<String, String> params) {
+        if (value == null || value.indexOf("${") < 0)
+            return value;
+
+        StringBuilder sb = new StringBuilder(value.length() + 16);
+        int pos = 0;
+        int start;
+        while ((start = value.indexOf("${", pos)) >= 0) {
+            int end = value.indexOf('}', start);
+            if (end < 0)
+                break;
+            String param = params.get(value.substring(start + 2, end));
+            sb.append(value, pos, start);
+            sb.append(param != null ? param : value.substring(start, end + 1));
+            pos = end + 1;
+        }
+        return sb.append(value, pos, value.length()).toString();
+    }
+
+    /**
+     * Returns a copy of the values of the attribute as coerced by the
+     * preceding rules, or {@code null} if it has no value.
+     */
+    private static String[] valuesOf(int tag, Attributes attrs, Attributes coerced) {
+        String[] values = coerced.contains(tag)
+                ? coerced.getStrings(tag)
+                : attrs.getStrings(tag);
+        return values != null && values.length > 0 ? values.clone() : null;
+    }
+
+    public static abstract class Rule {
+
+        protected final int tag;
+        protected final VR vr;
+
+        protected Rule(int tag) {
+            this.tag = tag;
+            this.vr = ElementDictionary.vrOf(tag, null);
+        }
+
+        public int getTag() {
+            return tag;
+        }
+
+        protected abstract void apply(Attributes attrs, Attributes coerced,
+                Map<String, String> params);
+    }
+
+    private static class SetValue extends Rule {
+
+        private final String value;
+        private final boolean onlyIfEmpty;
+
+        SetValue(int tag, String value, boolean onlyIfEmpty) {
+            super(tag);
+            this.value = value;
+            this.onlyIfEmpty = onlyIfEmpty;
+        }
+
+        @Override
+        protected void apply(Attributes attrs, Attributes coerced,
+                Map<String, String> params) {
+            if (onlyIfEmpty && valuesOf(tag, attrs, coerced) != null)
+                return;
+
+            if (value == null)
+                coerced.setNull(tag, vr);
+            else
+                coerced.setString(tag, vr, substitute(value, params));
+        }
+    }
+
+    private static class Copy extends Rule {
+
+        private final int from;
+
+        Copy(int from, int to) {
+            super(to);
+            this.from = from;
+        }
+
+        @Override
+        protected void apply(Attributes attrs, Attributes coerced,
+                Map<String, String> params) {
+            String[] values = valuesOf(from, attrs, coerced);
+            if (values != null)
+                coerced.setString(tag, vr, values);
+        }
+    }
+
+    private static class FormatDate extends Rule {
+
+        private final String pattern;
+
+        FormatDate(int tag, String pattern) {
+            super(tag);
+            if (vr != VR.DA && vr != VR.DT && vr != VR.TM)
+                throw new IllegalArgumentException("no date or time: "
+                        + ElementDictionary.keywordOf(tag, null));
+            new SimpleDateFormat(pattern);
+            this.pattern = pattern;
+        }
+
+        @Override
+        protected void apply(Attributes attrs, Attributes coerced,
+                Map<String, String> params) {
+            String[] values = valuesOf(tag, attrs, coerced);
+            if (values == null)
+                return;
+
+            SimpleDateFormat format = new SimpleDateFormat(pattern);
+            format.setLenient(false);
+            Date[] dates = new Date[values.length];
+            for (int i = 0; i < values.length; i++) {
+                try {
+                    dates[i] = format.parse(values[i]);
+                } catch (ParseException e) {
+                    // already in DICOM format or not a date, keep it
+                    return;
+                }
+            }
+            coerced.setDate(tag, vr, dates);
+        }
+    }
+
+    private static class Prefix extends Rule {
+
+        private final String prefix;
+
+        Prefix(int tag, String prefix) {
+            super(tag);
+            this.prefix = prefix;
+        }
+
+        @Override
+        protected void apply(Attributes attrs, Attributes coerced,
+                Map<String, String> params) {
+            String[] values = valuesOf(tag, attrs, coerced);
+            if (values == null)
+                return;
+
+            boolean changed = false;
+            for (int i = 0; i < values.length; i++)
+                if (values[i] != null && !values[i].startsWith(prefix)) {
+                    values[i] = prefix + values[i];
+                    changed = true;
+                }
+            if (changed)
+                coerced.setString(tag, vr, values);
+        }
+    }
+
+    private static class MapValue extends Rule {
+
+        private final Map<String, String> map = new HashMap<String, String>();
+
+        MapValue(int tag) {
+            super(tag);
+        }
+
+        @Override
+        protected void apply(Attributes attrs, Attributes coerced,
+                Map<String, String> params) {
+            String[] values = valuesOf(tag, attrs, coerced);
+            if (values == null)
+                return;
+
+            boolean changed = false;
+            for (int i = 0; i < values.length; i++) {
+                String mapped = map.get(values[i]);
+                if (mapped != null) {
+                    values[i] = substitute(mapped, params);
+                    changed = true;
+                }
+            }
+            if (changed)
+                coerced.setString(tag, vr, values);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2014
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.conf;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache of parsed {@link AttributeCoercionRules} by URI, the equivalent of
+ * {@link org.dcm4che3.io.TemplatesCache} for XSL stylesheets.
+ */
+public class AttributeCoercionRulesCache {
+
+    private static final AttributeCoercionRulesCache DEFAULT =
+            new AttributeCoercionRulesCache();
+
+    private final ConcurrentHashMap<String, AttributeCoercionRules> map =
+            new ConcurrentHashMap<String, AttributeCoercionRules>();
+
+    public static AttributeCoercionRulesCache getDefault() {
+        return DEFAULT;
+    }
+
+    public void clear() {
+        map.clear();
+    }
+
+    public AttributeCoercionRules get(String uri) throws IOException {
+        AttributeCoercionRules rules = map.get(uri);
+        if (rules == null) {
+            rules = load(uri);
+            AttributeCoercionRules prev = map.putIfAbsent(uri, rules);
+            if (prev != null)
+                rules = prev;
+        }
+        return rules;
+    }
+
+    private static AttributeCoercionRules load(String uri) throws IOException {
+        URL url;
+        try {
+            url = new URL(uri);
+        } catch (MalformedURLException e) {
+            url = Paths.get(uri).toUri().toURL();
+        }
+        try (Reader reader = new InputStreamReader(url.openStream(),
+                StandardCharsets.UTF_8)) {
+            return AttributeCoercionRules.parse(reader);
+        } catch (IOException e) {
+            throw new IOException("Failed to load " + uri + ": " + e.getMessage(), e);
+        }
+    }
+}
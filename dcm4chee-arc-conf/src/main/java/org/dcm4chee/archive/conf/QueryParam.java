@@ -62,6 +62,7 @@ public class QueryParam {
     private boolean deIdentifyLogs = false;
     private String nullValueForQueryFields = null;
     private QueryRetrieveView queryRetrieveView;
+    private int maxInListParameters;
 
     public final boolean isCombinedDatetimeMatching() {
         return combinedDatetimeMatching;
@@ -167,4 +168,12 @@ public class QueryParam {
     public void setNullValueForQueryFields(String nullValueForQueryFields) {
         this.nullValueForQueryFields = nullValueForQueryFields;
     }
+
+    public int getMaxInListParameters() {
+        return maxInListParameters;
+    }
+
+    public void setMaxInListParameters(int maxInListParameters) {
+        this.maxInListParameters = maxInListParameters;
+    }
 }
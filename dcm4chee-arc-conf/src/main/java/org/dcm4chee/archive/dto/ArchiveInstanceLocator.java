@@ -37,6 +37,10 @@
  * ***** END LICENSE BLOCK ***** */
 package org.dcm4chee.archive.dto;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
@@ -63,6 +67,16 @@ public class ArchiveInstanceLocator extends InstanceLocator
     private final String seriesInstanceUID;
     private final String studyInstanceUID;
     private ArchiveInstanceLocator fallbackLocator;
+    private transient ObjectFactory objectFactory;
+
+    /**
+     * Creates the object of a locator - e.g. the attributes of the instance
+     * merged with the attributes of its series - on each access, so the
+     * locators of a retrieve do not hold the objects of all instances.
+     */
+    public interface ObjectFactory {
+        Object createObject();
+    }
 
     public static final class Builder {
         private final String cuid;
@@ -199,6 +213,43 @@ public class ArchiveInstanceLocator extends InstanceLocator
         this.fallbackLocator = fallbackLocator;
     }
 
+    public ObjectFactory getObjectFactory() {
+        return objectFactory;
+    }
+
+    /**
+     * Sets the factory, which creates the object returned by
+     * {@link #getObject()}, until an object is set.
+     */
+    public void setObjectFactory(ObjectFactory objectFactory) {
+        super.setObject(null);
+        this.objectFactory = objectFactory;
+    }
+
+    @Override
+    public Object getObject() {
+        Object object = super.getObject();
+        return object == null && objectFactory != null
+                ? objectFactory.createObject()
+                : object;
+    }
+
+    // the object of a factory is serialized, not the factory
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeObject(objectFactory != null
+                ? (Serializable) objectFactory.createObject()
+                : null);
+    }
+
+    private void readObject(ObjectInputStream in)
+            throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        Object object = in.readObject();
+        if (object != null)
+            super.setObject(object);
+    }
+
     @Override
     public int compareTo(ArchiveInstanceLocator o) {
         return storageSystem.getStorageAccessTime() - o.storageSystem.getStorageAccessTime();
@@ -0,0 +1,117 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2014
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package org.dcm4chee.archive.conf.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.dcm4chee.archive.dto.ArchiveInstanceLocator;
+import org.junit.Test;
+
+public class ArchiveInstanceLocatorTest {
+
+    private static final class AttributesFactory
+            implements ArchiveInstanceLocator.ObjectFactory {
+
+        int created;
+
+        @Override
+        public Object createObject() {
+            created++;
+            Attributes attrs = new Attributes();
+            attrs.setString(Tag.SOPInstanceUID, VR.UI, "1.2.3");
+            return attrs;
+        }
+    }
+
+    private static ArchiveInstanceLocator locator() {
+        return new ArchiveInstanceLocator.Builder(UID.CTImageStorage,
+                "1.2.3", UID.ExplicitVRLittleEndian).build();
+    }
+
+    @Test
+    public void createObjectOnEachAccess() {
+        ArchiveInstanceLocator locator = locator();
+        AttributesFactory factory = new AttributesFactory();
+        locator.setObjectFactory(factory);
+        Object o1 = locator.getObject();
+        Object o2 = locator.getObject();
+        assertEquals(2, factory.created);
+        assertEquals(o1, o2);
+        assertNotSame(o1, o2);
+    }
+
+    @Test
+    public void setObjectOverridesFactory() {
+        ArchiveInstanceLocator locator = locator();
+        AttributesFactory factory = new AttributesFactory();
+        locator.setObjectFactory(factory);
+        Attributes attrs = new Attributes();
+        locator.setObject(attrs);
+        assertEquals(attrs, locator.getObject());
+        assertEquals(0, factory.created);
+    }
+
+    @Test
+    public void serializeCreatedObject() throws Exception {
+        ArchiveInstanceLocator locator = locator();
+        locator.setObjectFactory(new AttributesFactory());
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bout);
+        out.writeObject(locator);
+        out.close();
+        ArchiveInstanceLocator copy = (ArchiveInstanceLocator)
+                new ObjectInputStream(new ByteArrayInputStream(
+                        bout.toByteArray())).readObject();
+        assertNull(copy.getObjectFactory());
+        assertEquals("1.2.3", ((Attributes) copy.getObject())
+                .getString(Tag.SOPInstanceUID));
+    }
+}
@@ -0,0 +1,167 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2014
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package org.dcm4chee.archive.conf.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Map;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.VR;
+import org.dcm4chee.archive.conf.AttributeCoercionRules;
+import org.junit.Test;
+
+public class AttributeCoercionRulesTest {
+
+    private static final Map<String, String> PARAMS =
+            AttributeCoercionRules.parameters("CALLING", "CALLED");
+
+    private static Attributes coerce(String rules, Attributes attrs)
+            throws IOException {
+        return AttributeCoercionRules.parse(new StringReader(rules))
+                .coerce(attrs, PARAMS);
+    }
+
+    private static Attributes attrs(int tag, VR vr, String... values) {
+        Attributes attrs = new Attributes();
+        attrs.setString(tag, vr, values);
+        return attrs;
+    }
+
+    @Test
+    public void rulesAreAppliedInTheirOrder() throws Exception {
+        Attributes coerced = coerce(
+                "set StationName A\n"
+                + "copy StationName InstitutionName\n"
+                + "set StationName B\n",
+                new Attributes());
+        assertEquals("A", coerced.getString(Tag.InstitutionName));
+        assertEquals("B", coerced.getString(Tag.StationName));
+    }
+
+    @Test
+    public void mapValueKeepsItsPositionAmongOtherRules() throws Exception {
+        Attributes coerced = coerce(
+                "map-value Modality MR CT\n"
+                + "prefix Modality X\n"
+                + "map-value Modality XCT PT\n",
+                attrs(Tag.Modality, VR.CS, "MR"));
+        assertEquals("PT", coerced.getString(Tag.Modality));
+    }
+
+    @Test
+    public void consecutiveMapValuesReplaceValuesOnce() throws Exception {
+        Attributes coerced = coerce(
+                "map-value Modality MR CT\n"
+                + "map-value Modality CT PT\n",
+                attrs(Tag.Modality, VR.CS, "MR", "CT", "US"));
+        assertArrayEquals(new String[] { "CT", "PT", "US" },
+                coerced.getStrings(Tag.Modality));
+    }
+
+    @Test(expected = IOException.class)
+    public void duplicateMappingIsRejected() throws Exception {
+        coerce("map-value Modality MR CT\n"
+                + "map-value Modality MR PT\n", new Attributes());
+    }
+
+    @Test
+    public void defaultOnlyAppliesToEmptyAttribute() throws Exception {
+        String rules = "default InstitutionName \"Default Hospital\"\n";
+        assertFalse(coerce(rules, attrs(Tag.InstitutionName, VR.LO, "Other"))
+                .contains(Tag.InstitutionName));
+        assertEquals("Default Hospital", coerce(rules, new Attributes())
+                .getString(Tag.InstitutionName));
+    }
+
+    @Test
+    public void prefixOnlyChangesValuesWithoutPrefix() throws Exception {
+        String rules = "prefix AccessionNumber A-\n";
+        assertFalse(coerce(rules, attrs(Tag.AccessionNumber, VR.SH, "A-1"))
+                .contains(Tag.AccessionNumber));
+        assertEquals("A-2", coerce(rules, attrs(Tag.AccessionNumber, VR.SH, "2"))
+                .getString(Tag.AccessionNumber));
+    }
+
+    @Test
+    public void formatDateKeepsValuesInDicomFormat() throws Exception {
+        String rules = "format-date StudyDate dd.MM.yyyy\n";
+        assertEquals("20261018", coerce(rules,
+                attrs(Tag.StudyDate, VR.DA, "18.10.2026"))
+                .getString(Tag.StudyDate));
+        assertFalse(coerce(rules, attrs(Tag.StudyDate, VR.DA, "20261018"))
+                .contains(Tag.StudyDate));
+    }
+
+    @Test
+    public void parametersAreSubstituted() throws Exception {
+        Attributes coerced = coerce(
+                "set StationName ${calling}\n"
+                + "set InstitutionName \"${called} ${unknown}\"\n",
+                new Attributes());
+        assertEquals("CALLING", coerced.getString(Tag.StationName));
+        assertEquals("CALLED ${unknown}", coerced.getString(Tag.InstitutionName));
+    }
+
+    @Test
+    public void setWithoutValueNullifies() throws Exception {
+        Attributes coerced = coerce("set PatientComments\n",
+                attrs(Tag.PatientComments, VR.LT, "comment"));
+        assertTrue(coerced.contains(Tag.PatientComments));
+        assertFalse(coerced.containsValue(Tag.PatientComments));
+    }
+
+    @Test
+    public void errorsReportTheLineNumber() {
+        try {
+            coerce("# comment\nrename StationName A\n", new Attributes());
+            fail("IOException expected");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("line 2:"));
+        }
+    }
+}
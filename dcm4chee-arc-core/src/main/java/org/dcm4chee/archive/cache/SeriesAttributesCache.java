@@ -0,0 +1,332 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2014
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.cache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.net.Device;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
+import org.dcm4chee.util.TransactionSynchronization;
+
+/**
+ * Bounded cache of the merged Patient, Study and Series attributes of a
+ * series - for queries including the derived fields of a Query/Retrieve
+ * View - shared by C-FIND, QIDO-RS and retrieve services.
+ *
+ * Entries are invalidated by series, study or patient on store, rejection,
+ * QC and patient updates. The entries of a series, study or patient are
+ * indexed, so an invalidation only touches the affected entries, and it
+ * records the version of the invalidated series, study or patient.
+ * {@link #put} ignores attributes read before an invalidation of their
+ * series, study or patient, so a concurrent reader cannot restore stale
+ * attributes, while reads of other series are still cached. Invalidations
+ * within a transaction are applied again after its completion.
+ */
+@ApplicationScoped
+public class SeriesAttributesCache {
+
+    private enum Level { SERIES, STUDY, PATIENT, ALL }
+
+    /**
+     * Maximal number of recorded versions per level. If exceeded, the
+     * oldest version is dropped and attributes read before it are no longer
+     * cached.
+     */
+    private static final int MAX_VERSIONS = 10000;
+
+    @Inject
+    private Device device;
+
+    @Inject
+    private TransactionSynchronization transaction;
+
+    private final LinkedHashMap<Key, Cached> entries =
+            new LinkedHashMap<Key, Cached>(64, 0.75f, true);
+
+    private final Index seriesIndex = new Index();
+    private final Index studyIndex = new Index();
+    private final Index patientIndex = new Index();
+
+    private long clock;
+
+    private long allVersion;
+
+    private static final class Key {
+        final long seriesPk;
+        final String viewID;
+
+        Key(long seriesPk, String viewID) {
+            this.seriesPk = seriesPk;
+            this.viewID = viewID;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) seriesPk * 31
+                    + (viewID != null ? viewID.hashCode() : 0);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            Key other = (Key) o;
+            return seriesPk == other.seriesPk && (viewID == null
+                    ? other.viewID == null
+                    : viewID.equals(other.viewID));
+        }
+    }
+
+    private static final class Cached {
+        final long studyPk;
+        final long patientPk;
+        final Attributes attrs;
+
+        Cached(long studyPk, long patientPk, Attributes attrs) {
+            this.studyPk = studyPk;
+            this.patientPk = patientPk;
+            this.attrs = attrs;
+        }
+    }
+
+    /**
+     * Keys of the entries and the last invalidation of a series, study or
+     * patient.
+     */
+    private static final class Index {
+        final HashMap<Long, HashSet<Key>> keys = new HashMap<Long, HashSet<Key>>();
+
+        // in the order of the versions
+        final LinkedHashMap<Long, Long> versions = new LinkedHashMap<Long, Long>();
+
+        // versions dropped from versions up to
+        long minVersion;
+
+        void add(long pk, Key key) {
+            HashSet<Key> set = keys.get(pk);
+            if (set == null)
+                keys.put(pk, set = new HashSet<Key>(4));
+            set.add(key);
+        }
+
+        void remove(long pk, Key key) {
+            HashSet<Key> set = keys.get(pk);
+            if (set != null && set.remove(key) && set.isEmpty())
+                keys.remove(pk);
+        }
+
+        HashSet<Key> invalidate(long pk, long version) {
+            versions.remove(pk);
+            versions.put(pk, version);
+            if (versions.size() > MAX_VERSIONS) {
+                Iterator<Long> it = versions.values().iterator();
+                minVersion = it.next();
+                it.remove();
+            }
+            return keys.remove(pk);
+        }
+
+        boolean invalidatedSince(long pk, long stamp) {
+            if (stamp < minVersion)
+                return true;
+            Long version = versions.get(pk);
+            return version != null && version > stamp;
+        }
+
+        void clear() {
+            keys.clear();
+        }
+    }
+
+    /**
+     * Returns the value to pass to {@link #put}, obtained before the
+     * attributes are read from the database.
+     */
+    public synchronized long stamp() {
+        return clock;
+    }
+
+    /**
+     * Returns a copy of the cached attributes or {@code null}.
+     *
+     * @param viewID ID of the Query/Retrieve View of derived fields included
+     *        in the attributes or {@code null}
+     */
+    public synchronized Attributes get(long seriesPk, String viewID) {
+        Cached entry = entries.get(new Key(seriesPk, viewID));
+        return entry != null ? new Attributes(entry.attrs) : null;
+    }
+
+    public synchronized void put(long stamp, long seriesPk, String viewID,
+            long studyPk, long patientPk, Attributes attrs) {
+        int maxSize = maxSize();
+        if (maxSize <= 0 || stamp < allVersion
+                || seriesIndex.invalidatedSince(seriesPk, stamp)
+                || studyIndex.invalidatedSince(studyPk, stamp)
+                || patientIndex.invalidatedSince(patientPk, stamp))
+            return;
+
+        Key key = new Key(seriesPk, viewID);
+        Cached prev = entries.put(key,
+                new Cached(studyPk, patientPk, new Attributes(attrs)));
+        if (prev != null)
+            unindex(key, prev);
+        seriesIndex.add(seriesPk, key);
+        studyIndex.add(studyPk, key);
+        patientIndex.add(patientPk, key);
+        for (Iterator<Map.Entry<Key, Cached>> it = entries.entrySet().iterator();
+                entries.size() > maxSize;) {
+            Map.Entry<Key, Cached> eldest = it.next();
+            it.remove();
+            unindex(eldest.getKey(), eldest.getValue());
+        }
+    }
+
+    private void unindex(Key key, Cached entry) {
+        seriesIndex.remove(key.seriesPk, key);
+        studyIndex.remove(entry.studyPk, key);
+        patientIndex.remove(entry.patientPk, key);
+    }
+
+    public void invalidateSeries(long seriesPk) {
+        invalidate(Level.SERIES, seriesPk);
+    }
+
+    public void invalidateStudy(long studyPk) {
+        invalidate(Level.STUDY, studyPk);
+    }
+
+    public void invalidatePatient(long patientPk) {
+        invalidate(Level.PATIENT, patientPk);
+    }
+
+    public void invalidateAll() {
+        invalidate(Level.ALL, 0L);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private void invalidate(Level level, long pk) {
+        remove(level, pk);
+        TransactionSynchronizationRegistry registry =
+                transaction.getSynchronizationRegistry();
+        if (registry.getTransactionKey() != null)
+            pending(registry).add(level, pk);
+    }
+
+    private synchronized void remove(Level level, long pk) {
+        long version = ++clock;
+        HashSet<Key> keys;
+        switch (level) {
+        case SERIES:
+            keys = seriesIndex.invalidate(pk, version);
+            break;
+        case STUDY:
+            keys = studyIndex.invalidate(pk, version);
+            break;
+        case PATIENT:
+            keys = patientIndex.invalidate(pk, version);
+            break;
+        default:
+            allVersion = version;
+            entries.clear();
+            seriesIndex.clear();
+            studyIndex.clear();
+            patientIndex.clear();
+            return;
+        }
+        if (keys != null)
+            for (Key key : keys) {
+                Cached entry = entries.remove(key);
+                if (entry != null)
+                    unindex(key, entry);
+            }
+    }
+
+    private int maxSize() {
+        return device.getDeviceExtension(ArchiveDeviceExtension.class)
+                .getSeriesAttributesCacheSize();
+    }
+
+    private Pending pending(TransactionSynchronizationRegistry registry) {
+        Pending pending = (Pending) registry.getResource(this);
+        if (pending == null) {
+            pending = new Pending();
+            registry.registerInterposedSynchronization(pending);
+            registry.putResource(this, pending);
+        }
+        return pending;
+    }
+
+    /**
+     * Invalidations of a transaction, applied again after its completion.
+     */
+    private final class Pending implements Synchronization {
+        private final ArrayList<Level> levels = new ArrayList<Level>();
+        private final ArrayList<Long> pks = new ArrayList<Long>();
+
+        void add(Level level, long pk) {
+            levels.add(level);
+            pks.add(pk);
+        }
+
+        @Override
+        public void beforeCompletion() {
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            for (int i = 0; i < levels.size(); i++)
+                remove(levels.get(i), pks.get(i));
+        }
+    }
+}
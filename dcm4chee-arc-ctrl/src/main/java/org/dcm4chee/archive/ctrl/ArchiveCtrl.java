@@ -42,11 +42,13 @@ import java.io.IOException;
 import javax.enterprise.context.RequestScoped;
 import javax.inject.Inject;
 import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
@@ -56,8 +58,14 @@ import org.dcm4che3.conf.core.api.ConfigurationException;
 import org.dcm4che3.net.ApplicationEntity;
 import org.dcm4che3.net.Device;
 import org.dcm4chee.archive.ArchiveService;
+import org.dcm4chee.archive.query.impl.QueryMonitor;
+import org.dcm4chee.archive.query.impl.QueryResultCache;
+import org.dcm4chee.archive.query.impl.QueryStatistics;
 import org.dcm4chee.archive.rs.HostAECache;
 import org.dcm4chee.archive.rs.HttpSource;
+import org.dcm4chee.archive.store.impl.SpoolBufferPool;
+import org.dcm4chee.archive.store.scheduler.StorageIOScheduler;
+import org.dcm4chee.archive.store.scheduler.StorageIOStatistics;
 import org.dcm4chee.storage.conf.StorageDeviceExtension;
 import org.dcm4chee.storage.conf.StorageSystem;
 import org.dcm4chee.storage.conf.StorageSystemGroup;
@@ -83,6 +91,18 @@ public class ArchiveCtrl {
     @Inject
     private javax.enterprise.inject.Instance<StorageSystemProvider> storageSystemProviders;
 
+    @Inject
+    private StorageIOScheduler storageIOScheduler;
+
+    @Inject
+    private SpoolBufferPool spoolBufferPool;
+
+    @Inject
+    private QueryResultCache queryResultCache;
+
+    @Inject
+    private QueryMonitor queryMonitor;
+
     @GET
     @Path("running")
     public String isRunning() {
@@ -163,4 +183,46 @@ public class ArchiveCtrl {
         return Response.ok(resp
                     + "</div>").build();
     }
+
+    @GET
+    @Path("/storageio")
+    @Produces(MediaType.TEXT_PLAIN)
+    public Response storageIOStatistics() {
+        StringBuilder sb = new StringBuilder();
+        for (StorageIOStatistics stats : storageIOScheduler.getStatistics())
+            sb.append(stats).append('\n');
+        return Response.ok(sb.toString()).build();
+    }
+
+    @GET
+    @Path("/spoolbuffers")
+    @Produces(MediaType.TEXT_PLAIN)
+    public Response spoolBufferStatistics() {
+        return Response.ok(spoolBufferPool.toString()).build();
+    }
+
+    @GET
+    @Path("/queryresults")
+    @Produces(MediaType.TEXT_PLAIN)
+    public Response queryResultCacheStatistics() {
+        return Response.ok(queryResultCache.toString()).build();
+    }
+
+    @GET
+    @Path("/queries")
+    @Produces(MediaType.TEXT_PLAIN)
+    public Response queryStatistics(
+            @QueryParam("top") @DefaultValue("10") int top) {
+        StringBuilder sb = new StringBuilder();
+        for (QueryStatistics stats : queryMonitor.slowest(top))
+            sb.append(stats).append('\n');
+        return Response.ok(sb.toString()).build();
+    }
+
+    @POST
+    @Path("/queries/reset")
+    public Response resetQueryStatistics() {
+        queryMonitor.reset();
+        return Response.status(Status.OK).build();
+    }
 }
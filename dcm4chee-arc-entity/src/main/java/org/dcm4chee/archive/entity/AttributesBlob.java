@@ -69,7 +69,20 @@ public class AttributesBlob implements Serializable {
     
     @Transient
     private Attributes cachedAttributes; 
-    
+
+    /**
+     * Encoded attributes as loaded, decoded on first access only.
+     */
+    @Transient
+    private byte[] encodedAttributes;
+
+    /**
+     * Format the attributes are encoded with, loaded blobs keep their format
+     * so unchanged attributes encode to the same bytes.
+     */
+    @Transient
+    private int format = AttributesCodec.VERSION;
+
     public long getPk() {
         return pk;
     }
@@ -92,22 +105,43 @@ public class AttributesBlob implements Serializable {
     }
     
     public Attributes getAttributes() throws BlobCorruptedException {
+        if (cachedAttributes == null) {
+            cachedAttributes = AttributesCodec.decode(encodedAttributes);
+            encodedAttributes = null;
+        }
         return cachedAttributes;
     }
 
+    /**
+     * Returns the selected attributes, without decoding all attributes if
+     * they were not accessed yet. The returned attributes may contain also
+     * other attributes and must not be modified.
+     */
+    public Attributes getAttributes(int... tags) throws BlobCorruptedException {
+        return cachedAttributes != null
+                ? cachedAttributes
+                : AttributesCodec.decode(encodedAttributes, tags);
+    }
+
     public void setAttributes(Attributes attrs) {
         cachedAttributes = attrs;
+        encodedAttributes = null;
+        format = AttributesCodec.VERSION;
     }
 
     @Basic(optional = false)
     @Column(name = "attrs")
     @Access(AccessType.PROPERTY)
     public byte[] getEncodedAttributes() {
-        return Utils.encodeAttributes(cachedAttributes);
+        return cachedAttributes == null
+                ? encodedAttributes
+                : AttributesCodec.encode(cachedAttributes, format);
     }
     
     public void setEncodedAttributes(byte[] atts) {
-        cachedAttributes = Utils.decodeAttributes(atts);
+        cachedAttributes = null;
+        encodedAttributes = atts;
+        format = AttributesCodec.formatOf(atts);
     }
     
 }
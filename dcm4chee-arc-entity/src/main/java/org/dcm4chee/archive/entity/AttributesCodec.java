@@ -0,0 +1,409 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2014
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.entity;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.io.DicomInputStream;
+import org.dcm4che3.io.DicomOutputStream;
+
+/**
+ * Encoding of the attributes persisted in {@link AttributesBlob}s.
+ *
+ * Blobs written before the format was versioned ({@link #LEGACY}) contain the
+ * plain Explicit VR Little Endian data set. Versioned blobs start with the
+ * header {@code FF FF <version> <flags>} - group FFFF is not permitted in a
+ * data set, so the header can not be mistaken for a legacy blob - followed
+ * by the Explicit VR Little Endian data set, which is deflated with a preset
+ * dictionary of frequently repeated tags, if that makes the blob smaller.
+ *
+ * The threshold of the encoded length above which compression is tried is
+ * configured by {@code ArchiveDeviceExtension#getAttributesBlobCompressionThreshold()}
+ * and applied by the archive service on start and reload, a negative value
+ * disables compression.
+ */
+public final class AttributesCodec {
+
+    public static final int LEGACY = 0;
+
+    public static final int VERSION_1 = 1;
+
+    public static final int VERSION = VERSION_1;
+
+    public static final int DEFAULT_COMPRESSION_THRESHOLD = 1024;
+
+    private static volatile int compressionThreshold =
+            DEFAULT_COMPRESSION_THRESHOLD;
+
+    private static final int HEADER_LENGTH = 4;
+
+    private static final int DEFLATED = 1;
+
+    /**
+     * Preset dictionary of deflated {@link #VERSION_1} blobs. Must not be
+     * changed, a different dictionary requires a new format version.
+     */
+    private static final byte[] DICTIONARY_V1 = createDictionaryV1();
+
+    private AttributesCodec() {
+    }
+
+    public static int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    public static void setCompressionThreshold(int compressionThreshold) {
+        AttributesCodec.compressionThreshold = compressionThreshold;
+    }
+
+    public static int formatOf(byte[] b) {
+        return b != null && b.length >= HEADER_LENGTH
+                && b[0] == (byte) 0xff && b[1] == (byte) 0xff
+                ? b[2] & 0xff
+                : LEGACY;
+    }
+
+    public static byte[] encode(Attributes attrs) {
+        return encode(attrs, VERSION);
+    }
+
+    public static byte[] encode(Attributes attrs, int format) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(512);
+        try {
+            if (format != LEGACY) {
+                if (format != VERSION_1)
+                    throw new IllegalArgumentException("format: " + format);
+                out.write(header(format, 0));
+            }
+            @SuppressWarnings("resource")
+            DicomOutputStream dos = new DicomOutputStream(out,
+                    UID.ExplicitVRLittleEndian);
+            dos.writeDataset(null, attrs);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        byte[] b = out.toByteArray();
+        int length = b.length - HEADER_LENGTH;
+        int threshold = compressionThreshold;
+        if (format == LEGACY || threshold < 0 || length < threshold)
+            return b;
+
+        byte[] deflated = deflate(b, HEADER_LENGTH, length);
+        if (deflated.length >= b.length)
+            return b;
+
+        System.arraycopy(header(format, DEFLATED), 0, deflated, 0, HEADER_LENGTH);
+        return deflated;
+    }
+
+    public static Attributes decode(byte[] b) {
+        if (b == null || b.length == 0)
+            return new Attributes(0);
+        try {
+            if (formatOf(b) == LEGACY) {
+                @SuppressWarnings("resource")
+                DicomInputStream dis = new DicomInputStream(new ByteArrayInputStream(b));
+                return dis.readDataset(-1, -1);
+            }
+            return newDicomInputStream(payloadOf(b)).readDataset(-1, -1);
+        } catch (IOException e) {
+            throw new BlobCorruptedException(e);
+        }
+    }
+
+    public static void decode(Attributes attrs, byte[] b) {
+        if (b == null || b.length == 0)
+            return;
+        try {
+            if (formatOf(b) == LEGACY) {
+                @SuppressWarnings("resource")
+                DicomInputStream dis = new DicomInputStream(new ByteArrayInputStream(b));
+                dis.readFileMetaInformation();
+                dis.readAttributes(attrs, -1, -1);
+            } else {
+                newDicomInputStream(payloadOf(b)).readAttributes(attrs, -1, -1);
+            }
+        } catch (IOException e) {
+            throw new BlobCorruptedException(e);
+        }
+    }
+
+    /**
+     * Decodes only the selected top level attributes - and the Specific
+     * Character Set - without parsing the values of the other attributes.
+     * Scanning stops at the highest selected tag.
+     */
+    public static Attributes decode(byte[] b, int... tags) {
+        if (b == null || b.length == 0)
+            return new Attributes(0);
+        try {
+            Payload payload = formatOf(b) == LEGACY
+                    ? new Payload(b, 0, b.length)
+                    : payloadOf(b);
+            Payload selected;
+            try {
+                selected = select(payload, tags);
+            } catch (IOException | IndexOutOfBoundsException e) {
+                // not walkable, e.g. UN of undefined length
+                return new Attributes(decode(b), tags);
+            }
+            return newDicomInputStream(selected).readDataset(-1, -1);
+        } catch (IOException e) {
+            throw new BlobCorruptedException(e);
+        }
+    }
+
+    private static byte[] header(int format, int flags) {
+        return new byte[] { (byte) 0xff, (byte) 0xff, (byte) format, (byte) flags };
+    }
+
+    @SuppressWarnings("resource")
+    private static DicomInputStream newDicomInputStream(Payload payload)
+            throws IOException {
+        return new DicomInputStream(new ByteArrayInputStream(
+                payload.b, payload.off, payload.len), UID.ExplicitVRLittleEndian);
+    }
+
+    private static final class Payload {
+        final byte[] b;
+        final int off;
+        final int len;
+
+        Payload(byte[] b, int off, int len) {
+            this.b = b;
+            this.off = off;
+            this.len = len;
+        }
+    }
+
+    private static Payload payloadOf(byte[] b) throws IOException {
+        int format = formatOf(b);
+        if (format != VERSION_1)
+            throw new IOException("Unsupported blob format: " + format);
+
+        if ((b[3] & DEFLATED) == 0)
+            return new Payload(b, HEADER_LENGTH, b.length - HEADER_LENGTH);
+
+        int length = intAt(b, HEADER_LENGTH);
+        byte[] inflated = inflate(b, HEADER_LENGTH + 4,
+                b.length - HEADER_LENGTH - 4, length);
+        return new Payload(inflated, 0, inflated.length);
+    }
+
+    /**
+     * Returns header space, the uncompressed length and the deflated data.
+     */
+    private static byte[] deflate(byte[] b, int off, int len) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        try {
+            deflater.setDictionary(DICTIONARY_V1);
+            deflater.setInput(b, off, len);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(len / 2 + 64);
+            out.write(new byte[HEADER_LENGTH], 0, HEADER_LENGTH);
+            out.write(len);
+            out.write(len >>> 8);
+            out.write(len >>> 16);
+            out.write(len >>> 24);
+            byte[] buf = new byte[4096];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buf);
+                out.write(buf, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] b, int off, int len, int length)
+            throws IOException {
+        if (length < 0)
+            throw new IOException("Invalid blob length: " + length);
+
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(b, off, len);
+            byte[] inflated = new byte[length];
+            int pos = 0;
+            while (pos < length) {
+                int n = inflater.inflate(inflated, pos, length - pos);
+                if (n == 0) {
+                    if (inflater.needsDictionary())
+                        inflater.setDictionary(DICTIONARY_V1);
+                    else
+                        throw new IOException("Truncated blob");
+                }
+                pos += n;
+            }
+            return inflated;
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static Payload select(Payload payload, int[] tags) throws IOException {
+        long maxTag = 0;
+        for (int tag : tags)
+            maxTag = Math.max(maxTag, tag & 0xffffffffL);
+
+        byte[] b = payload.b;
+        int end = payload.off + payload.len;
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        int pos = payload.off;
+        while (pos < end) {
+            int tag = tagAt(b, pos);
+            if ((tag & 0xffffffffL) > maxTag)
+                break;
+            int next = skipElement(b, pos);
+            if (tag == Tag.SpecificCharacterSet || contains(tags, tag))
+                out.write(b, pos, next - pos);
+            pos = next;
+        }
+        return new Payload(out.toByteArray(), 0, out.size());
+    }
+
+    private static boolean contains(int[] tags, int tag) {
+        for (int t : tags)
+            if (t == tag)
+                return true;
+        return false;
+    }
+
+    private static int skipElement(byte[] b, int pos) throws IOException {
+        VR vr = VR.valueOf(((b[pos + 4] & 0xff) << 8) | (b[pos + 5] & 0xff));
+        if (vr.headerLength() == 8)
+            return pos + 8 + ((b[pos + 6] & 0xff) | ((b[pos + 7] & 0xff) << 8));
+
+        int len = intAt(b, pos + 8);
+        pos += 12;
+        if (len != -1)
+            return pos + len;
+
+        if (vr == VR.UN)
+            throw new IOException("UN of undefined length");
+
+        // sequence or encapsulated pixel data
+        while (true) {
+            int tag = tagAt(b, pos);
+            int itemLen = intAt(b, pos + 4);
+            pos += 8;
+            if (tag == Tag.SequenceDelimitationItem)
+                return pos;
+            if (tag != Tag.Item)
+                throw new IOException("Unexpected tag in sequence: "
+                        + Integer.toHexString(tag));
+            if (itemLen != -1)
+                pos += itemLen;
+            else {
+                while (tagAt(b, pos) != Tag.ItemDelimitationItem)
+                    pos = skipElement(b, pos);
+                pos += 8;
+            }
+        }
+    }
+
+    private static int tagAt(byte[] b, int pos) {
+        return ((b[pos + 1] & 0xff) << 24) | ((b[pos] & 0xff) << 16)
+                | ((b[pos + 3] & 0xff) << 8) | (b[pos + 2] & 0xff);
+    }
+
+    private static int intAt(byte[] b, int pos) {
+        return ((b[pos + 3] & 0xff) << 24) | ((b[pos + 2] & 0xff) << 16)
+                | ((b[pos + 1] & 0xff) << 8) | (b[pos] & 0xff);
+    }
+
+    private static byte[] createDictionaryV1() {
+        Attributes attrs = new Attributes();
+        VR[] vrs = { VR.CS, VR.UI, VR.DA, VR.TM, VR.SH, VR.LO, VR.PN, VR.DS,
+                VR.IS, VR.US };
+        int[][] tags = {
+            { Tag.SpecificCharacterSet, Tag.ImageType, Tag.Modality,
+              Tag.PatientSex, Tag.BodyPartExamined,
+              Tag.PhotometricInterpretation },
+            { Tag.SOPClassUID, Tag.SOPInstanceUID, Tag.StudyInstanceUID,
+              Tag.SeriesInstanceUID, Tag.FrameOfReferenceUID },
+            { Tag.StudyDate, Tag.SeriesDate, Tag.ContentDate,
+              Tag.PatientBirthDate },
+            { Tag.StudyTime, Tag.SeriesTime, Tag.ContentTime },
+            { Tag.AccessionNumber, Tag.StationName, Tag.StudyID },
+            { Tag.Manufacturer, Tag.InstitutionName, Tag.StudyDescription,
+              Tag.SeriesDescription, Tag.ManufacturerModelName,
+              Tag.PatientID, Tag.IssuerOfPatientID },
+            { Tag.ReferringPhysicianName, Tag.PatientName },
+            { Tag.SliceThickness, Tag.ImagePositionPatient,
+              Tag.ImageOrientationPatient, Tag.PixelSpacing,
+              Tag.WindowCenter, Tag.WindowWidth, Tag.RescaleIntercept,
+              Tag.RescaleSlope },
+            { Tag.SeriesNumber, Tag.InstanceNumber, Tag.NumberOfFrames },
+            { Tag.SamplesPerPixel, Tag.Rows, Tag.Columns, Tag.BitsAllocated,
+              Tag.BitsStored, Tag.HighBit, Tag.PixelRepresentation }
+        };
+        for (int i = 0; i < vrs.length; i++)
+            for (int tag : tags[i])
+                attrs.setNull(tag, vrs[i]);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(512);
+        try {
+            byte[] values = ("ISO_IR 100ORIGINAL\\PRIMARY\\AXIAL"
+                    + "1.2.840.10008.5.1.4.1.1.1.2.840.10008.1.2.1")
+                    .getBytes(StandardCharsets.US_ASCII);
+            out.write(values);
+            @SuppressWarnings("resource")
+            DicomOutputStream dos = new DicomOutputStream(out,
+                    UID.ExplicitVRLittleEndian);
+            dos.writeDataset(null, attrs);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return out.toByteArray();
+    }
+}
@@ -96,6 +96,24 @@ public class Code extends org.dcm4che3.data.Code {
         super(item);
     }
 
+    /**
+     * Returns Code Value and Coding Scheme Designator of the code as one
+     * string, as stored in columns matched without a join of the code table,
+     * or {@code null}.
+     */
+    public static String toKey(org.dcm4che3.data.Code code) {
+        return code != null
+                ? code.getCodeValue() + '^' + code.getCodingSchemeDesignator()
+                : null;
+    }
+
+    public static String[] toKeys(org.dcm4che3.data.Code... codes) {
+        String[] keys = new String[codes.length];
+        for (int i = 0; i < codes.length; i++)
+            keys[i] = toKey(codes[i]);
+        return keys;
+    }
+
     public long getPk() {
         return pk;
     }
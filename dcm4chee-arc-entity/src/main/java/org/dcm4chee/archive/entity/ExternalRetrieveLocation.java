@@ -67,6 +67,11 @@ import org.dcm4chee.storage.conf.Availability;
             name=ExternalRetrieveLocation.FIND_EXT_LOCATIONS_BY_IUID,
             query = "Select e from ExternalRetrieveLocation e "
                     + " where e.instance.sopInstanceUID = ?1"),
+    @NamedQuery(
+            name=ExternalRetrieveLocation.FIND_EXT_LOCATIONS_BY_SERIES_PK,
+            query = "Select e.instance.sopInstanceUID, e.retrieveDeviceName, e.availability"
+                    + " from ExternalRetrieveLocation e"
+                    + " where e.instance.series.pk = ?1"),
     @NamedQuery(
             name=ExternalRetrieveLocation.FIND_EXT_LOCATIONS_BY_IUID_AVAILABILITY,
             query = "Select e from ExternalRetrieveLocation e"
@@ -81,6 +86,8 @@ public class ExternalRetrieveLocation implements Serializable {
      = "ExternalRetrieveLocation.findExtLocationsByIUIDDeviceName";
     public static final String FIND_EXT_LOCATIONS_BY_IUID
     = "ExternalRetrieveLocation.findExtLocationsByIUID";
+    public static final String FIND_EXT_LOCATIONS_BY_SERIES_PK
+    = "ExternalRetrieveLocation.findExtLocationsBySeriesPk";
     public static final String FIND_EXT_LOCATIONS_BY_IUID_AVAILABILITY
      = "ExternalRetrieveLocation.findExtLocationsByIUIDAvailability";
     
@@ -186,6 +186,15 @@ public class Instance implements Serializable {
     @JoinColumn(name = "reject_code_fk")
     private Code rejectionNoteCode;
 
+    // Code Value and Coding Scheme Designator of conceptNameCode and
+    // rejectionNoteCode, to hide rejected instances and rejection notes
+    // without a subquery of the code table
+    @Column(name = "srcode")
+    private String conceptNameCodeKey;
+
+    @Column(name = "reject_code")
+    private String rejectionNoteCodeKey;
+
     @OneToMany(mappedBy = "instance", cascade = CascadeType.ALL, orphanRemoval = true)
     private Collection<VerifyingObserver> verifyingObservers;
 
@@ -344,6 +353,11 @@ public class Instance implements Serializable {
 
     public void setConceptNameCode(Code conceptNameCode) {
         this.conceptNameCode = conceptNameCode;
+        this.conceptNameCodeKey = Code.toKey(conceptNameCode);
+    }
+
+    public String getConceptNameCodeKey() {
+        return conceptNameCodeKey;
     }
 
     public Code getRejectionNoteCode() {
@@ -352,6 +366,11 @@ public class Instance implements Serializable {
 
     public void setRejectionNoteCode(Code rejectionNoteCode) {
         this.rejectionNoteCode = rejectionNoteCode;
+        this.rejectionNoteCodeKey = Code.toKey(rejectionNoteCode);
+    }
+
+    public String getRejectionNoteCodeKey() {
+        return rejectionNoteCodeKey;
     }
 
     public Collection<VerifyingObserver> getVerifyingObservers() {
@@ -49,14 +49,35 @@ public class PatientStudySeriesAttributes {
     private final byte[] seriesBytes;
     private final byte[] studyBytes;
     private final byte[] patientBytes;
+    private final long studyPk;
+    private final long patientPk;
 
     public PatientStudySeriesAttributes(
             byte[] seriesAttributes,
             byte[] studyAttributes,
             byte[] patientAttributes) {
+        this(seriesAttributes, studyAttributes, patientAttributes, 0L, 0L);
+    }
+
+    public PatientStudySeriesAttributes(
+            byte[] seriesAttributes,
+            byte[] studyAttributes,
+            byte[] patientAttributes,
+            long studyPk,
+            long patientPk) {
         this.seriesBytes = seriesAttributes;
         this.studyBytes = studyAttributes;
         this.patientBytes = patientAttributes;
+        this.studyPk = studyPk;
+        this.patientPk = patientPk;
+    }
+
+    public long getStudyPk() {
+        return studyPk;
+    }
+
+    public long getPatientPk() {
+        return patientPk;
     }
 
     public Attributes getAttributes() {
@@ -114,7 +114,9 @@ import org.dcm4chee.archive.conf.AttributeFilter;
     query="SELECT NEW org.dcm4chee.archive.entity.PatientStudySeriesAttributes("
             + "s.attributesBlob.encodedAttributes, "
             + "s.study.attributesBlob.encodedAttributes, "
-            + "s.study.patient.attributesBlob.encodedAttributes) "
+            + "s.study.patient.attributesBlob.encodedAttributes, "
+            + "s.study.pk, "
+            + "s.study.patient.pk) "
             + "FROM Series s WHERE s.pk = ?1")
 })
 @Entity
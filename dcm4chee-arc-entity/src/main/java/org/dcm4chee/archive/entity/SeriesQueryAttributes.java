@@ -52,7 +52,10 @@ import java.util.Date;
 @NamedQueries({
         @NamedQuery(
                 name=SeriesQueryAttributes.FIND_BY_VIEW_ID_AND_SERIES_FK,
-                query="SELECT sqa FROM SeriesQueryAttributes sqa WHERE sqa.viewID = ?1 AND sqa.series.pk = ?2")
+                query="SELECT sqa FROM SeriesQueryAttributes sqa WHERE sqa.viewID = ?1 AND sqa.series.pk = ?2"),
+        @NamedQuery(
+                name=SeriesQueryAttributes.FIND_BY_SERIES_FK,
+                query="SELECT sqa FROM SeriesQueryAttributes sqa WHERE sqa.series.pk = ?1")
 })
 @Entity
 @Table(name = "series_query_attrs",
@@ -61,6 +64,7 @@ public class SeriesQueryAttributes {
 
 
     public static final String FIND_BY_VIEW_ID_AND_SERIES_FK = "SeriesQueryAttributes.findByViewIDAndSeriesFK";
+    public static final String FIND_BY_SERIES_FK = "SeriesQueryAttributes.findBySeriesFK";
 
     @Id
     @GeneratedValue(strategy=GenerationType.IDENTITY)
@@ -152,4 +156,30 @@ public class SeriesQueryAttributes {
     public void setSeries(Series series) {
         this.series = series;
     }
+
+    /**
+     * Adds a new instance, which matches the Query/Retrieve View, to the
+     * derived fields without recalculating them from all instances of the
+     * series.
+     *
+     * @param numberOfVisibleImages number of frames of an instance of a
+     *        visible SOP Class, otherwise 0
+     */
+    public void addInstance(String[] retrieveAETs, Availability availability,
+            Date updatedTime, int numberOfVisibleImages) {
+        if (numberOfInstances++ == 0) {
+            setRetrieveAETs(retrieveAETs);
+            this.availability = availability;
+            this.lastUpdateTime = updatedTime;
+            this.numberOfVisibleInstances = numberOfVisibleImages;
+        } else {
+            setRetrieveAETs(Utils.intersection(getRetrieveAETs(), retrieveAETs));
+            if (this.availability == null
+                    || this.availability.compareTo(availability) < 0)
+                this.availability = availability;
+            if (lastUpdateTime == null || updatedTime.after(lastUpdateTime))
+                lastUpdateTime = updatedTime;
+            this.numberOfVisibleInstances += numberOfVisibleImages;
+        }
+    }
 }
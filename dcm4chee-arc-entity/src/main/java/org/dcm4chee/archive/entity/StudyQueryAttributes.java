@@ -51,7 +51,10 @@ import java.util.Date;
 @NamedQueries({
         @NamedQuery(
                 name = StudyQueryAttributes.FIND_BY_VIEW_ID_AND_STUDY_FK,
-                query = "SELECT sqa FROM StudyQueryAttributes sqa WHERE sqa.viewID = ?1 AND sqa.study.pk = ?2")
+                query = "SELECT sqa FROM StudyQueryAttributes sqa WHERE sqa.viewID = ?1 AND sqa.study.pk = ?2"),
+        @NamedQuery(
+                name = StudyQueryAttributes.FIND_BY_STUDY_FK,
+                query = "SELECT sqa FROM StudyQueryAttributes sqa WHERE sqa.study.pk = ?1")
 })
 @Entity
 @Table(name = "study_query_attrs",
@@ -59,6 +62,7 @@ import java.util.Date;
 public class StudyQueryAttributes {
 
     public static final String FIND_BY_VIEW_ID_AND_STUDY_FK = "StudyQueryAttributes.findByViewIdAndStudyFK";
+    public static final String FIND_BY_STUDY_FK = "StudyQueryAttributes.findByStudyFK";
 
 
     @Id
@@ -141,7 +145,7 @@ public class StudyQueryAttributes {
     }
 
     public String getRawSOPClassesInStudy() {
-        return retrieveAETs;
+        return sopClassesInStudy;
     }
 
     public String[] getSOPClassesInStudy() {
@@ -203,4 +207,55 @@ public class StudyQueryAttributes {
     public void setStudy(Study study) {
         this.study = study;
     }
+
+    /**
+     * Adds a new instance, which matches the Query/Retrieve View, to the
+     * derived fields without recalculating them from all instances of the
+     * study.
+     *
+     * @param numberOfVisibleImages number of frames of an instance of a
+     *        visible SOP Class, otherwise 0
+     * @param newSeries if the instance is the first of its series matching
+     *        the view
+     * @param newVisibleSeries if the instance is the first of a visible SOP
+     *        Class in its series matching the view
+     */
+    public void addInstance(String modality, String sopClassUID,
+            String[] retrieveAETs, Availability availability, Date updatedTime,
+            int numberOfVisibleImages, boolean newSeries, boolean newVisibleSeries) {
+        if (numberOfInstances++ == 0) {
+            this.numberOfSeries = 1;
+            this.modalitiesInStudy = modality;
+            this.sopClassesInStudy = sopClassUID;
+            setRetrieveAETs(retrieveAETs);
+            this.availability = availability;
+            this.lastUpdateTime = updatedTime;
+            this.numberOfVisibleInstances = numberOfVisibleImages;
+            this.numberOfVisibleSeries = numberOfVisibleImages > 0 ? 1 : 0;
+        } else {
+            if (newSeries)
+                numberOfSeries++;
+            if (modality != null)
+                modalitiesInStudy = add(modalitiesInStudy, modality);
+            sopClassesInStudy = add(sopClassesInStudy, sopClassUID);
+            setRetrieveAETs(Utils.intersection(getRetrieveAETs(), retrieveAETs));
+            if (this.availability == null
+                    || this.availability.compareTo(availability) < 0)
+                this.availability = availability;
+            if (lastUpdateTime == null || updatedTime.after(lastUpdateTime))
+                lastUpdateTime = updatedTime;
+            this.numberOfVisibleInstances += numberOfVisibleImages;
+            if (newVisibleSeries)
+                numberOfVisibleSeries++;
+        }
+    }
+
+    private static String add(String values, String value) {
+        if (values == null || values.isEmpty())
+            return value;
+        for (String s : StringUtils.split(values, '\\'))
+            if (s.equals(value))
+                return values;
+        return values + '\\' + value;
+    }
 }
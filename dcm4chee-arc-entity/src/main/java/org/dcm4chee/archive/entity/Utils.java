@@ -38,21 +38,21 @@
 
 package org.dcm4chee.archive.entity;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.security.DigestOutputStream;
 import java.security.MessageDigest;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 
 import org.dcm4che3.data.Attributes;
 import org.dcm4che3.data.SpecificCharacterSet;
 import org.dcm4che3.data.Tag;
 import org.dcm4che3.data.UID;
 import org.dcm4che3.data.VR;
-import org.dcm4che3.io.DicomInputStream;
 import org.dcm4che3.io.DicomOutputStream;
 import org.dcm4che3.util.StringUtils;
 import org.dcm4che3.util.TagUtils;
@@ -66,6 +66,12 @@ import org.dcm4chee.storage.conf.Availability;
  */
 public class Utils {
 
+    /**
+     * Maximal number of values bound to one SQL IN list, below the limits of
+     * Oracle (1000 values per list) and SQL Server (2100 parameters per
+     * statement), and to limit the number of distinct statements to prepare.
+     */
+    public static final int MAX_IN_LIST_SIZE = 500;
 
     public static String upper (String value) {
         if (value == null)
@@ -75,16 +81,7 @@ public class Utils {
     }
 
     public static byte[] encodeAttributes(Attributes attrs) {
-        ByteArrayOutputStream out = new ByteArrayOutputStream(512);
-        try {
-            @SuppressWarnings("resource")
-            DicomOutputStream dos = new DicomOutputStream(out,
-                    UID.ExplicitVRLittleEndian);
-            dos.writeDataset(null, attrs);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-        return out.toByteArray();
+        return AttributesCodec.encode(attrs);
     }
 
     /**
@@ -115,30 +112,19 @@ public class Utils {
     }
 
     public static Attributes decodeAttributes(byte[] b) {
-        if (b == null || b.length == 0)
-            return new Attributes(0);
-        ByteArrayInputStream is = new ByteArrayInputStream(b);
-        try {
-            @SuppressWarnings("resource")
-            DicomInputStream dis = new DicomInputStream(is);
-            return dis.readDataset(-1, -1);
-        } catch (IOException e) {
-            throw new BlobCorruptedException(e);
-        }
+        return AttributesCodec.decode(b);
     }
 
     public static void decodeAttributes(Attributes attrs, byte[] b) {
-        if (b == null || b.length == 0)
-            return;
-        ByteArrayInputStream is = new ByteArrayInputStream(b);
-        try {
-            @SuppressWarnings("resource")
-            DicomInputStream dis = new DicomInputStream(is);
-            dis.readFileMetaInformation();
-            dis.readAttributes(attrs, -1, -1);
-        } catch (IOException e) {
-            throw new BlobCorruptedException(e);
-        }
+        AttributesCodec.decode(attrs, b);
+    }
+
+    /**
+     * Decodes only the selected attributes, see
+     * {@link AttributesCodec#decode(byte[], int...)}.
+     */
+    public static Attributes decodeAttributes(byte[] b, int... tags) {
+        return AttributesCodec.decode(b, tags);
     }
 
     public static void setStudyQueryAttributes(Attributes attrs,
@@ -208,6 +194,22 @@ public class Utils {
         return l == ss1.length ? ss1 : Arrays.copyOf(ss1, l);
     }
 
+    /**
+     * Splits values into batches of at most {@link #MAX_IN_LIST_SIZE}
+     * values, to query matches of large value lists by several statements.
+     */
+    public static List<String[]> splitInList(String[] values) {
+        if (values.length <= MAX_IN_LIST_SIZE)
+            return Collections.singletonList(values);
+
+        ArrayList<String[]> batches = new ArrayList<String[]>(
+                (values.length - 1) / MAX_IN_LIST_SIZE + 1);
+        for (int from = 0; from < values.length; from += MAX_IN_LIST_SIZE)
+            batches.add(Arrays.copyOfRange(values, from,
+                    Math.min(from + MAX_IN_LIST_SIZE, values.length)));
+        return batches;
+    }
+
     public static boolean contains(String[] ss, String s0) {
         for (String s : ss)
             if (s0.equals(s))
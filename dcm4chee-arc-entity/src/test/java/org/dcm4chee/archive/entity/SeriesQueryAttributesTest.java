@@ -0,0 +1,81 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2014
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package org.dcm4chee.archive.entity;
+
+import static org.junit.Assert.*;
+
+import java.util.Date;
+
+import org.dcm4chee.storage.conf.Availability;
+import org.junit.Test;
+
+public class SeriesQueryAttributesTest {
+
+    @Test
+    public void testAddFirstInstance() {
+        SeriesQueryAttributes attrs = new SeriesQueryAttributes();
+        Date updated = new Date(1000L);
+        attrs.addInstance(new String[] { "AE1", "AE2" }, Availability.NEARLINE,
+                updated, 2);
+
+        assertEquals(1, attrs.getNumberOfInstances());
+        assertArrayEquals(new String[] { "AE1", "AE2" }, attrs.getRetrieveAETs());
+        assertEquals(Availability.NEARLINE, attrs.getAvailability());
+        assertEquals(updated, attrs.getLastUpdateTime());
+        assertEquals(2, attrs.getNumberOfVisibleInstances());
+    }
+
+    @Test
+    public void testAddFurtherInstances() {
+        SeriesQueryAttributes attrs = new SeriesQueryAttributes();
+        attrs.addInstance(new String[] { "AE1", "AE2" }, Availability.ONLINE,
+                new Date(2000L), 1);
+        attrs.addInstance(new String[] { "AE2", "AE3" }, Availability.OFFLINE,
+                new Date(1000L), 0);
+        attrs.addInstance(new String[] { "AE2" }, Availability.NEARLINE,
+                new Date(3000L), 1);
+
+        assertEquals(3, attrs.getNumberOfInstances());
+        assertArrayEquals(new String[] { "AE2" }, attrs.getRetrieveAETs());
+        assertEquals(Availability.OFFLINE, attrs.getAvailability());
+        assertEquals(new Date(3000L), attrs.getLastUpdateTime());
+        assertEquals(2, attrs.getNumberOfVisibleInstances());
+    }
+}
@@ -43,6 +43,7 @@ import static org.junit.Assert.*;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 
 import org.dcm4che3.data.Attributes;
 import org.dcm4che3.data.Tag;
@@ -238,6 +239,62 @@ public class UtilsTest {
 
     }
     
+    private static Attributes instanceAttributes() {
+        Attributes attrs = new Attributes();
+        attrs.setString(Tag.SpecificCharacterSet, VR.CS, "ISO_IR 100");
+        attrs.setString(Tag.SOPClassUID, VR.UI, "1.2.840.10008.5.1.4.1.1.2");
+        attrs.setString(Tag.SOPInstanceUID, VR.UI, "1.2.3.4.5.6.7.8.9");
+        attrs.setBytes(Tag.PatientName, VR.PN,
+                SpecificCharacterSetValues.GERMAN_PERSON_NAME_BYTE);
+        Attributes item = new Attributes();
+        item.setString(Tag.CodeValue, VR.SH, "CT");
+        item.setString(Tag.CodeMeaning, VR.LO, "Computed Tomography");
+        attrs.newSequence(Tag.ProcedureCodeSequence, 1).add(item);
+        attrs.setString(Tag.StudyDescription, VR.LO, "Study");
+        attrs.setInt(Tag.NumberOfFrames, VR.IS, 42);
+        for (int i = 0; i < 100; i++)
+            attrs.setString(0x00291010 + i, VR.LO, "Private Value " + i);
+        return attrs;
+    }
+
+    @Test
+    public void testEncodeDecodeCompressedAttributes() {
+        Attributes attrs = instanceAttributes();
+        byte[] legacy = AttributesCodec.encode(attrs, AttributesCodec.LEGACY);
+        byte[] encoded = Utils.encodeAttributes(attrs);
+
+        assertEquals(AttributesCodec.VERSION, AttributesCodec.formatOf(encoded));
+        assertTrue(encoded.length < legacy.length);
+        assertEquals(attrs, Utils.decodeAttributes(encoded));
+    }
+
+    @Test
+    public void testDecodeLegacyAttributes() {
+        Attributes attrs = instanceAttributes();
+        byte[] legacy = AttributesCodec.encode(attrs, AttributesCodec.LEGACY);
+
+        assertEquals(AttributesCodec.LEGACY, AttributesCodec.formatOf(legacy));
+        assertEquals(attrs, Utils.decodeAttributes(legacy));
+        Attributes decoded = new Attributes();
+        Utils.decodeAttributes(decoded, legacy);
+        assertEquals(attrs, decoded);
+    }
+
+    @Test
+    public void testDecodeSelectedAttributes() {
+        Attributes attrs = instanceAttributes();
+        for (byte[] encoded : new byte[][] { Utils.encodeAttributes(attrs),
+                AttributesCodec.encode(attrs, AttributesCodec.LEGACY) }) {
+            Attributes selected = Utils.decodeAttributes(encoded,
+                    Tag.PatientName, Tag.NumberOfFrames);
+            assertEquals(SpecificCharacterSetValues.GERMAN_PERSON_NAME,
+                    selected.getString(Tag.PatientName));
+            assertEquals(42, selected.getInt(Tag.NumberOfFrames, 1));
+            assertFalse(selected.contains(Tag.SOPInstanceUID));
+            assertFalse(selected.contains(Tag.ProcedureCodeSequence));
+        }
+    }
+
     public static String bytesToHex(byte[] in) {
         final StringBuilder builder = new StringBuilder();
         for (byte b : in) {
@@ -246,4 +303,20 @@ public class UtilsTest {
         return builder.toString();
     }
 
+    @Test
+    public void testSplitInList() {
+        String[] values = new String[Utils.MAX_IN_LIST_SIZE * 2 + 1];
+        for (int i = 0; i < values.length; i++)
+            values[i] = "1.2.3." + i;
+
+        List<String[]> batches = Utils.splitInList(values);
+        assertEquals(3, batches.size());
+        assertEquals(Utils.MAX_IN_LIST_SIZE, batches.get(0).length);
+        assertEquals(Utils.MAX_IN_LIST_SIZE, batches.get(1).length);
+        assertEquals(1, batches.get(2).length);
+        assertEquals(values[values.length - 1], batches.get(2)[0]);
+
+        String[] few = { "1.2.3" };
+        assertSame(few, Utils.splitInList(few).get(0));
+    }
 }
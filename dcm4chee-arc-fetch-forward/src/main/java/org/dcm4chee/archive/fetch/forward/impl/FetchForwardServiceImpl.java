@@ -42,12 +42,11 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.enterprise.context.ApplicationScoped;
@@ -58,21 +57,17 @@ import javax.ws.rs.core.Response.Status;
 import org.dcm4che3.conf.api.DicomConfiguration;
 import org.dcm4che3.conf.api.IApplicationEntityCache;
 import org.dcm4che3.conf.core.api.ConfigurationException;
-import org.dcm4che3.data.UID;
 import org.dcm4che3.net.ApplicationEntity;
 import org.dcm4che3.net.Association;
 import org.dcm4che3.net.Device;
 import org.dcm4che3.net.ExternalArchiveAEExtension;
 import org.dcm4che3.net.QueryOption;
-import org.dcm4che3.net.TransferCapability;
-import org.dcm4che3.net.TransferCapability.Role;
 import org.dcm4che3.net.service.BasicCStoreSCUResp;
 import org.dcm4che3.net.web.WebServiceAEExtension;
 import org.dcm4chee.archive.conf.ArchiveAEExtension;
 import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
 import org.dcm4chee.archive.conf.QueryParam;
 import org.dcm4chee.archive.dto.ArchiveInstanceLocator;
-import org.dcm4chee.archive.dto.ExternalLocationTuple;
 import org.dcm4chee.archive.fetch.forward.FetchForwardCallBack;
 import org.dcm4chee.archive.fetch.forward.FetchForwardEJB;
 import org.dcm4chee.archive.fetch.forward.FetchForwardService;
@@ -118,11 +113,12 @@ public class FetchForwardServiceImpl implements FetchForwardService {
             FetchForwardCallBack callBack) {
         final ArrayList<ArchiveInstanceLocator> failedInstances = new ArrayList<ArchiveInstanceLocator>();
         ApplicationEntity localAE = device.getApplicationEntity(localAETitle);
+        FetchPlan plan = new FetchPlan(config, localAE);
         final HashMap<ArchiveInstanceLocator, ArrayList<ApplicationEntity>> instanceRetrieveMap = new HashMap<ArchiveInstanceLocator, ArrayList<ApplicationEntity>>();
         for (int current = 0; current < externallyAvailable.size(); current++) {
             final ArchiveInstanceLocator externalLoc = externallyAvailable
                     .get(current);
-            ArrayList<ApplicationEntity> remoteArchiveAETitles = listBestExternalLocation(externalLoc, localAE);
+            ArrayList<ApplicationEntity> remoteArchiveAETitles = plan.bestExternalAEs(externalLoc);
             if (remoteArchiveAETitles.isEmpty())
                 continue;
             // collect retrieveMap
@@ -142,6 +138,8 @@ public class FetchForwardServiceImpl implements FetchForwardService {
         }
         HashMap<String, Integer> studyUIDs = toStudyUIDs(instanceRetrieveMap
                 .keySet());
+        Map<String, List<ApplicationEntity>> preferredAEs =
+                FetchPlan.preferredAEsByStudy(instanceRetrieveMap);
         for (String studyUID : studyUIDs.keySet()) {
             cmoveSCUService
                     .moveStudy(
@@ -149,8 +147,7 @@ public class FetchForwardServiceImpl implements FetchForwardService {
                             studyUID,
                             studyUIDs.get(studyUID),
                             null,
-                            getPreferedStudyLocationsList(instanceRetrieveMap,
-                                    studyUID), fetchAE.getAETitle());
+                            preferredAEs.get(studyUID), fetchAE.getAETitle());
         }
         ArrayList<ArchiveInstanceLocator> updatedLocators = new ArrayList<ArchiveInstanceLocator>(); 
         for(Iterator<ArchiveInstanceLocator> iter = externallyAvailable.iterator(); iter.hasNext();) {
@@ -172,11 +169,12 @@ public class FetchForwardServiceImpl implements FetchForwardService {
             List<ArchiveInstanceLocator> externallyAvailable,
             final Association storeas, final int priority, FetchForwardCallBack callBack) {
         ApplicationEntity localAE = device.getApplicationEntity(storeas.getLocalAET());
+        FetchPlan plan = new FetchPlan(config, localAE);
         final HashMap<ArchiveInstanceLocator, ArrayList<ApplicationEntity>> instanceRetrieveMap = new HashMap<ArchiveInstanceLocator, ArrayList<ApplicationEntity>>();
         for (int current = 0; current < externallyAvailable.size(); current++) {
             final ArchiveInstanceLocator externalLoc = externallyAvailable
                     .get(current);
-            ArrayList<ApplicationEntity> remoteArchiveAETitles = listBestExternalLocation(externalLoc, localAE);
+            ArrayList<ApplicationEntity> remoteArchiveAETitles = plan.bestExternalAEs(externalLoc);
             if (remoteArchiveAETitles.isEmpty())
                 continue;
             // collect retrieveMap
@@ -192,6 +190,8 @@ public class FetchForwardServiceImpl implements FetchForwardService {
         }
         HashMap<String, Integer> studyUIDs = toStudyUIDs(instanceRetrieveMap
                 .keySet());
+        Map<String, List<ApplicationEntity>> preferredAEs =
+                FetchPlan.preferredAEsByStudy(instanceRetrieveMap);
         for (String studyUID : studyUIDs.keySet()) {
             cmoveSCUService
                     .moveStudy(
@@ -199,8 +199,7 @@ public class FetchForwardServiceImpl implements FetchForwardService {
                             studyUID,
                             studyUIDs.get(studyUID),
                             null,
-                            getPreferedStudyLocationsList(instanceRetrieveMap,
-                                    studyUID), fetchAE.getAETitle());
+                            preferredAEs.get(studyUID), fetchAE.getAETitle());
         }
         ArrayList<ArchiveInstanceLocator> updatedLocators = new ArrayList<ArchiveInstanceLocator>(); 
         for(Iterator<ArchiveInstanceLocator> iter = externallyAvailable.iterator(); iter.hasNext();) {
@@ -222,6 +221,7 @@ public class FetchForwardServiceImpl implements FetchForwardService {
         ArrayList<String> sentInstances = new ArrayList<String>();
         final ArrayList<ArchiveInstanceLocator> failedInstances = new ArrayList<ArchiveInstanceLocator>();
         ApplicationEntity localAE = device.getApplicationEntity(localAETitle);
+        FetchPlan plan = new FetchPlan(config, localAE);
         final HashMap<ArchiveInstanceLocator, ArrayList<ApplicationEntity>> instanceRetrieveMap = new HashMap<ArchiveInstanceLocator, ArrayList<ApplicationEntity>>();
         final ArrayList<ArchiveInstanceLocator> updatedLocators = new ArrayList<ArchiveInstanceLocator>();
         for (int current = 0; current < externallyAvailable.size(); current++) {
@@ -231,7 +231,7 @@ public class FetchForwardServiceImpl implements FetchForwardService {
             if(sentInstances.contains(externalLoc.iuid))
                 continue;
             
-            ArrayList<ApplicationEntity> remoteArchiveAEs = listBestExternalLocation(externalLoc, localAE);
+            ArrayList<ApplicationEntity> remoteArchiveAEs = plan.bestExternalAEs(externalLoc);
             if (remoteArchiveAEs.isEmpty())
                 continue;
             // collect retrieveMap
@@ -276,6 +276,8 @@ public class FetchForwardServiceImpl implements FetchForwardService {
                     }
                     HashMap<String, Integer> studyUIDs = toStudyUIDs(instanceRetrieveMap
                             .keySet());
+                    Map<String, List<ApplicationEntity>> preferredAEs =
+                            FetchPlan.preferredAEsByStudy(instanceRetrieveMap);
                     for (String studyUID : studyUIDs.keySet()) {
                         cmoveSCUService
                                 .moveStudy(
@@ -283,8 +285,7 @@ public class FetchForwardServiceImpl implements FetchForwardService {
                                         studyUID,
                                         studyUIDs.get(studyUID),
                                         null,
-                                        getPreferedStudyLocationsList(instanceRetrieveMap,
-                                                studyUID), fetchAE.getAETitle());
+                                        preferredAEs.get(studyUID), fetchAE.getAETitle());
                     }
                     for(Iterator<ArchiveInstanceLocator> iter = externallyAvailable.iterator(); iter.hasNext();) {
                         ArchiveInstanceLocator currentLocation = iter.next();
@@ -316,11 +317,12 @@ public class FetchForwardServiceImpl implements FetchForwardService {
             final FetchForwardCallBack callBack) {
         final ArrayList<ArchiveInstanceLocator> failedInstances = new ArrayList<ArchiveInstanceLocator>();
         ApplicationEntity localAE = device.getApplicationEntity(localAETitle);
+        FetchPlan plan = new FetchPlan(config, localAE);
         for(int current = 0; current < externallyAvailable.size(); current++) {
             final ArchiveInstanceLocator externalLoc = externallyAvailable
                     .get(current);
             ArrayList<ApplicationEntity> remoteArchiveAETitles = 
-                    listBestExternalLocation(externalLoc, localAE);
+                    plan.bestExternalAEs(externalLoc);
             if(remoteArchiveAETitles.isEmpty())
                 continue;
             for (int i = 0; i < remoteArchiveAETitles.size(); i++) {
@@ -356,12 +358,13 @@ public class FetchForwardServiceImpl implements FetchForwardService {
             final int allInstances, final BasicCStoreSCUResp finalResponse, final List<ArchiveInstanceLocator> externallyAvailable,
             final Association storeas, final int priority, final FetchForwardCallBack callBack) {
         ApplicationEntity localAE = device.getApplicationEntity(storeas.getLocalAET());
+        FetchPlan plan = new FetchPlan(config, localAE);
         for(int current = 0; current < externallyAvailable.size(); current++) {
             if(storeas.isReadyForDataTransfer()) {
             final ArchiveInstanceLocator externalLoc = externallyAvailable
                     .get(current);
             ArrayList<ApplicationEntity> remoteArchiveAETitles = 
-                    listBestExternalLocation(externalLoc, localAE);
+                    plan.bestExternalAEs(externalLoc);
             if(remoteArchiveAETitles.isEmpty())
                 continue;
             for (int i = 0; i < remoteArchiveAETitles.size(); i++) {
@@ -398,6 +401,7 @@ public class FetchForwardServiceImpl implements FetchForwardService {
         final HashMap<ArchiveInstanceLocator, ArrayList<ApplicationEntity>> instanceRetrieveMap = new HashMap<ArchiveInstanceLocator, ArrayList<ApplicationEntity>>();
         ArrayList<String> sentInstances = new ArrayList<String>();
         ApplicationEntity localAE = device.getApplicationEntity(storeas.getLocalAET());
+        FetchPlan plan = new FetchPlan(config, localAE);
         for(int current = 0; current < externallyAvailable.size(); current++) {
             if(storeas.isReadyForDataTransfer()) {
             final ArchiveInstanceLocator externalLoc = externallyAvailable.get(current);
@@ -406,7 +410,7 @@ public class FetchForwardServiceImpl implements FetchForwardService {
                 continue;
             
             ArrayList<ApplicationEntity> remoteArchiveAEs = 
-                    listBestExternalLocation(externalLoc, localAE);
+                    plan.bestExternalAEs(externalLoc);
             if(remoteArchiveAEs.isEmpty())
                 continue;
 
@@ -444,6 +448,8 @@ public class FetchForwardServiceImpl implements FetchForwardService {
                     }
                     HashMap<String, Integer> studyUIDs = toStudyUIDs(instanceRetrieveMap
                             .keySet());
+                    Map<String, List<ApplicationEntity>> preferredAEs =
+                            FetchPlan.preferredAEsByStudy(instanceRetrieveMap);
                     for (String studyUID : studyUIDs.keySet()) {
                         cmoveSCUService
                                 .moveStudy(
@@ -451,8 +457,7 @@ public class FetchForwardServiceImpl implements FetchForwardService {
                                         studyUID,
                                         studyUIDs.get(studyUID),
                                         null,
-                                        getPreferedStudyLocationsList(instanceRetrieveMap,
-                                                studyUID), fetchAE.getAETitle());
+                                        preferredAEs.get(studyUID), fetchAE.getAETitle());
                     }
                     ArrayList<ArchiveInstanceLocator> updatedLocators = new ArrayList<ArchiveInstanceLocator>(); 
                     for(Iterator<ArchiveInstanceLocator> iter = externallyAvailable.iterator(); iter.hasNext();) {
@@ -582,89 +587,6 @@ public class FetchForwardServiceImpl implements FetchForwardService {
         return studyUIDs;
     }
 
-    private ArrayList<ApplicationEntity> listBestExternalLocation(ArchiveInstanceLocator externalLoc, ApplicationEntity localAE) {
-        ArrayList<ApplicationEntity> externalAEs = new ArrayList<ApplicationEntity>();
-        
-        // for ordering based on availability
-        List<ExternalLocationTuple> extLocTuples = externalLoc.getExternalLocators();
-        Collections.sort(extLocTuples, fetchAvailabilityComparator());
-        
-        List<Device> extDevices = new ArrayList<Device>();
-        // for ordering based on priority
-        for (ExternalLocationTuple extLocTuple : extLocTuples) {
-            String extRetrieveDeviceName = extLocTuple.getRetrieveDeviceName();
-            try {
-                extDevices.add(config.findDevice(extRetrieveDeviceName));
-            } catch (ConfigurationException e) {
-                LOG.error("Unable to find external archive {} in configuration", extRetrieveDeviceName);
-            }
-        }
-        Collections.sort(extDevices, fetchDevicePriorityComparator(localAE));
-        
-        for (Device extDevice : extDevices) {
-            TransferCapability tc = new TransferCapability("", externalLoc.cuid, Role.SCP,
-                    new String[] { UID.ImplicitVRLittleEndian, UID.ExplicitVRLittleEndian });
-            List<ApplicationEntity> extDeviceAEs = (List<ApplicationEntity>) extDevice.getAEsSupportingTransferCapability(tc, true);
-            Collections.sort(extDeviceAEs, fetchAEPriorityComparator());
-            externalAEs.addAll(extDeviceAEs);
-        }
-
-        return externalAEs;
-    }
-
-    private Comparator<? super ExternalLocationTuple> fetchAvailabilityComparator() {
-        return new Comparator<ExternalLocationTuple>() {
-            @Override
-            public int compare(ExternalLocationTuple loc1, ExternalLocationTuple loc2) {
-                return loc1.getAvailability().compareTo(loc2.getAvailability());
-            }
-        };
-    }
-
-    private Comparator<? super Device> fetchDevicePriorityComparator(final ApplicationEntity localAE) {
-        return new Comparator<Device>() {
-            @Override
-            public int compare(Device dev1, Device dev2) {
-                ArchiveDeviceExtension archDevExt = localAE.getDevice()
-                        .getDeviceExtension(ArchiveDeviceExtension.class);
-                int priority1 = Integer.parseInt(archDevExt.getExternalArchivesMap().get(dev1.getDeviceName()));
-                int priority2 = Integer.parseInt(archDevExt.getExternalArchivesMap().get(dev2.getDeviceName()));
-                return priority1 - priority2;
-            }
-        };
-    }
-
-    private Comparator<ApplicationEntity> fetchAEPriorityComparator() {
-        return new Comparator<ApplicationEntity>() {
-            @Override
-            public int compare(ApplicationEntity ae1, ApplicationEntity ae2) {
-                int priority1 = ae1.getAEExtension(ExternalArchiveAEExtension.class).getAeFetchPriority();
-                int priority2 = ae2.getAEExtension(ExternalArchiveAEExtension.class).getAeFetchPriority();
-                return priority1 - priority2;
-            }
-        };
-    }
-
-    private List<ApplicationEntity> getPreferedStudyLocationsList(
-            HashMap<ArchiveInstanceLocator, ArrayList<ApplicationEntity>> instanceRetrieveMap,
-            String studyUID) {
-        ArrayList<ApplicationEntity> preferedStudyAEs = new ArrayList<ApplicationEntity>();
-        for(ArchiveInstanceLocator loc : instanceRetrieveMap.keySet()) {
-            if(loc.getStudyInstanceUID().equals(studyUID)) {
-                for(ApplicationEntity ae : instanceRetrieveMap.get(loc)) {
-                    boolean skip = false;
-                    for(ApplicationEntity currentAE : preferedStudyAEs) {
-                        if(currentAE.getAETitle().equals(ae.getAETitle()))
-                            skip = true;
-                    }
-                    if(!skip)
-                        preferedStudyAEs.add(ae);
-            }
-            }
-        }
-        return preferedStudyAEs ;
-    }
-
     @Override
     public Response redirectRequest(ApplicationEntity redirectAE, String queryString) {
         WebServiceAEExtension wsAEExt = redirectAE.getAEExtension(WebServiceAEExtension.class);
@@ -688,8 +610,9 @@ public class FetchForwardServiceImpl implements FetchForwardService {
     @Override
     public ApplicationEntity getPrefersForwardingAE(String localAETitle, List<ArchiveInstanceLocator> externalLocations) {
         ApplicationEntity localAE = device.getApplicationEntity(localAETitle);
+        FetchPlan plan = new FetchPlan(config, localAE);
         for (ArchiveInstanceLocator loc : externalLocations) {
-            List<ApplicationEntity> externalRetrieveAes = listBestExternalLocation(loc, localAE);
+            List<ApplicationEntity> externalRetrieveAes = plan.bestExternalAEs(loc);
             for (ApplicationEntity ae : externalRetrieveAes) {
                 ExternalArchiveAEExtension extArchiveAEExtension = ae
                         .getAEExtension(ExternalArchiveAEExtension.class);
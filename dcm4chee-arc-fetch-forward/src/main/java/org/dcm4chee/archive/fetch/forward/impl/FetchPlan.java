@@ -0,0 +1,208 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2014
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package org.dcm4chee.archive.fetch.forward.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.dcm4che3.conf.api.DicomConfiguration;
+import org.dcm4che3.conf.core.api.ConfigurationException;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.net.ApplicationEntity;
+import org.dcm4che3.net.Device;
+import org.dcm4che3.net.ExternalArchiveAEExtension;
+import org.dcm4che3.net.TransferCapability;
+import org.dcm4che3.net.TransferCapability.Role;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
+import org.dcm4chee.archive.dto.ArchiveInstanceLocator;
+import org.dcm4chee.archive.dto.ExternalLocationTuple;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Ranks the AEs of the external archives, from which instances only
+ * available externally are fetched: by availability of the external
+ * location, by priority of the external archive for the local device and
+ * by fetch priority of the AEs of the external archive.
+ *
+ * Created once per fetch. External archives are looked up in the
+ * configuration once, instances with equal SOP Class and external
+ * locations - typically all instances of a study - share their ranking.
+ */
+class FetchPlan {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FetchPlan.class);
+
+    private static final Comparator<ExternalLocationTuple> AVAILABILITY =
+            new Comparator<ExternalLocationTuple>() {
+        @Override
+        public int compare(ExternalLocationTuple loc1, ExternalLocationTuple loc2) {
+            return loc1.getAvailability().compareTo(loc2.getAvailability());
+        }
+    };
+
+    private static final Comparator<ApplicationEntity> AE_PRIORITY =
+            new Comparator<ApplicationEntity>() {
+        @Override
+        public int compare(ApplicationEntity ae1, ApplicationEntity ae2) {
+            int priority1 = ae1.getAEExtension(ExternalArchiveAEExtension.class).getAeFetchPriority();
+            int priority2 = ae2.getAEExtension(ExternalArchiveAEExtension.class).getAeFetchPriority();
+            return priority1 - priority2;
+        }
+    };
+
+    private final DicomConfiguration config;
+    private final Comparator<Device> devicePriority;
+    private final HashMap<String, Device> devices = new HashMap<String, Device>();
+    private final HashMap<String, List<ApplicationEntity>> rankings =
+            new HashMap<String, List<ApplicationEntity>>();
+
+    FetchPlan(DicomConfiguration config, ApplicationEntity localAE) {
+        this.config = config;
+        final Map<String, String> externalArchives = localAE.getDevice()
+                .getDeviceExtension(ArchiveDeviceExtension.class)
+                .getExternalArchivesMap();
+        this.devicePriority = new Comparator<Device>() {
+            @Override
+            public int compare(Device dev1, Device dev2) {
+                int priority1 = Integer.parseInt(externalArchives.get(dev1.getDeviceName()));
+                int priority2 = Integer.parseInt(externalArchives.get(dev2.getDeviceName()));
+                return priority1 - priority2;
+            }
+        };
+    }
+
+    /**
+     * Returns the AEs of the external archives of an instance, most
+     * preferred first.
+     */
+    ArrayList<ApplicationEntity> bestExternalAEs(ArchiveInstanceLocator externalLoc) {
+        // for ordering based on availability
+        List<ExternalLocationTuple> extLocTuples = externalLoc.getExternalLocators();
+        Collections.sort(extLocTuples, AVAILABILITY);
+
+        String key = rankingKey(externalLoc.cuid, extLocTuples);
+        List<ApplicationEntity> externalAEs = rankings.get(key);
+        if (externalAEs == null) {
+            externalAEs = rank(externalLoc.cuid, extLocTuples);
+            rankings.put(key, externalAEs);
+        }
+        return new ArrayList<ApplicationEntity>(externalAEs);
+    }
+
+    private List<ApplicationEntity> rank(String cuid,
+            List<ExternalLocationTuple> extLocTuples) {
+        List<Device> extDevices = new ArrayList<Device>();
+        // for ordering based on priority
+        for (ExternalLocationTuple extLocTuple : extLocTuples) {
+            Device extDevice = findDevice(extLocTuple.getRetrieveDeviceName());
+            if (extDevice != null)
+                extDevices.add(extDevice);
+        }
+        Collections.sort(extDevices, devicePriority);
+
+        ArrayList<ApplicationEntity> externalAEs = new ArrayList<ApplicationEntity>();
+        TransferCapability tc = new TransferCapability("", cuid, Role.SCP,
+                new String[] { UID.ImplicitVRLittleEndian, UID.ExplicitVRLittleEndian });
+        for (Device extDevice : extDevices) {
+            List<ApplicationEntity> extDeviceAEs = new ArrayList<ApplicationEntity>(
+                    extDevice.getAEsSupportingTransferCapability(tc, true));
+            Collections.sort(extDeviceAEs, AE_PRIORITY);
+            externalAEs.addAll(extDeviceAEs);
+        }
+        return externalAEs;
+    }
+
+    private Device findDevice(String extRetrieveDeviceName) {
+        if (devices.containsKey(extRetrieveDeviceName))
+            return devices.get(extRetrieveDeviceName);
+
+        Device extDevice = null;
+        try {
+            extDevice = config.findDevice(extRetrieveDeviceName);
+        } catch (ConfigurationException e) {
+            LOG.error("Unable to find external archive {} in configuration", extRetrieveDeviceName);
+        }
+        devices.put(extRetrieveDeviceName, extDevice);
+        return extDevice;
+    }
+
+    private static String rankingKey(String cuid,
+            List<ExternalLocationTuple> extLocTuples) {
+        StringBuilder sb = new StringBuilder(cuid);
+        for (ExternalLocationTuple extLocTuple : extLocTuples)
+            sb.append('\\').append(extLocTuple.getRetrieveDeviceName())
+                .append('^').append(extLocTuple.getAvailability());
+        return sb.toString();
+    }
+
+    /**
+     * Groups the AEs of the external archives of the instances by study,
+     * each AE listed once in the order of its first occurrence.
+     */
+    static Map<String, List<ApplicationEntity>> preferredAEsByStudy(
+            Map<ArchiveInstanceLocator, ArrayList<ApplicationEntity>> instanceRetrieveMap) {
+        HashMap<String, LinkedHashMap<String, ApplicationEntity>> aesByStudy =
+                new HashMap<String, LinkedHashMap<String, ApplicationEntity>>();
+        for (Map.Entry<ArchiveInstanceLocator, ArrayList<ApplicationEntity>> entry
+                : instanceRetrieveMap.entrySet()) {
+            String studyUID = entry.getKey().getStudyInstanceUID();
+            LinkedHashMap<String, ApplicationEntity> aes = aesByStudy.get(studyUID);
+            if (aes == null)
+                aesByStudy.put(studyUID,
+                        aes = new LinkedHashMap<String, ApplicationEntity>());
+            for (ApplicationEntity ae : entry.getValue())
+                if (!aes.containsKey(ae.getAETitle()))
+                    aes.put(ae.getAETitle(), ae);
+        }
+        HashMap<String, List<ApplicationEntity>> result =
+                new HashMap<String, List<ApplicationEntity>>(aesByStudy.size());
+        for (Map.Entry<String, LinkedHashMap<String, ApplicationEntity>> entry
+                : aesByStudy.entrySet())
+            result.put(entry.getKey(),
+                    new ArrayList<ApplicationEntity>(entry.getValue().values()));
+        return result;
+    }
+}
@@ -47,10 +47,12 @@ import java.util.Iterator;
 
 import javax.ejb.EJBException;
 import javax.ejb.Stateless;
+import javax.inject.Inject;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
 import javax.persistence.TypedQuery;
 
+import org.dcm4chee.archive.cache.SeriesAttributesCache;
 import org.dcm4chee.archive.entity.Code;
 import org.dcm4chee.archive.entity.Location;
 import org.dcm4chee.archive.entity.Instance;
@@ -68,6 +70,9 @@ public class RejectionServiceDeleteEJB implements RejectionServiceDeleteBean {
 
     @PersistenceContext(name = "dcm4chee-arc", unitName = "dcm4chee-arc")
     public EntityManager em;
+
+    @Inject
+    private SeriesAttributesCache seriesAttributesCache;
     
     @Override
     public Collection<Location> deleteRejected(Object source, Collection<Instance> instances) {
@@ -78,6 +83,8 @@ public class RejectionServiceDeleteEJB implements RejectionServiceDeleteBean {
                 if (isRejected(inst)) {
                     inst.getSeries().clearQueryAttributes();
                     inst.getSeries().getStudy().clearQueryAttributes();
+                    seriesAttributesCache.invalidateStudy(
+                            inst.getSeries().getStudy().getPk());
                     toBeDeleted.addAll(detachReferences(inst));
                     em.remove(inst);
                     LOG.info("Removing {} and Scheduling delete for associated file references", inst);
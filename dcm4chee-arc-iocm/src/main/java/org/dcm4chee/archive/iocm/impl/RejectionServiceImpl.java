@@ -41,7 +41,9 @@ package org.dcm4chee.archive.iocm.impl;
 import java.util.Collection;
 
 import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
 
+import org.dcm4chee.archive.cache.SeriesAttributesCache;
 import org.dcm4chee.archive.entity.Code;
 import org.dcm4chee.archive.entity.Instance;
 import org.dcm4chee.archive.entity.Series;
@@ -60,6 +62,9 @@ public class RejectionServiceImpl implements RejectionService {
 
     private static Logger LOG = LoggerFactory.getLogger(RejectionServiceImpl.class);
 
+    @Inject
+    private SeriesAttributesCache seriesAttributesCache;
+
     @Override
     public int reject(Object source, Collection<Instance> instances,
             Code rejectionCode, org.dcm4che3.data.Code[] prevRejectionCodes) {
@@ -118,6 +123,7 @@ public class RejectionServiceImpl implements RejectionService {
         Study study = series.getStudy();
         series.clearQueryAttributes();
         study.clearQueryAttributes();
+        seriesAttributesCache.invalidateStudy(study.getPk());
     }
     
 }
@@ -218,8 +218,8 @@ class MIMAAttributeCoercion {
                 .from(QPatient.patient).where(builder)
                 .list(QPatient.patient.pk, QPatient.patient.attributesBlob.encodedAttributes);
         for (Tuple tuple : tuples)
-            c.add(Utils.decodeAttributes(tuple.get(1, byte[].class)).getString(
-                    Tag.PatientName));
+            c.add(Utils.decodeAttributes(tuple.get(1, byte[].class),
+                    Tag.PatientName).getString(Tag.PatientName));
         c.remove(null);
         return c.toArray(new String[c.size()]);
     }
@@ -49,6 +49,7 @@ import org.dcm4che3.net.Status;
 import org.dcm4che3.net.TransferCapability;
 import org.dcm4che3.net.service.DicomServiceException;
 import org.dcm4chee.archive.conf.ArchiveAEExtension;
+import org.dcm4chee.archive.conf.AttributeCoercionRules;
 import org.dcm4chee.archive.entity.MPPS;
 import org.dcm4chee.archive.mpps.MPPSContext;
 import org.dcm4chee.archive.mpps.MPPSHook;
@@ -75,6 +76,16 @@ public class DefaultMPPSProcessing extends MPPSHook {
         try {
             ApplicationEntity ae = device.getApplicationEntityNotNull(context.getReceivingAET());
             ArchiveAEExtension arcAE = ae.getAEExtensionNotNull(ArchiveAEExtension.class);
+            AttributeCoercionRules rules = arcAE.getAttributeCoercionRules(
+                    UID.ModalityPerformedProcedureStepSOPClass,
+                    context.getDimse(), TransferCapability.Role.SCP,
+                    context.getSendingAET());
+            if (rules != null) {
+                Attributes modified = new Attributes();
+                attributes.update(rules.coerce(attributes, AttributeCoercionRules.parameters(
+                        context.getSendingAET(), context.getReceivingAET())), modified);
+                return;
+            }
             Templates tpl = arcAE.getAttributeCoercionTemplates(
                     UID.ModalityPerformedProcedureStepSOPClass,
                     context.getDimse(), TransferCapability.Role.SCP,
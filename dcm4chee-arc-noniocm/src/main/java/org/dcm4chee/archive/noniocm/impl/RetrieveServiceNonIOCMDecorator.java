@@ -56,6 +56,7 @@ import org.dcm4chee.archive.conf.QueryParam;
 import org.dcm4chee.archive.dto.ArchiveInstanceLocator;
 import org.dcm4chee.archive.noniocm.NonIOCMChangeRequestorQRService;
 import org.dcm4chee.archive.noniocm.NonIOCMChangeRequestorService;
+import org.dcm4chee.archive.retrieve.LocatorIterator;
 import org.dcm4chee.archive.retrieve.RetrieveContext;
 import org.dcm4chee.archive.retrieve.decorators.DelegatingRetrieveService;
 import org.dcm4chee.archive.rs.HostAECache;
@@ -99,6 +100,32 @@ public class RetrieveServiceNonIOCMDecorator extends DelegatingRetrieveService {
     @Override
     public List<ArchiveInstanceLocator> calculateMatches(IDWithIssuer[] pids,
             Attributes keys, QueryParam queryParam, boolean withoutBulkData) {
+        updateRetrieveKeys(keys);
+        return getNextDecorator().calculateMatches(pids, keys, queryParam, withoutBulkData);
+    }
+
+    @Override
+    public List<ArchiveInstanceLocator> calculateMatches(String studyUID, String seriesUID,
+            String objectUID, QueryParam queryParam, boolean withoutBulkData) {
+        String[] uids = updateRetrieveUIDs(studyUID, seriesUID, objectUID);
+        return getNextDecorator().calculateMatches(uids[0], uids[1], uids[2], queryParam, withoutBulkData);
+    }
+
+    @Override
+    public LocatorIterator iterateMatches(IDWithIssuer[] pids,
+            Attributes keys, QueryParam queryParam, boolean withoutBulkData) {
+        updateRetrieveKeys(keys);
+        return getNextDecorator().iterateMatches(pids, keys, queryParam, withoutBulkData);
+    }
+
+    @Override
+    public LocatorIterator iterateMatches(String studyUID, String seriesUID,
+            String objectUID, QueryParam queryParam, boolean withoutBulkData) {
+        String[] uids = updateRetrieveUIDs(studyUID, seriesUID, objectUID);
+        return getNextDecorator().iterateMatches(uids[0], uids[1], uids[2], queryParam, withoutBulkData);
+    }
+
+    private void updateRetrieveKeys(Attributes keys) {
         if (nonIocmService.isNonIOCMChangeRequestor(sourceAET.get())) {
             LOG.info("Is NoneIOCM Change Requestor Device");
             try {
@@ -107,12 +134,10 @@ public class RetrieveServiceNonIOCMDecorator extends DelegatingRetrieveService {
                     nonIocmQRService.updateRetrieveRequestAttributes(keys, sourceAE.getDevice().getApplicationAETitles());
             } catch (ConfigurationException ignore) {}
         }
-        return getNextDecorator().calculateMatches(pids, keys, queryParam, withoutBulkData);
     }
 
-    @Override
-    public List<ArchiveInstanceLocator> calculateMatches(String studyUID, String seriesUID,
-            String objectUID, QueryParam queryParam, boolean withoutBulkData) {
+    private String[] updateRetrieveUIDs(String studyUID, String seriesUID,
+            String objectUID) {
         String aet = sourceAET.get();
         ApplicationEntity sourceAE = null;
         if (aet == null) {
@@ -142,7 +167,7 @@ public class RetrieveServiceNonIOCMDecorator extends DelegatingRetrieveService {
                 }
             } catch (ConfigurationException ignore) {}
         }
-        return getNextDecorator().calculateMatches(studyUID, seriesUID, objectUID, queryParam, withoutBulkData);
+        return new String[] { studyUID, seriesUID, objectUID };
     }
 
 }
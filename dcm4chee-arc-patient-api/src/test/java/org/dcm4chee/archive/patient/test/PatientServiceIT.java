@@ -38,8 +38,6 @@
 
 package org.dcm4chee.archive.patient.test;
 
-import java.io.ByteArrayInputStream;
-import java.io.IOException;
 import java.util.*;
 
 import javax.annotation.Resource;
@@ -59,16 +57,15 @@ import org.dcm4che3.data.IDWithIssuer;
 import org.dcm4che3.data.Sequence;
 import org.dcm4che3.data.Tag;
 import org.dcm4che3.data.VR;
-import org.dcm4che3.io.DicomInputStream;
 import org.dcm4che3.soundex.ESoundex;
 import org.dcm4chee.archive.conf.AttributeFilter;
 import org.dcm4chee.archive.conf.Entity;
 import org.dcm4chee.archive.conf.StoreParam;
-import org.dcm4chee.archive.entity.BlobCorruptedException;
 import org.dcm4chee.archive.entity.Issuer;
 import org.dcm4chee.archive.entity.Patient;
 import org.dcm4chee.archive.entity.PatientID;
 import org.dcm4chee.archive.entity.PersonName;
+import org.dcm4chee.archive.entity.Utils;
 import org.dcm4chee.archive.patient.IDPatientSelector;
 import org.dcm4chee.archive.patient.NonUniquePatientException;
 import org.dcm4chee.archive.patient.PatientCircularMergedException;
@@ -171,7 +168,7 @@ public class PatientServiceIT {
             throws Exception {
         Patient[] patients = initupdateOrCreatePatientOnCStore(true, true,
                 true, 1);
-        Attributes attrs = decodeAttributes(patients[0].getAttributesBlob().getEncodedAttributes());
+        Attributes attrs = Utils.decodeAttributes(patients[0].getAttributesBlob().getEncodedAttributes());
         Assert.assertSame(patients[0], patients[1]);
         PersonName pn = patients[0].getPatientName();
         Assert.assertEquals("Bugs", pn.getFamilyName());
@@ -219,7 +216,7 @@ public class PatientServiceIT {
             throws Exception {
         Patient[] patients = initupdateOrCreatePatientOnCStore(true, true,
                 true, 2);
-        Attributes attrs = decodeAttributes(patients[0].getAttributesBlob().getEncodedAttributes());
+        Attributes attrs = Utils.decodeAttributes(patients[0].getAttributesBlob().getEncodedAttributes());
         Assert.assertSame(patients[0], patients[1]);
         PersonName pn = patients[0].getPatientName();
         Assert.assertEquals("Bugs", pn.getFamilyName());
@@ -273,7 +270,7 @@ public class PatientServiceIT {
             throws Exception {
         Patient[] patients = initupdateOrCreatePatientOnCStore(false, true,
                 true, 3);
-        Attributes attrs = decodeAttributes(patients[0].getAttributesBlob().getEncodedAttributes());
+        Attributes attrs = Utils.decodeAttributes(patients[0].getAttributesBlob().getEncodedAttributes());
         Assert.assertTrue(((PatientID) patients[0].getPatientIDs().toArray()[0])
                 .getIssuer().toString().contains("G12345&G12345&ISO"));
         Set<IDWithIssuer> ids = IDWithIssuer.pidsOf(attrs);
@@ -338,7 +335,7 @@ public class PatientServiceIT {
                 createStoreParam());
 
         Patient[] patients = { patientOne, patientTwo };
-        Attributes attrs = decodeAttributes(patients[0].getAttributesBlob().getEncodedAttributes());
+        Attributes attrs = Utils.decodeAttributes(patients[0].getAttributesBlob().getEncodedAttributes());
         Assert.assertTrue(((PatientID) patients[0].getPatientIDs().toArray()[0])
                 .getIssuer().toString().contains("G12345&G12345&ISO"));
         Set<IDWithIssuer> ids = IDWithIssuer.pidsOf(attrs);
@@ -418,11 +415,11 @@ public class PatientServiceIT {
             throws Exception {
         Patient[] patients = initupdateOrCreatePatientOnCStore(true, true,
                 false, 1);
-        Attributes attrs0 = decodeAttributes(patients[0].getAttributesBlob().getEncodedAttributes());
+        Attributes attrs0 = Utils.decodeAttributes(patients[0].getAttributesBlob().getEncodedAttributes());
         Assert.assertTrue(attrs0.getString(Tag.PatientName).contains(
                 "Bugs^Bunny"));
         Assert.assertTrue(attrs0.getString(Tag.PatientID).contains("123"));
-        Attributes attrs1 = decodeAttributes(patients[1].getAttributesBlob().getEncodedAttributes());
+        Attributes attrs1 = Utils.decodeAttributes(patients[1].getAttributesBlob().getEncodedAttributes());
         Assert.assertTrue(attrs0.getString(Tag.PatientName).contains(
                 "Bugs^Bunny"));
         Assert.assertTrue(attrs1.getString(Tag.PatientName).contains(
@@ -475,11 +472,11 @@ public class PatientServiceIT {
             throws Exception {
         Patient[] patients = initupdateOrCreatePatientOnCStore(true, true,
                 false, 2);
-        Attributes attrs0 = decodeAttributes(patients[0].getAttributesBlob().getEncodedAttributes());
+        Attributes attrs0 = Utils.decodeAttributes(patients[0].getAttributesBlob().getEncodedAttributes());
         Assert.assertTrue(attrs0.getString(Tag.PatientName).contains(
                 "Bugs^Bunny"));
         Assert.assertTrue(attrs0.getString(Tag.PatientID).contains("123"));
-        Attributes attrs1 = decodeAttributes(patients[1].getAttributesBlob().getEncodedAttributes());
+        Attributes attrs1 = Utils.decodeAttributes(patients[1].getAttributesBlob().getEncodedAttributes());
         Assert.assertTrue(attrs1.getString(Tag.PatientName).contains(
                 "Lola^Bunny"));
         Assert.assertTrue(attrs1.getString(Tag.PatientID).contains("444"));
@@ -577,12 +574,12 @@ public class PatientServiceIT {
         Patient patientTwo = service.updateOrCreatePatientOnCStore(
                 patientTwoAttributes, new IDPatientSelector(),
                 createStoreParam());
-        Attributes attrs0 = decodeAttributes(patientOne.getAttributesBlob().getEncodedAttributes());
+        Attributes attrs0 = Utils.decodeAttributes(patientOne.getAttributesBlob().getEncodedAttributes());
         Set<IDWithIssuer> priorIDs = IDWithIssuer.pidsOf(attrs0);
         priorIDs.remove(IDWithIssuer.pidOf(attrs0));
         service.mergePatientByHL7(patientTwoAttributes, patientOneAttributes,
                 createStoreParam());
-        Attributes attrs1 = decodeAttributes(patientTwo.getAttributesBlob().getEncodedAttributes());
+        Attributes attrs1 = Utils.decodeAttributes(patientTwo.getAttributesBlob().getEncodedAttributes());
         Set<IDWithIssuer> DominantIDs = IDWithIssuer.pidsOf(attrs1);
         for (Iterator<IDWithIssuer> iter = priorIDs.iterator(); iter.hasNext();) {
             IDWithIssuer id = iter.next();
@@ -1093,19 +1090,6 @@ public class PatientServiceIT {
         return storeParam;
     }
 
-    public static Attributes decodeAttributes(byte[] b) {
-        if (b == null || b.length == 0)
-            return new Attributes(0);
-        ByteArrayInputStream is = new ByteArrayInputStream(b);
-        try {
-            @SuppressWarnings("resource")
-            DicomInputStream dis = new DicomInputStream(is);
-            return dis.readDataset(-1, -1);
-        } catch (IOException e) {
-            throw new BlobCorruptedException(e);
-        }
-    }
-
     private static final int[] PATIENT_ATTRS = { Tag.SpecificCharacterSet,
             Tag.PatientName, Tag.PatientID, Tag.IssuerOfPatientID,
             Tag.IssuerOfPatientIDQualifiersSequence, Tag.PatientBirthDate,
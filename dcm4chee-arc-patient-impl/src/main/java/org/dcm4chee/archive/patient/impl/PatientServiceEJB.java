@@ -41,6 +41,7 @@ package org.dcm4chee.archive.patient.impl;
 import java.util.*;
 
 import javax.ejb.Stateless;
+import javax.enterprise.event.Event;
 import javax.inject.Inject;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
@@ -50,6 +51,7 @@ import org.dcm4che3.data.IDWithIssuer;
 import org.dcm4che3.data.PersonName;
 import org.dcm4che3.data.Tag;
 import org.dcm4che3.util.UIDUtils;
+import org.dcm4chee.archive.cache.SeriesAttributesCache;
 import org.dcm4chee.archive.conf.AttributeFilter;
 import org.dcm4chee.archive.conf.Entity;
 import org.dcm4chee.archive.conf.MetadataUpdateStrategy;
@@ -62,6 +64,7 @@ import org.dcm4chee.archive.patient.PatientMergedException;
 import org.dcm4chee.archive.patient.PatientSelector;
 import org.dcm4chee.archive.patient.PatientSelectorFactory;
 import org.dcm4chee.archive.patient.PatientService;
+import org.dcm4chee.archive.patient.PatientUpdatedEvent;
 import org.dcm4chee.archive.util.ArchiveDeidentifier;
 import org.hibernate.Session;
 import org.slf4j.Logger;
@@ -90,6 +93,12 @@ public class PatientServiceEJB implements PatientService {
     @Inject
     private IssuerService issuerService;
 
+    @Inject
+    private SeriesAttributesCache seriesAttributesCache;
+
+    @Inject
+    private Event<PatientUpdatedEvent> patientUpdatedEvent;
+
     @Override
     public Patient updateOrCreatePatientOnCStore(Attributes attrs,
             PatientSelector selector, StoreParam storeParam)
@@ -239,9 +248,25 @@ public class PatientServiceEJB implements PatientService {
                 storeParam.isDeIdentifyLogs()));
         em.persist(patient);
         LOG.info("Create {}", patient.toString(storeParam.isDeIdentifyLogs()));
+        patientUpdatedEvent.fire(new PatientUpdatedEvent(patientIDsOf(patient)));
         return patient;
     }
 
+    private void patientUpdated(Patient patient) {
+        seriesAttributesCache.invalidatePatient(patient.getPk());
+        patientUpdatedEvent.fire(new PatientUpdatedEvent(patientIDsOf(patient)));
+    }
+
+    private static Collection<String> patientIDsOf(Patient patient) {
+        Collection<PatientID> pids = patient.getPatientIDs();
+        if (pids == null)
+            return Collections.emptyList();
+        ArrayList<String> ids = new ArrayList<String>(pids.size());
+        for (PatientID pid : pids)
+            ids.add(pid.getID());
+        return ids;
+    }
+
     private Collection<PatientID> createPatientIDs(
             Collection<IDWithIssuer> pids, Patient patient, boolean deidentify) {
         Collection<PatientID> patientIDs = new ArrayList<PatientID>(pids.size());
@@ -279,6 +304,7 @@ public class PatientServiceEJB implements PatientService {
             StoreParam storeParam, Collection<IDWithIssuer> pids) {
         if (mergePatientIDs(patient, pids, storeParam.isDeIdentifyLogs())) {
             patient.updateOtherPatientIDs();
+            patientUpdated(patient);
         }
         Attributes patientAttrs = patient.getAttributes();
         AttributeFilter filter = storeParam.getAttributeFilter(Entity.Patient);
@@ -290,6 +316,7 @@ public class PatientServiceEJB implements PatientService {
                     deident ? patientAttrs.toString(ArchiveDeidentifier.DEFAULT) : patientAttrs,
                     deident ? modified.toString(ArchiveDeidentifier.DEFAULT) : modified);
             patient.setAttributes(patientAttrs, filter, storeParam.getFuzzyStr(), storeParam.getNullValueForQueryFields());
+            patientUpdated(patient);
         }
     }
 
@@ -349,11 +376,14 @@ public class PatientServiceEJB implements PatientService {
             Collection<IDWithIssuer> pids, StoreParam storeParam) {
         if (mergePatientIDs(patient, pids, storeParam.isDeIdentifyLogs())) {
             patient.updateOtherPatientIDs();
+            patientUpdated(patient);
         }
         Attributes patientAttrs = patient.getAttributes();
         AttributeFilter filter = storeParam.getAttributeFilter(Entity.Patient);
-        if (Utils.updateAttributes(patientAttrs, attrs, null, filter, MetadataUpdateStrategy.COERCE_MERGE))
+        if (Utils.updateAttributes(patientAttrs, attrs, null, filter, MetadataUpdateStrategy.COERCE_MERGE)) {
             patient.setAttributes(patientAttrs, filter, storeParam.getFuzzyStr(), storeParam.getNullValueForQueryFields());
+            patientUpdated(patient);
+        }
     }
 
     @Override
@@ -404,6 +434,8 @@ public class PatientServiceEJB implements PatientService {
                     + " with itself");
 
         LOG.info("Merge {} with {}", prior, pat);
+        patientUpdated(prior);
+        patientUpdated(pat);
         moveStudies(pat, prior);
         moveModalityWorklistItems(pat, prior);
         moveModalityPerformedProcedureSteps(pat, prior);
@@ -647,6 +679,7 @@ public class PatientServiceEJB implements PatientService {
         AttributeFilter filter = storeParam.getAttributeFilter(Entity.Patient);
         if (Utils.updateAttributes(patientAttrs, otherPatientAttrs, null, filter, MetadataUpdateStrategy.COERCE_MERGE)) {
             patient.setAttributes(patientAttrs, filter, storeParam.getFuzzyStr(), storeParam.getNullValueForQueryFields());
+            patientUpdated(patient);
             em.flush();
             LOG.info("Update ID {} with {} ", pids, otherPids);
         }
@@ -0,0 +1,135 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2014
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.performance;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4chee.archive.entity.Utils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encoding, decoding and digesting of the attributes persisted in
+ * {@code AttributesBlob}s and of the attributes not stored in the database.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class AttributesBenchmark {
+
+    private static final int[] PATIENT_TAGS = {
+        Tag.PatientName, Tag.PatientID, Tag.IssuerOfPatientID,
+        Tag.PatientBirthDate, Tag.PatientSex };
+
+    private static final int[] STUDY_TAGS = {
+        Tag.StudyDate, Tag.StudyTime, Tag.AccessionNumber,
+        Tag.ReferringPhysicianName, Tag.StudyDescription,
+        Tag.StudyInstanceUID, Tag.StudyID };
+
+    private static final int[] SERIES_TAGS = {
+        Tag.SeriesDate, Tag.SeriesTime, Tag.Modality, Tag.Manufacturer,
+        Tag.InstitutionName, Tag.StationName, Tag.SeriesDescription,
+        Tag.BodyPartExamined, Tag.SeriesInstanceUID, Tag.SeriesNumber };
+
+    @Param({ "CT", "MR", "US" })
+    public SyntheticDatasets dataset;
+
+    private Attributes attrs;
+    private Attributes instanceAttrs;
+    private byte[] encoded;
+    private Attributes patient;
+    private Attributes study;
+    private Attributes series;
+    private MessageDigest digest;
+
+    @Setup(Level.Trial)
+    public void setup() throws NoSuchAlgorithmException {
+        attrs = dataset.createDataset();
+        instanceAttrs = new Attributes(attrs);
+        instanceAttrs.remove(Tag.PixelData);
+        encoded = Utils.encodeAttributes(instanceAttrs);
+        patient = new Attributes(attrs, PATIENT_TAGS);
+        study = new Attributes(attrs, STUDY_TAGS);
+        series = new Attributes(attrs, SERIES_TAGS);
+        digest = MessageDigest.getInstance("MD5");
+    }
+
+    @Benchmark
+    public byte[] encodeAttributes() {
+        return Utils.encodeAttributes(instanceAttrs);
+    }
+
+    @Benchmark
+    public Attributes decodeAttributes() {
+        return Utils.decodeAttributes(encoded);
+    }
+
+    @Benchmark
+    public Attributes decodeSelectedAttributes() {
+        return Utils.decodeAttributes(encoded, Tag.NumberOfFrames);
+    }
+
+    @Benchmark
+    public String digestAttributes() throws IOException {
+        return Utils.digestAttributes(attrs, digest);
+    }
+
+    @Benchmark
+    public Attributes mergeAndNormalize() {
+        return Utils.mergeAndNormalize(patient, study, series, instanceAttrs);
+    }
+}
@@ -0,0 +1,192 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2014
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.performance;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import org.dcm4chee.storage.StorageContext;
+import org.dcm4chee.storage.conf.Availability;
+import org.dcm4chee.storage.conf.StorageSystem;
+import org.dcm4chee.storage.conf.StorageSystemGroup;
+import org.dcm4chee.storage.service.StorageService;
+
+/**
+ * Local file system backed {@link StorageService}, so that the store path can
+ * be benchmarked offline, without container and without storage providers.
+ * Only the operations used by the ingest path are implemented.
+ */
+public class LocalStorage implements InvocationHandler {
+
+    private final Path baseDir;
+    private final StorageSystem storageSystem;
+    private final StorageService storageService;
+
+    public LocalStorage(String name) throws IOException {
+        this.baseDir = Files.createTempDirectory("dcm4chee-arc-perf-" + name);
+        StorageSystem fs = new StorageSystem();
+        fs.setStorageSystemID(name);
+        fs.setProviderName("org.dcm4chee.storage.filesystem");
+        fs.setStorageSystemPath(baseDir.toString());
+        fs.setAvailability(Availability.ONLINE);
+        StorageSystemGroup grp = new StorageSystemGroup();
+        grp.setGroupID(name.toUpperCase());
+        grp.setDigestAlgorithm("MD5");
+        grp.setStorageFilePathFormat(
+                "{0020000D,hash}/{0020000E,hash}/{00080018,hash}");
+        grp.addStorageSystem(fs);
+        grp.setActiveStorageSystemIDs(fs.getStorageSystemID());
+        this.storageSystem = fs;
+        this.storageService = (StorageService) Proxy.newProxyInstance(
+                StorageService.class.getClassLoader(),
+                new Class<?>[] { StorageService.class }, this);
+    }
+
+    public Path getBaseDirectory() {
+        return baseDir;
+    }
+
+    public StorageSystem getStorageSystem() {
+        return storageSystem;
+    }
+
+    public StorageService getStorageService() {
+        return storageService;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args)
+            throws Throwable {
+        switch (method.getName()) {
+        case "createStorageContext":
+            StorageContext ctx = new StorageContext();
+            ctx.setStorageSystem((StorageSystem) args[0]);
+            return ctx;
+        case "openOutputStream":
+            Path file = resolve((String) args[1]);
+            Files.createDirectories(file.getParent());
+            return Files.newOutputStream(file, StandardOpenOption.CREATE_NEW);
+        case "moveFile":
+            Path target = resolve((String) args[2]);
+            Files.createDirectories(target.getParent());
+            try {
+                Files.move((Path) args[1], target);
+            } catch (FileAlreadyExistsException e) {
+                throw new IOException(e);
+            }
+            return null;
+        case "deleteObject":
+            Files.deleteIfExists(resolve((String) args[1]));
+            return null;
+        case "syncFiles":
+            return null;
+        case "getBaseDirectory":
+            return baseDir;
+        case "toString":
+            return "LocalStorage[" + baseDir + "]";
+        case "hashCode":
+            return System.identityHashCode(proxy);
+        case "equals":
+            return proxy == args[0];
+        }
+        throw new UnsupportedOperationException(method.toString());
+    }
+
+    private Path resolve(String name) {
+        return baseDir.resolve(name);
+    }
+
+    /**
+     * Removes all stored objects, keeping the base directory.
+     */
+    public void clear() throws IOException {
+        Files.walkFileTree(baseDir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file,
+                    BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e)
+                    throws IOException {
+                if (!dir.equals(baseDir))
+                    Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    public void delete() throws IOException {
+        clear();
+        Files.delete(baseDir);
+    }
+
+    /**
+     * Sets a (typically {@code @Inject}ed) private field of a service, there
+     * is no CDI container running the benchmarks.
+     */
+    public static void inject(Object target, String fieldName, Object value) {
+        for (Class<?> c = target.getClass(); c != null; c = c.getSuperclass()) {
+            try {
+                Field field = c.getDeclaredField(fieldName);
+                field.setAccessible(true);
+                field.set(target, value);
+                return;
+            } catch (NoSuchFieldException e) {
+                // try super class
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        throw new IllegalArgumentException("No field " + fieldName + " in "
+                + target.getClass());
+    }
+}
@@ -0,0 +1,174 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2014
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.performance;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.net.Device;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
+import org.dcm4chee.archive.store.StoreContext;
+import org.dcm4chee.archive.store.impl.FileSpooler;
+import org.dcm4chee.archive.store.impl.MemoryOrFileSpooler;
+import org.dcm4chee.archive.store.impl.SpoolBufferPool;
+import org.dcm4chee.archive.store.impl.StoreContextImpl;
+import org.dcm4chee.archive.store.impl.StoreSessionImpl;
+import org.dcm4chee.archive.store.impl.TeeSpooler;
+import org.dcm4chee.storage.StorageContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Spooling of an incoming C-STORE/STOW data set, either in memory or - above
+ * the spooling cutoff length of the spool storage system - to file, or in a
+ * single pass by the {@link TeeSpooler}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(1)
+public class SpoolBenchmark {
+
+    @Param({ "CT", "MR", "US", "US_CINE" })
+    public SyntheticDatasets dataset;
+
+    @Param({ "1048576" })
+    public int spoolingCutoffLength;
+
+    private LocalStorage storage;
+    private StoreSessionImpl session;
+    private MemoryOrFileSpooler memoryOrFileSpooler;
+    private FileSpooler fileSpooler;
+    private TeeSpooler teeSpooler;
+    private Attributes fmi;
+    private byte[] encoded;
+    private byte[] head;
+    private StoreContext context;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        storage = new LocalStorage("spool");
+        storage.getStorageSystem().setSpoolingCutoffLength(spoolingCutoffLength);
+        fileSpooler = new FileSpooler();
+        LocalStorage.inject(fileSpooler, "storageService", storage.getStorageService());
+        memoryOrFileSpooler = new MemoryOrFileSpooler();
+        LocalStorage.inject(memoryOrFileSpooler, "storageService", storage.getStorageService());
+        LocalStorage.inject(memoryOrFileSpooler, "fileSpooler", fileSpooler);
+        Device device = new Device("perf");
+        device.addDeviceExtension(new ArchiveDeviceExtension());
+        SpoolBufferPool bufferPool = new SpoolBufferPool();
+        LocalStorage.inject(bufferPool, "device", device);
+        LocalStorage.inject(memoryOrFileSpooler, "bufferPool", bufferPool);
+        teeSpooler = new TeeSpooler();
+        LocalStorage.inject(teeSpooler, "storageService", storage.getStorageService());
+
+        session = new StoreSessionImpl(null);
+        session.setStorageSystem(storage.getStorageSystem());
+        session.setSpoolStorageSystem(storage.getStorageSystem());
+        session.setSpoolDirectory(Files.createDirectories(
+                storage.getBaseDirectory().resolve("spool")));
+
+        Attributes ds = dataset.createDataset();
+        fmi = dataset.fileMetaInformation(ds);
+        encoded = SyntheticDatasets.encode(ds);
+        head = Arrays.copyOf(encoded, Math.min(encoded.length, spoolingCutoffLength));
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteSpoolFile() throws IOException {
+        StorageContext spoolingContext = context != null
+                ? context.getSpoolingContext() : null;
+        Path spoolFile = spoolingContext != null
+                ? spoolingContext.getFilePath() : null;
+        if (spoolFile != null)
+            Files.deleteIfExists(spoolFile);
+        context = null;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        storage.delete();
+    }
+
+    private StoreContext newContext(byte[] b, int off) {
+        StoreContext ctx = new StoreContextImpl(session);
+        ctx.setFileMetainfo(fmi);
+        ctx.setInputStream(new ByteArrayInputStream(b, off, b.length - off));
+        return ctx;
+    }
+
+    @Benchmark
+    public Attributes memoryOrFileSpool() throws Exception {
+        context = newContext(encoded, 0);
+        memoryOrFileSpooler.spool(context, true);
+        return context.getAttributes();
+    }
+
+    @Benchmark
+    public Attributes flushNspool() throws Exception {
+        context = newContext(encoded, head.length);
+        fileSpooler.flushNspool(context, head, true);
+        return context.getAttributes();
+    }
+
+    @Benchmark
+    public Attributes teeSpool() throws Exception {
+        context = newContext(encoded, 0);
+        teeSpooler.spool(context, true);
+        return context.getAttributes();
+    }
+}
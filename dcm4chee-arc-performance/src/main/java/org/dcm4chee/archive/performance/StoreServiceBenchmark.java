@@ -0,0 +1,184 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2014
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.performance;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.io.DicomOutputStream;
+import org.dcm4chee.archive.store.StoreContext;
+import org.dcm4chee.archive.store.impl.StoreContextImpl;
+import org.dcm4chee.archive.store.impl.StoreServiceImpl;
+import org.dcm4chee.archive.store.impl.StoreSessionImpl;
+import org.dcm4chee.storage.StorageContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Writing of the final object ({@link StoreServiceImpl#processFile}) from a
+ * data set spooled in memory or from a spool file, and writing of the bulk
+ * data free metadata copy ({@link StoreServiceImpl#storeMetaData}).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(1)
+public class StoreServiceBenchmark {
+
+    @Param({ "CT", "MR", "US", "US_CINE" })
+    public SyntheticDatasets dataset;
+
+    private LocalStorage storage;
+    private LocalStorage metadataStorage;
+    private StoreServiceImpl storeService;
+    private StoreSessionImpl session;
+    private Attributes fmi;
+    private Attributes attrs;
+    private Path spoolTemplate;
+    private StoreContext context;
+    private StorageContext result;
+
+    /**
+     * Fresh spool file per invocation, as processFile moves it away.
+     */
+    @State(Scope.Thread)
+    public static class SpoolFile {
+        Path path;
+
+        @Setup(Level.Invocation)
+        public void copy(StoreServiceBenchmark benchmark) throws IOException {
+            path = Files.createTempFile(
+                    benchmark.session.getSpoolDirectory(), null, ".dcm");
+            Files.copy(benchmark.spoolTemplate, path,
+                    StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        storage = new LocalStorage("fs");
+        metadataStorage = new LocalStorage("metadata");
+        storeService = new StoreServiceImpl();
+        LocalStorage.inject(storeService, "storageService", storage.getStorageService());
+
+        session = new StoreSessionImpl(storeService);
+        session.setStorageSystem(storage.getStorageSystem());
+        session.setSpoolStorageSystem(storage.getStorageSystem());
+        session.setMetaDataStorageSystem(metadataStorage.getStorageSystem());
+        session.setSpoolDirectory(Files.createDirectories(
+                storage.getBaseDirectory().resolve("spool")));
+
+        attrs = dataset.createDataset();
+        fmi = dataset.fileMetaInformation(attrs);
+        spoolTemplate = Files.createTempFile("dcm4chee-arc-perf", ".dcm");
+        try (OutputStream out = Files.newOutputStream(spoolTemplate);
+                DicomOutputStream dos = new DicomOutputStream(out,
+                        UID.ExplicitVRLittleEndian)) {
+            dos.writeDataset(fmi, attrs);
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void newContext() throws IOException {
+        context = new StoreContextImpl(session);
+        context.setFileMetainfo(fmi);
+        context.setAttributes(attrs);
+        context.setTransferSyntax(UID.ExplicitVRLittleEndian);
+        context.setSpoolingContext(storage.getStorageService()
+                .createStorageContext(storage.getStorageSystem()));
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteStoredObject() throws IOException {
+        if (result != null && result.getFilePath() != null) {
+            LocalStorage target = result.getStorageSystem() == metadataStorage
+                    .getStorageSystem() ? metadataStorage : storage;
+            Files.deleteIfExists(target.getBaseDirectory()
+                    .resolve(result.getFilePath()));
+        }
+        Path spoolFile = context.getSpoolingContext().getFilePath();
+        if (spoolFile != null)
+            Files.deleteIfExists(spoolFile);
+        session.getStoredFiles().clear();
+        result = null;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(spoolTemplate);
+        storage.delete();
+        metadataStorage.delete();
+    }
+
+    @Benchmark
+    public StorageContext processFileFromMemory() throws Exception {
+        return result = storeService.processFile(context);
+    }
+
+    @Benchmark
+    public StorageContext processFileFromSpoolFile(SpoolFile spoolFile)
+            throws Exception {
+        context.getSpoolingContext().setFilePath(spoolFile.path);
+        return result = storeService.processFile(context);
+    }
+
+    @Benchmark
+    public StorageContext storeMetaData() throws Exception {
+        return result = storeService.storeMetaData(context);
+    }
+}
@@ -0,0 +1,175 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2014
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.performance;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Date;
+import java.util.Random;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.io.DicomOutputStream;
+import org.dcm4che3.util.UIDUtils;
+
+/**
+ * Synthetic, but realistically sized, datasets used as input of the ingest
+ * benchmarks. The pixel data is random so that digests and compressors can
+ * not take any shortcuts.
+ */
+public enum SyntheticDatasets {
+
+    /** single CT slice, 512x512, 16 bit */
+    CT(UID.CTImageStorage, "CT", 512, 512, 1, 16, 1),
+    /** single MR slice, 256x256, 16 bit */
+    MR(UID.MRImageStorage, "MR", 256, 256, 1, 16, 1),
+    /** single US frame, 640x480, RGB */
+    US(UID.UltrasoundImageStorage, "US", 480, 640, 1, 8, 3),
+    /** US cine loop, 640x480, RGB, 60 frames (~55 MB) */
+    US_CINE(UID.UltrasoundMultiFrameImageStorage, "US", 480, 640, 60, 8, 3);
+
+    private final String cuid;
+    private final String modality;
+    private final int rows;
+    private final int columns;
+    private final int frames;
+    private final int bitsAllocated;
+    private final int samplesPerPixel;
+
+    SyntheticDatasets(String cuid, String modality, int rows, int columns,
+            int frames, int bitsAllocated, int samplesPerPixel) {
+        this.cuid = cuid;
+        this.modality = modality;
+        this.rows = rows;
+        this.columns = columns;
+        this.frames = frames;
+        this.bitsAllocated = bitsAllocated;
+        this.samplesPerPixel = samplesPerPixel;
+    }
+
+    public int pixelDataLength() {
+        return rows * columns * frames * samplesPerPixel * (bitsAllocated / 8);
+    }
+
+    public Attributes fileMetaInformation(Attributes dataset) {
+        return dataset.createFileMetaInformation(UID.ExplicitVRLittleEndian);
+    }
+
+    /**
+     * Creates a new instance of an (optionally shared) study and series.
+     */
+    public Attributes createDataset(String studyIUID, String seriesIUID) {
+        Attributes attrs = new Attributes(80);
+        attrs.setString(Tag.SpecificCharacterSet, VR.CS, "ISO_IR 100");
+        attrs.setString(Tag.ImageType, VR.CS, "ORIGINAL", "PRIMARY", "AXIAL");
+        attrs.setString(Tag.SOPClassUID, VR.UI, cuid);
+        attrs.setString(Tag.SOPInstanceUID, VR.UI, UIDUtils.createUID());
+        Date now = new Date();
+        attrs.setDate(Tag.StudyDateAndTime, now);
+        attrs.setDate(Tag.SeriesDateAndTime, now);
+        attrs.setDate(Tag.ContentDateAndTime, now);
+        attrs.setString(Tag.AccessionNumber, VR.SH, "A" + (now.getTime() % 1000000));
+        attrs.setString(Tag.Modality, VR.CS, modality);
+        attrs.setString(Tag.Manufacturer, VR.LO, "dcm4che.org");
+        attrs.setString(Tag.InstitutionName, VR.LO, "Performance Lab");
+        attrs.setString(Tag.ReferringPhysicianName, VR.PN, "Referring^Physician");
+        attrs.setString(Tag.StudyDescription, VR.LO, "Synthetic " + modality + " Study");
+        attrs.setString(Tag.SeriesDescription, VR.LO, "Synthetic " + modality + " Series");
+        attrs.setString(Tag.StationName, VR.SH, "PERF01");
+        attrs.setString(Tag.PatientName, VR.PN, "Benchmark^Patient");
+        attrs.setString(Tag.PatientID, VR.LO, "PERF-0001");
+        attrs.setString(Tag.IssuerOfPatientID, VR.LO, "DCM4CHEE");
+        attrs.setString(Tag.PatientBirthDate, VR.DA, "19700101");
+        attrs.setString(Tag.PatientSex, VR.CS, "O");
+        attrs.setString(Tag.BodyPartExamined, VR.CS, "CHEST");
+        attrs.setString(Tag.SliceThickness, VR.DS, "1.25");
+        attrs.setString(Tag.StudyInstanceUID, VR.UI, studyIUID);
+        attrs.setString(Tag.SeriesInstanceUID, VR.UI, seriesIUID);
+        attrs.setString(Tag.StudyID, VR.SH, "1");
+        attrs.setInt(Tag.SeriesNumber, VR.IS, 1);
+        attrs.setInt(Tag.InstanceNumber, VR.IS, 1);
+        attrs.setString(Tag.ImagePositionPatient, VR.DS, "-250", "-250", "100");
+        attrs.setString(Tag.ImageOrientationPatient, VR.DS, "1", "0", "0", "0", "1", "0");
+        attrs.setString(Tag.FrameOfReferenceUID, VR.UI, studyIUID + ".1");
+        attrs.setInt(Tag.SamplesPerPixel, VR.US, samplesPerPixel);
+        attrs.setString(Tag.PhotometricInterpretation, VR.CS,
+                samplesPerPixel == 3 ? "RGB" : "MONOCHROME2");
+        if (samplesPerPixel > 1)
+            attrs.setInt(Tag.PlanarConfiguration, VR.US, 0);
+        if (frames > 1)
+            attrs.setInt(Tag.NumberOfFrames, VR.IS, frames);
+        attrs.setInt(Tag.Rows, VR.US, rows);
+        attrs.setInt(Tag.Columns, VR.US, columns);
+        attrs.setString(Tag.PixelSpacing, VR.DS, "0.5", "0.5");
+        attrs.setInt(Tag.BitsAllocated, VR.US, bitsAllocated);
+        attrs.setInt(Tag.BitsStored, VR.US, bitsAllocated == 16 ? 12 : 8);
+        attrs.setInt(Tag.HighBit, VR.US, bitsAllocated == 16 ? 11 : 7);
+        attrs.setInt(Tag.PixelRepresentation, VR.US, 0);
+        if (samplesPerPixel == 1) {
+            attrs.setString(Tag.WindowCenter, VR.DS, "40");
+            attrs.setString(Tag.WindowWidth, VR.DS, "400");
+        }
+        byte[] pixelData = new byte[pixelDataLength()];
+        new Random(pixelData.length).nextBytes(pixelData);
+        attrs.setBytes(Tag.PixelData, bitsAllocated == 16 ? VR.OW : VR.OB,
+                pixelData);
+        return attrs;
+    }
+
+    public Attributes createDataset() {
+        return createDataset(UIDUtils.createUID(), UIDUtils.createUID());
+    }
+
+    /**
+     * Encodes the dataset (without File Meta Information) as it would arrive
+     * in the P-DATA-TF PDUs of a C-STORE RQ.
+     */
+    public static byte[] encode(Attributes dataset) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+        try (DicomOutputStream dos = new DicomOutputStream(out,
+                UID.ExplicitVRLittleEndian)) {
+            dos.writeDataset(null, dataset);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return out.toByteArray();
+    }
+}
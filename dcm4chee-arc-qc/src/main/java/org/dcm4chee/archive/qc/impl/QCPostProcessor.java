@@ -40,7 +40,9 @@ package org.dcm4chee.archive.qc.impl;
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
 
+import org.dcm4chee.archive.cache.SeriesAttributesCache;
 import org.dcm4chee.archive.qc.QCRetrieveBean;
+import org.dcm4chee.archive.query.impl.QueryResultCache;
 import org.dcm4chee.archive.sc.StructuralChangeContainer;
 import org.dcm4chee.archive.sc.StructuralChangeTransactionHook;
 import org.slf4j.Logger;
@@ -57,6 +59,12 @@ public class QCPostProcessor implements StructuralChangeTransactionHook {
     @Inject
     private QCRetrieveBean retrieveBean;
 
+    @Inject
+    private SeriesAttributesCache seriesAttributesCache;
+
+    @Inject
+    private QueryResultCache queryResultCache;
+
 //    public void observeQC(@Observes @Service(ServiceType.QCPOSTPROCESSING) QCEvent event) {
 //        LOG.info("QC operation successfull, starting post processing");
 //        //recalculate query Attributes
@@ -66,6 +74,8 @@ public class QCPostProcessor implements StructuralChangeTransactionHook {
     @Override
     public boolean beforeCommitStructuralChanges(StructuralChangeContainer changeContext) {
         LOG.info("QC operation successfull, starting post processing");
+        // changes may move series and studies between studies and patients
+        seriesAttributesCache.invalidateAll();
         //recalculate query Attributes
         retrieveBean.recalculateQueryAttributes(changeContext);
         return true;
@@ -73,7 +83,7 @@ public class QCPostProcessor implements StructuralChangeTransactionHook {
 
     @Override
     public void afterCommitStructuralChanges(StructuralChangeContainer changeContext) {
-        // NOP
+        queryResultCache.invalidateAll();
     }
 
 }
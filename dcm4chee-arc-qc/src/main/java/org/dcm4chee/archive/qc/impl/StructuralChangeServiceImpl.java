@@ -97,6 +97,7 @@ import org.dcm4chee.archive.entity.QCUpdateHistory.QCUpdateScope;
 import org.dcm4chee.archive.entity.RequestAttributes;
 import org.dcm4chee.archive.entity.Series;
 import org.dcm4chee.archive.entity.Study;
+import org.dcm4chee.archive.entity.Utils;
 import org.dcm4chee.archive.entity.VerifyingObserver;
 import org.dcm4chee.archive.iocm.RejectionDeleteService;
 import org.dcm4chee.archive.iocm.RejectionService;
@@ -1039,9 +1040,21 @@ public class StructuralChangeServiceImpl implements StructuralChangeService
     	if (sopIUIDs.isEmpty()) {
     		return Collections.emptyList();
     	}
-        return em.createNamedQuery(Instance.FIND_BY_SOP_INSTANCE_UID_EAGER_MANY, Instance.class)
-                .setParameter("uids", sopIUIDs)
-                .getResultList();
+        if (sopIUIDs.size() <= Utils.MAX_IN_LIST_SIZE) {
+            return em.createNamedQuery(Instance.FIND_BY_SOP_INSTANCE_UID_EAGER_MANY, Instance.class)
+                    .setParameter("uids", sopIUIDs)
+                    .getResultList();
+        }
+        // locate large numbers of instances by several statements, not
+        // exceeding the database limits of IN lists
+        ArrayList<Instance> instances = new ArrayList<Instance>(sopIUIDs.size());
+        for (String[] batch : Utils.splitInList(
+                sopIUIDs.toArray(new String[sopIUIDs.size()])))
+            instances.addAll(em.createNamedQuery(
+                        Instance.FIND_BY_SOP_INSTANCE_UID_EAGER_MANY, Instance.class)
+                    .setParameter("uids", Arrays.asList(batch))
+                    .getResultList());
+        return instances;
     }
 
     private void createQCDeleteHistory(Collection<Instance> rejectedInstances) {
@@ -0,0 +1,100 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2014
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.qido;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.enterprise.context.ApplicationScoped;
+
+/**
+ * Total numbers of matches of recent QIDO requests, reused as approximate
+ * count by requests with equal matching keys - typically the following pages
+ * of a paging client.
+ */
+@ApplicationScoped
+public class QidoCountCache {
+
+    private static final int MAX_ENTRIES = 1000;
+
+    private final ConcurrentHashMap<String, Entry> counts =
+            new ConcurrentHashMap<String, Entry>();
+
+    private static final class Entry {
+        final long count;
+        final long expires;
+
+        Entry(long count, long expires) {
+            this.count = count;
+            this.expires = expires;
+        }
+    }
+
+    /**
+     * Returns the cached count or -1, if there is none.
+     */
+    public long get(String key) {
+        Entry entry = counts.get(key);
+        if (entry == null)
+            return -1;
+        if (entry.expires < System.currentTimeMillis()) {
+            counts.remove(key, entry);
+            return -1;
+        }
+        return entry.count;
+    }
+
+    public void put(String key, long count, int validitySeconds) {
+        if (validitySeconds <= 0)
+            return;
+
+        long now = System.currentTimeMillis();
+        if (counts.size() >= MAX_ENTRIES)
+            purge(now);
+        counts.put(key, new Entry(count, now + validitySeconds * 1000L));
+    }
+
+    private void purge(long now) {
+        for (Iterator<Entry> it = counts.values().iterator(); it.hasNext();)
+            if (it.next().expires < now)
+                it.remove();
+        if (counts.size() >= MAX_ENTRIES)
+            counts.clear();
+    }
+}
@@ -39,11 +39,14 @@ package org.dcm4chee.archive.qido;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
 
 import javax.inject.Inject;
 import javax.json.Json;
@@ -57,6 +60,7 @@ import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.Response.Status;
 import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriInfo;
@@ -82,6 +86,7 @@ import org.dcm4che3.util.StringUtils;
 import org.dcm4che3.ws.rs.MediaTypes;
 import org.dcm4chee.archive.conf.ArchiveAEExtension;
 import org.dcm4chee.archive.conf.QueryParam;
+import org.dcm4chee.archive.monitoring.api.MonitoredService;
 import org.dcm4chee.archive.query.Query;
 import org.dcm4chee.archive.query.QueryContext;
 import org.dcm4chee.archive.query.QueryService;
@@ -89,7 +94,6 @@ import org.dcm4chee.archive.query.QueryServiceUtils;
 import org.dcm4chee.archive.query.util.QueryBuilder;
 import org.dcm4chee.archive.rs.HostAECache;
 import org.dcm4chee.archive.rs.HttpSource;
-import org.jboss.resteasy.plugins.providers.multipart.MultipartRelatedOutput;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -109,6 +113,13 @@ public class QidoRS {
     private static final int STATUS_OK = 200;
     private static final int STATUS_PARTIAL_CONTENT = 206;
 
+    private static final String TOTAL_COUNT_HEADER = "X-Total-Count";
+
+    private static final String CONTINUATION_TOKEN_HEADER = "X-Continuation-Token";
+
+    private static final List<String> NOT_MATCHING_PARAMS = Arrays.asList(
+            "offset", "limit", "orderby", "includefield", "count", "continuation");
+
     private static final Logger LOG = LoggerFactory.getLogger(QidoRS.class);
 
     private static ElementDictionary DICT =
@@ -162,6 +173,9 @@ public class QidoRS {
     @Inject
     private HostAECache hostAECache;
 
+    @Inject
+    private QidoCountCache countCache;
+
     @Context
     private HttpServletRequest request;
 
@@ -192,6 +206,12 @@ public class QidoRS {
     @javax.ws.rs.QueryParam("orderby")
     private List<String> orderby;
 
+    @javax.ws.rs.QueryParam("count")
+    private String count;
+
+    @javax.ws.rs.QueryParam("continuation")
+    private String continuation;
+
     private OrderSpecifier<?>[] orderSpecifiers;
 
     private final Attributes keys = new Attributes(64);
@@ -230,6 +250,7 @@ public class QidoRS {
     @GET
     @Path("/studies")
     @Produces("multipart/related;type=application/dicom+xml")
+    @MonitoredService(name = { "dicom", "service", "rs", "QidoRS" })
     public Response searchForStudiesXML() throws Exception {
         return search("searchForStudiesXML", QueryRetrieveLevel.STUDY,
                 false, null, null, STUDY_FIELDS, Output.DICOM_XML);
@@ -238,6 +259,7 @@ public class QidoRS {
     @GET
     @Path("/studies")
     @Produces("application/json")
+    @MonitoredService(name = { "dicom", "service", "rs", "QidoRS" })
     public Response searchForStudiesJSON() throws Exception {
         return search("searchForStudiesJSON", QueryRetrieveLevel.STUDY,
                 false, null, null, STUDY_FIELDS, Output.JSON);
@@ -246,6 +268,7 @@ public class QidoRS {
     @GET
     @Path("/series")
     @Produces("multipart/related;type=application/dicom+xml")
+    @MonitoredService(name = { "dicom", "service", "rs", "QidoRS" })
     public Response searchForSeriesXML() throws Exception {
         return search("searchForSeriesXML",
                 QueryRetrieveLevel.SERIES, true, null, null,
@@ -255,6 +278,7 @@ public class QidoRS {
     @GET
     @Path("/series")
     @Produces("application/json")
+    @MonitoredService(name = { "dicom", "service", "rs", "QidoRS" })
     public Response searchForSeriesJSON() throws Exception {
         return search("searchForSeriesJSON",
                 QueryRetrieveLevel.SERIES, true, null, null,
@@ -264,6 +288,7 @@ public class QidoRS {
     @GET
     @Path("/studies/{StudyInstanceUID}/series")
     @Produces("multipart/related;type=application/dicom+xml")
+    @MonitoredService(name = { "dicom", "service", "rs", "QidoRS" })
     public Response searchForSeriesOfStudyXML(
             @PathParam("StudyInstanceUID") String studyInstanceUID) throws Exception {
         return search("searchForSeriesOfStudyXML", QueryRetrieveLevel.SERIES,
@@ -273,6 +298,7 @@ public class QidoRS {
     @GET
     @Path("/studies/{StudyInstanceUID}/series")
     @Produces("application/json")
+    @MonitoredService(name = { "dicom", "service", "rs", "QidoRS" })
     public Response searchForSeriesOfStudyJSON(
             @PathParam("StudyInstanceUID") String studyInstanceUID) throws Exception {
         return search("searchForSeriesOfStudyJSON", QueryRetrieveLevel.SERIES,
@@ -282,6 +308,7 @@ public class QidoRS {
     @GET
     @Path("/instances")
     @Produces("multipart/related;type=application/dicom+xml")
+    @MonitoredService(name = { "dicom", "service", "rs", "QidoRS" })
     public Response searchForInstancesXML() throws Exception {
         return search("searchForInstancesXML",
                 QueryRetrieveLevel.IMAGE, true, null, null,
@@ -291,6 +318,7 @@ public class QidoRS {
     @GET
     @Path("/instances")
     @Produces("application/json")
+    @MonitoredService(name = { "dicom", "service", "rs", "QidoRS" })
     public Response searchForInstancesJSON() throws Exception {
         return search("searchForInstancesJSON",
                 QueryRetrieveLevel.IMAGE, true, null, null,
@@ -300,6 +328,7 @@ public class QidoRS {
     @GET
     @Path("/studies/{StudyInstanceUID}/instances")
     @Produces("multipart/related;type=application/dicom+xml")
+    @MonitoredService(name = { "dicom", "service", "rs", "QidoRS" })
     public Response searchForInstancesOfStudyXML(
             @PathParam("StudyInstanceUID") String studyInstanceUID) throws Exception {
         return search("searchForInstancesOfStudyXML", QueryRetrieveLevel.IMAGE,
@@ -309,6 +338,7 @@ public class QidoRS {
     @GET
     @Path("/studies/{StudyInstanceUID}/instances")
     @Produces("application/json")
+    @MonitoredService(name = { "dicom", "service", "rs", "QidoRS" })
     public Response searchForInstancesOfStudyJSON(
             @PathParam("StudyInstanceUID") String studyInstanceUID) throws Exception {
         return search("searchForInstancesOfStudyJSON", QueryRetrieveLevel.IMAGE,
@@ -318,6 +348,7 @@ public class QidoRS {
     @GET
     @Path("/studies/{StudyInstanceUID}/series/{SeriesInstanceUID}/instances")
     @Produces("multipart/related;type=application/dicom+xml")
+    @MonitoredService(name = { "dicom", "service", "rs", "QidoRS" })
     public Response searchForInstancesOfSeriesXML(
             @PathParam("StudyInstanceUID") String studyInstanceUID,
             @PathParam("SeriesInstanceUID") String seriesInstanceUID) throws Exception {
@@ -329,6 +360,7 @@ public class QidoRS {
     @GET
     @Path("/studies/{StudyInstanceUID}/series/{SeriesInstanceUID}/instances")
     @Produces("application/json")
+    @MonitoredService(name = { "dicom", "service", "rs", "QidoRS" })
     public Response searchForInstancesOfSeriesJSON(
             @PathParam("StudyInstanceUID") String studyInstanceUID,
             @PathParam("SeriesInstanceUID") String seriesInstanceUID) throws Exception {
@@ -346,22 +378,38 @@ public class QidoRS {
                 includetags);
 
         Query query = QueryServiceUtils.createQuery(queryService, qrlevel, queryContext);
+        boolean streaming = false;
         try {
-            query.initQuery();
+            try {
+                query.initQuery();
+            } catch (IllegalArgumentException e) {
+                throw new WebApplicationException(e, Status.BAD_REQUEST);
+            }
+            // looking ahead probes the keys of the following matches by a
+            // separate query, so the cursor does not need to be scrollable
+            query.forwardOnly();
             int status = STATUS_OK;
             int maxResults = arcAE.getQIDOMaxNumberOfResults();
             int offset = Math.max(this.offset, 0);
             int limit = Math.max(this.limit, 0);
-            if (maxResults > 0 && (limit == 0 || limit >  maxResults)) {
-                int numResults = (int) (query.count() - offset);
-                if (numResults == 0)
-                    return Response.ok().build();
-    
-                if (numResults > maxResults) {
-                    limit = maxResults;
-                    status = STATUS_PARTIAL_CONTENT;
+            long total = totalNumberOfMatches(query);
+            boolean truncate = maxResults > 0 && (limit == 0 || limit > maxResults);
+            if (truncate)
+                limit = maxResults;
+
+            // keyset pagination: the page follows the match of the token,
+            // an empty token requests the first page
+            boolean seek = continuation != null;
+            if (seek) {
+                if (offset > 0 || orderSpecifiers != null)
+                    throw new WebApplicationException(Status.BAD_REQUEST);
+                try {
+                    query.seekAfter(continuation);
+                } catch (IllegalArgumentException e) {
+                    throw new WebApplicationException(e, Status.BAD_REQUEST);
                 }
             }
+
             if (offset > 0)
                 query.offset(offset);
             
@@ -370,18 +418,69 @@ public class QidoRS {
     
             if (orderSpecifiers != null)
                 query.orderBy(orderSpecifiers);
-    
+
+            // detects if there are more matches before the matches are
+            // streamed, without reading the matches of the page
+            boolean probe = truncate || seek && limit > 0;
+            boolean more = probe && query.hasMoreMatchesThan(limit);
+            if (truncate && more)
+                status = STATUS_PARTIAL_CONTENT;
+
+            String continuationToken = seek && more
+                    ? query.continuationToken(limit)
+                    : null;
+
             query.executeQuery();
             if (!query.hasMoreMatches())
                 return Response.ok().build();
-    
-            return Response.status(status).entity(
-                    output.entity(this, query, qrlevel)).build();
+
+            // the query is closed by the output, after the last match
+            ResponseBuilder response = output.response(this, query, qrlevel,
+                    status, probe ? limit : 0);
+            if (total >= 0)
+                response.header(TOTAL_COUNT_HEADER, total);
+            if (continuationToken != null)
+                response.header(CONTINUATION_TOKEN_HEADER, continuationToken);
+            streaming = true;
+            return response.build();
         } finally {
-            query.close();
+            if (!streaming)
+                query.close();
         }
     }
 
+    /**
+     * Returns the total number of matches requested by parameter
+     * {@code count=exact} or {@code count=approximate}, or -1 if not
+     * requested. An approximate count may be reused from an equal preceding
+     * request.
+     */
+    private long totalNumberOfMatches(Query query) {
+        if (count == null)
+            return -1;
+
+        if (count.equals("exact"))
+            return query.count();
+
+        if (!count.equals("approximate"))
+            throw new WebApplicationException(Status.BAD_REQUEST);
+
+        String key = countKey();
+        long total = countCache.get(key);
+        if (total < 0) {
+            total = query.count();
+            countCache.put(key, total, arcAE.getQIDOApproximateCountValidity());
+        }
+        return total;
+    }
+
+    private String countKey() {
+        TreeMap<String, List<String>> params =
+                new TreeMap<String, List<String>>(uriInfo.getQueryParameters());
+        params.keySet().removeAll(NOT_MATCHING_PARAMS);
+        return queryContext.getRemoteAET() + '|' + uriInfo.getPath() + '|' + params;
+    }
+
     /**
      * Initializes query options and parameters
      * 
@@ -475,6 +574,9 @@ public class QidoRS {
 
     private static boolean isDicomAttribute(String name) {
         switch (name.charAt(0)) {
+        case 'c':
+            return !name.equals("count")
+                && !name.equals("continuation");
         case 'd':
             return !name.equals("datetimematching");
         case 'f':
@@ -585,78 +687,111 @@ public class QidoRS {
     private enum Output {
         DICOM_XML {
             @Override
-            Object entity(QidoRS service, Query query, QueryRetrieveLevel qrlevel) {
-                return service.writeXML(query, qrlevel);
+            ResponseBuilder response(QidoRS service, Query query,
+                    QueryRetrieveLevel qrlevel, int status, int maxMatches) {
+                String boundary = UUID.randomUUID().toString();
+                return Response.status(status)
+                        .type("multipart/related;type=\""
+                                + MediaTypes.APPLICATION_DICOM_XML
+                                + "\";boundary=" + boundary)
+                        .entity(service.writeXML(query, qrlevel, boundary,
+                                maxMatches));
             }
         },
         JSON {
             @Override
-            Object entity(QidoRS service, Query query, QueryRetrieveLevel qrlevel) {
-                return service.writeJSON(query, qrlevel);
+            ResponseBuilder response(QidoRS service, Query query,
+                    QueryRetrieveLevel qrlevel, int status, int maxMatches) {
+                return Response.status(status)
+                        .entity(service.writeJSON(query, qrlevel, maxMatches));
             }
         };
-        
-        abstract Object entity(QidoRS service, Query query, QueryRetrieveLevel qrlevel);
-    }
-
-    private Object writeXML(Query query, QueryRetrieveLevel qrlevel) {
-        MultipartRelatedOutput output = new MultipartRelatedOutput();
-        int count = 0;
-        while (query.hasMoreMatches()) {
-            Attributes tmp = query.nextMatch();
-            if (tmp == null)
-                continue;
-            final Attributes match = adjust(tmp, qrlevel, query);
-            LOG.debug("{}: Match #{}:\n{}", new Object[]{method, ++count, match});
-            output.addPart(new StreamingOutput() {
-
-                @Override
-                public void write(OutputStream out) throws IOException,
-                        WebApplicationException {
-                    try {
+
+        abstract ResponseBuilder response(QidoRS service, Query query,
+                QueryRetrieveLevel qrlevel, int status, int maxMatches);
+    }
+
+    /**
+     * Writes the matches - at most {@code maxMatches}, if not 0 - as they are
+     * fetched from the query, which is closed after the last match.
+     */
+    private StreamingOutput writeXML(final Query query,
+            final QueryRetrieveLevel qrlevel, final String boundary,
+            final int maxMatches) {
+        return new StreamingOutput() {
+
+            @Override
+            public void write(OutputStream out) throws IOException,
+                    WebApplicationException {
+                byte[] delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.US_ASCII);
+                byte[] partHeader = ("\r\nContent-Type: "
+                        + MediaTypes.APPLICATION_DICOM_XML + "\r\n\r\n")
+                        .getBytes(StandardCharsets.US_ASCII);
+                int count = 0;
+                int fetched = 0;
+                try {
+                    while ((maxMatches == 0 || fetched++ < maxMatches)
+                            && query.hasMoreMatches()) {
+                        Attributes tmp = query.nextMatch();
+                        if (tmp == null)
+                            continue;
+                        Attributes match = adjust(tmp, qrlevel, query);
+                        LOG.debug("{}: Match #{}:\n{}", new Object[]{method, ++count, match});
+                        out.write(delimiter);
+                        out.write(partHeader);
                         SAXTransformer.getSAXWriter(new StreamResult(out)).write(match);
-                    } catch (Exception e) {
-                        throw new WebApplicationException(e);
                     }
-                }},
-                MediaTypes.APPLICATION_DICOM_XML_TYPE);
-        }
-        LOG.info("{}: {} Matches", method, count);
-        return output;
-    }
-
-    private Object writeJSON(Query query, QueryRetrieveLevel qrlevel) {
-        final ArrayList<Attributes> matches = new ArrayList<Attributes>();
-        int count = 0;
-        while (query.hasMoreMatches()) {
-            Attributes tmp = query.nextMatch();
-            if (tmp == null)
-                continue;
-            Attributes match = adjust(tmp, qrlevel, query);
-            LOG.debug("{}: Match #{}:\n{}", new Object[]{method, ++count, match});
-            matches.add(match);
-        }
-        LOG.info("{}: {} Matches", method, count);
-        StreamingOutput output = new StreamingOutput(){
+                    out.write(delimiter);
+                    out.write("--\r\n".getBytes(StandardCharsets.US_ASCII));
+                } catch (IOException | WebApplicationException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new WebApplicationException(e);
+                } finally {
+                    query.close();
+                    LOG.info("{}: {} Matches", method, count);
+                }
+            }
+        };
+    }
+
+    /**
+     * Writes the matches - at most {@code maxMatches}, if not 0 - as they are
+     * fetched from the query, which is closed after the last match.
+     */
+    private StreamingOutput writeJSON(final Query query,
+            final QueryRetrieveLevel qrlevel, final int maxMatches) {
+        return new StreamingOutput() {
 
             @Override
             public void write(OutputStream out) throws IOException {
+                int count = 0;
+                int fetched = 0;
                 try {
                     JsonGenerator gen = Json.createGenerator(out);
                     JSONWriter writer = new JSONWriter(gen);
                     gen.writeStartArray();
-                    for (int i = 0, n=matches.size(); i < n; i++) {
-                            Attributes match = matches.get(i);
-                            writer.write(match);
+                    while ((maxMatches == 0 || fetched++ < maxMatches)
+                            && query.hasMoreMatches()) {
+                        Attributes tmp = query.nextMatch();
+                        if (tmp == null)
+                            continue;
+                        Attributes match = adjust(tmp, qrlevel, query);
+                        LOG.debug("{}: Match #{}:\n{}", new Object[]{method, ++count, match});
+                        writer.write(match);
                     }
                     gen.writeEnd();
                     gen.flush();
+                } catch (WebApplicationException e) {
+                    throw e;
                 } catch (Exception e) {
                     throw new WebApplicationException(e);
+                } finally {
+                    query.close();
+                    LOG.info("{}: {} Matches", method, count);
                 }
             }
         };
-        return output;
     }
 
     private Attributes adjust(Attributes match, QueryRetrieveLevel qrlevel, Query query) {
@@ -39,6 +39,7 @@
 
 package org.dcm4chee.archive.query.scp;
 
+import java.io.IOException;
 import java.util.EnumSet;
 
 import javax.enterprise.event.Event;
@@ -49,6 +50,9 @@ import org.dcm4che3.data.Attributes;
 import org.dcm4che3.data.Tag;
 import org.dcm4che3.net.ApplicationEntity;
 import org.dcm4che3.net.Association;
+import org.dcm4che3.net.Device;
+import org.dcm4che3.net.Dimse;
+import org.dcm4che3.net.PDVInputStream;
 import org.dcm4che3.net.QueryOption;
 import org.dcm4che3.net.Status;
 import org.dcm4che3.net.pdu.ExtendedNegotiation;
@@ -58,11 +62,15 @@ import org.dcm4che3.net.service.DicomServiceException;
 import org.dcm4che3.net.service.QueryRetrieveLevel;
 import org.dcm4che3.net.service.QueryTask;
 import org.dcm4chee.archive.conf.ArchiveAEExtension;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
 import org.dcm4chee.archive.conf.QueryParam;
 import org.dcm4chee.archive.dto.LocalAssociationParticipant;
+import org.dcm4chee.archive.monitoring.api.MonitoredService;
 import org.dcm4chee.archive.query.Query;
 import org.dcm4chee.archive.query.QueryContext;
 import org.dcm4chee.archive.query.QueryService;
+import org.dcm4chee.archive.query.impl.EmptyQuery;
+import org.dcm4chee.archive.query.impl.PrefetchingQuery;
 import org.dcm4chee.archive.query.impl.QueryEvent;
 
 /**
@@ -88,6 +96,13 @@ public abstract class QueryCFindSCP extends BasicCFindSCP {
         this.rootLevel = rootLevel;
     }
 
+    @Override
+    @MonitoredService(name = { "dicom", "service", "dimse", "CFindSCP" })
+    public void onDimseRQ(Association as, PresentationContext pc, Dimse dimse,
+            Attributes rq, PDVInputStream data) throws IOException {
+        super.onDimseRQ(as, pc, dimse, rq, data);
+    }
+
     @Override
     protected QueryTask calculateMatches(Association as, PresentationContext pc,
             Attributes rq, Attributes keys) throws DicomServiceException {
@@ -99,6 +114,8 @@ public abstract class QueryCFindSCP extends BasicCFindSCP {
 
         ApplicationEntity ae = as.getApplicationEntity();
         ArchiveAEExtension arcAE = ae.getAEExtension(ArchiveAEExtension.class);
+        ArchiveDeviceExtension arcDev = ae.getDevice()
+                .getDeviceExtension(ArchiveDeviceExtension.class);
         try {
             QueryParam queryParam = queryService.getQueryParam(
                     as, as.getRemoteAET(), arcAE, queryOpts, null);
@@ -112,9 +129,11 @@ public abstract class QueryCFindSCP extends BasicCFindSCP {
             queryService.coerceRequestAttributes(ctx);
             queryService.initPatientIDs(ctx);
 
-            Query query = createQuery(ctx, relational);
+            Query query = prefetching(createQuery(ctx, relational),
+                    arcDev.getQueryPrefetchSize(), ae.getDevice());
             try {
                 query.initQuery();
+                query.fetchSize(arcDev.getQueryFetchSize());
                 query.executeQuery();
             } catch (Exception e) {
                 query.close();
@@ -135,6 +154,20 @@ public abstract class QueryCFindSCP extends BasicCFindSCP {
         }
     }
 
+    /**
+     * Wraps the query to fetch its matches by a separate thread - using a
+     * forward-only cursor - while the C-FIND responses are sent, if
+     * configured by the Query Prefetch Size of the device.
+     */
+    private static Query prefetching(Query query, int prefetchSize,
+            Device device) {
+        if (prefetchSize <= 0 || query instanceof EmptyQuery)
+            return query;
+
+        query.forwardOnly();
+        return new PrefetchingQuery(query, device.getExecutor(), prefetchSize);
+    }
+
     protected abstract Query createQuery(QueryContext ctx, boolean relational) throws DicomServiceException;
 
 }
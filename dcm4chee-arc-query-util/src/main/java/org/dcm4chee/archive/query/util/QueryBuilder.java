@@ -67,11 +67,11 @@ import org.dcm4chee.archive.entity.QSeriesQueryAttributes;
 import org.dcm4chee.archive.entity.QStudy;
 import org.dcm4chee.archive.entity.QStudyQueryAttributes;
 import org.dcm4chee.archive.entity.QVerifyingObserver;
+import org.dcm4chee.archive.entity.Utils;
 
 import com.mysema.query.BooleanBuilder;
 import com.mysema.query.jpa.hibernate.HibernateQuery;
 import com.mysema.query.jpa.hibernate.HibernateSubQuery;
-import com.mysema.query.types.CollectionExpression;
 import com.mysema.query.types.EntityPath;
 import com.mysema.query.types.ExpressionUtils;
 import com.mysema.query.types.Path;
@@ -432,37 +432,12 @@ public class QueryBuilder {
                     : QInstance.instance.rejectionNoteCode.isNull();
         }
                     
-//        BooleanExpression showRejected =
-//                QInstance.instance.rejectionNoteCode.in(toCodes(codes));
-        CollectionExpression<List<Code>,Code> matchingCodes = getMatchingCodesSubQuery(codes);
         BooleanExpression showRejected =
-                QInstance.instance.rejectionNoteCode.in(matchingCodes);
+                QInstance.instance.rejectionNoteCodeKey.in(Code.toKeys(codes));
         
         return queryRetrieveView.isHideNotRejectedInstances()
                 ? showRejected
-                : QInstance.instance.rejectionNoteCode.isNull().or(showRejected);
-    }
-    
-    // TODO: QUICK-FIX: This produces a possibly very slow subquery for Codes: TRY TO FIND OTHER SOLUTION THAT
-    // DOES NOT INVOLVE QUERY
-    private static CollectionExpression<List<Code>, Code> getMatchingCodesSubQuery(org.dcm4che3.data.Code[] codes) {
-        HibernateSubQuery codesSubQuery = new HibernateSubQuery().from(QCode.code);
-        
-        if(codes.length == 0) {
-            throw new IllegalArgumentException("Matching codes subquery not implemented for empty codes");
-        } else if(codes.length == 1) {
-            return codesSubQuery.where(QCode.code.codeValue.eq(codes[0].getCodeValue())
-                    .and(QCode.code.codingSchemeDesignator.eq(codes[0].getCodingSchemeDesignator()))).list(QCode.code);
-        } else {
-            BooleanBuilder booleanBuilder = new BooleanBuilder();
-            for (org.dcm4che3.data.Code c : codes) {
-                BooleanExpression exp = QCode.code.codeValue.eq(c.getCodeValue()).and(
-                        QCode.code.codingSchemeDesignator.eq(c.getCodingSchemeDesignator()));
-                booleanBuilder.or(exp);
-            }
-
-            return codesSubQuery.where(booleanBuilder).list(QCode.code);
-        }
+                : QInstance.instance.rejectionNoteCodeKey.isNull().or(showRejected);
     }
 
     public static Predicate hideRejectionNote(QueryParam queryParam) {
@@ -471,21 +446,10 @@ public class QueryBuilder {
         if (codes.length == 0)
             return null;
         
-//        return QInstance.instance.conceptNameCode.isNull().or(
-//                QInstance.instance.conceptNameCode.notIn(toCodes(codes)));
-        CollectionExpression<List<Code>,Code> matchingCodes = getMatchingCodesSubQuery(codes);
-        return QInstance.instance.conceptNameCode.isNull().or(
-                QInstance.instance.conceptNameCode.notIn(matchingCodes));
+        return QInstance.instance.conceptNameCodeKey.isNull().or(
+                QInstance.instance.conceptNameCodeKey.notIn(Code.toKeys(codes)));
     }
 
-//    private static Code[] toCodes(org.dcm4che3.data.Code[] in) {
-//        Code[] out = new Code[in.length];
-//        for (int i = 0; i < out.length; i++) {
-//            out[i] = (Code) in[i];
-//        }
-//        return out;
-//    }
-
     public static Predicate pids(IDWithIssuer[] pids,
             boolean matchLinkedPatientIDs, boolean matchUnknown) {
         if (pids == null || pids.length == 0)
@@ -643,7 +607,51 @@ public class QueryBuilder {
         if (values == null || values.length == 0 || same(values[0], nullValue))
             return null;
 
-        return matchUnknown(path.in(values), path, matchUnknown, nullValue);
+        return matchUnknown(in(path, values), path, matchUnknown, nullValue);
+    }
+
+    /**
+     * Matches any of the values by IN lists of at most
+     * {@link Utils#MAX_IN_LIST_SIZE} values, to not exceed the maximal
+     * length of one IN list of the database. All values are still bound to
+     * the same statement, so callers may have to limit the total number of
+     * values - see {@link #checkInListParameters}.
+     */
+    public static BooleanExpression in(StringPath path, String[] values) {
+        if (values.length <= Utils.MAX_IN_LIST_SIZE)
+            return path.in(values);
+
+        BooleanExpression any = null;
+        for (String[] batch : Utils.splitInList(values))
+            any = any == null ? path.in(batch) : any.or(path.in(batch));
+        return any;
+    }
+
+    /**
+     * Throws {@code IllegalArgumentException} if the UID lists of the keys
+     * would bind more than {@code maxParameters} values to the statement of
+     * a query, as configured for databases with a limit of parameters per
+     * statement - e.g. SQL Server. {@code 0} = no limit.
+     */
+    public static void checkInListParameters(Attributes keys, int maxParameters) {
+        if (keys == null || maxParameters <= 0)
+            return;
+
+        int count = count(keys, Tag.StudyInstanceUID)
+                + count(keys, Tag.SeriesInstanceUID)
+                + count(keys, Tag.SOPInstanceUID)
+                + count(keys, Tag.SOPClassUID);
+        Attributes item = keys.getNestedDataset(Tag.RequestAttributesSequence);
+        if (item != null)
+            count += count(item, Tag.StudyInstanceUID);
+        if (count > maxParameters)
+            throw new IllegalArgumentException("Number of UIDs: " + count
+                    + " exceeds limit: " + maxParameters);
+    }
+
+    private static int count(Attributes keys, int tag) {
+        String[] values = keys.getStrings(tag);
+        return values != null ? values.length : 0;
     }
 
     static Predicate modalitiesInStudy(String modality, boolean matchUnknown, String nullValue) {
@@ -60,10 +60,53 @@ public interface Query {
 
     void orderBy(OrderSpecifier<?>... orderSpecifiers);
 
+    /**
+     * Sets the number of rows fetched from the database per round-trip,
+     * {@code 0} = JDBC driver default. Has to be invoked before
+     * {@link #executeQuery()}.
+     */
+    void fetchSize(int fetchSize);
+
+    /**
+     * Scrolls the matches by a forward-only cursor, which is cheaper than
+     * the default scroll sensitive cursor and - for some JDBC drivers - the
+     * precondition for fetching rows in chunks of {@link #fetchSize(int)}.
+     * Has to be invoked before {@link #executeQuery()}.
+     */
+    void forwardOnly();
+
+    /**
+     * Orders the matches by their primary key and - if a continuation token
+     * is specified - restricts them to the matches following the match the
+     * token was returned for (keyset pagination). Excludes other ordering
+     * and offsets.
+     *
+     * @throws IllegalArgumentException if the token is invalid
+     */
+    void seekAfter(String continuationToken);
+
+    /**
+     * Returns the continuation token of the match {@code numMatches - 1}
+     * matches after the current one - the last match of a page of
+     * {@code numMatches} - or {@code null}, if there are not that many
+     * matches remaining. Does not consume any match, but probes the key of
+     * that match by a separate query, ignoring the limit. May be invoked
+     * before {@link #executeQuery()}.
+     */
+    String continuationToken(int numMatches);
+
     boolean optionalKeysNotSupported();
 
     boolean hasMoreMatches();
 
+    /**
+     * Returns {@code true} if more than {@code numMatches} matches are
+     * remaining, ignoring the limit, without consuming any match. For
+     * {@code numMatches > 0} probes the key of the match following them by a
+     * separate query, so it may be invoked before {@link #executeQuery()}.
+     */
+    boolean hasMoreMatchesThan(int numMatches);
+
     Attributes nextMatch();
 
     void close();
@@ -38,11 +38,16 @@
 
 package org.dcm4chee.archive.query.impl;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 import org.dcm4che3.data.Attributes;
+import org.dcm4chee.archive.conf.QueryParam;
 import org.dcm4chee.archive.query.Query;
 import org.dcm4chee.archive.query.QueryContext;
+import org.dcm4chee.archive.query.util.QueryBuilder;
 import org.hibernate.ScrollMode;
 import org.hibernate.ScrollableResults;
 import org.hibernate.StatelessSession;
@@ -52,6 +57,7 @@ import com.mysema.query.types.EntityPath;
 import com.mysema.query.types.Expression;
 import com.mysema.query.types.OrderSpecifier;
 import com.mysema.query.types.Predicate;
+import com.mysema.query.types.path.NumberPath;
 
 /**
  * @author Gunter Zeilinger <gunterze@gmail.com>
@@ -59,6 +65,8 @@ import com.mysema.query.types.Predicate;
  */
 public abstract class AbstractQuery<E> implements Query {
 
+    private static final String CONTINUATION_TOKEN_PREFIX = "k1.";
+
     protected final QueryContext context;
 
     protected final StatelessSession session;
@@ -68,11 +76,36 @@ public abstract class AbstractQuery<E> implements Query {
     protected HibernateQuery query;
 
     private boolean hasMoreMatches;
+
+    // to probe the keys of following matches by a separate query
+    private Predicate predicate;
+    private Long seekKey;
+    private long offset;
+    private final List<OrderSpecifier<?>> orderSpecifiers =
+            new ArrayList<OrderSpecifier<?>>();
+
+    // keys probed at the position of probedFirst
+    private List<Long> probedKeys;
+    private long probedFirst = -1;
+
+    private ScrollMode scrollMode = ScrollMode.SCROLL_SENSITIVE;
  
     private boolean optionalKeyNotSupported;
 
     private final EntityPath<E> entityPath;
 
+    private QueryMonitor monitor;
+
+    private String level;
+
+    private long sqlNanos;
+
+    private long decodeNanos;
+
+    private int numMatches;
+
+    private boolean executed;
+
     public AbstractQuery(QueryContext context, StatelessSession session,
             EntityPath<E> entityPath) {
         this.context = context;
@@ -80,6 +113,14 @@ public abstract class AbstractQuery<E> implements Query {
         this.entityPath = entityPath;
     }
 
+    /**
+     * Reports the SQL and decode time of this query on {@link #close()}.
+     */
+    public void setMonitor(QueryMonitor monitor, String level) {
+        this.monitor = monitor;
+        this.level = level;
+    }
+
     @Override
     public QueryContext getQueryContext() {
         return context;
@@ -87,9 +128,21 @@ public abstract class AbstractQuery<E> implements Query {
 
     @Override
     public void initQuery() {
+        // large UID lists - e.g. of QIDO-RS requests - are ORed IN lists of
+        // one statement, which must not exceed the parameter limit of the
+        // database, if configured
+        QueryParam queryParam = context.getQueryParam();
+        if (queryParam != null)
+            QueryBuilder.checkInListParameters(context.getKeys(),
+                    queryParam.getMaxInListParameters());
+        predicate = predicate();
+        query = newQuery();
+    }
+
+    private HibernateQuery newQuery() {
         HibernateQuery q = new HibernateQuery(session).from(entityPath);
         q = applyJoins(q);
-        query = q.where(predicate());
+        return q.where(predicate);
     }
 
     protected abstract Expression<?>[] select();
@@ -100,16 +153,30 @@ public abstract class AbstractQuery<E> implements Query {
 
     protected abstract Attributes toAttributes(ScrollableResults results, QueryContext context);
 
+    /**
+     * Primary key of the queried entity, used for keyset pagination.
+     */
+    protected abstract NumberPath<Long> keyPath();
+
     @Override
     public void executeQuery() {
-        results = query.scroll(ScrollMode.SCROLL_SENSITIVE, select());
+        long start = System.nanoTime();
+        results = monitor != null
+                ? monitor.scroll(query, scrollMode, select())
+                : query.scroll(scrollMode, select());
         hasMoreMatches = results.next();
+        sqlNanos += System.nanoTime() - start;
+        executed = true;
     }
 
     @Override
     public long count() {
         checkQuery();
-        return query.count();
+        long start = System.nanoTime();
+        long count = monitor != null ? monitor.count(query) : query.count();
+        sqlNanos += System.nanoTime() - start;
+        executed = true;
+        return count;
     }
 
     @Override
@@ -121,15 +188,61 @@ public abstract class AbstractQuery<E> implements Query {
     @Override
     public void offset(long offset) {
         checkQuery();
+        this.offset = offset;
         query.offset(offset);
     }
 
     @Override
     public void orderBy(OrderSpecifier<?>... orderSpecifiers) {
         checkQuery();
+        this.orderSpecifiers.addAll(Arrays.asList(orderSpecifiers));
         query.orderBy(orderSpecifiers);
     }
 
+    @Override
+    public void fetchSize(int fetchSize) {
+        checkQuery();
+        if (fetchSize > 0)
+            query.setFetchSize(fetchSize);
+    }
+
+    @Override
+    public void forwardOnly() {
+        scrollMode = ScrollMode.FORWARD_ONLY;
+    }
+
+    @Override
+    public void seekAfter(String continuationToken) {
+        checkQuery();
+        NumberPath<Long> key = keyPath();
+        if (continuationToken != null && !continuationToken.isEmpty()) {
+            seekKey = decodeContinuationToken(continuationToken);
+            query.where(key.gt(seekKey));
+        }
+        orderSpecifiers.add(key.asc());
+        query.orderBy(key.asc());
+    }
+
+    @Override
+    public String continuationToken(int numMatches) {
+        if (numMatches <= 0)
+            return null;
+
+        List<Long> keys = probeKeys(numMatches - 1);
+        return keys.isEmpty() ? null : encodeContinuationToken(keys.get(0));
+    }
+
+    private static String encodeContinuationToken(long pk) {
+        return CONTINUATION_TOKEN_PREFIX + Long.toString(pk, 36);
+    }
+
+    private static long decodeContinuationToken(String token) {
+        if (!token.startsWith(CONTINUATION_TOKEN_PREFIX))
+            throw new IllegalArgumentException(token);
+        return Long.parseLong(
+                token.substring(CONTINUATION_TOKEN_PREFIX.length()), 36);
+    }
+
     @Override
     public boolean optionalKeysNotSupported() {
         return optionalKeyNotSupported;
@@ -140,12 +253,55 @@ public abstract class AbstractQuery<E> implements Query {
         return hasMoreMatches;
     }
 
+    @Override
+    public boolean hasMoreMatchesThan(int numMatches) {
+        if (numMatches <= 0)
+            return numMatches < 0 || hasMoreMatches;
+
+        return probeKeys(numMatches - 1).size() > 1;
+    }
+
+    /**
+     * Returns the keys of the matches {@code skip} and {@code skip + 1}
+     * after the current one, selected by a separate query of only the keys,
+     * instead of reading and decoding the matches in between - which would
+     * hold a whole page of matches - or positioning the cursor forth and
+     * back - which some JDBC drivers implement by re-executing the query or
+     * by reading all rows.
+     */
+    private List<Long> probeKeys(int skip) {
+        checkQuery();
+        long first = offset + numMatches + skip;
+        if (probedFirst != first) {
+            HibernateQuery q = newQuery();
+            if (seekKey != null)
+                q.where(keyPath().gt(seekKey));
+            if (!orderSpecifiers.isEmpty())
+                q.orderBy(orderSpecifiers.toArray(
+                        new OrderSpecifier<?>[orderSpecifiers.size()]));
+            long start = System.nanoTime();
+            probedKeys = q.offset(first).limit(2).list(keyPath());
+            sqlNanos += System.nanoTime() - start;
+            probedFirst = first;
+        }
+        return probedKeys;
+    }
+
     @Override
     public Attributes nextMatch() {
         if (!hasMoreMatches)
             throw new NoSuchElementException();
+
+        QueryMonitor.takeNestedSqlNanos();
+        long start = System.nanoTime();
         Attributes attrs = toAttributes(results, context);
+        long decoded = System.nanoTime();
+        // e.g. the query for the attributes of the series of an instance
+        long nestedSqlNanos = QueryMonitor.takeNestedSqlNanos();
         hasMoreMatches = results.next();
+        decodeNanos += decoded - start - nestedSqlNanos;
+        sqlNanos += System.nanoTime() - decoded + nestedSqlNanos;
+        numMatches++;
         return attrs;
     }
 
@@ -157,6 +313,12 @@ public abstract class AbstractQuery<E> implements Query {
     @Override
     public void close() {
         session.close();
+        // queries answered from the result cache are not executed
+        if (monitor != null && executed) {
+            monitor.record(level, context.getKeys(), sqlNanos, decodeNanos,
+                    numMatches);
+            monitor = null;
+        }
     }
 
 }
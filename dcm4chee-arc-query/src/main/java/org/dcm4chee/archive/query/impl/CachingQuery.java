@@ -0,0 +1,217 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2014
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package org.dcm4chee.archive.query.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4chee.archive.query.Query;
+import org.dcm4chee.archive.query.QueryContext;
+
+import com.mysema.query.types.OrderSpecifier;
+
+/**
+ * Query which returns the matches cached by the {@link QueryResultCache}
+ * for an equal query, or records the matches of the wrapped query and caches
+ * them, if all matches were consumed. A limited query, which was closed
+ * after consuming all but the last of its matches, consumes the remaining
+ * match on close, so the page also gets cached. Queries using keyset
+ * pagination are not cached. {@link #hasMoreMatchesThan(int)} is answered
+ * by the wrapped query, if invoked before {@link #executeQuery()}.
+ */
+class CachingQuery implements Query {
+
+    private final Query query;
+    private final QueryResultCache cache;
+    private final String level;
+    private final StringBuilder modifiers = new StringBuilder();
+    private boolean cacheable = true;
+    private String key;
+    private long stamp;
+    private int maxMatches;
+    private long limit;
+    private List<Attributes> cached;
+    private int index;
+    private ArrayList<Attributes> recorded;
+    private int numRecorded;
+
+    CachingQuery(Query query, QueryResultCache cache, String level) {
+        this.query = query;
+        this.cache = cache;
+        this.level = level;
+    }
+
+    @Override
+    public void initQuery() {
+        query.initQuery();
+    }
+
+    @Override
+    public void executeQuery() {
+        if (cacheable)
+            key = cache.key(level, query.getQueryContext(), modifiers.toString());
+        if (key != null) {
+            cached = cache.get(key);
+            if (cached != null)
+                return;
+
+            stamp = cache.stamp();
+            maxMatches = cache.maxMatches();
+            recorded = new ArrayList<Attributes>();
+        }
+        query.executeQuery();
+    }
+
+    @Override
+    public long count() {
+        return query.count();
+    }
+
+    @Override
+    public void limit(long limit) {
+        modifiers.append("limit=").append(limit).append(';');
+        this.limit = limit;
+        query.limit(limit);
+    }
+
+    @Override
+    public void offset(long offset) {
+        modifiers.append("offset=").append(offset).append(';');
+        query.offset(offset);
+    }
+
+    @Override
+    public void orderBy(OrderSpecifier<?>... orderSpecifiers) {
+        modifiers.append("orderBy=").append(Arrays.toString(orderSpecifiers))
+                .append(';');
+        query.orderBy(orderSpecifiers);
+    }
+
+    @Override
+    public void fetchSize(int fetchSize) {
+        query.fetchSize(fetchSize);
+    }
+
+    @Override
+    public void forwardOnly() {
+        query.forwardOnly();
+    }
+
+    @Override
+    public void seekAfter(String continuationToken) {
+        cacheable = false;
+        query.seekAfter(continuationToken);
+    }
+
+    @Override
+    public String continuationToken(int numMatches) {
+        if (cached != null)
+            throw new UnsupportedOperationException();
+        return query.continuationToken(numMatches);
+    }
+
+    @Override
+    public boolean optionalKeysNotSupported() {
+        return query.optionalKeysNotSupported();
+    }
+
+    @Override
+    public boolean hasMoreMatches() {
+        if (cached != null)
+            return index < cached.size();
+
+        boolean more = query.hasMoreMatches();
+        if (!more && recorded != null) {
+            cache.put(stamp, key, level, query.getQueryContext(), recorded);
+            recorded = null;
+        }
+        return more;
+    }
+
+    @Override
+    public boolean hasMoreMatchesThan(int numMatches) {
+        if (cached != null)
+            return index + numMatches < cached.size();
+
+        return query.hasMoreMatchesThan(numMatches);
+    }
+
+    @Override
+    public Attributes nextMatch() {
+        if (cached != null) {
+            if (index >= cached.size())
+                throw new NoSuchElementException();
+            return cached.get(index++);
+        }
+
+        Attributes match = query.nextMatch();
+        if (recorded != null) {
+            numRecorded++;
+            // null for a study or series without visible instances, which
+            // is skipped by the consumer
+            if (match == null)
+                return null;
+            if (recorded.size() < maxMatches)
+                recorded.add(new Attributes(match));
+            else
+                recorded = null;
+        }
+        return match;
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (recorded != null && limit > 0 && numRecorded + 1 >= limit)
+                while (hasMoreMatches())
+                    nextMatch();
+        } finally {
+            query.close();
+        }
+    }
+
+    @Override
+    public QueryContext getQueryContext() {
+        return query.getQueryContext();
+    }
+}
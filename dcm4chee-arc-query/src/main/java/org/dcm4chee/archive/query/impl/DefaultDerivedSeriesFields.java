@@ -133,7 +133,7 @@ public class DefaultDerivedSeriesFields implements DerivedSeriesFields {
         String sopClass = result.get(QInstance.instance.sopClassUID);
 
         if (device.getDeviceExtension(ArchiveDeviceExtension.class).isVisibleSOPClass(sopClass)) {
-            int numberOfVisibleImagesInInstance = blob != null ? blob.getAttributes().getInt(Tag.NumberOfFrames, 1) : 1;
+            int numberOfVisibleImagesInInstance = blob != null ? blob.getAttributes(Tag.NumberOfFrames).getInt(Tag.NumberOfFrames, 1) : 1;
             numberOfVisibleImages += numberOfVisibleImagesInInstance;
         }
     }
@@ -172,7 +172,7 @@ public class DefaultDerivedStudyFields implements DerivedStudyFields {
             String seriesUID = result.get(QSeries.series.seriesInstanceUID);
             AttributesBlob blob = result.get(QInstance.instance.attributesBlob);
             visibleSeriesUIDs.add(seriesUID);
-            int numberOfVisibleImagesInInstance = blob != null ? blob.getAttributes().getInt(Tag.NumberOfFrames, 1) : 1;
+            int numberOfVisibleImagesInInstance = blob != null ? blob.getAttributes(Tag.NumberOfFrames).getInt(Tag.NumberOfFrames, 1) : 1;
             numberOfVisibleImages += numberOfVisibleImagesInInstance;
         }
     }
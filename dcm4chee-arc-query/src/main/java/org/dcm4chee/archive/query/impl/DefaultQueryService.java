@@ -46,6 +46,7 @@ import org.dcm4che3.net.*;
 import org.dcm4che3.net.service.DicomServiceException;
 import org.dcm4che3.util.DateUtils;
 import org.dcm4chee.archive.conf.ArchiveAEExtension;
+import org.dcm4chee.archive.conf.AttributeCoercionRules;
 import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
 import org.dcm4chee.archive.conf.QueryParam;
 import org.dcm4chee.archive.conf.QueryRetrieveView;
@@ -69,6 +70,7 @@ import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
 import java.util.Date;
 import java.util.EnumSet;
+import java.util.Map;
 
 /**
  * @author Gunter Zeilinger <gunterze@gmail.com>
@@ -88,6 +90,12 @@ public class DefaultQueryService implements QueryService {
     @Inject
     Device device;
 
+    @Inject
+    QueryResultCache resultCache;
+
+    @Inject
+    QueryMonitor queryMonitor;
+
     StatelessSession openStatelessSession() {
         return em.unwrap(Session.class).getSessionFactory()
                 .openStatelessSession();
@@ -100,22 +108,33 @@ public class DefaultQueryService implements QueryService {
 
     @Override
     public Query createPatientQuery(QueryContext ctx) {
-        return new PatientQuery(ctx, openStatelessSession());
+        return cached(monitored(new PatientQuery(ctx, openStatelessSession()), "PATIENT"), "PATIENT");
     }
 
     @Override
     public Query createStudyQuery(QueryContext ctx) {
-        return new StudyQuery(ctx, openStatelessSession());
+        return cached(monitored(new StudyQuery(ctx, openStatelessSession()), "STUDY"), "STUDY");
     }
 
     @Override
     public Query createSeriesQuery(QueryContext ctx) {
-        return new SeriesQuery(ctx, openStatelessSession());
+        return cached(monitored(new SeriesQuery(ctx, openStatelessSession()), "SERIES"), "SERIES");
     }
 
     @Override
     public Query createInstanceQuery(QueryContext ctx) {
-        return new InstanceQuery(ctx, openStatelessSession());
+        return cached(monitored(new InstanceQuery(ctx, openStatelessSession()), "IMAGE"), "IMAGE");
+    }
+
+    private Query monitored(AbstractQuery<?> query, String level) {
+        query.setMonitor(queryMonitor, level);
+        return query;
+    }
+
+    private Query cached(Query query, String level) {
+        return resultCache.isEnabled()
+                ? new CachingQuery(query, resultCache, level)
+                : query;
     }
 
     @Override
@@ -158,6 +177,15 @@ public class DefaultQueryService implements QueryService {
         try {
             ArchiveAEExtension arcAE = context.getArchiveAEExtension();
             Attributes keys = context.getKeys();
+            AttributeCoercionRules rules = arcAE.getAttributeCoercionRules(
+                    context.getServiceSOPClassUID(),
+                    Dimse.C_FIND_RQ,
+                    TransferCapability.Role.SCP,
+                    context.getRemoteAET());
+            if (rules != null) {
+                keys.addAll(rules.coerce(keys, parameters(context)));
+                return;
+            }
             Templates tpl = arcAE.getAttributeCoercionTemplates(
                     context.getServiceSOPClassUID(),
                     Dimse.C_FIND_RQ,
@@ -191,6 +219,15 @@ public class DefaultQueryService implements QueryService {
         try {
             ArchiveAEExtension arcAE = context.getArchiveAEExtension();
             Attributes attrs = match;
+            AttributeCoercionRules rules = arcAE.getAttributeCoercionRules(
+                    context.getServiceSOPClassUID(),
+                    Dimse.C_FIND_RSP,
+                    TransferCapability.Role.SCP,
+                    context.getRemoteAET());
+            if (rules != null) {
+                attrs.addAll(rules.coerce(attrs, parameters(context)));
+                return;
+            }
             Templates tpl = arcAE.getAttributeCoercionTemplates(
                     context.getServiceSOPClassUID(),
                     Dimse.C_FIND_RSP,
@@ -211,6 +248,11 @@ public class DefaultQueryService implements QueryService {
        //time zone support moved to decorator
     }
 
+    private static Map<String, String> parameters(QueryContext context) {
+        return AttributeCoercionRules.parameters(context.getRemoteAET(),
+                context.getArchiveAEExtension().getApplicationEntity().getAETitle());
+    }
+
     private void setParameters(Transformer transformer, QueryContext context) {
         Date date = new Date();
         String currentDate = DateUtils.formatDA(null, date);
@@ -90,6 +90,24 @@ public class EmptyQuery implements Query {
         // empty
     }
 
+    @Override
+    public void fetchSize(int fetchSize) {
+    }
+
+    @Override
+    public void forwardOnly() {
+    }
+
+    @Override
+    public void seekAfter(String continuationToken) {
+        // empty
+    }
+
+    @Override
+    public String continuationToken(int numMatches) {
+        return null;
+    }
+
     @Override
     public boolean optionalKeysNotSupported() {
         return false;
@@ -100,6 +118,11 @@ public class EmptyQuery implements Query {
         return false;
     }
 
+    @Override
+    public boolean hasMoreMatchesThan(int numMatches) {
+        return false;
+    }
+
     @Override
     public Attributes nextMatch() {
         throw new NoSuchElementException();
@@ -53,6 +53,7 @@ import com.mysema.query.BooleanBuilder;
 import com.mysema.query.jpa.hibernate.HibernateQuery;
 import com.mysema.query.types.Expression;
 import com.mysema.query.types.Predicate;
+import com.mysema.query.types.path.NumberPath;
 
 /**
  * @author Gunter Zeilinger <gunterze@gmail.com>
@@ -63,7 +64,8 @@ class InstanceQuery extends AbstractQuery<Instance> {
         QSeries.series.pk,
         QInstance.instance.retrieveAETs,
         QInstance.instance.availability,
-        QInstance.instance.attributesBlob.encodedAttributes
+        QInstance.instance.attributesBlob.encodedAttributes,
+        QInstance.instance.pk
     };
 
     private Long seriesPk;
@@ -78,6 +80,11 @@ class InstanceQuery extends AbstractQuery<Instance> {
         return SELECT;
     }
 
+    @Override
+    protected NumberPath<Long> keyPath() {
+        return QInstance.instance.pk;
+    }
+
     @Override
     protected HibernateQuery applyJoins(HibernateQuery query) {
         query = QueryBuilder.applyInstanceLevelJoins(query,
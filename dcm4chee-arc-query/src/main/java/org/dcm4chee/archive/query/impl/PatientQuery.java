@@ -51,6 +51,7 @@ import com.mysema.query.BooleanBuilder;
 import com.mysema.query.jpa.hibernate.HibernateQuery;
 import com.mysema.query.types.Expression;
 import com.mysema.query.types.Predicate;
+import com.mysema.query.types.path.NumberPath;
 
 /**
  * @author Gunter Zeilinger <gunterze@gmail.com>
@@ -71,6 +72,11 @@ class PatientQuery extends AbstractQuery<Patient> {
         return SELECT;
     }
 
+    @Override
+    protected NumberPath<Long> keyPath() {
+        return QPatient.patient.pk;
+    }
+
     @Override
     protected HibernateQuery applyJoins(HibernateQuery query) {
         return QueryBuilder.applyPatientLevelJoins(query,
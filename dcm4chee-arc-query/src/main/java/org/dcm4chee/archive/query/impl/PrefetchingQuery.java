@@ -0,0 +1,232 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2014
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package org.dcm4chee.archive.query.impl;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4chee.archive.query.Query;
+import org.dcm4chee.archive.query.QueryContext;
+
+import com.mysema.query.types.OrderSpecifier;
+
+/**
+ * Query which fetches the matches of the wrapped query by a separate thread
+ * into a bounded buffer, so the database round-trips overlap with the
+ * sending of the responses by the consumer. Therefore it does not support
+ * looking ahead by {@link #hasMoreMatchesThan(int)} or
+ * {@link #continuationToken(int)}.
+ * 
+ * {@link #close()} stops the fetching thread - e.g. on C-CANCEL - and waits
+ * for its termination before closing the wrapped query.
+ */
+public class PrefetchingQuery implements Query {
+
+    private static final long OFFER_TIMEOUT_MS = 100;
+
+    private static final Attributes END_OF_MATCHES = new Attributes(0);
+
+    private final Query query;
+    private final Executor executor;
+    private final BlockingQueue<Attributes> matches;
+    private final CountDownLatch fetched = new CountDownLatch(1);
+    private volatile boolean canceled;
+    private volatile RuntimeException failure;
+    private boolean executed;
+    private Attributes next;
+
+    public PrefetchingQuery(Query query, Executor executor, int capacity) {
+        this.query = query;
+        this.executor = executor;
+        this.matches = new ArrayBlockingQueue<Attributes>(capacity);
+    }
+
+    @Override
+    public void initQuery() {
+        query.initQuery();
+    }
+
+    @Override
+    public void executeQuery() {
+        query.executeQuery();
+        executor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                fetchMatches();
+            }
+        });
+        executed = true;
+    }
+
+    private void fetchMatches() {
+        try {
+            while (!canceled && query.hasMoreMatches()) {
+                Attributes match = query.nextMatch();
+                // e.g. a study without visible instances
+                if (match != null && !enqueue(match))
+                    return;
+            }
+        } catch (RuntimeException e) {
+            failure = e;
+        } finally {
+            try {
+                enqueue(END_OF_MATCHES);
+            } finally {
+                fetched.countDown();
+            }
+        }
+    }
+
+    private boolean enqueue(Attributes match) {
+        try {
+            while (!canceled)
+                if (matches.offer(match, OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS))
+                    return true;
+        } catch (InterruptedException e) {
+            canceled = true;
+        }
+        return false;
+    }
+
+    @Override
+    public long count() {
+        return query.count();
+    }
+
+    @Override
+    public void limit(long limit) {
+        query.limit(limit);
+    }
+
+    @Override
+    public void offset(long offset) {
+        query.offset(offset);
+    }
+
+    @Override
+    public void orderBy(OrderSpecifier<?>... orderSpecifiers) {
+        query.orderBy(orderSpecifiers);
+    }
+
+    @Override
+    public void fetchSize(int fetchSize) {
+        query.fetchSize(fetchSize);
+    }
+
+    @Override
+    public void forwardOnly() {
+        query.forwardOnly();
+    }
+
+    @Override
+    public void seekAfter(String continuationToken) {
+        query.seekAfter(continuationToken);
+    }
+
+    @Override
+    public String continuationToken(int numMatches) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean optionalKeysNotSupported() {
+        return query.optionalKeysNotSupported();
+    }
+
+    @Override
+    public boolean hasMoreMatches() {
+        if (next == null) {
+            try {
+                next = matches.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for next match", e);
+            }
+        }
+        if (next != END_OF_MATCHES)
+            return true;
+
+        RuntimeException e = failure;
+        if (e != null) {
+            failure = null;
+            throw e;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean hasMoreMatchesThan(int numMatches) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Attributes nextMatch() {
+        if (!hasMoreMatches())
+            throw new NoSuchElementException();
+        Attributes match = next;
+        next = null;
+        return match;
+    }
+
+    @Override
+    public void close() {
+        canceled = true;
+        matches.clear();
+        try {
+            if (executed)
+                fetched.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            query.close();
+        }
+    }
+
+    @Override
+    public QueryContext getQueryContext() {
+        return query.getQueryContext();
+    }
+}
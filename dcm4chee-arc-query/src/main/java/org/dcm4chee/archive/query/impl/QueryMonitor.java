@@ -0,0 +1,251 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2014
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package org.dcm4chee.archive.query.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.enterprise.context.ApplicationScoped;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.ElementDictionary;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.VR;
+import org.dcm4chee.archive.monitoring.api.Monitored;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+
+import com.mysema.query.jpa.hibernate.HibernateQuery;
+import com.mysema.query.types.Expression;
+
+/**
+ * Collects the execution times of queries by their shape - Query/Retrieve
+ * Level and matching type of each non-empty key - to find the key
+ * combinations which need an index.
+ *
+ * SQL time covers the execution of the query and the fetching of the
+ * matches - including the queries of the attributes of the series of
+ * instance level matches -, decode time the decoding and merging of the
+ * attributes of the matches. The queries for the attributes of a series are
+ * also collected separately, by the shape {@code SERIES_ATTRIBUTES:}.
+ *
+ * Queries are executed by {@link #scroll} and {@link #count}, so they are
+ * also published as steps by the monitoring API.
+ */
+@ApplicationScoped
+public class QueryMonitor {
+
+    private static final int MAX_SHAPES = 1000;
+
+    private static final String SERIES_ATTRIBUTES = "SERIES_ATTRIBUTES:";
+
+    // SQL time of queries issued while decoding a match by the same thread
+    private static final ThreadLocal<long[]> NESTED_SQL_NANOS =
+            new ThreadLocal<long[]>() {
+                @Override
+                protected long[] initialValue() {
+                    return new long[1];
+                }
+            };
+
+    private final HashMap<String, Shape> shapes = new HashMap<String, Shape>();
+
+    private static final class Shape {
+        final String shape;
+        long count;
+        long matches;
+        long totalNanos;
+        long maxNanos;
+        long sqlNanos;
+        long decodeNanos;
+
+        Shape(String shape) {
+            this.shape = shape;
+        }
+
+        void add(long sqlNanos, long decodeNanos, int matches) {
+            long nanos = sqlNanos + decodeNanos;
+            this.count++;
+            this.matches += matches;
+            this.totalNanos += nanos;
+            this.maxNanos = Math.max(maxNanos, nanos);
+            this.sqlNanos += sqlNanos;
+            this.decodeNanos += decodeNanos;
+        }
+
+        long avgNanos() {
+            return totalNanos / count;
+        }
+
+        QueryStatistics toStatistics() {
+            return new QueryStatistics(shape, count, matches,
+                    millis(avgNanos()), millis(maxNanos),
+                    millis(sqlNanos / count), millis(decodeNanos / count));
+        }
+    }
+
+    private static long millis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    @Monitored(name = "executeQuery")
+    public ScrollableResults scroll(HibernateQuery query, ScrollMode scrollMode,
+            Expression<?>... select) {
+        return query.scroll(scrollMode, select);
+    }
+
+    @Monitored(name = "countQuery")
+    public long count(HibernateQuery query) {
+        return query.count();
+    }
+
+    public void record(String level, Attributes keys, long sqlNanos,
+            long decodeNanos, int matches) {
+        record(shapeOf(level, keys), sqlNanos, decodeNanos, matches);
+    }
+
+    /**
+     * Records the query for the attributes of a series, and adds its SQL
+     * time to the SQL time of the query, which decodes the current match.
+     */
+    public void recordSeriesAttributes(long sqlNanos, long decodeNanos) {
+        NESTED_SQL_NANOS.get()[0] += sqlNanos;
+        record(SERIES_ATTRIBUTES, sqlNanos, decodeNanos, 1);
+    }
+
+    /**
+     * Returns and resets the SQL time of the queries issued by the current
+     * thread since the last call.
+     */
+    static long takeNestedSqlNanos() {
+        long[] nanos = NESTED_SQL_NANOS.get();
+        long sqlNanos = nanos[0];
+        nanos[0] = 0L;
+        return sqlNanos;
+    }
+
+    private void record(String shape, long sqlNanos, long decodeNanos,
+            int matches) {
+        synchronized (this) {
+            Shape entry = shapes.get(shape);
+            if (entry == null) {
+                if (shapes.size() >= MAX_SHAPES)
+                    return;
+                shapes.put(shape, entry = new Shape(shape));
+            }
+            entry.add(sqlNanos, decodeNanos, matches);
+        }
+    }
+
+    /**
+     * Returns the statistics of the {@code n} query shapes with the longest
+     * average execution time.
+     */
+    public List<QueryStatistics> slowest(int n) {
+        ArrayList<Shape> list;
+        synchronized (this) {
+            list = new ArrayList<Shape>(shapes.size());
+            for (Shape shape : shapes.values())
+                list.add(shape);
+            Collections.sort(list, new Comparator<Shape>() {
+                @Override
+                public int compare(Shape o1, Shape o2) {
+                    long d = o2.avgNanos() - o1.avgNanos();
+                    return d < 0 ? -1 : d > 0 ? 1 : 0;
+                }
+            });
+            ArrayList<QueryStatistics> result =
+                    new ArrayList<QueryStatistics>(Math.min(n, list.size()));
+            for (int i = 0; i < n && i < list.size(); i++)
+                result.add(list.get(i).toStatistics());
+            return result;
+        }
+    }
+
+    public synchronized void reset() {
+        shapes.clear();
+    }
+
+    /**
+     * Returns the Query/Retrieve Level followed by the keyword and matching
+     * type of each key with a value, e.g.
+     * {@code STUDY:PatientName=wildcard,StudyDate=range}.
+     */
+    static String shapeOf(String level, Attributes keys) {
+        StringBuilder sb = new StringBuilder(64).append(level).append(':');
+        int n = 0;
+        for (int tag : keys.tags()) {
+            if (tag == Tag.QueryRetrieveLevel
+                    || tag == Tag.SpecificCharacterSet
+                    || !keys.containsValue(tag))
+                continue;
+
+            if (n++ > 0)
+                sb.append(',');
+            sb.append(ElementDictionary.keywordOf(tag, null))
+                .append('=').append(matchingType(keys, tag));
+        }
+        return sb.toString();
+    }
+
+    private static String matchingType(Attributes keys, int tag) {
+        VR vr = keys.getVR(tag);
+        if (vr == VR.SQ)
+            return "sequence";
+
+        String[] values = keys.getStrings(tag);
+        if (values.length > 1)
+            return "list";
+
+        String value = values[0];
+        if (value.indexOf('*') >= 0 || value.indexOf('?') >= 0)
+            return "wildcard";
+
+        if ((vr == VR.DA || vr == VR.TM || vr == VR.DT)
+                && value.indexOf('-') >= 0)
+            return "range";
+
+        return "single";
+    }
+}
@@ -0,0 +1,445 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2014
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package org.dcm4chee.archive.query.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.enterprise.event.TransactionPhase;
+import javax.inject.Inject;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.IDWithIssuer;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.net.Device;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
+import org.dcm4chee.archive.conf.QueryParam;
+import org.dcm4chee.archive.conf.QueryRetrieveView;
+import org.dcm4chee.archive.conf.StoreAction;
+import org.dcm4chee.archive.patient.PatientUpdatedEvent;
+import org.dcm4chee.archive.query.QueryContext;
+import org.dcm4chee.archive.store.NewStudyCreated;
+import org.dcm4chee.archive.store.StoreContext;
+import org.dcm4chee.archive.store.session.StudyUpdatedEvent;
+
+/**
+ * Cache of the matches of repeated queries - e.g. polled by viewers - with
+ * the same keys, Query Parameters and Query/Retrieve View, which expire after
+ * the configured Query Result Cache TTL. The number of cached matches is
+ * bounded by the Query Result Cache Size.
+ *
+ * Entries are indexed by the studies and patients their keys restricted
+ * them to and by the studies and patients of their matches. After the
+ * completion of a transaction which stored objects to - or updated,
+ * rejected or QC'ed - a study, only the entries of that study and its
+ * patient are invalidated, and - as they may match new objects of any
+ * study - Series and Instance level entries not restricted to a study or
+ * patient. Study level entries not restricted to a study or patient are
+ * invalidated by the creation of a new study, Patient level entries by the
+ * creation or update of a patient. So an unrestricted Study level query is
+ * not invalidated by objects stored to studies it did not match, even if
+ * they make such a study match, until the entry expires.
+ *
+ * {@link #put} ignores matches read before an invalidation of one of the
+ * studies or patients of the entry.
+ */
+@ApplicationScoped
+public class QueryResultCache {
+
+    // long enough for lists of UIDs, without overflow of offsets
+    private static final int MAX_KEY_VALUE_WIDTH = 1 << 20;
+
+    /**
+     * Maximal number of recorded versions per index. If exceeded, the
+     * oldest version is dropped and matches read before it are no longer
+     * cached.
+     */
+    private static final int MAX_VERSIONS = 10000;
+
+    @Inject
+    Device device;
+
+    private final LinkedHashMap<String, Cached> entries =
+            new LinkedHashMap<String, Cached>(64, 0.75f, true);
+
+    private final Index studyIndex = new Index();
+    private final Index patientIndex = new Index();
+
+    // entries not restricted to a study or patient by level
+    private final Index unrestrictedIndex = new Index();
+
+    private int numMatches;
+    private long clock;
+    private long allVersion;
+    private long hits;
+    private long misses;
+
+    private static final class Cached {
+        final String level;
+        final boolean unrestricted;
+        final Set<String> studyIUIDs;
+        final Set<String> patientIDs;
+        final List<Attributes> matches;
+        final long expires;
+
+        Cached(String level, boolean unrestricted, Set<String> studyIUIDs,
+                Set<String> patientIDs, List<Attributes> matches, long expires) {
+            this.level = level;
+            this.unrestricted = unrestricted;
+            this.studyIUIDs = studyIUIDs;
+            this.patientIDs = patientIDs;
+            this.matches = matches;
+            this.expires = expires;
+        }
+    }
+
+    /**
+     * Keys of the entries and the last invalidation of a study, patient or
+     * level.
+     */
+    private static final class Index {
+        final HashMap<String, HashSet<String>> keys =
+                new HashMap<String, HashSet<String>>();
+
+        // in the order of the versions
+        final LinkedHashMap<String, Long> versions =
+                new LinkedHashMap<String, Long>();
+
+        // versions dropped from versions up to
+        long minVersion;
+
+        void add(String id, String key) {
+            HashSet<String> set = keys.get(id);
+            if (set == null)
+                keys.put(id, set = new HashSet<String>(4));
+            set.add(key);
+        }
+
+        void remove(String id, String key) {
+            HashSet<String> set = keys.get(id);
+            if (set != null && set.remove(key) && set.isEmpty())
+                keys.remove(id);
+        }
+
+        Set<String> invalidate(String id, long version) {
+            versions.remove(id);
+            versions.put(id, version);
+            if (versions.size() > MAX_VERSIONS) {
+                Iterator<Long> it = versions.values().iterator();
+                minVersion = it.next();
+                it.remove();
+            }
+            Set<String> set = keys.remove(id);
+            return set != null ? set : Collections.<String>emptySet();
+        }
+
+        boolean invalidatedSince(Collection<String> ids, long stamp) {
+            if (stamp < minVersion)
+                return true;
+            for (String id : ids) {
+                Long version = versions.get(id);
+                if (version != null && version > stamp)
+                    return true;
+            }
+            return false;
+        }
+
+        void clear() {
+            keys.clear();
+        }
+    }
+
+    public boolean isEnabled() {
+        return arcDev().getQueryResultCacheTTL() > 0;
+    }
+
+    /**
+     * Returns the key of the query, or {@code null} if the query shall not be
+     * cached.
+     *
+     * @param modifiers limit, offset and ordering of the matches
+     */
+    public String key(String level, QueryContext ctx, String modifiers) {
+        if (!isEnabled())
+            return null;
+
+        QueryParam param = ctx.getQueryParam();
+        QueryRetrieveView view = param.getQueryRetrieveView();
+        StringBuilder sb = new StringBuilder(256)
+            .append(level).append('|')
+            .append(modifiers).append('|')
+            .append(param.isCombinedDatetimeMatching()).append(',')
+            .append(param.isFuzzySemanticMatching()).append(',')
+            .append(param.isPersonNameComponentOrderInsensitiveMatching()).append(',')
+            .append(param.isMatchUnknown()).append(',')
+            .append(param.isMatchLinkedPatientIDs()).append(',')
+            .append(Arrays.toString(param.getAccessControlIDs())).append(',')
+            .append(param.getDefaultIssuerOfPatientID()).append(',')
+            .append(param.getDefaultIssuerOfAccessionNumber()).append(',')
+            .append(param.getNullValueForQueryFields()).append(',')
+            .append(view != null ? view.getViewID() : null).append('|')
+            .append(Arrays.toString(ctx.getPatientIDs())).append('|');
+        ctx.getKeys().toStringBuilder(Integer.MAX_VALUE, MAX_KEY_VALUE_WIDTH, sb);
+        return sb.toString();
+    }
+
+    /**
+     * Returns the value to pass to {@link #put}, obtained before the
+     * query is executed.
+     */
+    public synchronized long stamp() {
+        return clock;
+    }
+
+    /**
+     * Returns copies of the cached matches or {@code null}.
+     */
+    public List<Attributes> get(String key) {
+        List<Attributes> matches;
+        synchronized (this) {
+            Cached entry = entries.get(key);
+            if (entry != null && entry.expires < System.currentTimeMillis()) {
+                remove(key);
+                entry = null;
+            }
+            if (entry == null) {
+                misses++;
+                return null;
+            }
+            hits++;
+            matches = entry.matches;
+        }
+        ArrayList<Attributes> copy = new ArrayList<Attributes>(matches.size());
+        for (Attributes match : matches)
+            copy.add(new Attributes(match));
+        return copy;
+    }
+
+    /**
+     * Returns the maximal number of matches of a query to cache.
+     */
+    public int maxMatches() {
+        return arcDev().getQueryResultCacheSize();
+    }
+
+    /**
+     * Caches the matches of a query.
+     *
+     * @param level level passed to {@link #key}
+     */
+    public synchronized void put(long stamp, String key, String level,
+            QueryContext ctx, List<Attributes> matches) {
+        if (matches.contains(null)) {
+            // skipped by the consumers, as studies or series without
+            // visible instances
+            matches = new ArrayList<Attributes>(matches);
+            matches.removeAll(Collections.singleton(null));
+        }
+        ArchiveDeviceExtension arcDev = arcDev();
+        int maxSize = arcDev.getQueryResultCacheSize();
+        if (stamp < allVersion || matches.size() > maxSize)
+            return;
+
+        HashSet<String> studyIUIDs = new HashSet<String>();
+        HashSet<String> patientIDs = new HashSet<String>();
+        String studyIUID = uniqueKey(ctx.getKeys(), Tag.StudyInstanceUID);
+        if (studyIUID != null)
+            studyIUIDs.add(studyIUID);
+        else if (ctx.getPatientIDs() != null)
+            for (IDWithIssuer pid : ctx.getPatientIDs())
+                patientIDs.add(pid.getID());
+        boolean unrestricted = studyIUIDs.isEmpty() && patientIDs.isEmpty();
+        for (Attributes match : matches) {
+            addNotNull(studyIUIDs, match.getString(Tag.StudyInstanceUID));
+            addNotNull(patientIDs, match.getString(Tag.PatientID));
+        }
+        if (studyIndex.invalidatedSince(studyIUIDs, stamp)
+                || patientIndex.invalidatedSince(patientIDs, stamp)
+                || unrestricted && unrestrictedIndex.invalidatedSince(
+                        Collections.singleton(level), stamp))
+            return;
+
+        remove(key);
+        entries.put(key, new Cached(level, unrestricted, studyIUIDs,
+                patientIDs, matches, System.currentTimeMillis()
+                    + arcDev.getQueryResultCacheTTL() * 1000L));
+        for (String iuid : studyIUIDs)
+            studyIndex.add(iuid, key);
+        for (String pid : patientIDs)
+            patientIndex.add(pid, key);
+        if (unrestricted)
+            unrestrictedIndex.add(level, key);
+        numMatches += matches.size();
+        while (numMatches > maxSize)
+            remove(entries.keySet().iterator().next());
+    }
+
+    private static void addNotNull(Set<String> set, String value) {
+        if (value != null)
+            set.add(value);
+    }
+
+    private static String uniqueKey(Attributes keys, int tag) {
+        String[] values = keys.getStrings(tag);
+        if (values == null || values.length != 1)
+            return null;
+
+        String value = values[0];
+        return value.isEmpty() || value.indexOf('*') >= 0
+                || value.indexOf('?') >= 0 ? null : value;
+    }
+
+    public void onStoreInstance(@Observes(during = TransactionPhase.AFTER_COMPLETION)
+            StoreContext context) {
+        if (context.getStoreAction() == StoreAction.IGNORE)
+            return;
+
+        Attributes attrs = context.getAttributes();
+        invalidate(attrs.getString(Tag.StudyInstanceUID),
+                attrs.getString(Tag.PatientID));
+    }
+
+    public void onNewStudy(@Observes(during = TransactionPhase.AFTER_COMPLETION)
+            @NewStudyCreated String studyIUID) {
+        invalidateUnrestricted("STUDY");
+    }
+
+    public void onStudyUpdated(@Observes(during = TransactionPhase.AFTER_COMPLETION)
+            StudyUpdatedEvent event) {
+        invalidate(event.getStudyInstanceUID(), null);
+    }
+
+    public void onPatientUpdated(@Observes(during = TransactionPhase.AFTER_COMPLETION)
+            PatientUpdatedEvent event) {
+        invalidatePatients(event.getPatientIDs());
+    }
+
+    /**
+     * Removes entries of queries restricted to or matching the study - or
+     * any study of the patient, if {@code studyIUID} is {@code null} - or the
+     * patient, if {@code patientID} is not {@code null}, and Series and
+     * Instance level entries not restricted to a study or patient.
+     */
+    public synchronized void invalidate(String studyIUID, String patientID) {
+        if (studyIUID == null && patientID == null) {
+            invalidateAll();
+            return;
+        }
+        long version = ++clock;
+        if (studyIUID != null)
+            removeAll(studyIndex.invalidate(studyIUID, version));
+        if (patientID != null)
+            removeAll(patientIndex.invalidate(patientID, version));
+        removeAll(unrestrictedIndex.invalidate("SERIES", version));
+        removeAll(unrestrictedIndex.invalidate("IMAGE", version));
+    }
+
+    /**
+     * Removes entries of queries restricted to or matching one of the
+     * patients, and Patient level entries not restricted to a patient.
+     */
+    public synchronized void invalidatePatients(Collection<String> patientIDs) {
+        long version = ++clock;
+        for (String patientID : patientIDs)
+            removeAll(patientIndex.invalidate(patientID, version));
+        removeAll(unrestrictedIndex.invalidate("PATIENT", version));
+    }
+
+    /**
+     * Removes entries of the level not restricted to a study or patient.
+     */
+    public synchronized void invalidateUnrestricted(String level) {
+        removeAll(unrestrictedIndex.invalidate(level, ++clock));
+    }
+
+    public synchronized void invalidateAll() {
+        allVersion = ++clock;
+        entries.clear();
+        studyIndex.clear();
+        patientIndex.clear();
+        unrestrictedIndex.clear();
+        numMatches = 0;
+    }
+
+    private void removeAll(Set<String> keys) {
+        for (String key : keys)
+            remove(key);
+    }
+
+    private void remove(String key) {
+        Cached entry = entries.remove(key);
+        if (entry == null)
+            return;
+
+        numMatches -= entry.matches.size();
+        for (String iuid : entry.studyIUIDs)
+            studyIndex.remove(iuid, key);
+        for (String pid : entry.patientIDs)
+            patientIndex.remove(pid, key);
+        if (entry.unrestricted)
+            unrestrictedIndex.remove(entry.level, key);
+    }
+
+    private ArchiveDeviceExtension arcDev() {
+        return device.getDeviceExtension(ArchiveDeviceExtension.class);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "QueryResultCache[entries=" + entries.size()
+                + ", matches=" + numMatches
+                + ", hits=" + hits
+                + ", misses=" + misses + "]";
+    }
+}
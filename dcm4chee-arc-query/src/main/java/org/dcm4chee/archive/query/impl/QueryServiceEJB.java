@@ -45,9 +45,11 @@ import com.mysema.query.types.Expression;
 import com.mysema.query.types.Predicate;
 import org.dcm4che3.data.Attributes;
 import org.dcm4che3.net.Device;
+import org.dcm4chee.archive.cache.SeriesAttributesCache;
 import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
 import org.dcm4chee.archive.conf.QueryParam;
 import org.dcm4chee.archive.entity.*;
+import org.dcm4chee.archive.monitoring.api.Monitored;
 import org.dcm4chee.archive.query.DerivedSeriesFields;
 import org.dcm4chee.archive.query.DerivedStudyFields;
 import org.dcm4chee.archive.query.QueryContext;
@@ -82,7 +84,8 @@ public class QueryServiceEJB {
         QStudyQueryAttributes.studyQueryAttributes.lastUpdateTime,
         QueryBuilder.seriesAttributesBlob.encodedAttributes,
         QueryBuilder.studyAttributesBlob.encodedAttributes,
-        QueryBuilder.patientAttributesBlob.encodedAttributes
+        QueryBuilder.patientAttributesBlob.encodedAttributes,
+        QPatient.patient.pk
     };
 
     @PersistenceContext(name = "dcm4chee-arc", unitName = "dcm4chee-arc")
@@ -94,8 +97,21 @@ public class QueryServiceEJB {
     @Inject
     DetachedHibernateQueryFactory queryFactory;
 
+    @Inject
+    private SeriesAttributesCache seriesAttributesCache;
+
+    @Inject
+    private QueryMonitor queryMonitor;
+
+    @Monitored(name = "getSeriesAttributes")
     public Attributes getSeriesAttributes(Long seriesPk, QueryContext context) {
         String viewID = context.getQueryParam().getQueryRetrieveView().getViewID();
+        long stamp = seriesAttributesCache.stamp();
+        Attributes cached = seriesAttributesCache.get(seriesPk, viewID);
+        if (cached != null)
+            return cached;
+
+        long start = System.nanoTime();
         Tuple result = queryFactory.query(em.unwrap(Session.class))
             .from(QSeries.series)
             .join(QSeries.series.attributesBlob, QueryBuilder.seriesAttributesBlob)
@@ -154,6 +170,7 @@ public class QueryServiceEJB {
             numberOfStudyVisibleInstances = result.get(QStudyQueryAttributes.studyQueryAttributes.numberOfVisibleInstances);
             studyLastUpdateTime = result.get(QStudyQueryAttributes.studyQueryAttributes.lastUpdateTime);
         }
+        long fetched = System.nanoTime();
         byte[] seriesBytes =
                 result.get(QueryBuilder.seriesAttributesBlob.encodedAttributes);
         byte[] studyBytes =
@@ -186,6 +203,10 @@ public class QueryServiceEJB {
                 ade.getPrivateDerivedFields().findSeriesNumberOfVisibleInstancesTag(),
                 seriesLastUpdateTime,
                 ade.getPrivateDerivedFields().findSeriesUpdateTimeTag());
+        queryMonitor.recordSeriesAttributes(fetched - start,
+                System.nanoTime() - fetched);
+        seriesAttributesCache.put(stamp, seriesPk, viewID,
+                result.get(QStudy.study.pk), result.get(QPatient.patient.pk), attrs);
         return attrs;
     }
 
@@ -0,0 +1,106 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2014
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package org.dcm4chee.archive.query.impl;
+
+/**
+ * Snapshot of the execution times of queries of one shape - Query/Retrieve
+ * Level and matching type of each non-empty key.
+ */
+public class QueryStatistics {
+
+    private final String shape;
+    private final long count;
+    private final long matches;
+    private final long avgTimeMillis;
+    private final long maxTimeMillis;
+    private final long avgSqlTimeMillis;
+    private final long avgDecodeTimeMillis;
+
+    public QueryStatistics(String shape, long count, long matches,
+            long avgTimeMillis, long maxTimeMillis, long avgSqlTimeMillis,
+            long avgDecodeTimeMillis) {
+        this.shape = shape;
+        this.count = count;
+        this.matches = matches;
+        this.avgTimeMillis = avgTimeMillis;
+        this.maxTimeMillis = maxTimeMillis;
+        this.avgSqlTimeMillis = avgSqlTimeMillis;
+        this.avgDecodeTimeMillis = avgDecodeTimeMillis;
+    }
+
+    public String getShape() {
+        return shape;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMatches() {
+        return matches;
+    }
+
+    public long getAvgTimeMillis() {
+        return avgTimeMillis;
+    }
+
+    public long getMaxTimeMillis() {
+        return maxTimeMillis;
+    }
+
+    public long getAvgSqlTimeMillis() {
+        return avgSqlTimeMillis;
+    }
+
+    public long getAvgDecodeTimeMillis() {
+        return avgDecodeTimeMillis;
+    }
+
+    @Override
+    public String toString() {
+        return shape
+                + "[count=" + count
+                + ", matches=" + matches
+                + ", avgTime=" + avgTimeMillis
+                + "ms, maxTime=" + maxTimeMillis
+                + "ms, avgSqlTime=" + avgSqlTimeMillis
+                + "ms, avgDecodeTime=" + avgDecodeTimeMillis + "ms]";
+    }
+}
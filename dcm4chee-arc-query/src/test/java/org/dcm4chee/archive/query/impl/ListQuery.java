@@ -0,0 +1,137 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2014
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package org.dcm4chee.archive.query.impl;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4chee.archive.query.Query;
+import org.dcm4chee.archive.query.QueryContext;
+
+import com.mysema.query.types.OrderSpecifier;
+
+/**
+ * Query returning given matches - including {@code null} for entities
+ * without visible instances - to test the wrapping queries.
+ */
+class ListQuery implements Query {
+
+    private final QueryContext ctx;
+    private final Iterator<Attributes> matches;
+    boolean closed;
+
+    ListQuery(QueryContext ctx, Attributes... matches) {
+        this.ctx = ctx;
+        this.matches = Arrays.asList(matches).iterator();
+    }
+
+    @Override
+    public void initQuery() {
+    }
+
+    @Override
+    public void executeQuery() {
+    }
+
+    @Override
+    public long count() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void limit(long limit) {
+    }
+
+    @Override
+    public void offset(long offset) {
+    }
+
+    @Override
+    public void orderBy(OrderSpecifier<?>... orderSpecifiers) {
+    }
+
+    @Override
+    public void fetchSize(int fetchSize) {
+    }
+
+    @Override
+    public void forwardOnly() {
+    }
+
+    @Override
+    public void seekAfter(String continuationToken) {
+    }
+
+    @Override
+    public String continuationToken(int numMatches) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean optionalKeysNotSupported() {
+        return false;
+    }
+
+    @Override
+    public boolean hasMoreMatches() {
+        return matches.hasNext();
+    }
+
+    @Override
+    public boolean hasMoreMatchesThan(int numMatches) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Attributes nextMatch() {
+        return matches.next();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    @Override
+    public QueryContext getQueryContext() {
+        return ctx;
+    }
+}
@@ -0,0 +1,118 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2014
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package org.dcm4chee.archive.query.impl;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.VR;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PrefetchingQueryTest {
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private static Attributes study(String studyIUID) {
+        Attributes match = new Attributes();
+        match.setString(Tag.StudyInstanceUID, VR.UI, studyIUID);
+        return match;
+    }
+
+    @Test
+    public void skipStudyWithoutVisibleInstances() {
+        Attributes study1 = study("1.1");
+        Attributes study3 = study("1.3");
+        ListQuery wrapped = new ListQuery(null, study1, null, study3);
+        PrefetchingQuery query = new PrefetchingQuery(wrapped, executor, 1);
+        query.initQuery();
+        query.executeQuery();
+        assertTrue(query.hasMoreMatches());
+        assertSame(study1, query.nextMatch());
+        assertTrue(query.hasMoreMatches());
+        assertSame(study3, query.nextMatch());
+        assertFalse(query.hasMoreMatches());
+        query.close();
+        assertTrue(wrapped.closed);
+    }
+
+    @Test
+    public void onlyStudiesWithoutVisibleInstances() {
+        PrefetchingQuery query = new PrefetchingQuery(
+                new ListQuery(null, null, null), executor, 2);
+        query.executeQuery();
+        assertFalse(query.hasMoreMatches());
+        query.close();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void propagateFailure() {
+        PrefetchingQuery query = new PrefetchingQuery(new ListQuery(null, study("1.1")) {
+
+            @Override
+            public Attributes nextMatch() {
+                throw new IllegalStateException();
+            }
+        }, executor, 2);
+        query.executeQuery();
+        try {
+            query.hasMoreMatches();
+        } finally {
+            query.close();
+        }
+    }
+}
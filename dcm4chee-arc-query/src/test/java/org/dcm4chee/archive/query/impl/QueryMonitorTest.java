@@ -0,0 +1,93 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2014
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package org.dcm4chee.archive.query.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.VR;
+import org.junit.Test;
+
+public class QueryMonitorTest {
+
+    @Test
+    public void shapeOf() {
+        Attributes keys = new Attributes();
+        keys.setString(Tag.QueryRetrieveLevel, VR.CS, "STUDY");
+        keys.setString(Tag.StudyDate, VR.DA, "20150101-20151231");
+        keys.setNull(Tag.AccessionNumber, VR.SH);
+        keys.setString(Tag.ModalitiesInStudy, VR.CS, "CT");
+        keys.newSequence(Tag.ProcedureCodeSequence, 1).add(new Attributes());
+        keys.setString(Tag.PatientName, VR.PN, "Doe^J*");
+        keys.setString(Tag.PatientID, VR.LO, "P?");
+        keys.setString(Tag.StudyInstanceUID, VR.UI, "1.2.3", "1.2.4");
+        assertEquals("STUDY:StudyDate=range,ModalitiesInStudy=single,"
+                + "ProcedureCodeSequence=sequence,PatientName=wildcard,"
+                + "PatientID=wildcard,StudyInstanceUID=list",
+                QueryMonitor.shapeOf("STUDY", keys));
+    }
+
+    @Test
+    public void shapeOfNoKeys() {
+        assertEquals("PATIENT:",
+                QueryMonitor.shapeOf("PATIENT", new Attributes()));
+    }
+
+    @Test
+    public void recordByShape() {
+        QueryMonitor monitor = new QueryMonitor();
+        Attributes keys = new Attributes();
+        keys.setString(Tag.PatientID, VR.LO, "P1");
+        monitor.record("STUDY", keys, 1000000L, 0L, 2);
+        keys.setString(Tag.PatientID, VR.LO, "P2");
+        monitor.record("STUDY", keys, 3000000L, 0L, 4);
+        monitor.recordSeriesAttributes(5000000L, 0L);
+        List<QueryStatistics> slowest = monitor.slowest(10);
+        assertEquals(2, slowest.size());
+        assertEquals("SERIES_ATTRIBUTES:", slowest.get(0).getShape());
+        assertEquals("STUDY:PatientID=single", slowest.get(1).getShape());
+        assertEquals(2, slowest.get(1).getCount());
+        assertEquals(5000000L, QueryMonitor.takeNestedSqlNanos());
+        assertEquals(0L, QueryMonitor.takeNestedSqlNanos());
+    }
+}
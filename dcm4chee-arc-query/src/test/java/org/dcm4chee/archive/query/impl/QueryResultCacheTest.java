@@ -0,0 +1,197 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2014
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package org.dcm4chee.archive.query.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.net.Device;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
+import org.dcm4chee.archive.conf.QueryParam;
+import org.junit.Before;
+import org.junit.Test;
+
+public class QueryResultCacheTest {
+
+    private QueryResultCache cache;
+
+    @Before
+    public void setUp() {
+        ArchiveDeviceExtension arcDev = new ArchiveDeviceExtension();
+        arcDev.setQueryResultCacheTTL(60);
+        arcDev.setQueryResultCacheSize(4);
+        Device device = new Device("test");
+        device.addDeviceExtension(arcDev);
+        cache = new QueryResultCache();
+        cache.device = device;
+    }
+
+    private static QueryContextImpl ctx(String studyIUID) {
+        Attributes keys = new Attributes();
+        keys.setString(Tag.StudyInstanceUID, VR.UI, studyIUID);
+        QueryContextImpl ctx = new QueryContextImpl(null);
+        ctx.setKeys(keys);
+        ctx.setQueryParam(new QueryParam());
+        return ctx;
+    }
+
+    private static Attributes match(String studyIUID, String patientID) {
+        Attributes match = new Attributes();
+        match.setString(Tag.StudyInstanceUID, VR.UI, studyIUID);
+        match.setString(Tag.PatientID, VR.LO, patientID);
+        return match;
+    }
+
+    private String put(String level, QueryContextImpl ctx, Attributes... matches) {
+        String key = cache.key(level, ctx, "");
+        cache.put(cache.stamp(), key, level, ctx, Arrays.asList(matches));
+        return key;
+    }
+
+    @Test
+    public void getReturnsCopies() {
+        Attributes match = match("1.1", "P1");
+        String key = put("SERIES", ctx("1.1"), match);
+        List<Attributes> matches = cache.get(key);
+        assertEquals(Collections.singletonList(match), matches);
+        assertNotSame(match, matches.get(0));
+    }
+
+    @Test
+    public void invalidateStudy() {
+        String key1 = put("SERIES", ctx("1.1"), match("1.1", "P1"));
+        String key2 = put("SERIES", ctx("1.2"), match("1.2", "P2"));
+        cache.invalidate("1.1", "P1");
+        assertNull(cache.get(key1));
+        assertNotNull(cache.get(key2));
+    }
+
+    @Test
+    public void invalidateUnrestrictedStudyEntries() {
+        String key = put("STUDY", ctx(null), match("1.1", "P1"));
+        cache.invalidate("1.2", "P2");
+        assertNotNull(cache.get(key));
+        cache.invalidateUnrestricted("STUDY");
+        assertNull(cache.get(key));
+    }
+
+    @Test
+    public void invalidateUnrestrictedSeriesEntriesOnStore() {
+        String key = put("SERIES", ctx(null), match("1.1", "P1"));
+        cache.invalidate("1.2", "P2");
+        assertNull(cache.get(key));
+    }
+
+    @Test
+    public void invalidatePatients() {
+        String key1 = put("STUDY", ctx(null), match("1.1", "P1"));
+        String key2 = put("SERIES", ctx("1.2"), match("1.2", "P2"));
+        cache.invalidatePatients(Collections.singleton("P1"));
+        assertNull(cache.get(key1));
+        assertNotNull(cache.get(key2));
+    }
+
+    @Test
+    public void ignoreMatchesReadBeforeInvalidation() {
+        QueryContextImpl ctx = ctx("1.1");
+        String key = cache.key("SERIES", ctx, "");
+        long stamp = cache.stamp();
+        cache.invalidate("1.1", "P1");
+        cache.put(stamp, key, "SERIES", ctx,
+                Collections.singletonList(match("1.1", "P1")));
+        assertNull(cache.get(key));
+    }
+
+    @Test
+    public void evictLeastRecentlyUsed() {
+        String key1 = put("SERIES", ctx("1.1"),
+                match("1.1", "P1"), match("1.1", "P1"));
+        String key2 = put("SERIES", ctx("1.2"),
+                match("1.2", "P2"), match("1.2", "P2"));
+        cache.get(key1);
+        String key3 = put("SERIES", ctx("1.3"), match("1.3", "P3"));
+        assertNotNull(cache.get(key1));
+        assertNull(cache.get(key2));
+        assertNotNull(cache.get(key3));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void ignoreNullMatches() {
+        Attributes match = match("1.1", "P1");
+        String key = put("STUDY", ctx(null), match, null);
+        assertEquals(Collections.singletonList(match), cache.get(key));
+    }
+
+    @Test
+    public void recordStudyWithoutVisibleInstances() {
+        QueryContextImpl ctx = ctx(null);
+        Attributes match1 = match("1.1", "P1");
+        Attributes match3 = match("1.3", "P3");
+        CachingQuery query = new CachingQuery(
+                new ListQuery(ctx, match1, null, match3), cache, "STUDY");
+        query.executeQuery();
+        assertSame(match1, query.nextMatch());
+        assertNull(query.nextMatch());
+        assertSame(match3, query.nextMatch());
+        assertFalse(query.hasMoreMatches());
+        query.close();
+
+        query = new CachingQuery(new ListQuery(ctx), cache, "STUDY");
+        query.executeQuery();
+        assertTrue(query.hasMoreMatches());
+        assertEquals(match1, query.nextMatch());
+        assertEquals(match3, query.nextMatch());
+        assertFalse(query.hasMoreMatches());
+        query.close();
+    }
+}
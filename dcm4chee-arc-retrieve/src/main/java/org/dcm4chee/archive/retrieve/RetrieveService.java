@@ -68,4 +68,18 @@ public interface RetrieveService {
     
     List<ArchiveInstanceLocator> calculateMatches(String studyUID, String seriesUID,
             String objectUID, QueryParam queryParam, boolean withoutBulkData);
+
+    /**
+     * Like {@link #calculateMatches(IDWithIssuer[], Attributes, QueryParam, boolean)},
+     * but creates the references on demand.
+     */
+    LocatorIterator iterateMatches(IDWithIssuer[] pids,
+            Attributes keys, QueryParam queryParam, boolean withoutBulkData);
+
+    /**
+     * Like {@link #calculateMatches(String, String, String, QueryParam, boolean)},
+     * but creates the references on demand.
+     */
+    LocatorIterator iterateMatches(String studyUID, String seriesUID,
+            String objectUID, QueryParam queryParam, boolean withoutBulkData);
 }
@@ -7,6 +7,7 @@ import org.dcm4che3.data.IDWithIssuer;
 import org.dcm4chee.archive.conf.ArchiveAEExtension;
 import org.dcm4chee.archive.conf.QueryParam;
 import org.dcm4chee.archive.dto.ArchiveInstanceLocator;
+import org.dcm4chee.archive.retrieve.LocatorIterator;
 import org.dcm4chee.archive.retrieve.RetrieveContext;
 import org.dcm4chee.archive.retrieve.RetrieveService;
 import org.dcm4chee.conf.decorators.DelegatingService;
@@ -37,4 +38,16 @@ public class DelegatingRetrieveService extends DelegatingServiceImpl<RetrieveSer
 		return getNextDecorator().calculateMatches(studyUID, seriesUID, objectUID, queryParam, withoutBulkData);
 	}
 
+	@Override
+	public LocatorIterator iterateMatches(IDWithIssuer[] pids,
+			Attributes keys, QueryParam queryParam, boolean withoutBulkData) {
+		return getNextDecorator().iterateMatches(pids, keys, queryParam, withoutBulkData);
+	}
+
+	@Override
+	public LocatorIterator iterateMatches(String studyUID, String seriesUID,
+			String objectUID, QueryParam queryParam, boolean withoutBulkData) {
+		return getNextDecorator().iterateMatches(studyUID, seriesUID, objectUID, queryParam, withoutBulkData);
+	}
+
 }
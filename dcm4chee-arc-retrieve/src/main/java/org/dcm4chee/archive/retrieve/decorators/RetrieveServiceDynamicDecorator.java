@@ -11,6 +11,7 @@ import org.dcm4che3.data.IDWithIssuer;
 import org.dcm4chee.archive.conf.ArchiveAEExtension;
 import org.dcm4chee.archive.conf.QueryParam;
 import org.dcm4chee.archive.dto.ArchiveInstanceLocator;
+import org.dcm4chee.archive.retrieve.LocatorIterator;
 import org.dcm4chee.archive.retrieve.RetrieveContext;
 import org.dcm4chee.archive.retrieve.RetrieveService;
 import org.dcm4chee.conf.decorators.DynamicDecoratorWrapper;
@@ -43,4 +44,16 @@ public class RetrieveServiceDynamicDecorator extends DynamicDecoratorWrapper<Ret
 			String objectUID, QueryParam queryParam, boolean withoutBulkData) {
 		return wrapWithDynamicDecorators(delegate).calculateMatches(studyUID, seriesUID, objectUID, queryParam, withoutBulkData);
 	}
+
+	@Override
+	public LocatorIterator iterateMatches(IDWithIssuer[] pids,
+			Attributes keys, QueryParam queryParam, boolean withoutBulkData) {
+		return wrapWithDynamicDecorators(delegate).iterateMatches(pids, keys, queryParam, withoutBulkData);
+	}
+
+	@Override
+	public LocatorIterator iterateMatches(String studyUID, String seriesUID,
+			String objectUID, QueryParam queryParam, boolean withoutBulkData) {
+		return wrapWithDynamicDecorators(delegate).iterateMatches(studyUID, seriesUID, objectUID, queryParam, withoutBulkData);
+	}
 }
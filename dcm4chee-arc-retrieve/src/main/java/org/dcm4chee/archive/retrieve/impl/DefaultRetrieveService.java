@@ -39,36 +39,53 @@
 package org.dcm4chee.archive.retrieve.impl;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
 
 import org.dcm4che3.data.Attributes;
 import org.dcm4che3.data.IDWithIssuer;
 import org.dcm4che3.data.Tag;
 import org.dcm4che3.net.Device;
 import org.dcm4chee.archive.conf.ArchiveAEExtension;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
 import org.dcm4chee.archive.conf.QueryParam;
 import org.dcm4chee.archive.dto.ArchiveInstanceLocator;
 import org.dcm4chee.archive.dto.ExternalLocationTuple;
 import org.dcm4chee.archive.entity.ExternalRetrieveLocation;
 import org.dcm4chee.archive.entity.QLocation;
 import org.dcm4chee.archive.entity.QInstance;
+import org.dcm4chee.archive.entity.QPatient;
 import org.dcm4chee.archive.entity.QSeries;
 import org.dcm4chee.archive.entity.QStudy;
 import org.dcm4chee.archive.entity.Utils;
 import org.dcm4chee.archive.locationmgmt.LocationMgmt;
 import org.dcm4chee.archive.query.util.QueryBuilder;
+import org.dcm4chee.archive.retrieve.LocatorIterator;
 import org.dcm4chee.archive.retrieve.RetrieveContext;
 import org.dcm4chee.archive.retrieve.RetrieveService;
 import org.dcm4chee.storage.conf.StorageDeviceExtension;
 import org.dcm4chee.storage.conf.StorageSystem;
 import org.dcm4chee.storage.conf.StorageSystemGroup;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.hibernate.StatelessSession;
 import org.jboss.logging.Logger;
 
+import com.mysema.query.BooleanBuilder;
 import com.mysema.query.Tuple;
+import com.mysema.query.jpa.hibernate.HibernateQuery;
 import com.mysema.query.types.Expression;
+import com.mysema.query.types.Predicate;
+import com.mysema.query.types.QTuple;
 
 /**
  * @author Gunter Zeilinger <gunterze@gmail.com>
@@ -99,6 +116,11 @@ public class DefaultRetrieveService implements RetrieveService {
         QStudy.study.studyInstanceUID
     };
 
+    private static final QTuple TUPLE = new QTuple(SELECT);
+
+    @PersistenceContext(name = "dcm4chee-arc", unitName = "dcm4chee-arc")
+    private EntityManager em;
+
     @Inject
     private Device device;
 
@@ -124,15 +146,7 @@ public class DefaultRetrieveService implements RetrieveService {
     public List<ArchiveInstanceLocator> calculateMatches(IDWithIssuer[] pids,
             Attributes keys, QueryParam queryParam, boolean withoutBulkData) {
 
-        return locate(
-                ejb.query(SELECT,
-                        pids,
-                        keys.getStrings(Tag.StudyInstanceUID),
-                        keys.getStrings(Tag.SeriesInstanceUID),
-                        keys.getStrings(Tag.SOPInstanceUID),
-                        queryParam),
-                withoutBulkData
-        );
+        return toList(iterateMatches(pids, keys, queryParam, withoutBulkData));
     }
 
     /**
@@ -146,35 +160,243 @@ public class DefaultRetrieveService implements RetrieveService {
     public List<ArchiveInstanceLocator> calculateMatches(String studyIUID,
             String seriesIUID, String objectIUID, QueryParam queryParam, boolean withoutBulkData) {
 
-        return locate(
-                ejb.query(SELECT,
-                        null,
+        return toList(iterateMatches(studyIUID, seriesIUID, objectIUID,
+                queryParam, withoutBulkData));
+    }
+
+    @Override
+    public LocatorIterator iterateMatches(IDWithIssuer[] pids,
+            Attributes keys, QueryParam queryParam, boolean withoutBulkData) {
+        String[] objectIUIDs = keys.getStrings(Tag.SOPInstanceUID);
+        return new ScrollingLocatorIterator(
+                predicates(pids,
+                        keys.getStrings(Tag.StudyInstanceUID),
+                        keys.getStrings(Tag.SeriesInstanceUID),
+                        objectIUIDs,
+                        queryParam),
+                withoutBulkData, isSeriesOrStudyLevel(objectIUIDs));
+    }
+
+    @Override
+    public LocatorIterator iterateMatches(String studyIUID,
+            String seriesIUID, String objectIUID, QueryParam queryParam,
+            boolean withoutBulkData) {
+        return new ScrollingLocatorIterator(
+                predicates(null,
                         studyIUID == null ? null : new String[]{studyIUID},
                         seriesIUID == null ? null : new String[]{seriesIUID},
                         objectIUID == null ? null : new String[]{objectIUID},
                         queryParam),
-                withoutBulkData);
+                withoutBulkData, objectIUID == null);
     }
 
-    private List<ArchiveInstanceLocator> locate(List<Tuple> tuples, boolean withoutBulkData) {
+    /**
+     * External locations of the instances of whole series are fetched per
+     * series, of single instances per instance.
+     */
+    private static boolean isSeriesOrStudyLevel(String[] objectIUIDs) {
+        return objectIUIDs == null || objectIUIDs.length == 0;
+    }
 
-        List<String> studiesUpdatedForAccess = new ArrayList<String>();
-        List<ArchiveInstanceLocator> locators = new ArrayList<ArchiveInstanceLocator>(tuples.size());
-        StorageDeviceExtension storageConf = device.getDeviceExtension(StorageDeviceExtension.class);
-        long instPk = -1;
-        long seriesPk = -1;
-        Attributes seriesAttrs = null;
-        ArchiveInstanceLocator locator = null;
+    private static List<ArchiveInstanceLocator> toList(LocatorIterator iter) {
+        try {
+            ArrayList<ArchiveInstanceLocator> locators =
+                    new ArrayList<ArchiveInstanceLocator>();
+            while (iter.hasNext())
+                locators.add(iter.next());
+            return locators;
+        } finally {
+            iter.close();
+        }
+    }
+
+    private static List<Predicate> predicates(IDWithIssuer[] pids,
+            String[] studyIUIDs, String[] seriesIUIDs, String[] objectIUIDs,
+            QueryParam queryParam) {
+        ArrayList<Predicate> predicates = new ArrayList<Predicate>(1);
+        addPredicates(predicates, pids, studyIUIDs, seriesIUIDs, objectIUIDs,
+                queryParam);
+        return predicates;
+    }
+
+    private static void addPredicates(List<Predicate> predicates,
+            IDWithIssuer[] pids, String[] studyIUIDs, String[] seriesIUIDs,
+            String[] objectIUIDs, QueryParam queryParam) {
+
+        // query large UID lists - e.g. of C-MOVE requests by instance list -
+        // by several statements, not exceeding the database limits
+        if (exceedsInList(objectIUIDs)) {
+            for (String[] batch : Utils.splitInList(objectIUIDs))
+                addPredicates(predicates, pids, studyIUIDs, seriesIUIDs,
+                        batch, queryParam);
+            return;
+        }
+        if (exceedsInList(seriesIUIDs)) {
+            for (String[] batch : Utils.splitInList(seriesIUIDs))
+                addPredicates(predicates, pids, studyIUIDs, batch,
+                        objectIUIDs, queryParam);
+            return;
+        }
+        if (exceedsInList(studyIUIDs)) {
+            for (String[] batch : Utils.splitInList(studyIUIDs))
+                addPredicates(predicates, pids, batch, seriesIUIDs,
+                        objectIUIDs, queryParam);
+            return;
+        }
+
+        String nullValue = queryParam.getNullValueForQueryFields();
+        BooleanBuilder builder = new BooleanBuilder();
+        builder.and(QueryBuilder.pids(pids, 
+                queryParam.isMatchLinkedPatientIDs(), false));
+        builder.and(QueryBuilder.uids(QStudy.study.studyInstanceUID,
+                studyIUIDs, false, nullValue));
+        builder.and(QueryBuilder.uids(QSeries.series.seriesInstanceUID,
+                seriesIUIDs, false, nullValue));
+        builder.and(QueryBuilder.uids(QInstance.instance.sopInstanceUID,
+                objectIUIDs, false, nullValue));
+        builder.and(QueryBuilder.hideRejectedInstance(queryParam));
+        builder.and(QueryBuilder.hideRejectionNote(queryParam));
+        predicates.add(builder);
+    }
+
+    private static boolean exceedsInList(String[] uids) {
+        return uids != null && uids.length > Utils.MAX_IN_LIST_SIZE;
+    }
+
+    private StatelessSession openStatelessSession() {
+        return em.unwrap(Session.class).getSessionFactory()
+                .openStatelessSession();
+    }
+
+    /**
+     * Scrolls the matching instances - one row per Location, ordered by
+     * instance - and combines the rows of each instance to one locator.
+     * The predicates of several batches of UIDs are queried one after the
+     * other, the batches do not share instances.
+     */
+    private class ScrollingLocatorIterator implements LocatorIterator {
+
+        private final StatelessSession session = openStatelessSession();
+        private final Iterator<Predicate> predicates;
+        private final LocatorAssembler assembler;
+        private ScrollableResults results;
+        private ArchiveInstanceLocator next;
+
+        ScrollingLocatorIterator(List<Predicate> predicates,
+                boolean withoutBulkData, boolean externalLocationsBySeries) {
+            this.predicates = predicates.iterator();
+            this.assembler = new LocatorAssembler(withoutBulkData,
+                    externalLocationsBySeries);
+        }
 
-        for (Tuple tuple : tuples) {
+        @Override
+        public boolean hasNext() {
+            if (next == null)
+                next = fetch();
+            return next != null;
+        }
+
+        @Override
+        public ArchiveInstanceLocator next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            ArchiveInstanceLocator locator = next;
+            next = null;
+            return locator;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private ArchiveInstanceLocator fetch() {
+            for (;;) {
+                if (results != null) {
+                    while (results.next()) {
+                        ArchiveInstanceLocator locator =
+                                assembler.add(TUPLE.newInstance(results.get()));
+                        if (locator != null)
+                            return locator;
+                    }
+                    results.close();
+                    results = null;
+                }
+                if (!predicates.hasNext())
+                    return assembler.finish();
+
+                results = scroll(predicates.next());
+            }
+        }
+
+        private ScrollableResults scroll(Predicate predicate) {
+            HibernateQuery query = new HibernateQuery(session)
+                    .from(QInstance.instance)
+                    .leftJoin(QInstance.instance.locations, QLocation.location)
+                    .innerJoin(QInstance.instance.attributesBlob,
+                            QueryBuilder.instanceAttributesBlob)
+                    .innerJoin(QInstance.instance.series, QSeries.series)
+                    .innerJoin(QSeries.series.study, QStudy.study)
+                    .innerJoin(QStudy.study.patient, QPatient.patient)
+                    .orderBy(QInstance.instance.pk.asc())
+                    .where(predicate);
+            ArchiveDeviceExtension arcDev =
+                    device.getDeviceExtension(ArchiveDeviceExtension.class);
+            if (arcDev != null && arcDev.getQueryFetchSize() > 0)
+                query.setFetchSize(arcDev.getQueryFetchSize());
+            return query.scroll(ScrollMode.FORWARD_ONLY, SELECT);
+        }
+
+        @Override
+        public void close() {
+            try {
+                if (results != null)
+                    results.close();
+            } finally {
+                results = null;
+                session.close();
+            }
+        }
+    }
+
+    /**
+     * Combines the rows of one instance - one per Location - to one locator
+     * with a chain of fallback locators.
+     */
+    private class LocatorAssembler {
+
+        private final boolean withoutBulkData;
+        private final boolean externalLocationsBySeries;
+        private final List<String> studiesUpdatedForAccess = new ArrayList<String>();
+        private final StorageDeviceExtension storageConf =
+                device.getDeviceExtension(StorageDeviceExtension.class);
+        private long instPk = -1;
+        private long seriesPk = -1;
+        private Attributes seriesAttrs;
+        private ArchiveInstanceLocator locator;
+        private final HashMap<Long, Map<String, List<ExternalLocationTuple>>>
+                externalLocations =
+                        new HashMap<Long, Map<String, List<ExternalLocationTuple>>>();
+
+        LocatorAssembler(boolean withoutBulkData,
+                boolean externalLocationsBySeries) {
+            this.withoutBulkData = withoutBulkData;
+            this.externalLocationsBySeries = externalLocationsBySeries;
+        }
+
+        /**
+         * Returns the completed locator of the previous instance, if the
+         * row belongs to the next instance.
+         */
+        ArchiveInstanceLocator add(Tuple tuple) {
             Boolean locatorWithoutBulkData = tuple.get(QLocation.location.withoutBulkData);
             String retrieveAETs = tuple.get(QInstance.instance.retrieveAETs);
             if (locatorWithoutBulkData == null) { // No Location
                 if (retrieveAETs == null) // No external location
-                    continue;
+                    return null;
             } else if (locator != null && !locator.isWithoutBulkdata() && locatorWithoutBulkData && !withoutBulkData) {
             	LOG.debug("Skip Locator withoutBulkData! We have already a locator with bulkData and request is also for 'with bulkdata'");
-            	continue;
+            	return null;
             }
             long nextSeriesPk = tuple.get(QSeries.series.pk);
             long nextInstPk = tuple.get(QInstance.instance.pk);
@@ -193,9 +415,9 @@ public class DefaultRetrieveService implements RetrieveService {
                 }
                 
             }
+            ArchiveInstanceLocator completed = null;
             if (instPk != nextInstPk) {
-                if (locator != null)
-                    locators.add(locator);
+                completed = locator;
                 locator = null;
             }
             instPk = nextInstPk;
@@ -207,22 +429,47 @@ public class DefaultRetrieveService implements RetrieveService {
                     locator = null; //replace current locator (withoutBulkData) with locator with bulkdata 
                 locator = updateLocator(storageConf, locator, seriesAttrs, tuple);
             }
+            return completed;
         }
-        if (locator != null)
-            locators.add(locator);
-        return locators;
-    }
 
-    private ArchiveInstanceLocator augmentExternalLocations(
-            ArchiveInstanceLocator updateLocator) {
-        ArrayList<ExternalRetrieveLocation> externalLocations =
-                (ArrayList<ExternalRetrieveLocation>) 
-                ejb.getExternalLocations(updateLocator.iuid);
-        for(ExternalRetrieveLocation loc : externalLocations)
-        updateLocator.getExternalLocators().add(new ExternalLocationTuple(
-                loc.getRetrieveDeviceName(), loc.getAvailability()));
-            //update external retrieveLocation 
+        /**
+         * Returns the locator of the last instance.
+         */
+        ArchiveInstanceLocator finish() {
+            ArchiveInstanceLocator completed = locator;
+            locator = null;
+            return completed;
+        }
+
+        /**
+         * On retrieve of series or studies, the external locations of all
+         * instances of a series are fetched by one query, on the first
+         * instance without Location. On retrieve of instances, only the
+         * locations of each instance without Location are fetched.
+         */
+        private ArchiveInstanceLocator augmentExternalLocations(
+                ArchiveInstanceLocator updateLocator) {
+            if (!externalLocationsBySeries) {
+                for (ExternalRetrieveLocation loc
+                        : ejb.getExternalLocations(updateLocator.iuid))
+                    updateLocator.getExternalLocators().add(
+                            new ExternalLocationTuple(
+                                    loc.getRetrieveDeviceName(),
+                                    loc.getAvailability()));
+                return updateLocator;
+            }
+            Map<String, List<ExternalLocationTuple>> seriesLocations =
+                    externalLocations.get(seriesPk);
+            if (seriesLocations == null) {
+                seriesLocations = ejb.getExternalLocations(seriesPk);
+                externalLocations.put(seriesPk, seriesLocations);
+            }
+            List<ExternalLocationTuple> locations =
+                    seriesLocations.get(updateLocator.iuid);
+            if (locations != null)
+                updateLocator.getExternalLocators().addAll(locations);
             return updateLocator;
+        }
     }
 
     private static ArchiveInstanceLocator updateLocator(
@@ -257,16 +504,42 @@ public class DefaultRetrieveService implements RetrieveService {
                 .externalLocators(new ArrayList<ExternalLocationTuple>())
                 .build();
         if (locator == null) {
-            byte[] encodedInstanceAttrs =
-                    tuple.get(QueryBuilder.instanceAttributesBlob.encodedAttributes);
-            Attributes instanceAttrs = Utils.decodeAttributes(encodedInstanceAttrs);
-            newLocator.setObject(Utils.mergeAndNormalize(seriesAttrs, instanceAttrs));
+            newLocator.setObjectFactory(new MergedAttributesFactory(seriesAttrs,
+                    tuple.get(QueryBuilder.instanceAttributesBlob.encodedAttributes)));
             return newLocator;
         }
-        newLocator.setObject(locator.getObject());
+        newLocator.setObjectFactory(locator.getObjectFactory());
         return updateFallbackLocator(locator, newLocator);
     }
 
+    /**
+     * Merges the attributes of the series - shared by the locators of its
+     * instances - with the encoded attributes of the instance, on each
+     * access of the attributes of a locator. So the locators of all matches
+     * of a retrieve hold only the encoded attributes of their instance, and
+     * the merged attributes are created for one sub-operation at a time.
+     */
+    private static final class MergedAttributesFactory
+            implements ArchiveInstanceLocator.ObjectFactory {
+
+        private final Attributes seriesAttrs;
+        private final byte[] encodedInstanceAttrs;
+
+        MergedAttributesFactory(Attributes seriesAttrs,
+                byte[] encodedInstanceAttrs) {
+            this.seriesAttrs = seriesAttrs;
+            this.encodedInstanceAttrs = encodedInstanceAttrs;
+        }
+
+        @Override
+        public Object createObject() {
+            // mergeAndNormalize may convert the character set of the
+            // series attributes, shared by concurrent sub-operations
+            return Utils.mergeAndNormalize(new Attributes(seriesAttrs),
+                    Utils.decodeAttributes(encodedInstanceAttrs));
+        }
+    }
+
     private static ArchiveInstanceLocator updateFallbackLocator(
             ArchiveInstanceLocator locator, ArchiveInstanceLocator newLocator) {
         if (locator == null || newLocator.compareTo(locator) < 0) {
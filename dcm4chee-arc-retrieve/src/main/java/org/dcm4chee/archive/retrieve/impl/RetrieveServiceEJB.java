@@ -38,30 +38,23 @@
 
 package org.dcm4chee.archive.retrieve.impl;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.ejb.Stateless;
+import javax.inject.Inject;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
 
 import org.dcm4che3.data.Attributes;
-import org.dcm4che3.data.IDWithIssuer;
-import org.dcm4chee.archive.conf.QueryParam;
+import org.dcm4chee.archive.cache.SeriesAttributesCache;
+import org.dcm4chee.archive.dto.ExternalLocationTuple;
 import org.dcm4chee.archive.entity.ExternalRetrieveLocation;
 import org.dcm4chee.archive.entity.PatientStudySeriesAttributes;
-import org.dcm4chee.archive.entity.QLocation;
-import org.dcm4chee.archive.entity.QInstance;
-import org.dcm4chee.archive.entity.QPatient;
-import org.dcm4chee.archive.entity.QSeries;
-import org.dcm4chee.archive.entity.QStudy;
 import org.dcm4chee.archive.entity.Series;
-import org.dcm4chee.archive.query.util.QueryBuilder;
-import org.hibernate.Session;
-
-import com.mysema.query.BooleanBuilder;
-import com.mysema.query.Tuple;
-import com.mysema.query.jpa.hibernate.HibernateQuery;
-import com.mysema.query.types.Expression;
+import org.dcm4chee.storage.conf.Availability;
 
 /**
  * @author Gunter Zeilinger <gunterze@gmail.com>
@@ -73,43 +66,22 @@ public class RetrieveServiceEJB {
     @PersistenceContext(name = "dcm4chee-arc", unitName = "dcm4chee-arc")
     private EntityManager em;
 
-    public List<Tuple> query(Expression<?>[] select,
-            IDWithIssuer[] pids, String[] studyIUIDs, String[] seriesIUIDs,
-            String[] objectIUIDs, QueryParam queryParam) {
-
-        String nullValue = queryParam.getNullValueForQueryFields();
-        BooleanBuilder builder = new BooleanBuilder();
-        builder.and(QueryBuilder.pids(pids, 
-                queryParam.isMatchLinkedPatientIDs(), false));
-        builder.and(QueryBuilder.uids(QStudy.study.studyInstanceUID,
-                studyIUIDs, false, nullValue));
-        builder.and(QueryBuilder.uids(QSeries.series.seriesInstanceUID,
-                seriesIUIDs, false, nullValue));
-        builder.and(QueryBuilder.uids(QInstance.instance.sopInstanceUID,
-                objectIUIDs, false, nullValue));
-        builder.and(QueryBuilder.hideRejectedInstance(queryParam));
-        builder.and(QueryBuilder.hideRejectionNote(queryParam));
-
-        List<Tuple> query = new HibernateQuery(em.unwrap(Session.class))
-                .from(QInstance.instance)
-                .leftJoin(QInstance.instance.locations, QLocation.location)
-                .innerJoin(QInstance.instance.attributesBlob,
-                        QueryBuilder.instanceAttributesBlob)
-                .innerJoin(QInstance.instance.series, QSeries.series)
-                .innerJoin(QSeries.series.study, QStudy.study)
-                .innerJoin(QStudy.study.patient, QPatient.patient)
-                .orderBy(QInstance.instance.pk.asc())
-                .where(builder)
-                .list(select);
-
-        return query;
-    }
+    @Inject
+    private SeriesAttributesCache seriesAttributesCache;
 
     public Attributes getSeriesAttributes(Long seriesPk) {
+        long stamp = seriesAttributesCache.stamp();
+        Attributes attrs = seriesAttributesCache.get(seriesPk, null);
+        if (attrs != null)
+            return attrs;
+
         PatientStudySeriesAttributes result = (PatientStudySeriesAttributes) em
                 .createNamedQuery(Series.PATIENT_STUDY_SERIES_ATTRIBUTES)
                 .setParameter(1, seriesPk).getSingleResult();
-        return result.getAttributes();
+        attrs = result.getAttributes();
+        seriesAttributesCache.put(stamp, seriesPk, null,
+                result.getStudyPk(), result.getPatientPk(), attrs);
+        return attrs;
     }
 
     public List<ExternalRetrieveLocation> getExternalLocations(String iuid) {
@@ -119,4 +91,28 @@ public class RetrieveServiceEJB {
                 .setParameter(1,iuid).getResultList();
         return result;
     }
+
+    /**
+     * Returns the external locations of all instances of a series by their
+     * SOP Instance UID, fetched by one query.
+     */
+    public Map<String, List<ExternalLocationTuple>> getExternalLocations(
+            long seriesPk) {
+        @SuppressWarnings("unchecked")
+        List<Object[]> rows = em.createNamedQuery(
+                ExternalRetrieveLocation.FIND_EXT_LOCATIONS_BY_SERIES_PK)
+                .setParameter(1, seriesPk).getResultList();
+        HashMap<String, List<ExternalLocationTuple>> result =
+                new HashMap<String, List<ExternalLocationTuple>>();
+        for (Object[] row : rows) {
+            String iuid = (String) row[0];
+            List<ExternalLocationTuple> locations = result.get(iuid);
+            if (locations == null)
+                result.put(iuid,
+                        locations = new ArrayList<ExternalLocationTuple>(1));
+            locations.add(new ExternalLocationTuple(
+                    (String) row[1], (Availability) row[2]));
+        }
+        return result;
+    }
 }
@@ -50,7 +50,9 @@ import org.dcm4chee.archive.ArchiveService;
 import org.dcm4chee.archive.ArchiveServiceReloaded;
 import org.dcm4chee.archive.ArchiveServiceStarted;
 import org.dcm4chee.archive.ArchiveServiceStopped;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
 import org.dcm4chee.archive.dto.Participant;
+import org.dcm4chee.archive.entity.AttributesCodec;
 import org.dcm4chee.archive.event.ConnectionEventSource;
 import org.dcm4chee.archive.event.LocalSource;
 import org.dcm4chee.archive.event.StartStopReloadEvent;
@@ -200,6 +202,7 @@ public class ArchiveServiceImpl implements ArchiveService {
 
     @Override
     public void start(Participant source) throws Exception {
+        applyAttributesCodecConfiguration();
         device.bindConnections();
         running = true;
         archiveServiceStarted.fire(new StartStopReloadEvent(device, source));
@@ -227,10 +230,19 @@ public class ArchiveServiceImpl implements ArchiveService {
     public void reload(Participant source) throws Exception {
         aeCache.clear();
         deviceProducer.reloadConfiguration();
+        applyAttributesCodecConfiguration();
         device.rebindConnections();
         archiveServiceReloaded.fire(new StartStopReloadEvent(device, source));
     }
 
+    private void applyAttributesCodecConfiguration() {
+        ArchiveDeviceExtension arcDev =
+                device.getDeviceExtension(ArchiveDeviceExtension.class);
+        if (arcDev != null)
+            AttributesCodec.setCompressionThreshold(
+                    arcDev.getAttributesBlobCompressionThreshold());
+    }
+
     @Override
     public Device getDevice() {
         return device;
@@ -38,6 +38,7 @@
 
 package org.dcm4chee.archive.stgcmt.scp.impl;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
@@ -76,10 +77,19 @@ public class StgCmtEJB  {
         String[] sopIUIDs = new String[size];
         for (int i = 0; i < size; i++)
             sopIUIDs[i] = requestSeq.get(i).getString(Tag.ReferencedSOPInstanceUID);
+        // requests with thousands of references are looked up by several
+        // statements, not exceeding the database limits of IN lists
+        List<Tuple> list = new ArrayList<Tuple>(size);
+        for (String[] batch : Utils.splitInList(sopIUIDs))
+            list.addAll(lookupMatches(batch));
+        return list;
+    }
+
+    private List<Tuple> lookupMatches(String[] sopIUIDs) {
         BooleanBuilder builder = new BooleanBuilder();
         builder.and(QInstance.instance.sopInstanceUID.in(sopIUIDs));
         builder.and(QLocation.location.digest.isNotNull());
-        List<Tuple> list = new HibernateQuery(em.unwrap(Session.class))
+        return new HibernateQuery(em.unwrap(Session.class))
             .from(QInstance.instance)
             .innerJoin(QInstance.instance.locations,QLocation.location)
             .where(builder)
@@ -91,7 +101,6 @@ public class StgCmtEJB  {
                 QLocation.location.storagePath,
                 QLocation.location.storageSystemID,
                 QLocation.location.storageSystemGroupID);
-        return list;
     }
 
     public Attributes calculateResult(List<Tuple> list, Attributes actionInfo) {
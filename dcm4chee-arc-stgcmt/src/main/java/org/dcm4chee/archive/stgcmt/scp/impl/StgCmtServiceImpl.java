@@ -79,6 +79,7 @@ import org.dcm4che3.net.pdu.RoleSelection;
 import org.dcm4che3.net.service.DicomServiceException;
 import org.dcm4che3.util.DateUtils;
 import org.dcm4chee.archive.conf.ArchiveAEExtension;
+import org.dcm4chee.archive.conf.AttributeCoercionRules;
 import org.dcm4chee.archive.dto.ArchiveInstanceLocator;
 import org.dcm4chee.archive.stgcmt.scp.CommitEvent;
 import org.dcm4chee.archive.stgcmt.scp.StgCmtService;
@@ -379,10 +380,20 @@ public class StgCmtServiceImpl implements StgCmtService {
             throws DicomServiceException {
         try {
             Attributes modified = new Attributes();
-            Templates tpl = remoteAET != null ? arcAE
-                    .getAttributeCoercionTemplates(
-                            attrs.getString(Tag.SOPClassUID),
-                            Dimse.N_EVENT_REPORT_RQ, role, remoteAET) : null;
+            if (remoteAET == null)
+                return;
+
+            String cuid = attrs.getString(Tag.SOPClassUID);
+            AttributeCoercionRules rules = arcAE.getAttributeCoercionRules(
+                    cuid, Dimse.N_EVENT_REPORT_RQ, role, remoteAET);
+            if (rules != null) {
+                attrs.update(rules.coerce(attrs, AttributeCoercionRules.parameters(
+                        remoteAET, arcAE.getApplicationEntity().getAETitle())),
+                        modified);
+                return;
+            }
+            Templates tpl = arcAE.getAttributeCoercionTemplates(
+                    cuid, Dimse.N_EVENT_REPORT_RQ, role, remoteAET);
             if (tpl != null) {
                 attrs.update(SAXTransformer.transform(attrs, tpl, false, false,
                         new SetupTransformer() {
@@ -39,11 +39,20 @@
 package org.dcm4chee.archive.store.scu.impl;
 
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import org.dcm4che3.data.Attributes;
 import org.dcm4che3.data.DatasetWithFMI;
@@ -60,6 +69,8 @@ import org.dcm4che3.net.DataWriterAdapter;
 import org.dcm4che3.net.Status;
 import org.dcm4che3.net.TransferCapability;
 import org.dcm4che3.net.TransferCapability.Role;
+import org.dcm4che3.net.pdu.AAssociateRQ;
+import org.dcm4che3.net.pdu.PresentationContext;
 import org.dcm4che3.net.service.BasicCStoreSCU;
 import org.dcm4che3.net.service.BasicCStoreSCUResp;
 import org.dcm4che3.net.service.CStoreSCU;
@@ -95,12 +106,20 @@ public class CStoreSCUImpl extends BasicCStoreSCU<ArchiveInstanceLocator>
 
     private boolean withoutBulkData;
 
+    private volatile ParallelStore parallelStore;
+
+    private volatile ReadAhead readAhead;
+
     public CStoreSCUImpl(ApplicationEntity localAE, ApplicationEntity remoteAE, ServiceType service,
                          CStoreSCUService storeSCUService, WeightWatcher weightWatcher) {
         super();
         this.context = new CStoreSCUContext(localAE, remoteAE, service);
         this.service = storeSCUService;
         this.weightWatcher = weightWatcher;
+        // also updated by the additional associations of a parallel C-STORE
+        this.completed = Collections.synchronizedList(new ArrayList<ArchiveInstanceLocator>());
+        this.warning = Collections.synchronizedList(new ArrayList<ArchiveInstanceLocator>());
+        this.failed = Collections.synchronizedList(new ArrayList<ArchiveInstanceLocator>());
     }
 
     public void setWithoutBulkData(boolean withoutBulkData) {
@@ -157,64 +176,39 @@ public class CStoreSCUImpl extends BasicCStoreSCU<ArchiveInstanceLocator>
 
     @Override
     protected void storeInstance(Association storeas, ArchiveInstanceLocator instanceLocator) throws IOException, InterruptedException {
-        String tsuid;
-        DatasetWithFMI datasetWithFMI = null;
-        Attributes attrs;
-        ArchiveInstanceLocator inst = instanceLocator;
+        ParallelStore parallel = parallelStore;
+        if (parallel == null) {
+            store(storeas, instanceLocator);
+            return;
+        }
+        // started on the first instance, when the priority is already set
+        parallel.start();
         try {
-            ArchiveAEExtension arcAEExt = context.getLocalAE().getAEExtension(
-                    ArchiveAEExtension.class);
-
-            do {
-                try {
-                    datasetWithFMI = readFrom(inst);
-                } catch (IOException e) {
-                    LOG.info("Failed to read Data Set with iuid={} from {}@{}",
-                            inst.iuid, inst.getFilePath(), inst.getStorageSystem(), e);
-                    inst = inst.getFallbackLocator();
-                    if (inst == null) {
-                        throw e;
-                    }
-                    LOG.info("Try to read Data Set from alternative location");
-                }
-            } while (datasetWithFMI == null);
-
-            attrs = datasetWithFMI.getDataset();
-
-            if (context.getArchiveAEExtension().getRetrieveSuppressionCriteria().isCheckTransferCapabilities()) {
-                // check if eliminated by sop class
-                if (service.isSOPClassSuppressed(inst, context)) {
-                    LOG.info("Not sending instance {} because its SOPClass is suppressed", inst.iuid);
-                    return;
-                }
-            }
-
-            // check for suppression criteria
-            ApplicationEntity remoteAE = context.getRemoteAE();
-            if (remoteAE != null) {
-                String templateURI = arcAEExt.getRetrieveSuppressionCriteria().getSuppressionCriteriaMap().get(remoteAE.getAETitle());
-                if (templateURI != null) {
-                    if(service.isInstanceSuppressed(inst, attrs, templateURI, context)) {
-                        LOG.info("Not sending instance {} because it is suppressed", inst.iuid);
-                        return;
-                    }
-                }
-            }
-
-            tsuid = selectTransferSyntaxFor(storeas, inst, datasetWithFMI);
-
-            service.coerceFileBeforeMerge(inst, attrs, context);
-
-            //here we merge file attributes with attributes in the blob
-            attrs = Utils.mergeAndNormalize(attrs, (Attributes) inst.getObject());
-
-            service.coerceAttributes(attrs, context);
-            if (!inst.iuid.equals(attrs.getString(Tag.SOPInstanceUID))) {
-            	String newIUID = attrs.getString(Tag.SOPInstanceUID);
-            	LOG.info("SOP Instance UID changed! {} -> {}", inst.iuid, newIUID);
-            	inst = changeSOPInstanceUID(inst, newIUID);
-            }
+            if (parallel.claim(instanceLocator))
+                store(storeas, instanceLocator);
+        } finally {
+            // the final response has to include the instances sent over
+            // the additional associations
+            if (parallel.isLast(instanceLocator))
+                parallel.await();
+        }
+    }
 
+    private void store(Association storeas, ArchiveInstanceLocator instanceLocator) throws IOException, InterruptedException {
+        PreparedInstance prepared;
+        String tsuid;
+        try {
+            ReadAhead ra = readAhead;
+            prepared = ra != null
+                    ? ra.take(instanceLocator, storeas)
+                    : prepare(instanceLocator);
+            if (prepared == null)
+                return;
+
+            tsuid = selectTransferSyntaxFor(storeas, prepared.inst,
+                    prepared.possiblyFaultyJPEGLS);
+        } catch (InterruptedException e) {
+            throw e;
         } catch (Exception e) {
             LOG.info("Unable to store {}/{} to {}",
                     UID.nameOf(instanceLocator.cuid), UID.nameOf(instanceLocator.tsuid),
@@ -224,7 +218,7 @@ public class CStoreSCUImpl extends BasicCStoreSCU<ArchiveInstanceLocator>
         }
 
         try {
-            weightWatcher.execute(new StoreSCUTask(this, storeas, inst, attrs, tsuid));
+            weightWatcher.execute(new StoreSCUTask(this, storeas, prepared.inst, prepared.attrs, tsuid));
         } catch (Exception e) {
             if (e instanceof IOException)
                 throw (IOException) e;
@@ -237,6 +231,72 @@ public class CStoreSCUImpl extends BasicCStoreSCU<ArchiveInstanceLocator>
         }
     }
 
+    /**
+     * Reads and coerces the Data Set of the instance, independent of the
+     * association it will be sent over.
+     *
+     * @return the coerced instance or {@code null} if it is suppressed
+     */
+    private PreparedInstance prepare(ArchiveInstanceLocator instanceLocator) throws Exception {
+        DatasetWithFMI datasetWithFMI = null;
+        Attributes attrs;
+        ArchiveInstanceLocator inst = instanceLocator;
+        ArchiveAEExtension arcAEExt = context.getLocalAE().getAEExtension(
+                ArchiveAEExtension.class);
+
+        do {
+            try {
+                datasetWithFMI = readFrom(inst);
+            } catch (IOException e) {
+                LOG.info("Failed to read Data Set with iuid={} from {}@{}",
+                        inst.iuid, inst.getFilePath(), inst.getStorageSystem(), e);
+                inst = inst.getFallbackLocator();
+                if (inst == null) {
+                    throw e;
+                }
+                LOG.info("Try to read Data Set from alternative location");
+            }
+        } while (datasetWithFMI == null);
+
+        attrs = datasetWithFMI.getDataset();
+
+        if (context.getArchiveAEExtension().getRetrieveSuppressionCriteria().isCheckTransferCapabilities()) {
+            // check if eliminated by sop class
+            if (service.isSOPClassSuppressed(inst, context)) {
+                LOG.info("Not sending instance {} because its SOPClass is suppressed", inst.iuid);
+                return null;
+            }
+        }
+
+        // check for suppression criteria
+        ApplicationEntity remoteAE = context.getRemoteAE();
+        if (remoteAE != null) {
+            String templateURI = arcAEExt.getRetrieveSuppressionCriteria().getSuppressionCriteriaMap().get(remoteAE.getAETitle());
+            if (templateURI != null) {
+                if(service.isInstanceSuppressed(inst, attrs, templateURI, context)) {
+                    LOG.info("Not sending instance {} because it is suppressed", inst.iuid);
+                    return null;
+                }
+            }
+        }
+
+        boolean possiblyFaultyJPEGLS = inst.getStorageSystem()
+                .getStorageSystemGroup().isPossiblyFaultyJPEGLS(datasetWithFMI);
+
+        service.coerceFileBeforeMerge(inst, attrs, context);
+
+        //here we merge file attributes with attributes in the blob
+        attrs = Utils.mergeAndNormalize(attrs, (Attributes) inst.getObject());
+
+        service.coerceAttributes(attrs, context);
+        if (!inst.iuid.equals(attrs.getString(Tag.SOPInstanceUID))) {
+        	String newIUID = attrs.getString(Tag.SOPInstanceUID);
+        	LOG.info("SOP Instance UID changed! {} -> {}", inst.iuid, newIUID);
+        	inst = changeSOPInstanceUID(inst, newIUID);
+        }
+        return new PreparedInstance(inst, attrs, possiblyFaultyJPEGLS);
+    }
+
 	private ArchiveInstanceLocator changeSOPInstanceUID(ArchiveInstanceLocator inst, String newIUID) {
 		ArchiveInstanceLocator newLocator = new ArchiveInstanceLocator.Builder(
 		        inst.cuid, 
@@ -340,12 +400,12 @@ public class CStoreSCUImpl extends BasicCStoreSCU<ArchiveInstanceLocator>
         return UID.ImplicitVRLittleEndian;
     }
 
-    protected String selectTransferSyntaxFor(Association storeas, ArchiveInstanceLocator inst, DatasetWithFMI dataSetWithFMI) throws UnsupportedStoreSCUException {
+    protected String selectTransferSyntaxFor(Association storeas, ArchiveInstanceLocator inst, boolean possiblyFaultyJPEGLS) throws UnsupportedStoreSCUException {
         Set<String> acceptedTransferSyntax = new HashSet<>(storeas.getTransferSyntaxesFor(inst.cuid));
 
         // prevent that (possibly) faulty JPEG-LS data leaves the system,
         // we only want to store it decompressed
-        if (inst.getStorageSystem().getStorageSystemGroup().isPossiblyFaultyJPEGLS(dataSetWithFMI)) {
+        if (possiblyFaultyJPEGLS) {
             acceptedTransferSyntax.remove(UID.JPEGLSLossless);
         }
 
@@ -368,7 +428,366 @@ public class CStoreSCUImpl extends BasicCStoreSCU<ArchiveInstanceLocator>
     }
 
     private BasicCStoreSCUResp pushInstances(ArrayList<ArchiveInstanceLocator> instances, Association storeas, int priority) {
-        return super.cstore(instances, storeas, priority);
+        int depth = context.getArchiveAEExtension().getStoreSCUReadAhead();
+        if (depth <= 0 || instances.size() <= 1)
+            return pushInstances0(instances, storeas, priority);
+
+        ReadAhead ra = new ReadAhead(instances, storeas, depth);
+        readAhead = ra;
+        try {
+            return pushInstances0(instances, storeas, priority);
+        } finally {
+            // also cancels the outstanding reads after a C-CANCEL
+            ra.close();
+            readAhead = null;
+        }
+    }
+
+    private BasicCStoreSCUResp pushInstances0(ArrayList<ArchiveInstanceLocator> instances, Association storeas, int priority) {
+        List<Association> associations = openParallelAssociations(storeas, instances.size());
+        if (associations.isEmpty())
+            return super.cstore(instances, storeas, priority);
+
+        ParallelStore parallel = new ParallelStore(instances, storeas, associations);
+        parallelStore = parallel;
+        BasicCStoreSCUResp resp;
+        try {
+            resp = super.cstore(instances, storeas, priority);
+        } finally {
+            // after a C-CANCEL or an abort of the primary association the
+            // additional associations may still be sending
+            parallel.stop();
+            parallelStore = null;
+            for (Association as : associations)
+                release(as);
+        }
+        return parallel.isStarted() ? recount(resp) : resp;
+    }
+
+    /**
+     * Updates the response of the primary association with the instances
+     * sent over the additional associations after it completed.
+     */
+    private BasicCStoreSCUResp recount(BasicCStoreSCUResp resp) {
+        if (status != Status.Cancel && !failed.isEmpty())
+            status = failed.size() == nr_instances
+                    ? Status.UnableToPerformSubOperations
+                    : Status.OneOrMoreFailures;
+        ArrayList<String> failedUIDs = new ArrayList<String>();
+        synchronized (failed) {
+            for (ArchiveInstanceLocator inst : failed)
+                failedUIDs.add(inst.iuid);
+        }
+        resp.setStatus(status);
+        resp.setCompleted(completed.size());
+        resp.setWarning(warning.size());
+        resp.setFailed(failedUIDs.size());
+        resp.setFailedUIDs(failedUIDs.toArray(new String[failedUIDs.size()]));
+        setChanged();
+        notifyObservers();
+        return resp;
+    }
+
+    /**
+     * Opens up to dcmMaxStoreAssociations - 1 additional associations to the
+     * destination of a C-MOVE, negotiating the same presentation contexts as
+     * the primary association. Fails soft: the instances are then sent over
+     * the associations which could be opened.
+     */
+    private List<Association> openParallelAssociations(Association storeas, int numInstances) {
+        ArrayList<Association> associations = new ArrayList<Association>();
+        ApplicationEntity remoteAE = context.getRemoteAE();
+        if (context.getService() != ServiceType.MOVESERVICE || remoteAE == null)
+            return associations;
+
+        int max = Math.min(numInstances, context.getArchiveAEExtension()
+                .getMaxStoreAssociations(remoteAE.getAETitle()));
+        for (int i = 1; i < max; i++) {
+            try {
+                associations.add(context.getLocalAE().connect(remoteAE,
+                        copyOf(storeas.getAAssociateRQ())));
+            } catch (Exception e) {
+                LOG.info("Failed to open additional association to {} - "
+                        + "continue with {} association(s)",
+                        remoteAE.getAETitle(), i, e);
+                break;
+            }
+        }
+        return associations;
+    }
+
+    private static AAssociateRQ copyOf(AAssociateRQ rq) {
+        AAssociateRQ copy = new AAssociateRQ();
+        copy.setCallingAET(rq.getCallingAET());
+        copy.setCalledAET(rq.getCalledAET());
+        for (PresentationContext pc : rq.getPresentationContexts())
+            copy.addPresentationContext(new PresentationContext(
+                    pc.getPCID(), pc.getAbstractSyntax(), pc.getTransferSyntaxes()));
+        return copy;
+    }
+
+    private static void release(Association as) {
+        try {
+            as.release();
+        } catch (IOException e) {
+            LOG.info("{}: failed to release association", as, e);
+        }
+    }
+
+    /**
+     * Shares the instances of one C-MOVE between the primary association,
+     * which sends them from the head of the list, and additional
+     * associations, which steal them from the tail, until both ends meet.
+     * All associations report to the same completed/warning/failed lists, so
+     * the C-MOVE-RSPs still reflect the whole retrieve.
+     */
+    private final class ParallelStore {
+
+        private final List<ArchiveInstanceLocator> instances;
+        private final Association primary;
+        private final List<Association> associations;
+        private final Set<ArchiveInstanceLocator> claimed =
+                Collections.newSetFromMap(new IdentityHashMap<ArchiveInstanceLocator, Boolean>());
+        private final CountDownLatch done;
+        private int tail;
+        private boolean started;
+        private volatile boolean stopped;
+
+        ParallelStore(List<ArchiveInstanceLocator> instances, Association primary,
+                List<Association> associations) {
+            this.instances = instances;
+            this.primary = primary;
+            this.associations = associations;
+            this.tail = instances.size();
+            this.done = new CountDownLatch(associations.size());
+        }
+
+        synchronized void start() {
+            if (started)
+                return;
+
+            started = true;
+            for (final Association as : associations) {
+                try {
+                    context.getLocalAE().getDevice().execute(new Runnable() {
+
+                        @Override
+                        public void run() {
+                            sendFromTail(as);
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    LOG.info("{}: failed to start parallel C-STORE", as, e);
+                    done.countDown();
+                }
+            }
+        }
+
+        synchronized boolean claim(ArchiveInstanceLocator inst) {
+            return claimed.add(inst);
+        }
+
+        synchronized ArchiveInstanceLocator steal() {
+            if (stopped || tail == 0)
+                return null;
+
+            ArchiveInstanceLocator inst = instances.get(--tail);
+            return claimed.add(inst) ? inst : null;
+        }
+
+        boolean isLast(ArchiveInstanceLocator inst) {
+            return instances.get(instances.size() - 1) == inst;
+        }
+
+        synchronized boolean isClaimed(ArchiveInstanceLocator inst) {
+            return claimed.contains(inst);
+        }
+
+        synchronized boolean isStarted() {
+            return started;
+        }
+
+        void await() throws InterruptedException {
+            synchronized (this) {
+                if (!started)
+                    return;
+            }
+            done.await();
+        }
+
+        void stop() {
+            stopped = true;
+            try {
+                await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void sendFromTail(Association as) {
+            ArchiveInstanceLocator inst = null;
+            try {
+                while (status == Status.Pending
+                        && as.isReadyForDataTransfer()
+                        && primary.isReadyForDataTransfer()
+                        && (inst = steal()) != null) {
+                    store(as, inst);
+                    inst = null;
+                }
+                as.waitForOutstandingRSP();
+            } catch (Exception e) {
+                LOG.info("{}: parallel C-STORE failed", as, e);
+                if (inst != null)
+                    failed.add(inst);
+            } finally {
+                done.countDown();
+            }
+        }
+    }
+
+    private static final class PreparedInstance {
+        final ArchiveInstanceLocator inst;
+        final Attributes attrs;
+        final boolean possiblyFaultyJPEGLS;
+
+        PreparedInstance(ArchiveInstanceLocator inst, Attributes attrs,
+                boolean possiblyFaultyJPEGLS) {
+            this.inst = inst;
+            this.attrs = attrs;
+            this.possiblyFaultyJPEGLS = possiblyFaultyJPEGLS;
+        }
+    }
+
+    private enum ReadAheadTaskType implements TaskType {
+        READ_AHEAD_OUTGOING
+    }
+
+    /**
+     * Reads and coerces the next instances on the executor of the device,
+     * while the current instance is sent. Only the primary association moves
+     * the window forward; instances sent over additional associations are
+     * taken from the window if already read, otherwise read on demand. The
+     * window does not extend to instances already stolen by additional
+     * associations.
+     */
+    private final class ReadAhead {
+
+        private final List<ArchiveInstanceLocator> instances;
+        private final Association primary;
+        private final int depth;
+        private final Map<ArchiveInstanceLocator, Integer> positions =
+                new IdentityHashMap<ArchiveInstanceLocator, Integer>();
+        private final Map<ArchiveInstanceLocator, FutureTask<PreparedInstance>> pending =
+                new IdentityHashMap<ArchiveInstanceLocator, FutureTask<PreparedInstance>>();
+        private int next;
+        private boolean closed;
+
+        ReadAhead(List<ArchiveInstanceLocator> instances, Association primary, int depth) {
+            this.instances = instances;
+            this.primary = primary;
+            this.depth = depth;
+            for (int i = 0; i < instances.size(); i++)
+                positions.put(instances.get(i), i);
+        }
+
+        PreparedInstance take(ArchiveInstanceLocator inst, Association storeas) throws Exception {
+            FutureTask<PreparedInstance> task;
+            synchronized (this) {
+                task = pending.remove(inst);
+                if (storeas == primary)
+                    advance(inst);
+            }
+            if (task == null)
+                return prepare(inst);
+
+            try {
+                return task.get();
+            } catch (CancellationException e) {
+                throw new InterruptedException();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof Error)
+                    throw (Error) cause;
+                throw (Exception) cause;
+            }
+        }
+
+        private void advance(ArchiveInstanceLocator inst) {
+            Integer pos = positions.get(inst);
+            if (pos == null || closed)
+                return;
+
+            next = Math.max(next, pos + 1);
+            int end = Math.min(instances.size(), pos + 1 + depth);
+            ParallelStore parallel = parallelStore;
+            for (; next < end; next++) {
+                final ArchiveInstanceLocator ahead = instances.get(next);
+                // the additional associations steal from the tail, so all
+                // following instances are also claimed by them
+                if (parallel != null && parallel.isClaimed(ahead))
+                    break;
+
+                FutureTask<PreparedInstance> task = new FutureTask<PreparedInstance>(
+                        new Callable<PreparedInstance>() {
+
+                            @Override
+                            public PreparedInstance call() throws Exception {
+                                return weightWatcher.execute(new ReadAheadTask(ahead));
+                            }
+                        });
+                try {
+                    context.getLocalAE().getDevice().execute(task);
+                } catch (RuntimeException e) {
+                    LOG.info("Failed to schedule read ahead of {}", ahead.iuid, e);
+                    break;
+                }
+                pending.put(ahead, task);
+            }
+        }
+
+        synchronized void close() {
+            closed = true;
+            for (FutureTask<PreparedInstance> task : pending.values())
+                task.cancel(true);
+            pending.clear();
+        }
+    }
+
+    /**
+     * Reading the Data Set is accounted by the {@link WeightWatcher} if it
+     * includes the bulk data, otherwise the bulk data is only referenced.
+     * The reservation ends when the Data Set is read, so the memory held by
+     * read Data Sets waiting to be sent is bounded by the read ahead depth.
+     */
+    private final class ReadAheadTask implements MemoryConsumingTask<PreparedInstance> {
+
+        private final ArchiveInstanceLocator inst;
+
+        ReadAheadTask(ArchiveInstanceLocator inst) {
+            this.inst = inst;
+        }
+
+        @Override
+        public TaskType getTaskType() {
+            return ReadAheadTaskType.READ_AHEAD_OUTGOING;
+        }
+
+        @Override
+        public long getEstimatedWeight() {
+            if (!withoutBulkData || !inst.isWithoutBulkdata())
+                return 0;
+
+            try {
+                return Files.size(service.getFile(inst));
+            } catch (IOException e) {
+                return 0;
+            }
+        }
+
+        @Override
+        public PreparedInstance call() throws Exception {
+            return prepare(inst);
+        }
     }
 
     private static class StoreSCUTask implements MemoryConsumingTask<Void> {
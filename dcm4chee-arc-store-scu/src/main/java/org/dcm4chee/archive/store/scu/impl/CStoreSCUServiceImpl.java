@@ -57,6 +57,8 @@ import org.dcm4che3.net.service.DicomServiceException;
 import org.dcm4che3.net.service.InstanceLocator;
 import org.dcm4che3.util.DateUtils;
 import org.dcm4che3.util.StringUtils;
+import org.dcm4chee.archive.conf.ArchiveAEExtension;
+import org.dcm4chee.archive.conf.AttributeCoercionRules;
 import org.dcm4chee.archive.dto.ArchiveInstanceLocator;
 import org.dcm4chee.archive.dto.ServiceQualifier;
 import org.dcm4chee.archive.fetch.forward.FetchForwardService;
@@ -223,10 +225,18 @@ public class CStoreSCUServiceImpl implements CStoreSCUService {
             throws DicomServiceException {
         try {
             if (context.getRemoteAE()!=null) {
-                Templates tpl = context.getArchiveAEExtension()
-                        .getAttributeCoercionTemplates(
-                                attrs.getString(Tag.SOPClassUID), Dimse.C_STORE_RQ,
-                                Role.SCU, context.getRemoteAE().getAETitle());
+                String cuid = attrs.getString(Tag.SOPClassUID);
+                String remoteAET = context.getRemoteAE().getAETitle();
+                ArchiveAEExtension arcAE = context.getArchiveAEExtension();
+                AttributeCoercionRules rules = arcAE.getAttributeCoercionRules(
+                        cuid, Dimse.C_STORE_RQ, Role.SCU, remoteAET);
+                if (rules != null) {
+                    attrs.addAll(rules.coerce(attrs, AttributeCoercionRules.parameters(
+                            context.getLocalAE().getAETitle(), remoteAET)));
+                    return;
+                }
+                Templates tpl = arcAE.getAttributeCoercionTemplates(
+                        cuid, Dimse.C_STORE_RQ, Role.SCU, remoteAET);
                 if (tpl != null)
                     attrs.addAll(SAXTransformer.transform(attrs, tpl, false, false,
                             new CStoreSCUSetupTransformer(context.getLocalAE()
@@ -43,6 +43,7 @@ import org.dcm4che3.net.Device;
 import org.dcm4chee.archive.conf.ArchiveAEExtension;
 import org.dcm4chee.archive.conf.StoreParam;
 import org.dcm4chee.archive.dto.Participant;
+import org.dcm4chee.archive.store.scheduler.StorageIOPriority;
 import org.dcm4chee.storage.conf.StorageSystem;
 
 import java.nio.file.Path;
@@ -118,4 +119,8 @@ public interface StoreSession {
     List<String> getStoredFiles();
 
     void addStoredFile(String storedFile);
+
+    StorageIOPriority getIOPriority();
+
+    void setIOPriority(StorageIOPriority priority);
 }
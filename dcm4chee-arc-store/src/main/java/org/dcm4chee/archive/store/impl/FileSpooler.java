@@ -42,14 +42,23 @@ public class FileSpooler implements Spooler {
      * Flushes to file the passed byte array, and then keeps spooling.
      */
     public void flushNspool(StoreContext context, byte[] toFlush, boolean parse) throws DicomServiceException {
-        spool(context, toFlush, parse);
+        spool(context, toFlush, toFlush.length, parse);
+    }
+
+    /**
+     * Writes the first {@code length} bytes of {@code toFlush} - already
+     * read from the input stream of the context - followed by the remaining
+     * input stream to the spool file.
+     */
+    public void flushNspool(StoreContext context, byte[] toFlush, int length, boolean parse) throws DicomServiceException {
+        spool(context, toFlush, length, parse);
     }
 
     public void spool(StoreContext context, boolean parse) throws DicomServiceException {
-        spool(context, null, parse);
+        spool(context, null, 0, parse);
     }
 
-    private void spool(StoreContext context, byte[] toFlush, boolean parse) throws DicomServiceException {
+    private void spool(StoreContext context, byte[] toFlush, int length, boolean parse) throws DicomServiceException {
         StoreSession session = context.getStoreSession();
         StorageSystem spoolingStorage = session.getSpoolStorageSystem();
         if (spoolingStorage == null)
@@ -93,7 +102,7 @@ public class FileSpooler implements Spooler {
             }
 
             if (toFlush != null) {
-                out.write(toFlush);
+                out.write(toFlush, 0, length);
             }
 
             if (in != null) {
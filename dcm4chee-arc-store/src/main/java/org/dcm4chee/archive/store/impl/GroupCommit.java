@@ -0,0 +1,223 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2014
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.store.impl;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.dcm4che3.net.Device;
+import org.dcm4che3.net.Status;
+import org.dcm4che3.net.service.DicomServiceException;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
+import org.dcm4chee.archive.store.StoreContext;
+import org.dcm4chee.archive.util.RetryBean;
+import org.dcm4chee.util.TransactionSynchronization;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Commits the DB updates of concurrently stored objects - of different
+ * associations, STOW requests or asynchronous operations on one association
+ * - in one transaction.
+ *
+ * The first caller becomes leader of the group: it waits up to
+ * {@link ArchiveDeviceExtension#getUpdateDbGroupCommitWindow()} ms for
+ * further objects, up to {@link ArchiveDeviceExtension#getUpdateDbGroupCommitSize()}
+ * objects, and commits them, while the other callers wait for the commit.
+ * So no object is acknowledged before its DB update is committed. If the
+ * group transaction fails, it is rolled back entirely and the objects are
+ * updated one by one, so one failing object does not fail the others.
+ */
+@ApplicationScoped
+public class GroupCommit {
+
+    private static final Logger LOG = LoggerFactory.getLogger(GroupCommit.class);
+
+    @Inject
+    private StoreServiceEJB storeServiceEJB;
+
+    @Inject
+    private RetryBean<Void,DicomServiceException> retry;
+
+    @Inject
+    private Device device;
+
+    @Inject
+    private TransactionSynchronization transaction;
+
+    private final LinkedList<Entry> pending = new LinkedList<Entry>();
+
+    private boolean collecting;
+
+    private static final class Entry {
+        final StoreContext context;
+        final CountDownLatch done = new CountDownLatch(1);
+        DicomServiceException failure;
+
+        Entry(StoreContext context) {
+            this.context = context;
+        }
+
+        void done(DicomServiceException failure) {
+            this.failure = failure;
+            done.countDown();
+        }
+    }
+
+    /**
+     * Group commit only applies outside of a transaction, otherwise the
+     * updates of other callers would be committed with the caller's
+     * transaction.
+     */
+    public boolean isEnabled() {
+        return device.getDeviceExtension(ArchiveDeviceExtension.class)
+                .getUpdateDbGroupCommitSize() > 1
+                && transaction.getStatus() == javax.transaction.Status.STATUS_NO_TRANSACTION;
+    }
+
+    public void updateDB(StoreContext context) throws DicomServiceException {
+        ArchiveDeviceExtension dE = device.getDeviceExtension(ArchiveDeviceExtension.class);
+        int maxSize = dE.getUpdateDbGroupCommitSize();
+        int window = dE.getUpdateDbGroupCommitWindow();
+
+        Entry entry = new Entry(context);
+        boolean lead;
+        synchronized (pending) {
+            pending.add(entry);
+            lead = !collecting;
+            if (lead)
+                collecting = true;
+            else if (pending.size() >= maxSize)
+                pending.notifyAll();
+        }
+
+        while (lead) {
+            commit(collect(maxSize, window));
+            // take over objects left behind by a full group
+            synchronized (pending) {
+                lead = !pending.isEmpty() && !collecting;
+                if (lead)
+                    collecting = true;
+            }
+        }
+
+        try {
+            entry.done.await();
+        } catch (InterruptedException e) {
+            throw new DicomServiceException(Status.ProcessingFailure, e);
+        }
+        if (entry.failure != null)
+            throw entry.failure;
+    }
+
+    private List<Entry> collect(int maxSize, int window) {
+        synchronized (pending) {
+            try {
+                long end = System.currentTimeMillis() + window;
+                long remaining = window;
+                while (pending.size() < maxSize && remaining > 0) {
+                    pending.wait(remaining);
+                    remaining = end - System.currentTimeMillis();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                // a new leader may collect the next group meanwhile
+                collecting = false;
+            }
+            int n = Math.min(maxSize, pending.size());
+            List<Entry> group = new ArrayList<Entry>(n);
+            for (int i = 0; i < n; i++)
+                group.add(pending.removeFirst());
+            return group;
+        }
+    }
+
+    private void commit(List<Entry> group) {
+        if (group.isEmpty())
+            return;
+
+        if (group.size() == 1) {
+            Entry entry = group.get(0);
+            entry.done(commitSingle(entry.context));
+            return;
+        }
+
+        List<StoreContext> contexts = new ArrayList<StoreContext>(group.size());
+        for (Entry entry : group)
+            contexts.add(entry.context);
+
+        try {
+            storeServiceEJB.updateDB(contexts);
+            LOG.debug("Committed DB update of {} objects", contexts.size());
+            for (Entry entry : group)
+                entry.done(null);
+            return;
+        } catch (Exception e) {
+            LOG.info("Failed to commit DB update of {} objects - update one by one",
+                    contexts.size(), e);
+        }
+
+        for (Entry entry : group)
+            entry.done(commitSingle(entry.context));
+    }
+
+    private DicomServiceException commitSingle(final StoreContext context) {
+        try {
+            retry.retry(new Callable<Void>() {
+                @Override
+                public Void call() throws DicomServiceException {
+                    storeServiceEJB.updateDB(context);
+                    return null;
+                }
+            });
+            return null;
+        } catch (DicomServiceException e) {
+            return e;
+        } catch (RuntimeException e) {
+            return new DicomServiceException(Status.ProcessingFailure, e);
+        }
+    }
+}
@@ -7,7 +7,6 @@ import org.dcm4che3.io.DicomInputStream;
 import org.dcm4che3.io.DicomOutputStream;
 import org.dcm4che3.net.Status;
 import org.dcm4che3.net.service.DicomServiceException;
-import org.dcm4che3.util.SafeClose;
 import org.dcm4che3.util.TagUtils;
 import org.dcm4chee.archive.store.Spooler;
 import org.dcm4chee.archive.store.StoreContext;
@@ -40,7 +39,8 @@ public class MemoryOrFileSpooler implements Spooler {
     @Inject
     private FileSpooler fileSpooler;
 
-    private static final int DEFAULT_READ_SIZE = 1024 * 2;
+    @Inject
+    private SpoolBufferPool bufferPool;
 
     public void spool(StoreContext context, boolean parse) throws DicomServiceException {
 
@@ -52,54 +52,52 @@ public class MemoryOrFileSpooler implements Spooler {
         InputStream in = context.getInputStream();
 
         int cutoffLength = spoolingStorage.getSpoolingCutoffLength();
-        ByteArrayOutputStream bufferOS = new ByteArrayOutputStream(cutoffLength);
-        boolean spooToFile = false;
-
+        // the parser and the file spooler read the pooled buffer directly
+        byte[] buffer = bufferPool.acquire(cutoffLength);
         try {
-            int nRead;
-            long readBytes = 0;
-            byte[] data = new byte[DEFAULT_READ_SIZE];
-
-            while ((nRead = in.read(data, 0, data.length)) != -1) {
-
-                bufferOS.write(data, 0, nRead);
-                readBytes+=nRead;
-
-                if ((readBytes+DEFAULT_READ_SIZE)>cutoffLength) {
-                    spooToFile = true;
-                    break;
+            int length = 0;
+            boolean spoolToFile = cutoffLength <= 0;
+            try {
+                int nRead;
+                while (!spoolToFile && (nRead = in.read(buffer, length, cutoffLength - length)) != -1) {
+                    length += nRead;
+                    if (length == cutoffLength) {
+                        spoolToFile = true;
+                        break;
+                    }
                 }
+            } catch (IOException e) {
+                throw new DicomServiceException(Status.UnableToProcess, e);
             }
 
-        } catch (IOException e) {
-            throw new DicomServiceException(Status.UnableToProcess, e);
-        }
-
-        if (spooToFile) {
-            fileSpooler.flushNspool(context, bufferOS.toByteArray(),parse);
-            SafeClose.close(bufferOS);
-        }
-        else {
-            if (parse) {
-                try {
-                    DicomInputStream dis;
-                    ByteArrayInputStream bais = new ByteArrayInputStream(bufferOS.toByteArray());
-                    if (fmi!=null && fmi.getString(Tag.TransferSyntaxUID)!=null)
-                        dis = new DicomInputStream(bais, fmi.getString(Tag.TransferSyntaxUID));
-                    else
-                        dis = new DicomInputStream(bais); //guess ts
-                    dis.setIncludeBulkData(DicomInputStream.IncludeBulkData.YES);
-                    Attributes data = dis.readDataset(-1, -1);
-                    context.setAttributes(data);
-                    Attributes dsFMI = dis.readFileMetaInformation();
-                    context.setTransferSyntax(dsFMI != null ? dsFMI.getString(Tag.TransferSyntaxUID) : 
-                            fmi != null ? fmi.getString(Tag.TransferSyntaxUID) : UID.ImplicitVRLittleEndian);
-                } catch (IOException e) {
-                    throw new DicomServiceException(StoreService.DATA_SET_NOT_PARSEABLE, e);
-                } finally {
-                    context.setSpoolingContext(spoolingContext);
+            if (spoolToFile) {
+                fileSpooler.flushNspool(context, buffer, length, parse);
+            }
+            else {
+                if (parse) {
+                    try {
+                        DicomInputStream dis;
+                        ByteArrayInputStream bais = new ByteArrayInputStream(buffer, 0, length);
+                        if (fmi!=null && fmi.getString(Tag.TransferSyntaxUID)!=null)
+                            dis = new DicomInputStream(bais, fmi.getString(Tag.TransferSyntaxUID));
+                        else
+                            dis = new DicomInputStream(bais); //guess ts
+                        dis.setIncludeBulkData(DicomInputStream.IncludeBulkData.YES);
+                        Attributes data = dis.readDataset(-1, -1);
+                        context.setAttributes(data);
+                        Attributes dsFMI = dis.readFileMetaInformation();
+                        context.setTransferSyntax(dsFMI != null ? dsFMI.getString(Tag.TransferSyntaxUID) : 
+                                fmi != null ? fmi.getString(Tag.TransferSyntaxUID) : UID.ImplicitVRLittleEndian);
+                    } catch (IOException e) {
+                        throw new DicomServiceException(StoreService.DATA_SET_NOT_PARSEABLE, e);
+                    } finally {
+                        context.setSpoolingContext(spoolingContext);
+                    }
                 }
             }
+        } finally {
+            // parsed values are copied, so the buffer is not referenced anymore
+            bufferPool.release(buffer);
         }
     }
 
@@ -0,0 +1,161 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2014
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.store.impl;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.dcm4che3.net.Device;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
+
+/**
+ * Pool of the buffers objects are spooled to in memory, so the buffers are
+ * not allocated again for each stored object.
+ *
+ * Buffers are grouped in size classes of powers of two, starting with
+ * {@value #MIN_BUFFER_SIZE} bytes. Released buffers are retained as long as
+ * the retained buffers do not exceed
+ * {@link ArchiveDeviceExtension#getSpoolBufferPoolSize()} bytes.
+ */
+@ApplicationScoped
+public class SpoolBufferPool {
+
+    static final int MIN_BUFFER_SIZE = 64 * 1024;
+
+    private static final int MIN_SIZE_CLASS = 16;
+
+    private static final int MAX_SIZE_CLASS = 30;
+
+    @Inject
+    private Device device;
+
+    @SuppressWarnings("unchecked")
+    private final ConcurrentLinkedQueue<byte[]>[] pools = new ConcurrentLinkedQueue[MAX_SIZE_CLASS + 1];
+
+    private final AtomicLong retainedBytes = new AtomicLong();
+    private final AtomicInteger inUse = new AtomicInteger();
+    private final AtomicLong acquired = new AtomicLong();
+    private final AtomicLong allocated = new AtomicLong();
+    private final AtomicLong discarded = new AtomicLong();
+
+    public SpoolBufferPool() {
+        for (int i = 0; i < pools.length; i++)
+            pools[i] = new ConcurrentLinkedQueue<byte[]>();
+    }
+
+    /**
+     * Returns a buffer of at least {@code minLength} bytes, which has to be
+     * {@link #release released} after use.
+     */
+    public byte[] acquire(int minLength) {
+        int sizeClass = sizeClass(minLength);
+        acquired.incrementAndGet();
+        inUse.incrementAndGet();
+        if (sizeClass > MAX_SIZE_CLASS) {
+            allocated.incrementAndGet();
+            return new byte[minLength];
+        }
+        byte[] b = pools[sizeClass].poll();
+        if (b != null) {
+            retainedBytes.addAndGet(-b.length);
+            return b;
+        }
+        allocated.incrementAndGet();
+        return new byte[1 << sizeClass];
+    }
+
+    public void release(byte[] b) {
+        if (b == null)
+            return;
+
+        inUse.decrementAndGet();
+        int sizeClass = sizeClass(b.length);
+        if (sizeClass > MAX_SIZE_CLASS || b.length != 1 << sizeClass) {
+            discarded.incrementAndGet();
+            return;
+        }
+        long maxBytes = device.getDeviceExtension(ArchiveDeviceExtension.class)
+                .getSpoolBufferPoolSize();
+        if (retainedBytes.addAndGet(b.length) > maxBytes) {
+            retainedBytes.addAndGet(-b.length);
+            discarded.incrementAndGet();
+            return;
+        }
+        pools[sizeClass].offer(b);
+    }
+
+    private static int sizeClass(int length) {
+        return length <= MIN_BUFFER_SIZE
+                ? MIN_SIZE_CLASS
+                : 32 - Integer.numberOfLeadingZeros(length - 1);
+    }
+
+    public long getRetainedBytes() {
+        return retainedBytes.get();
+    }
+
+    public int getInUseCount() {
+        return inUse.get();
+    }
+
+    public long getAcquiredCount() {
+        return acquired.get();
+    }
+
+    public long getAllocatedCount() {
+        return allocated.get();
+    }
+
+    public long getDiscardedCount() {
+        return discarded.get();
+    }
+
+    @Override
+    public String toString() {
+        return "SpoolBufferPool[retained=" + retainedBytes.get()
+                + "B, inUse=" + inUse.get()
+                + ", acquired=" + acquired.get()
+                + ", allocated=" + allocated.get()
+                + ", discarded=" + discarded.get() + "]";
+    }
+}
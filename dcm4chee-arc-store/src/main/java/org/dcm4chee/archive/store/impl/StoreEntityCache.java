@@ -0,0 +1,280 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2014
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.store.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.persistence.EntityManager;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.IDWithIssuer;
+import org.dcm4chee.archive.conf.AttributeFilter;
+import org.dcm4chee.archive.entity.Patient;
+import org.dcm4chee.archive.entity.Series;
+import org.dcm4chee.archive.entity.Study;
+import org.dcm4chee.archive.store.StoreSession;
+
+/**
+ * Patient, Study and Series entities resolved for previous objects of a
+ * Store Session, with the attributes merged into them.
+ *
+ * A cached entity is loaded by its primary key instead of the eager fetching
+ * queries, and the attributes of an object are not merged again into the
+ * entity, if they match the attributes merged by a previous object. Both
+ * only, if the version of the entity did not change meanwhile - e.g. by a
+ * concurrent session - otherwise the entry is evicted and the entity is
+ * looked up and updated as before. Entries are only published after the
+ * commit of the transaction, to get the version written by it.
+ */
+public class StoreEntityCache {
+
+    private static final String PROPERTY = StoreEntityCache.class.getName();
+
+    private static final class Entry {
+        final long version;
+        final Attributes attrs;
+
+        Entry(long version, Attributes attrs) {
+            this.version = version;
+            this.attrs = attrs;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Long> seriesPks = new ConcurrentHashMap<String, Long>();
+    private final ConcurrentHashMap<String, Long> studyPks = new ConcurrentHashMap<String, Long>();
+    private final ConcurrentHashMap<String, Long> patientPks = new ConcurrentHashMap<String, Long>();
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    public static StoreEntityCache of(StoreSession session) {
+        synchronized (session) {
+            StoreEntityCache cache = (StoreEntityCache) session.getProperty(PROPERTY);
+            if (cache == null) {
+                cache = new StoreEntityCache();
+                session.setProperty(PROPERTY, cache);
+            }
+            return cache;
+        }
+    }
+
+    public Series findSeries(EntityManager em, String seriesIUID) {
+        Long pk = seriesPks.get(seriesIUID);
+        if (pk == null)
+            return null;
+
+        Series series = em.find(Series.class, pk);
+        if (series == null || !isCurrent(key(Series.class, pk), series.getVersion())) {
+            seriesPks.remove(seriesIUID);
+            return null;
+        }
+        return series;
+    }
+
+    public Study findStudy(EntityManager em, String studyIUID) {
+        Long pk = studyPks.get(studyIUID);
+        if (pk == null)
+            return null;
+
+        Study study = em.find(Study.class, pk);
+        if (study == null || !isCurrent(key(Study.class, pk), study.getVersion())) {
+            studyPks.remove(studyIUID);
+            return null;
+        }
+        return study;
+    }
+
+    /**
+     * Returns the Patient of a previous object with the same Patient ID and
+     * the same patient attributes, which therefore need no update.
+     */
+    public Patient findPatient(EntityManager em, Attributes attrs, AttributeFilter filter) {
+        String pid = pidOf(attrs);
+        Long pk = pid != null ? patientPks.get(pid) : null;
+        if (pk == null)
+            return null;
+
+        Patient patient = em.find(Patient.class, pk);
+        if (patient == null || patient.getMergedWith() != null
+                || !isMerged(key(Patient.class, pk), patient.getVersion(), attrs, filter)) {
+            patientPks.remove(pid);
+            return null;
+        }
+        return patient;
+    }
+
+    public boolean isMerged(Series series, Attributes attrs, AttributeFilter filter) {
+        return isMerged(key(Series.class, series.getPk()), series.getVersion(), attrs, filter);
+    }
+
+    public boolean isMerged(Study study, Attributes attrs, AttributeFilter filter) {
+        return isMerged(key(Study.class, study.getPk()), study.getVersion(), attrs, filter);
+    }
+
+    public boolean isMerged(Patient patient, Attributes attrs, AttributeFilter filter) {
+        return isMerged(key(Patient.class, patient.getPk()), patient.getVersion(), attrs, filter);
+    }
+
+    public void put(TransactionSynchronizationRegistry registry,
+            Series series, Attributes attrs, AttributeFilter filter) {
+        pending(registry).add(new Put(seriesPks, series.getSeriesInstanceUID(),
+                series, selection(attrs, filter)));
+    }
+
+    public void put(TransactionSynchronizationRegistry registry,
+            Study study, Attributes attrs, AttributeFilter filter) {
+        pending(registry).add(new Put(studyPks, study.getStudyInstanceUID(),
+                study, selection(attrs, filter)));
+    }
+
+    public void put(TransactionSynchronizationRegistry registry,
+            Patient patient, Attributes attrs, AttributeFilter filter) {
+        pending(registry).add(new Put(patientPks, pidOf(attrs),
+                patient, selection(attrs, filter)));
+    }
+
+    private boolean isCurrent(String key, long version) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.version == version)
+            return true;
+
+        entries.remove(key);
+        return false;
+    }
+
+    private boolean isMerged(String key, long version, Attributes attrs,
+            AttributeFilter filter) {
+        Entry entry = entries.get(key);
+        if (entry == null)
+            return false;
+
+        if (entry.version != version) {
+            entries.remove(key);
+            return false;
+        }
+        return entry.attrs.equals(selection(attrs, filter));
+    }
+
+    private Pending pending(TransactionSynchronizationRegistry registry) {
+        // one transaction may update objects of several sessions
+        Pending pending = (Pending) registry.getResource(this);
+        if (pending == null) {
+            pending = new Pending();
+            registry.registerInterposedSynchronization(pending);
+            registry.putResource(this, pending);
+        }
+        return pending;
+    }
+
+    private static Attributes selection(Attributes attrs, AttributeFilter filter) {
+        return new Attributes(attrs, filter.getCompleteSelection(attrs));
+    }
+
+    private static String pidOf(Attributes attrs) {
+        IDWithIssuer pid = IDWithIssuer.pidOf(attrs);
+        return pid != null ? pid.toString() : null;
+    }
+
+    private static String key(Class<?> entityClass, long pk) {
+        return entityClass.getSimpleName() + '#' + pk;
+    }
+
+    private final class Put {
+        final ConcurrentHashMap<String, Long> pks;
+        final String uid;
+        final Object entity;
+        final Attributes attrs;
+
+        Put(ConcurrentHashMap<String, Long> pks, String uid, Object entity,
+                Attributes attrs) {
+            this.pks = pks;
+            this.uid = uid;
+            this.entity = entity;
+            this.attrs = attrs;
+        }
+
+        // pk and version are assigned by the flush of the transaction
+        void publish() {
+            long pk, version;
+            Class<?> entityClass;
+            if (entity instanceof Series) {
+                entityClass = Series.class;
+                pk = ((Series) entity).getPk();
+                version = ((Series) entity).getVersion();
+            } else if (entity instanceof Study) {
+                entityClass = Study.class;
+                pk = ((Study) entity).getPk();
+                version = ((Study) entity).getVersion();
+            } else {
+                entityClass = Patient.class;
+                pk = ((Patient) entity).getPk();
+                version = ((Patient) entity).getVersion();
+            }
+            entries.put(key(entityClass, pk), new Entry(version, attrs));
+            if (uid != null)
+                pks.put(uid, pk);
+        }
+    }
+
+    /*
+     * Publishes the entries put within a transaction after its commit, so no
+     * entry refers to rolled back state
+     */
+    private final class Pending implements Synchronization {
+        private final List<Put> puts = new ArrayList<Put>();
+
+        void add(Put put) {
+            puts.add(put);
+        }
+
+        @Override
+        public void beforeCompletion() {
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            if (status == Status.STATUS_COMMITTED)
+                for (Put put : puts)
+                    put.publish();
+        }
+    }
+}
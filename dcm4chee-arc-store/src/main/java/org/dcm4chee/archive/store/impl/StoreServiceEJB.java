@@ -47,6 +47,7 @@ import org.dcm4che3.net.Status;
 import org.dcm4che3.net.service.DicomServiceException;
 import org.dcm4che3.soundex.FuzzyStr;
 import org.dcm4che3.util.TagUtils;
+import org.dcm4chee.archive.cache.SeriesAttributesCache;
 import org.dcm4chee.archive.code.CodeService;
 import org.dcm4chee.archive.conf.*;
 import org.dcm4chee.archive.entity.*;
@@ -59,14 +60,19 @@ import org.dcm4chee.archive.store.StoreService;
 import org.dcm4chee.archive.store.StoreSession;
 import org.dcm4chee.archive.util.ArchiveDeidentifier;
 import org.dcm4chee.storage.StorageContext;
+import org.dcm4chee.storage.conf.Availability;
 import org.dcm4chee.storage.conf.StorageSystem;
+import org.dcm4chee.util.TransactionSynchronization;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Resource;
+import javax.ejb.SessionContext;
 import javax.ejb.Stateless;
 import javax.enterprise.event.Event;
 import javax.inject.Inject;
 import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
 import javax.persistence.PersistenceContext;
 import java.util.*;
 import java.util.concurrent.ExecutionException;
@@ -103,8 +109,44 @@ public class StoreServiceEJB {
     @Inject
     private Device device;
 
+    @Inject
+    private TransactionSynchronization transaction;
+
+    @Inject
+    private SeriesAttributesCache seriesAttributesCache;
+
+    @Resource
+    private SessionContext ejbContext;
+
     public void updateDB(StoreContext context)
             throws DicomServiceException {
+        updateInstance(context);
+        updateQueryAttributes(Collections.singletonList(context));
+        invalidateSeriesAttributesCache(context);
+    }
+
+    /**
+     * Updates the DB for all objects of a group in one transaction. If the
+     * update of one object fails, the transaction is rolled back, so the
+     * objects can be updated one by one again.
+     */
+    public void updateDB(List<StoreContext> contexts)
+            throws DicomServiceException {
+        try {
+            for (StoreContext context : contexts)
+                updateInstance(context);
+            updateQueryAttributes(contexts);
+            for (StoreContext context : contexts)
+                invalidateSeriesAttributesCache(context);
+        } catch (DicomServiceException e) {
+            // application exceptions do not roll back the transaction
+            ejbContext.setRollbackOnly();
+            throw e;
+        }
+    }
+
+    private void updateInstance(StoreContext context)
+            throws DicomServiceException {
 
         StoreSession session = context.getStoreSession();
         StoreService service = session.getStoreService();
@@ -139,6 +181,12 @@ public class StoreServiceEJB {
         updateAttributes(context);
      }
 
+    private void invalidateSeriesAttributesCache(StoreContext context) {
+        if (context.getStoreAction() != StoreAction.IGNORE)
+            seriesAttributesCache.invalidateStudy(
+                    context.getInstance().getSeries().getStudy().getPk());
+    }
+
     private void updateAttributes(StoreContext context) {
         Instance instance = context.getInstance();
         Series series = instance.getSeries();
@@ -156,6 +204,162 @@ public class StoreServiceEJB {
         }
     }
 
+    /**
+     * Adds stored instances to the derived fields of their series and study
+     * in each Query/Retrieve View, so they do not have to be recalculated
+     * from all instances by the next query. Replaced or updated instances and
+     * instances without location invalidate the derived fields instead.
+     *
+     * The derived fields are locked for the whole transaction - first of all
+     * series, then of all studies, each in the order of their primary key -
+     * so concurrent transactions, which update several series and studies,
+     * lock them in the same order and do not deadlock.
+     */
+    private void updateQueryAttributes(List<StoreContext> contexts) {
+        ArrayList<StoreContext> added = new ArrayList<>(contexts.size());
+        TreeMap<Long, Map<String, SeriesQueryAttributes>> seriesQueryAttrs =
+                new TreeMap<>();
+        TreeMap<Long, List<StudyQueryAttributes>> studyQueryAttrs =
+                new TreeMap<>();
+        for (StoreContext context : contexts) {
+            StoreAction action = context.getStoreAction();
+            if (action == StoreAction.IGNORE)
+                continue;
+
+            Instance inst = context.getInstance();
+            Series series = inst.getSeries();
+            Study study = series.getStudy();
+            if (action != StoreAction.STORE || context.getFileRef() == null
+                    || inst.getRejectionNoteCode() != null) {
+                series.clearQueryAttributes();
+                study.clearQueryAttributes();
+            } else {
+                added.add(context);
+                seriesQueryAttrs.put(series.getPk(), null);
+                studyQueryAttrs.put(study.getPk(), null);
+            }
+        }
+        if (added.isEmpty())
+            return;
+
+        for (Map.Entry<Long, Map<String, SeriesQueryAttributes>> entry
+                : seriesQueryAttrs.entrySet()) {
+            HashMap<String, SeriesQueryAttributes> byViewID = new HashMap<>();
+            for (SeriesQueryAttributes queryAttrs : em
+                    .createNamedQuery(SeriesQueryAttributes.FIND_BY_SERIES_FK,
+                            SeriesQueryAttributes.class)
+                    .setParameter(1, entry.getKey())
+                    .setLockMode(LockModeType.PESSIMISTIC_WRITE)
+                    .getResultList())
+                byViewID.put(queryAttrs.getViewID(), queryAttrs);
+            entry.setValue(byViewID);
+        }
+        for (Map.Entry<Long, List<StudyQueryAttributes>> entry
+                : studyQueryAttrs.entrySet())
+            entry.setValue(new ArrayList<>(em
+                    .createNamedQuery(StudyQueryAttributes.FIND_BY_STUDY_FK,
+                            StudyQueryAttributes.class)
+                    .setParameter(1, entry.getKey())
+                    .setLockMode(LockModeType.PESSIMISTIC_WRITE)
+                    .getResultList()));
+
+        for (StoreContext context : added) {
+            Series series = context.getInstance().getSeries();
+            addInstance(context, seriesQueryAttrs.get(series.getPk()),
+                    studyQueryAttrs.get(series.getStudy().getPk()));
+        }
+    }
+
+    private void addInstance(StoreContext context,
+            Map<String, SeriesQueryAttributes> seriesQueryAttrs,
+            List<StudyQueryAttributes> studyQueryAttrs) {
+        ArchiveDeviceExtension arcDev = device.getDeviceExtension(ArchiveDeviceExtension.class);
+        Instance inst = context.getInstance();
+        Series series = inst.getSeries();
+        Study study = series.getStudy();
+        String cuid = inst.getSopClassUID();
+        String[] retrieveAETs = inst.getRetrieveAETs();
+        Availability availability = inst.getAvailability();
+        Date updatedTime = inst.getUpdatedTime() != null ? inst.getUpdatedTime() : new Date();
+        int numberOfVisibleImages = arcDev.isVisibleSOPClass(cuid)
+                ? context.getAttributes().getInt(Tag.NumberOfFrames, 1)
+                : 0;
+
+        // the study delta depends on the series counts before the series delta
+        for (Iterator<StudyQueryAttributes> iter = studyQueryAttrs.iterator();
+                iter.hasNext();) {
+            StudyQueryAttributes queryAttrs = iter.next();
+            QueryRetrieveView view = arcDev.getQueryRetrieveView(queryAttrs.getViewID());
+            if (view == null || !isVisible(view, inst))
+                continue;
+
+            SeriesQueryAttributes seriesAttrs = seriesQueryAttrs.get(queryAttrs.getViewID());
+            if (seriesAttrs == null) {
+                // cannot tell if the series is new in the study
+                if (study.getQueryAttributes() != null)
+                    study.getQueryAttributes().remove(queryAttrs);
+                else
+                    em.remove(queryAttrs);
+                iter.remove();
+                continue;
+            }
+            queryAttrs.addInstance(series.getModality(), cuid, retrieveAETs,
+                    availability, updatedTime, numberOfVisibleImages,
+                    seriesAttrs.getNumberOfInstances() == 0,
+                    numberOfVisibleImages > 0 && seriesAttrs.getNumberOfVisibleInstances() == 0);
+        }
+        for (SeriesQueryAttributes queryAttrs : seriesQueryAttrs.values()) {
+            QueryRetrieveView view = arcDev.getQueryRetrieveView(queryAttrs.getViewID());
+            if (view != null && isVisible(view, inst))
+                queryAttrs.addInstance(retrieveAETs, availability, updatedTime,
+                        numberOfVisibleImages);
+        }
+    }
+
+    /**
+     * Returns if a not rejected instance matches a Query/Retrieve View, as
+     * {@code QueryBuilder.hideRejectedInstance} and
+     * {@code QueryBuilder.hideRejectionNote}.
+     */
+    private static boolean isVisible(QueryRetrieveView view, Instance inst) {
+        if (view.isHideNotRejectedInstances())
+            return false;
+
+        Code conceptNameCode = inst.getConceptNameCode();
+        if (conceptNameCode != null)
+            for (org.dcm4che3.data.Code code : view.getHideRejectionNotesWithCodes())
+                if (code.getCodeValue().equals(conceptNameCode.getCodeValue())
+                        && code.getCodingSchemeDesignator().equals(
+                                conceptNameCode.getCodingSchemeDesignator()))
+                    return false;
+        return true;
+    }
+
+    /**
+     * Creates the derived fields of a new series or study for each
+     * Query/Retrieve View, to which the stored instances are added by
+     * {@link #updateQueryAttributes}.
+     */
+    private void createQueryAttributes(Series series) {
+        for (QueryRetrieveView view : device.getDeviceExtension(
+                ArchiveDeviceExtension.class).getQueryRetrieveViews()) {
+            SeriesQueryAttributes queryAttrs = new SeriesQueryAttributes();
+            queryAttrs.setViewID(view.getViewID());
+            queryAttrs.setSeries(series);
+            em.persist(queryAttrs);
+        }
+    }
+
+    private void createQueryAttributes(Study study) {
+        for (QueryRetrieveView view : device.getDeviceExtension(
+                ArchiveDeviceExtension.class).getQueryRetrieveViews()) {
+            StudyQueryAttributes queryAttrs = new StudyQueryAttributes();
+            queryAttrs.setViewID(view.getViewID());
+            queryAttrs.setStudy(study);
+            em.persist(queryAttrs);
+        }
+    }
+
     public Instance createInstance(StoreContext context)
             throws DicomServiceException {
         StoreSession session = context.getStoreSession();
@@ -199,6 +403,9 @@ public class StoreServiceEJB {
                 storeParam.getAttributeFilter(Entity.Series),
                 storeParam.getFuzzyStr(), storeParam.getNullValueForQueryFields());
         em.persist(series);
+        createQueryAttributes(series);
+        StoreEntityCache.of(session).put(transaction.getSynchronizationRegistry(),
+                series, data, storeParam.getAttributeFilter(Entity.Series));
         LOG.info("{}: Create {}", session, series);
         return series;
     }
@@ -217,6 +424,9 @@ public class StoreServiceEJB {
         study.setIssuerOfAccessionNumber(findOrCreateIssuer(attrs
                 .getNestedDataset(Tag.IssuerOfAccessionNumberSequence)));
         em.persist(study);
+        createQueryAttributes(study);
+        StoreEntityCache.of(session).put(transaction.getSynchronizationRegistry(),
+                study, attrs, storeParam.getAttributeFilter(Entity.Study));
         LOG.info("{}: Create {}", session, study);
         newStudyCreatedEvent.fire(study.getStudyInstanceUID());
         return study;
@@ -339,17 +549,18 @@ public class StoreServiceEJB {
         StoreSession session = context.getStoreSession();
         Attributes data = context.getAttributes();
         StoreParam storeParam = session.getStoreParam();
-        study.clearQueryAttributes();
         AttributeFilter studyFilter = storeParam
                 .getAttributeFilter(Entity.Study);
-        Attributes studyAttrs = study.getAttributes();
-        Attributes modified = new Attributes();
+        StoreEntityCache cache = StoreEntityCache.of(session);
         // check if trashed
         if (isRejected(study)) {
+            study.clearQueryAttributes();
             em.remove(study.getAttributesBlob());
             study.setAttributes(new Attributes(data), studyFilter,
                     storeParam.getFuzzyStr(), storeParam.getNullValueForQueryFields());
-        } else {
+        } else if (!cache.isMerged(study, data, studyFilter)) {
+            Attributes studyAttrs = study.getAttributes();
+            Attributes modified = new Attributes();
             if (!context.isFetch()
                     && !session.getLocalAET().equals(
                        device.getDeviceExtension(ArchiveDeviceExtension.class).getFetchAETitle())
@@ -363,6 +574,7 @@ public class StoreServiceEJB {
                         deident ? modified.toString(ArchiveDeidentifier.DEFAULT) : modified);
             }
         }
+        cache.put(transaction.getSynchronizationRegistry(), study, data, studyFilter);
         if (!context.isFetch()
                 && !session.getLocalAET().equals(
                 device.getDeviceExtension(
@@ -373,39 +585,53 @@ public class StoreServiceEJB {
 
     public void updatePatient(StoreContext context, Patient patient) {
         StoreSession session = context.getStoreSession();
-        patientService.updatePatientByCStore(patient, context.getAttributes(),
-                session.getStoreParam());
+        StoreParam storeParam = session.getStoreParam();
+        Attributes data = context.getAttributes();
+        AttributeFilter patientFilter = storeParam.getAttributeFilter(Entity.Patient);
+        StoreEntityCache cache = StoreEntityCache.of(session);
+        if (cache.isMerged(patient, data, patientFilter))
+            return;
+
+        patientService.updatePatientByCStore(patient, data, storeParam);
+        cache.put(transaction.getSynchronizationRegistry(), patient, data, patientFilter);
     }
 
     public void updateSeries(StoreContext context, Series series) throws DicomServiceException {
         StoreSession session = context.getStoreSession();
         Attributes data = context.getAttributes();
         StoreParam storeParam = session.getStoreParam();
-        series.clearQueryAttributes();
-        Attributes seriesAttrs = series.getAttributes();
         AttributeFilter seriesFilter = storeParam
                 .getAttributeFilter(Entity.Series);
-        Attributes modified = new Attributes();
         series.addCalledAET(session.getLocalAET());
+        StoreEntityCache cache = StoreEntityCache.of(session);
         // check if trashed
         if (isRejected(series)) {
+            series.clearQueryAttributes();
+            series.getStudy().clearQueryAttributes();
             em.remove(series.getAttributesBlob());
             series.setAttributes(new Attributes(data), seriesFilter,
                     storeParam.getFuzzyStr(), storeParam.getNullValueForQueryFields());
-        } else {
+        } else if (!cache.isMerged(series, data, seriesFilter)) {
+            Attributes seriesAttrs = series.getAttributes();
+            Attributes modified = new Attributes();
             if (!context.isFetch()
                     && !session.getLocalAET().equals(
                        device.getDeviceExtension(ArchiveDeviceExtension.class).getFetchAETitle())
                     && Utils.updateAttributes(seriesAttrs, data, modified, seriesFilter,
                        MetadataUpdateStrategy.COERCE_MERGE)) {
+                String modality = series.getModality();
                 series.setAttributes(seriesAttrs, seriesFilter,
                         storeParam.getFuzzyStr(), storeParam.getNullValueForQueryFields());
+                // Modalities in Study cannot be updated by delta
+                if (!Objects.equals(modality, series.getModality()))
+                    series.getStudy().clearQueryAttributes();
                 boolean deident = storeParam.isDeIdentifyLogs();
                 LOG.info("{}: Update {}:\n{}\nmodified:\n{}", session, series,
                         deident ? seriesAttrs.toString(ArchiveDeidentifier.DEFAULT) : seriesAttrs,
                         deident ? modified.toString(ArchiveDeidentifier.DEFAULT) : modified);
             }
         }
+        cache.put(transaction.getSynchronizationRegistry(), series, data, seriesFilter);
         updateStudy(context, series.getStudy());
     }
 
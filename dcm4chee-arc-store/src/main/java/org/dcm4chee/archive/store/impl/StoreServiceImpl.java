@@ -54,8 +54,6 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
 import javax.enterprise.context.ApplicationScoped;
@@ -67,8 +65,12 @@ import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
 
 import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Attributes.Visitor;
+import org.dcm4che3.data.BulkData;
+import org.dcm4che3.data.Fragments;
 import org.dcm4che3.data.Tag;
 import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
 import org.dcm4che3.io.BulkDataDescriptor;
 import org.dcm4che3.io.DicomInputStream;
 import org.dcm4che3.io.DicomInputStream.IncludeBulkData;
@@ -85,9 +87,12 @@ import org.dcm4che3.util.AttributesFormat;
 import org.dcm4che3.util.DateUtils;
 import org.dcm4che3.util.SafeClose;
 import org.dcm4chee.archive.conf.ArchiveAEExtension;
+import org.dcm4chee.archive.conf.AttributeCoercionRules;
+import org.dcm4chee.archive.conf.AttributeFilter;
 import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
 import org.dcm4chee.archive.conf.Entity;
 import org.dcm4chee.archive.conf.StoreAction;
+import org.dcm4chee.archive.conf.StoreParam;
 import org.dcm4chee.archive.entity.Instance;
 import org.dcm4chee.archive.entity.Location;
 import org.dcm4chee.archive.entity.Patient;
@@ -102,6 +107,9 @@ import org.dcm4chee.archive.store.StoreContext;
 import org.dcm4chee.archive.store.StoreService;
 import org.dcm4chee.archive.store.StoreSession;
 import org.dcm4chee.archive.store.StoreSessionClosed;
+import org.dcm4chee.archive.store.scheduler.StorageIOPriority;
+import org.dcm4chee.archive.store.scheduler.StorageIOScheduler;
+import org.dcm4chee.archive.store.scheduler.StorageSyncService;
 import org.dcm4chee.archive.util.ArchiveDeidentifier;
 import org.dcm4chee.archive.util.RetryBean;
 import org.dcm4chee.storage.ObjectAlreadyExistsException;
@@ -111,6 +119,7 @@ import org.dcm4chee.storage.conf.StorageSystem;
 import org.dcm4chee.storage.conf.StorageSystemGroup;
 import org.dcm4chee.storage.service.RetrieveService;
 import org.dcm4chee.storage.service.StorageService;
+import org.dcm4chee.util.TransactionSynchronization;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -124,8 +133,6 @@ public class StoreServiceImpl implements StoreService {
 
     static Logger LOG = LoggerFactory.getLogger(StoreServiceImpl.class);
 
-    static ExecutorService executor = Executors.newCachedThreadPool();
-
     @Inject
     private StoreServiceEJB storeServiceEJB;
 
@@ -150,6 +157,18 @@ public class StoreServiceImpl implements StoreService {
     @Inject
     private FileSpooler fileSpooler;
 
+    @Inject
+    private TeeSpooler teeSpooler;
+
+    @Inject
+    private GroupCommit groupCommit;
+
+    @Inject
+    private StorageIOScheduler ioScheduler;
+
+    @Inject
+    private StorageSyncService syncService;
+
     @Inject
     @StoreSessionClosed
     private Event<StoreSession> storeSessionClosed;
@@ -159,6 +178,9 @@ public class StoreServiceImpl implements StoreService {
 
     @Inject RetryBean<Void,DicomServiceException> retry;
 
+    @Inject
+    private TransactionSynchronization transaction;
+
     private int[] storeFilters = null;
 
     @Override
@@ -381,6 +403,12 @@ public class StoreServiceImpl implements StoreService {
 
     @Override
     public void spool(StoreContext context) throws DicomServiceException {
+        if (context.getStoreSession().getArchiveAEExtension().isStreamingIngest()
+                && TeeSpooler.isApplicable(context)) {
+            // parses, digests and writes the object in one pass
+            teeSpooler.spool(context, true);
+            return;
+        }
         // spools either in memory or file
         memoryOrfileSpooler.spool(context, true);
     }
@@ -415,6 +443,10 @@ public class StoreServiceImpl implements StoreService {
                 LOG.warn("Waiting for storage completed was interrupted!", e);
                 throw new DicomServiceException(Status.ProcessingFailure, e);
             }
+            // digests the attributes not stored in the DB as stored,
+            // before they are coerced
+            digestNoDBAttributes(context);
+
             // coerce attrs
             service.coerceAttributes(context);
 
@@ -452,7 +484,8 @@ public class StoreServiceImpl implements StoreService {
     }
 
     /*
-     * coerceAttributes applies a loaded XSL stylesheet on the keys if given
+     * coerceAttributes applies native coercion rules or a loaded XSL
+     * stylesheet on the keys if given
      * currently 15/4/2014 modifies date and time attributes in the keys per
      * request
      */
@@ -465,11 +498,20 @@ public class StoreServiceImpl implements StoreService {
         Attributes attrs = context.getAttributes();
         try {
             Attributes modified = context.getCoercedOriginalAttributes();
-            Templates tpl = session.getRemoteAET() != null ? arcAE
-                    .getAttributeCoercionTemplates(
-                            attrs.getString(Tag.SOPClassUID), Dimse.C_STORE_RQ,
-                            TransferCapability.Role.SCP, session.getRemoteAET())
-                    : null;
+            String remoteAET = session.getRemoteAET();
+            if (remoteAET == null)
+                return;
+
+            String cuid = attrs.getString(Tag.SOPClassUID);
+            AttributeCoercionRules rules = arcAE.getAttributeCoercionRules(
+                    cuid, Dimse.C_STORE_RQ, TransferCapability.Role.SCP, remoteAET);
+            if (rules != null) {
+                attrs.update(rules.coerce(attrs, AttributeCoercionRules.parameters(
+                        remoteAET, session.getLocalAET())), modified);
+                return;
+            }
+            Templates tpl = arcAE.getAttributeCoercionTemplates(
+                    cuid, Dimse.C_STORE_RQ, TransferCapability.Role.SCP, remoteAET);
             if (tpl != null) {
                 attrs.update(SAXTransformer.transform(attrs, tpl, false, false,
                         new SetupTransformer() {
@@ -564,15 +606,14 @@ public class StoreServiceImpl implements StoreService {
         ArchiveDeviceExtension dE = context.getStoreSession().getDevice()
                 .getDeviceExtension(ArchiveDeviceExtension.class);
 
-        try {
-            Future<StorageContext> bulkdataContextFuture = context.getBulkdataContext();
-            if(bulkdataContextFuture != null) {
-                StorageContext bulkdataContext = bulkdataContextFuture.get();
-                String nodbAttrsDigest = noDBAttsDigest(bulkdataContext.getFilePath(),context.getStoreSession());
-                context.setNoDBAttsDigest(nodbAttrsDigest);
-            }
-        } catch (IOException|InterruptedException|ExecutionException e1) {
-            throw new DicomServiceException(Status.UnableToProcess, e1);
+        if (context.getNoDBAttsDigest() == null)
+            digestNoDBAttributes(context);
+
+        if (groupCommit.isEnabled()) {
+            // commits together with concurrently stored objects
+            groupCommit.updateDB(context);
+            logCoercedAttributes(context);
+            return;
         }
 
         // try to call updateDB, eventually retries
@@ -587,6 +628,20 @@ public class StoreServiceImpl implements StoreService {
         logCoercedAttributes(context);
     }
 
+    private void digestNoDBAttributes(StoreContext context)
+            throws DicomServiceException {
+        try {
+            Future<StorageContext> bulkdataContextFuture = context.getBulkdataContext();
+            if(bulkdataContextFuture != null) {
+                StorageContext bulkdataContext = bulkdataContextFuture.get();
+                String nodbAttrsDigest = noDBAttsDigest(bulkdataContext.getFilePath(), context);
+                context.setNoDBAttsDigest(nodbAttrsDigest);
+            }
+        } catch (IOException|InterruptedException|ExecutionException e1) {
+            throw new DicomServiceException(Status.UnableToProcess, e1);
+        }
+    }
+
     private void logCoercedAttributes(StoreContext context) {
         StoreSession session = context.getStoreSession();
         boolean deident = session.getStoreParam().isDeIdentifyLogs();
@@ -726,11 +781,15 @@ public class StoreServiceImpl implements StoreService {
     public Series findOrCreateSeries(EntityManager em, StoreContext context)
             throws DicomServiceException {
         Attributes attrs = context.getAttributes();
+        String seriesIUID = attrs.getString(Tag.SeriesInstanceUID);
         try {
-            Series series = em
+            Series series = StoreEntityCache.of(context.getStoreSession())
+                    .findSeries(em, seriesIUID);
+            if (series == null)
+                series = em
                     .createNamedQuery(Series.FIND_BY_SERIES_INSTANCE_UID_EAGER,
                             Series.class)
-                    .setParameter(1, attrs.getString(Tag.SeriesInstanceUID))
+                    .setParameter(1, seriesIUID)
                     .getSingleResult();
             storeServiceEJB.updateSeries(context, series);
             return series;
@@ -745,11 +804,15 @@ public class StoreServiceImpl implements StoreService {
     public Study findOrCreateStudy(EntityManager em, StoreContext context)
             throws DicomServiceException {
         Attributes attrs = context.getAttributes();
+        String studyIUID = attrs.getString(Tag.StudyInstanceUID);
         try {
-            Study study = em
+            Study study = StoreEntityCache.of(context.getStoreSession())
+                    .findStudy(em, studyIUID);
+            if (study == null)
+                study = em
                     .createNamedQuery(Study.FIND_BY_STUDY_INSTANCE_UID_EAGER,
                             Study.class)
-                    .setParameter(1, attrs.getString(Tag.StudyInstanceUID))
+                    .setParameter(1, studyIUID)
                     .getSingleResult();
             storeServiceEJB.updateStudy(context, study);
             return study;
@@ -765,10 +828,20 @@ public class StoreServiceImpl implements StoreService {
             throws DicomServiceException {
         try {
             StoreSession session = context.getStoreSession();
-            return patientService.updateOrCreatePatientOnCStore(context
+            StoreParam storeParam = session.getStoreParam();
+            AttributeFilter filter = storeParam.getAttributeFilter(Entity.Patient);
+            StoreEntityCache cache = StoreEntityCache.of(session);
+            Patient patient = cache.findPatient(em, context.getAttributes(), filter);
+            if (patient != null)
+                return patient;
+
+            patient = patientService.updateOrCreatePatientOnCStore(context
                     .getAttributes(), PatientSelectorFactory
-                    .createSelector(session.getStoreParam()),
-                    session.getStoreParam());
+                    .createSelector(storeParam),
+                    storeParam);
+            cache.put(transaction.getSynchronizationRegistry(), patient,
+                    context.getAttributes(), filter);
+            return patient;
         } catch (Exception e) {
             throw new DicomServiceException(Status.UnableToProcess, e);
         }
@@ -880,29 +953,57 @@ public class StoreServiceImpl implements StoreService {
     }
 
     /**
-     * Given a reference to a stored object, retrieves it and calculates the
-     * digest of all the attributes (including bulk data), not stored in the
-     * database. This step is optionally skipped by configuration.
+     * Calculates the digest of all the attributes (including bulk data), not
+     * stored in the database, from the attributes of the store context, which
+     * must not be coerced yet, so they equal the stored object. Only if these
+     * reference bulk data - parsed from a spool file, which was moved by
+     * processFile - the stored object is retrieved and parsed again. This
+     * step is optionally skipped by configuration.
      */
-    private String noDBAttsDigest(Path path, StoreSession session) throws IOException {
+    private String noDBAttsDigest(Path path, StoreContext context) throws IOException {
+
+        StoreSession session = context.getStoreSession();
+        if (!session.getArchiveAEExtension().isCheckNonDBAttributesOnStorage())
+            return null;
 
-        if (session.getArchiveAEExtension().isCheckNonDBAttributesOnStorage()) {
+        Attributes attrs = context.getAttributes();
+        Attributes noDBAtts = new Attributes();
+        noDBAtts.addNotSelected(attrs, getStoreFilters(attrs));
+        if (!containsBulkDataReference(noDBAtts))
+            return Utils.digestAttributes(noDBAtts, session.getMessageDigest());
 
-            // retrieves and parses the object
-            RetrieveContext retrieveContext = retrieveService.createRetrieveContext(session.getStorageSystem());
-            InputStream stream = retrieveService.openInputStream(retrieveContext, path.toString());
-            DicomInputStream dstream = new DicomInputStream(stream);
-            dstream.setIncludeBulkData(IncludeBulkData.URI);
-            Attributes attrs = dstream.readDataset(-1, -1);
-            dstream.close();
+        // retrieves and parses the object
+        RetrieveContext retrieveContext = retrieveService.createRetrieveContext(session.getStorageSystem());
+        InputStream stream = retrieveService.openInputStream(retrieveContext, path.toString());
+        DicomInputStream dstream = new DicomInputStream(stream);
+        dstream.setIncludeBulkData(IncludeBulkData.URI);
+        attrs = dstream.readDataset(-1, -1);
+        dstream.close();
 
-            // selects attributes non stored in the db
-            Attributes noDBAtts = new Attributes();
-            noDBAtts.addNotSelected(attrs, getStoreFilters(attrs));
+        // selects attributes non stored in the db
+        noDBAtts = new Attributes();
+        noDBAtts.addNotSelected(attrs, getStoreFilters(attrs));
 
-            return Utils.digestAttributes(noDBAtts, session.getMessageDigest());
-        } else
-            return null;
+        return Utils.digestAttributes(noDBAtts, session.getMessageDigest());
+    }
+
+    private static boolean containsBulkDataReference(Attributes attrs) {
+        try {
+            return !attrs.accept(new Visitor() {
+                @Override
+                public boolean visit(Attributes attrs, int tag, VR vr, Object value) {
+                    if (value instanceof BulkData)
+                        return false;
+                    if (value instanceof Fragments)
+                        for (Object fragment : (Fragments) value)
+                            if (fragment instanceof BulkData)
+                                return false;
+                    return true;
+                }
+            }, true);
+        } catch (Exception e) {
+            return true;
+        }
     }
 
     @Override
@@ -911,8 +1012,9 @@ public class StoreServiceImpl implements StoreService {
         final StoreSession session = context.getStoreSession();
         final StoreService service = session.getStoreService();
 
-        Future<StorageContext> futureBulkDataContext = executor.submit
-                (new Callable<StorageContext>() {
+        Future<StorageContext> futureBulkDataContext = ioScheduler.submit(
+                session.getStorageSystem(), ioPriority(context),
+                new Callable<StorageContext>() {
                     @Override
                     public StorageContext call() throws DicomServiceException {
                         return service.processFile(context);
@@ -927,8 +1029,9 @@ public class StoreServiceImpl implements StoreService {
         final StoreSession session = context.getStoreSession();
         final StoreService service = session.getStoreService();
 
-        Future<StorageContext> futureMetadataContext = executor.submit
-                (new Callable<StorageContext>() {
+        Future<StorageContext> futureMetadataContext = ioScheduler.submit(
+                session.getMetaDataStorageSystem(), ioPriority(context),
+                new Callable<StorageContext>() {
                     @Override
                     public StorageContext call() throws DicomServiceException {
                         return service.storeMetaData(context);
@@ -937,6 +1040,12 @@ public class StoreServiceImpl implements StoreService {
         context.setMetadataContext(futureMetadataContext);
     }
 
+    private static StorageIOPriority ioPriority(StoreContext context) {
+        return context.isFetch()
+                ? StorageIOPriority.FETCH
+                : context.getStoreSession().getIOPriority();
+    }
+
     @Override
     public Instance adjustForNoneIOCM(Instance instanceToStore,  StoreContext context) {
         //here decorators can set the action depending if the instance
@@ -953,43 +1062,55 @@ public class StoreServiceImpl implements StoreService {
     }
 
     private void syncFiles(StoreSession session, boolean onClose) {
-        final List<String> storedFiles = session.getStoredFiles();
-        final StorageSystem system = session.getStorageSystem();
+        List<String> storedFiles = session.getStoredFiles();
+        StorageSystem system = session.getStorageSystem();
+        boolean wait;
 
-        if (storedFiles.size() == 0)
-            return;
+        synchronized (storedFiles) {
+            if (storedFiles.size() == 0)
+                return;
 
-        try {
-            switch (session.getStorageSystem().getSyncPolicy()) {
+            switch (system.getSyncPolicy()) {
                 case ALWAYS:
-                    storageService. syncFiles(system, storedFiles);
+                    wait = true;
                     break;
                 case AFTER_STORE_RSP:
-                    Executors.newSingleThreadExecutor().execute(new Runnable() {
-                        public void run() {
-                            try {
-                                storageService.syncFiles(system,storedFiles);
-                            } catch (IOException e) {
-                                LOG.error("File syncing failed:", e);
-                            }
-                        }
-                    });
+                    wait = false;
                     break;
                 case EVERY_5_STORE:
-                    if (storedFiles.size()>=5 || onClose)
-                        storageService.syncFiles(system, storedFiles);
+                    if (storedFiles.size() < 5 && !onClose)
+                        return;
+                    wait = true;
                     break;
                 case EVERY_25_STORE:
-                    if (storedFiles.size()>=25 || onClose)
-                        storageService.syncFiles(system, storedFiles);
+                    if (storedFiles.size() < 25 && !onClose)
+                        return;
+                    wait = true;
                     break;
                 case ON_ASSOCIATION_CLOSE:
-                    if (onClose)
-                        storageService.syncFiles(system,storedFiles);
+                    if (!onClose)
+                        return;
+                    wait = true;
                     break;
+                default:
+                    return;
             }
-        } catch (IOException e) {
-            LOG.error("File syncing failed:", e);
+            storedFiles = new ArrayList<String>(session.getStoredFiles());
+            session.getStoredFiles().clear();
+        }
+
+        // coalesced with the files of other sessions
+        Future<Void> synced = syncService.sync(system, storedFiles);
+        if (!wait)
+            return;
+
+        try {
+            synced.get();
+        } catch (ExecutionException e) {
+            LOG.error("File syncing failed:", e.getCause());
+        } catch (InterruptedException e) {
+            LOG.warn("Waiting for file syncing was interrupted!", e);
+            Thread.currentThread().interrupt();
         }
     }
 }
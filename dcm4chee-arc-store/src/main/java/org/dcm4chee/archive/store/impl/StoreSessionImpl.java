@@ -45,6 +45,7 @@ import org.dcm4chee.archive.conf.StoreParam;
 import org.dcm4chee.archive.dto.Participant;
 import org.dcm4chee.archive.store.StoreService;
 import org.dcm4chee.archive.store.StoreSession;
+import org.dcm4chee.archive.store.scheduler.StorageIOPriority;
 import org.dcm4chee.storage.conf.StorageSystem;
 
 import java.nio.file.Path;
@@ -74,6 +75,7 @@ public class StoreSessionImpl implements StoreSession {
     private HashMap<String,Object> properties = new HashMap<String,Object>();
     private ApplicationEntity remoteAE;
     private List<String> storedFiles = new ArrayList<String>();
+    private StorageIOPriority ioPriority = StorageIOPriority.INGEST;
     
     public StoreSessionImpl(StoreService storeService) {
         this.storeService = storeService;
@@ -242,5 +244,15 @@ public class StoreSessionImpl implements StoreSession {
     public void addStoredFile(String storedFile) {
         this.storedFiles.add(storedFile);
     }
+
+    @Override
+    public StorageIOPriority getIOPriority() {
+        return ioPriority;
+    }
+
+    @Override
+    public void setIOPriority(StorageIOPriority ioPriority) {
+        this.ioPriority = ioPriority;
+    }
 }
 
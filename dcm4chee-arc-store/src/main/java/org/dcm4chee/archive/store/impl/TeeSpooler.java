@@ -0,0 +1,177 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2014
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.store.impl;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.io.DicomInputStream;
+import org.dcm4che3.io.DicomOutputStream;
+import org.dcm4che3.net.Status;
+import org.dcm4che3.net.service.DicomServiceException;
+import org.dcm4che3.util.SafeClose;
+import org.dcm4che3.util.TagUtils;
+import org.dcm4chee.archive.store.Spooler;
+import org.dcm4chee.archive.store.StoreContext;
+import org.dcm4chee.archive.store.StoreService;
+import org.dcm4chee.archive.store.StoreSession;
+import org.dcm4chee.storage.StorageContext;
+import org.dcm4chee.storage.conf.StorageSystem;
+import org.dcm4chee.storage.service.StorageService;
+
+/**
+ * Single pass spooler: the incoming stream is parsed while it is digested
+ * and written to the spool file, so the spooled object is never read again.
+ * The spool directory is located on the target storage system, the final
+ * object is therefore created by a rename in
+ * {@link StoreServiceImpl#processFile}.
+ *
+ * Requires the File Meta Information in the context and a not deflated
+ * Transfer Syntax, as the bulk data of the parsed data set is referenced by
+ * its offset in the written file.
+ */
+@ApplicationScoped
+public class TeeSpooler implements Spooler {
+
+    @Inject
+    private StorageService storageService;
+
+    public static boolean isApplicable(StoreContext context) {
+        Attributes fmi = context.getFileMetainfo();
+        if (fmi == null || context.getInputStream() == null)
+            return false;
+
+        String tsuid = fmi.getString(Tag.TransferSyntaxUID);
+        return tsuid != null
+                && !tsuid.equals(UID.DeflatedExplicitVRLittleEndian);
+    }
+
+    @Override
+    public void spool(StoreContext context, boolean parse)
+            throws DicomServiceException {
+        StoreSession session = context.getStoreSession();
+        StorageSystem spoolingStorage = session.getSpoolStorageSystem();
+        if (spoolingStorage == null)
+            throw new DicomServiceException(Status.UnableToProcess, "Missing Spool Storage");
+
+        StorageContext spoolingContext = storageService.createStorageContext(spoolingStorage);
+        MessageDigest digest = session.getMessageDigest();
+        Attributes fmi = context.getFileMetainfo();
+        InputStream in = context.getInputStream();
+
+        OutputStream out = null;
+        Path spoolingPath;
+        try {
+            String suffix = context.getSpoolFileSuffix() != null ? context.getSpoolFileSuffix() : ".dcm";
+            spoolingPath = Files.createTempFile(session.getSpoolDirectory(), null, suffix);
+            out = Files.newOutputStream(spoolingPath);
+
+            if (digest != null) {
+                digest.reset();
+                out = new DigestOutputStream(out, digest);
+            }
+
+            out = new BufferedOutputStream(out, spoolingStorage.getBufferedOutputLength());
+
+            // the parser reads the File Meta Information in front of the
+            // data set, so the offsets of the bulk data match the file
+            TeeInputStream tee = new TeeInputStream(new SequenceInputStream(
+                    new ByteArrayInputStream(encodeFileMetaInformation(fmi)), in), out);
+            if (parse) {
+                try {
+                    @SuppressWarnings("resource")
+                    DicomInputStream dis = new DicomInputStream(tee);
+                    dis.setURI(spoolingPath.toUri().toString());
+                    dis.setIncludeBulkData(DicomInputStream.IncludeBulkData.URI);
+                    Attributes dsFMI = dis.readFileMetaInformation();
+                    Attributes data = dis.readDataset(-1, -1);
+                    context.setAttributes(data);
+                    context.setTransferSyntax(dsFMI != null
+                            ? dsFMI.getString(Tag.TransferSyntaxUID)
+                            : fmi.getString(Tag.TransferSyntaxUID));
+                } catch (IOException e) {
+                    throw new DicomServiceException(StoreService.DATA_SET_NOT_PARSEABLE, e);
+                }
+            }
+            tee.drain();
+            out.close();
+            out = null;
+        } catch (DicomServiceException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new DicomServiceException(Status.UnableToProcess, e);
+        } finally {
+            SafeClose.close(out);
+        }
+
+        spoolingContext.setFilePath(spoolingPath);
+        try {
+            spoolingContext.setFileSize(Files.size(spoolingPath));
+        } catch (IOException e) {
+            throw new DicomServiceException(Status.UnableToProcess, e);
+        }
+        spoolingContext.setFileDigest(digest == null ? null : TagUtils.toHexString(digest.digest()));
+
+        context.setSpoolingContext(spoolingContext);
+    }
+
+    private static byte[] encodeFileMetaInformation(Attributes fmi) throws IOException {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream(256);
+        @SuppressWarnings("resource")
+        DicomOutputStream dout = new DicomOutputStream(bout, UID.ExplicitVRLittleEndian);
+        dout.writeFileMetaInformation(fmi);
+        dout.flush();
+        return bout.toByteArray();
+    }
+}
@@ -0,0 +1,296 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2014
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.store.scheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.dcm4che3.net.Device;
+import org.dcm4che3.net.Status;
+import org.dcm4che3.net.service.DicomServiceException;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
+import org.dcm4chee.storage.conf.StorageSystem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Executes storage I/O tasks on a bounded queue per Storage System, so a
+ * slow volume can only occupy its own worker threads.
+ *
+ * Each Storage System runs at most
+ * {@link ArchiveDeviceExtension#getStorageIOConcurrency()} tasks at once,
+ * further tasks are queued by their {@link StorageIOPriority}. If
+ * {@link ArchiveDeviceExtension#getStorageIOQueueDepth()} tasks are
+ * already queued, the submitting thread - e.g. of the C-STORE SCP - is
+ * blocked up to {@link ArchiveDeviceExtension#getStorageIOQueueTimeout()}
+ * ms, before the task fails with {@link Status#OutOfResources}.
+ */
+@ApplicationScoped
+public class StorageIOScheduler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StorageIOScheduler.class);
+
+    @Inject
+    private Device device;
+
+    private final ConcurrentHashMap<String, Volume> volumes =
+            new ConcurrentHashMap<String, Volume>();
+
+    private final AtomicLong taskSequence = new AtomicLong();
+
+    /**
+     * Submits a task accessing the given Storage System. A task which could
+     * not be queued in time is returned as failed Future, its
+     * {@code ExecutionException} is caused by a {@link DicomServiceException}.
+     */
+    public <T> Future<T> submit(StorageSystem storageSystem,
+            StorageIOPriority priority, Callable<T> callable) {
+        Task<T> task = new Task<T>(priority, taskSequence.incrementAndGet(), callable);
+        if (storageSystem == null) {
+            // nothing to store
+            task.run();
+            return task;
+        }
+
+        ArchiveDeviceExtension dE = device.getDeviceExtension(ArchiveDeviceExtension.class);
+        Volume volume = volumeOf(storageSystem);
+        volume.reconfigure(dE.getStorageIOConcurrency());
+        try {
+            volume.acquire(dE.getStorageIOQueueDepth(), dE.getStorageIOQueueTimeout());
+        } catch (DicomServiceException e) {
+            task.fail(e);
+            return task;
+        }
+        task.volume = volume;
+        try {
+            volume.executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            volume.release();
+            task.fail(new DicomServiceException(Status.OutOfResources, e));
+        }
+        return task;
+    }
+
+    public List<StorageIOStatistics> getStatistics() {
+        List<StorageIOStatistics> list = new ArrayList<StorageIOStatistics>(volumes.size());
+        for (Volume volume : volumes.values())
+            list.add(volume.statistics());
+        return list;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (Volume volume : volumes.values())
+            volume.executor.shutdown();
+    }
+
+    private Volume volumeOf(StorageSystem storageSystem) {
+        String groupID = storageSystem.getStorageSystemGroup().getGroupID();
+        String systemID = storageSystem.getStorageSystemID();
+        String key = groupID + '/' + systemID;
+        Volume volume = volumes.get(key);
+        if (volume == null) {
+            int concurrency = device.getDeviceExtension(ArchiveDeviceExtension.class)
+                    .getStorageIOConcurrency();
+            Volume newVolume = new Volume(groupID, systemID, concurrency);
+            volume = volumes.putIfAbsent(key, newVolume);
+            if (volume == null)
+                volume = newVolume;
+            else
+                newVolume.executor.shutdown();
+        }
+        return volume;
+    }
+
+    private static final class Volume {
+        final String groupID;
+        final String systemID;
+        final ThreadPoolExecutor executor;
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicLong completed = new AtomicLong();
+        final AtomicLong rejected = new AtomicLong();
+        final AtomicLong serviceTimeNanos = new AtomicLong();
+        final AtomicLong maxServiceTimeNanos = new AtomicLong();
+        int outstanding;
+
+        Volume(final String groupID, final String systemID, int concurrency) {
+            this.groupID = groupID;
+            this.systemID = systemID;
+            int threads = Math.max(1, concurrency);
+            this.executor = new ThreadPoolExecutor(threads, threads,
+                    60L, TimeUnit.SECONDS,
+                    new PriorityBlockingQueue<Runnable>(),
+                    new ThreadFactory() {
+                        private final AtomicInteger count = new AtomicInteger();
+
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "storage-io-" + groupID + '-'
+                                    + systemID + '-' + count.incrementAndGet());
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+            this.executor.allowCoreThreadTimeOut(true);
+        }
+
+        void reconfigure(int concurrency) {
+            int threads = Math.max(1, concurrency);
+            if (executor.getMaximumPoolSize() == threads)
+                return;
+
+            synchronized (executor) {
+                if (threads > executor.getMaximumPoolSize()) {
+                    executor.setMaximumPoolSize(threads);
+                    executor.setCorePoolSize(threads);
+                } else if (threads < executor.getMaximumPoolSize()) {
+                    executor.setCorePoolSize(threads);
+                    executor.setMaximumPoolSize(threads);
+                }
+            }
+        }
+
+        synchronized void acquire(int queueDepth, int timeout)
+                throws DicomServiceException {
+            int limit = executor.getMaximumPoolSize() + Math.max(0, queueDepth);
+            long end = System.currentTimeMillis() + timeout;
+            while (outstanding >= limit) {
+                long remaining = end - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    rejected.incrementAndGet();
+                    LOG.warn("Storage I/O queue of {}/{} full - {} tasks outstanding",
+                            groupID, systemID, outstanding);
+                    throw new DicomServiceException(Status.OutOfResources,
+                            "Storage I/O queue of " + groupID + '/' + systemID + " full");
+                }
+                try {
+                    wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new DicomServiceException(Status.OutOfResources, e);
+                }
+            }
+            outstanding++;
+        }
+
+        synchronized void release() {
+            outstanding--;
+            notify();
+        }
+
+        void completed(long serviceTime) {
+            completed.incrementAndGet();
+            serviceTimeNanos.addAndGet(serviceTime);
+            long max;
+            while ((max = maxServiceTimeNanos.get()) < serviceTime
+                    && !maxServiceTimeNanos.compareAndSet(max, serviceTime));
+        }
+
+        StorageIOStatistics statistics() {
+            long n = completed.get();
+            return new StorageIOStatistics(groupID, systemID,
+                    executor.getMaximumPoolSize(),
+                    executor.getQueue().size(),
+                    active.get(),
+                    n,
+                    rejected.get(),
+                    n > 0 ? TimeUnit.NANOSECONDS.toMillis(serviceTimeNanos.get() / n) : 0,
+                    TimeUnit.NANOSECONDS.toMillis(maxServiceTimeNanos.get()));
+        }
+    }
+
+    private static final class Task<T> extends FutureTask<T>
+            implements Comparable<Task<?>> {
+
+        final StorageIOPriority priority;
+        final long sequence;
+        Volume volume;
+
+        Task(StorageIOPriority priority, long sequence, Callable<T> callable) {
+            super(callable);
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        void fail(Throwable e) {
+            setException(e);
+        }
+
+        @Override
+        public void run() {
+            if (volume == null) {
+                super.run();
+                return;
+            }
+            long start = System.nanoTime();
+            volume.active.incrementAndGet();
+            try {
+                super.run();
+            } finally {
+                volume.active.decrementAndGet();
+                volume.completed(System.nanoTime() - start);
+                volume.release();
+            }
+        }
+
+        // higher priority first, FIFO within one priority
+        @Override
+        public int compareTo(Task<?> other) {
+            int cmp = priority.compareTo(other.priority);
+            if (cmp != 0)
+                return cmp;
+            return sequence < other.sequence ? -1 : sequence == other.sequence ? 0 : 1;
+        }
+    }
+}
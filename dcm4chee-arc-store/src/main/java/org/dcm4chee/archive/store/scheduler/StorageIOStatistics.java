@@ -0,0 +1,118 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2014
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.store.scheduler;
+
+/**
+ * Snapshot of the I/O queue of one Storage System.
+ */
+public class StorageIOStatistics {
+
+    private final String storageSystemGroupID;
+    private final String storageSystemID;
+    private final int concurrency;
+    private final int queueLength;
+    private final int activeCount;
+    private final long completedCount;
+    private final long rejectedCount;
+    private final long avgServiceTimeMillis;
+    private final long maxServiceTimeMillis;
+
+    public StorageIOStatistics(String storageSystemGroupID,
+            String storageSystemID, int concurrency, int queueLength,
+            int activeCount, long completedCount, long rejectedCount,
+            long avgServiceTimeMillis, long maxServiceTimeMillis) {
+        this.storageSystemGroupID = storageSystemGroupID;
+        this.storageSystemID = storageSystemID;
+        this.concurrency = concurrency;
+        this.queueLength = queueLength;
+        this.activeCount = activeCount;
+        this.completedCount = completedCount;
+        this.rejectedCount = rejectedCount;
+        this.avgServiceTimeMillis = avgServiceTimeMillis;
+        this.maxServiceTimeMillis = maxServiceTimeMillis;
+    }
+
+    public String getStorageSystemGroupID() {
+        return storageSystemGroupID;
+    }
+
+    public String getStorageSystemID() {
+        return storageSystemID;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public int getQueueLength() {
+        return queueLength;
+    }
+
+    public int getActiveCount() {
+        return activeCount;
+    }
+
+    public long getCompletedCount() {
+        return completedCount;
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    public long getAvgServiceTimeMillis() {
+        return avgServiceTimeMillis;
+    }
+
+    public long getMaxServiceTimeMillis() {
+        return maxServiceTimeMillis;
+    }
+
+    @Override
+    public String toString() {
+        return storageSystemGroupID + '/' + storageSystemID
+                + "[concurrency=" + concurrency
+                + ", queued=" + queueLength
+                + ", active=" + activeCount
+                + ", completed=" + completedCount
+                + ", rejected=" + rejectedCount
+                + ", avgServiceTime=" + avgServiceTimeMillis
+                + "ms, maxServiceTime=" + maxServiceTimeMillis + "ms]";
+    }
+}
@@ -0,0 +1,258 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2014
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.store.scheduler;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.dcm4che3.net.Device;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
+import org.dcm4chee.storage.conf.StorageSystem;
+import org.dcm4chee.storage.service.StorageService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Coalesces the syncing of stored files of all Store Sessions per Storage
+ * System.
+ *
+ * Files are collected for up to {@link ArchiveDeviceExtension#getStorageSyncInterval()}
+ * ms or until {@link ArchiveDeviceExtension#getStorageSyncBatchSize()} files
+ * are pending, and then synced - together with their directories - by one
+ * call of {@link StorageService#syncFiles}. Callers which need the files on
+ * disk before they respond wait on the returned Future.
+ */
+@ApplicationScoped
+public class StorageSyncService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StorageSyncService.class);
+
+    private static final int FLUSH_THREADS = 4;
+
+    @Inject
+    private StorageService storageService;
+
+    @Inject
+    private Device device;
+
+    private final ConcurrentHashMap<String, Volume> volumes =
+            new ConcurrentHashMap<String, Volume>();
+
+    private final AtomicLong syncCount = new AtomicLong();
+
+    private final AtomicLong syncedFileCount = new AtomicLong();
+
+    private final ScheduledExecutorService executor =
+            Executors.newScheduledThreadPool(FLUSH_THREADS, new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "storage-sync-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    /**
+     * Schedules the syncing of the given files of a Storage System.
+     *
+     * @return Future completed, when the files are synced; its
+     *         {@code ExecutionException} is caused by the {@code IOException}
+     *         of a failed sync
+     */
+    public Future<Void> sync(StorageSystem storageSystem, Collection<String> files) {
+        ArchiveDeviceExtension dE = device.getDeviceExtension(ArchiveDeviceExtension.class);
+        final Volume volume = volumeOf(storageSystem);
+        Batch batch;
+        synchronized (volume) {
+            batch = volume.current;
+            batch.files.addAll(files);
+            if (batch.files.size() >= dE.getStorageSyncBatchSize()) {
+                volume.current = new Batch();
+                submit(volume, batch, 0);
+            } else if (!batch.scheduled) {
+                batch.scheduled = true;
+                submit(volume, batch, dE.getStorageSyncInterval());
+            }
+        }
+        return batch.completion;
+    }
+
+    /**
+     * Number of {@link StorageService#syncFiles} calls and of files synced
+     * by them, since start.
+     */
+    public long getSyncCount() {
+        return syncCount.get();
+    }
+
+    public long getSyncedFileCount() {
+        return syncedFileCount.get();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private void submit(final Volume volume, final Batch batch, long delay) {
+        executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                flush(volume, batch);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void flush(Volume volume, Batch batch) {
+        synchronized (volume) {
+            // already flushed on reaching the batch size
+            if (batch.flushed)
+                return;
+            batch.flushed = true;
+            if (volume.current == batch)
+                volume.current = new Batch();
+        }
+        List<String> files = new ArrayList<String>(batch.files);
+        try {
+            storageService.syncFiles(volume.storageSystem, files);
+            syncCount.incrementAndGet();
+            syncedFileCount.addAndGet(files.size());
+            LOG.debug("Synced {} files on {}", files.size(), volume.storageSystem);
+            batch.completion.done(null);
+        } catch (IOException | RuntimeException e) {
+            LOG.error("File syncing on {} failed:", volume.storageSystem, e);
+            batch.completion.done(e);
+        }
+    }
+
+    private Volume volumeOf(StorageSystem storageSystem) {
+        String key = storageSystem.getStorageSystemGroup().getGroupID()
+                + '/' + storageSystem.getStorageSystemID();
+        Volume volume = volumes.get(key);
+        if (volume == null) {
+            Volume newVolume = new Volume(storageSystem);
+            volume = volumes.putIfAbsent(key, newVolume);
+            if (volume == null)
+                volume = newVolume;
+        }
+        return volume;
+    }
+
+    private static final class Volume {
+        final StorageSystem storageSystem;
+        Batch current = new Batch();
+
+        Volume(StorageSystem storageSystem) {
+            this.storageSystem = storageSystem;
+        }
+    }
+
+    private static final class Batch {
+        // same file stored by several sessions is synced once
+        final LinkedHashSet<String> files = new LinkedHashSet<String>();
+        final Completion completion = new Completion();
+        boolean scheduled;
+        boolean flushed;
+    }
+
+    private static final class Completion implements Future<Void> {
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private volatile Exception failure;
+
+        void done(Exception failure) {
+            this.failure = failure;
+            latch.countDown();
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            return latch.getCount() == 0;
+        }
+
+        @Override
+        public Void get() throws InterruptedException, ExecutionException {
+            latch.await();
+            return result();
+        }
+
+        @Override
+        public Void get(long timeout, TimeUnit unit)
+                throws InterruptedException, ExecutionException, TimeoutException {
+            if (!latch.await(timeout, unit))
+                throw new TimeoutException();
+            return result();
+        }
+
+        private Void result() throws ExecutionException {
+            if (failure != null)
+                throw new ExecutionException(failure);
+            return null;
+        }
+    }
+}
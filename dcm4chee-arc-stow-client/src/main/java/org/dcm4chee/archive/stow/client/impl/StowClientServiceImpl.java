@@ -65,6 +65,7 @@ import org.dcm4che3.net.Status;
 import org.dcm4che3.net.TransferCapability.Role;
 import org.dcm4che3.net.service.DicomServiceException;
 import org.dcm4che3.util.DateUtils;
+import org.dcm4chee.archive.conf.AttributeCoercionRules;
 import org.dcm4chee.archive.dto.ArchiveInstanceLocator;
 import org.dcm4chee.archive.dto.Service;
 import org.dcm4chee.archive.dto.ServiceQualifier;
@@ -145,6 +146,16 @@ public class StowClientServiceImpl implements StowClientService {
             , final StowContext context)
             throws DicomServiceException {
         try {
+            AttributeCoercionRules rules = context.getArchiveAEExtension()
+                    .getAttributeCoercionRules(
+                            attrs.getString(Tag.SOPClassUID), Dimse.C_STORE_RQ,
+                            Role.SCU, context.getRemoteAE().getAETitle());
+            if (rules != null) {
+                attrs.addAll(rules.coerce(attrs, AttributeCoercionRules.parameters(
+                        context.getRemoteAE().getAETitle(),
+                        context.getLocalAE().getAETitle())));
+                return;
+            }
             Templates tpl = context.getArchiveAEExtension()
                     .getAttributeCoercionTemplates(
                             attrs.getString(Tag.SOPClassUID), Dimse.C_STORE_RQ,
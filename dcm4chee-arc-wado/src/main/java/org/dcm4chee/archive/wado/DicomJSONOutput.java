@@ -73,10 +73,12 @@ public class DicomJSONOutput implements StreamingOutput {
     private CStoreSCUService service;
     private UriInfo uriInfo;
     private String aeTitle;
+    private final SeriesMetadataReader documents;
 
     public DicomJSONOutput(String aeTitle, UriInfo uriInfo,
             List<ArchiveInstanceLocator> refs, CStoreSCUContext ctx,
-            CStoreSCUService srv) {
+            CStoreSCUService srv, SeriesMetadataReader documents) {
+        this.documents = documents;
         this.refs = refs;
         this.context = ctx;
         this.service = srv;
@@ -92,8 +94,8 @@ public class DicomJSONOutput implements StreamingOutput {
         gen.writeStartArray();
 
         for (ArchiveInstanceLocator ref : refs) {
-            Attributes dataset = null;
-            do {
+            Attributes dataset = documents != null ? documents.read(ref) : null;
+            while (dataset == null) {
                 try {
                     dataset = readFrom(ref);
                 } catch (IOException e) {
@@ -104,7 +106,7 @@ public class DicomJSONOutput implements StreamingOutput {
                         throw e;
                     LOG.info("Try read Data Set from alternative location");
                 }
-            } while (dataset == null);
+            }
 
             if (context.getRemoteAE() != null) {
                 service.coerceFileBeforeMerge(ref, dataset, context);
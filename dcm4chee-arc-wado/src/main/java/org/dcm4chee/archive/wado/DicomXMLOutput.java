@@ -68,10 +68,12 @@ public class DicomXMLOutput implements StreamingOutput {
     private final String bulkDataURI;
     private CStoreSCUContext context;
     private CStoreSCUService service;
+    private final SeriesMetadataReader documents;
     
     public DicomXMLOutput(ArchiveInstanceLocator fileRef, String bulkDataURI,
             Attributes attrs, CStoreSCUContext ctx,
-            CStoreSCUService srv) {
+            CStoreSCUService srv, SeriesMetadataReader documents) {
+        this.documents = documents;
         this.fileRef = fileRef;
         this.bulkDataURI = bulkDataURI;
         this.attrs = attrs;
@@ -84,8 +86,8 @@ public class DicomXMLOutput implements StreamingOutput {
             WebApplicationException {
         try {
             ArchiveInstanceLocator ref = fileRef;
-            Attributes dataset = null;
-            do {
+            Attributes dataset = documents != null ? documents.read(ref) : null;
+            while (dataset == null) {
                 try {
                     dataset = readFrom(ref);
                 } catch (IOException e) {
@@ -96,7 +98,7 @@ public class DicomXMLOutput implements StreamingOutput {
                         throw e;
                     LOG.info("Try read Data Set from alternative location");
                 }
-            } while (dataset == null);
+            }
 
             if (context.getRemoteAE() != null) {
                 service.coerceFileBeforeMerge(ref, dataset, context);
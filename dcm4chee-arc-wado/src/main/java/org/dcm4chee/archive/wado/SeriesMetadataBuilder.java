@@ -0,0 +1,241 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2014
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package org.dcm4chee.archive.wado;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.enterprise.event.TransactionPhase;
+import javax.inject.Inject;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.io.DicomInputStream;
+import org.dcm4che3.io.DicomInputStream.IncludeBulkData;
+import org.dcm4che3.net.ApplicationEntity;
+import org.dcm4che3.net.Device;
+import org.dcm4che3.net.QueryOption;
+import org.dcm4chee.archive.conf.ArchiveAEExtension;
+import org.dcm4chee.archive.conf.QueryParam;
+import org.dcm4chee.archive.dto.ArchiveInstanceLocator;
+import org.dcm4chee.archive.retrieve.RetrieveService;
+import org.dcm4chee.archive.store.scu.CStoreSCUService;
+import org.dcm4chee.archive.store.session.StudyUpdatedEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Builds the documents of the {@link SeriesMetadataCache} on the executor
+ * of the device: for the series updated by a finished store session, and
+ * for series without document requested by WADO-RS metadata requests.
+ */
+@ApplicationScoped
+public class SeriesMetadataBuilder {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SeriesMetadataBuilder.class);
+
+    private static final Runnable NO_BUILD = new Runnable() {
+
+        @Override
+        public void run() {
+        }
+    };
+
+    @Inject
+    private Device device;
+
+    @Inject
+    private SeriesMetadataCache cache;
+
+    @Inject
+    private RetrieveService retrieveService;
+
+    @Inject
+    private CStoreSCUService storescuService;
+
+    // series being built, mapped to a build requested meanwhile
+    private final ConcurrentHashMap<String, Runnable> building =
+            new ConcurrentHashMap<String, Runnable>();
+
+    public void onStudyUpdated(@Observes(during = TransactionPhase.AFTER_COMPLETION)
+            StudyUpdatedEvent event) {
+        for (String seriesIUID : event.getAffectedSeriesUIDs())
+            cache.invalidate(seriesIUID);
+
+        if (!cache.isEnabled())
+            return;
+
+        QueryParam queryParam = queryParam(event.getLocalAETs());
+        if (queryParam == null)
+            return;
+
+        for (String seriesIUID : event.getAffectedSeriesUIDs())
+            schedule(event.getStudyInstanceUID(), seriesIUID, queryParam);
+    }
+
+    /**
+     * Schedules the build of the document of a series from all its
+     * instances, as retrieved by the given AE.
+     */
+    public void schedule(String aet, String studyIUID, String seriesIUID) {
+        QueryParam queryParam = queryParam(Collections.singleton(aet));
+        if (queryParam != null)
+            schedule(studyIUID, seriesIUID, queryParam);
+    }
+
+    private void schedule(final String studyIUID, final String seriesIUID,
+            final QueryParam queryParam) {
+        Runnable build = new Runnable() {
+
+            @Override
+            public void run() {
+                build(seriesIUID, retrieveService.calculateMatches(
+                        studyIUID, seriesIUID, null, queryParam, false));
+            }
+        };
+        for (;;) {
+            Runnable prev = building.putIfAbsent(seriesIUID, NO_BUILD);
+            if (prev == null) {
+                execute(seriesIUID, build);
+                return;
+            }
+            // a build in progress may be dropped by an invalidation of the
+            // series, so build it again afterwards
+            if (building.replace(seriesIUID, prev, build))
+                return;
+        }
+    }
+
+    private void execute(final String seriesIUID, final Runnable build) {
+        try {
+            device.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        build.run();
+                    } catch (Exception e) {
+                        LOG.warn("Failed to build metadata document of series {}",
+                                seriesIUID, e);
+                    } finally {
+                        buildRequestedMeanwhile(seriesIUID);
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            building.remove(seriesIUID);
+            LOG.info("Failed to schedule build of metadata document of series {}",
+                    seriesIUID, e);
+        }
+    }
+
+    private void buildRequestedMeanwhile(String seriesIUID) {
+        Runnable next = building.remove(seriesIUID);
+        if (next != null && next != NO_BUILD
+                && building.putIfAbsent(seriesIUID, NO_BUILD) == null)
+            execute(seriesIUID, next);
+    }
+
+    private void build(String seriesIUID, List<ArchiveInstanceLocator> refs) {
+        long stamp = cache.stamp();
+        ArrayList<SeriesMetadataCache.Entry> entries =
+                new ArrayList<SeriesMetadataCache.Entry>(refs.size());
+        for (ArchiveInstanceLocator ref : refs) {
+            ArchiveInstanceLocator inst = ref;
+            Attributes dataset = null;
+            while (dataset == null && inst != null && inst.getStorageSystem() != null) {
+                try {
+                    dataset = readFrom(inst);
+                } catch (IOException e) {
+                    LOG.info("Failed to read Data Set with iuid={} from {}@{}",
+                            inst.iuid, inst.getFilePath(), inst.getStorageSystem(), e);
+                    inst = inst.getFallbackLocator();
+                }
+            }
+            // instances not in the document are read on request
+            if (dataset == null)
+                continue;
+
+            WadoRS.replacePixelDataBulkDataURI(inst, dataset);
+            entries.add(new SeriesMetadataCache.Entry(ref.iuid,
+                    SeriesMetadataCache.locationOf(inst), dataset));
+        }
+        if (entries.isEmpty())
+            return;
+
+        try {
+            byte[] document = SeriesMetadataCache.encode(entries);
+            cache.put(stamp, seriesIUID, document);
+            LOG.debug("Built metadata document of series {} with {} instances - {} bytes",
+                    seriesIUID, entries.size(), document.length);
+        } catch (IOException e) {
+            LOG.warn("Failed to encode metadata document of series {}",
+                    seriesIUID, e);
+        }
+    }
+
+    private Attributes readFrom(ArchiveInstanceLocator inst) throws IOException {
+        try (DicomInputStream din = new DicomInputStream(storescuService.getFile(inst)
+                .toFile())) {
+            din.setURI(SeriesMetadataCache.relativeBulkDataURI(inst));
+            din.setIncludeBulkData(IncludeBulkData.URI);
+            return din.readDataset(-1, -1);
+        }
+    }
+
+    private QueryParam queryParam(Collection<String> localAETs) {
+        for (String aet : localAETs) {
+            ApplicationEntity ae = device.getApplicationEntity(aet);
+            ArchiveAEExtension arcAE = ae != null
+                    ? ae.getAEExtension(ArchiveAEExtension.class)
+                    : null;
+            if (arcAE != null)
+                return arcAE.getQueryParam(EnumSet.noneOf(QueryOption.class),
+                        new String[0]);
+        }
+        return null;
+    }
+}
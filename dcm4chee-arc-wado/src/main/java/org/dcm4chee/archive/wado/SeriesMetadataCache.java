@@ -0,0 +1,254 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2014
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package org.dcm4chee.archive.wado;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.xml.transform.stream.StreamResult;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.io.SAXReader;
+import org.dcm4che3.io.SAXTransformer;
+import org.dcm4che3.net.Device;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
+import org.dcm4chee.archive.dto.ArchiveInstanceLocator;
+
+/**
+ * Compressed documents with the Data Sets - without bulk data - of the
+ * instance files of a series, used to answer WADO-RS metadata requests
+ * without opening each file. The total size of the documents is bounded by
+ * the Series Metadata Cache Size, least recently used documents are evicted
+ * first.
+ *
+ * Each Data Set is recorded with the location of the file it was read from.
+ * A Data Set is only used for a locator of the same location, so documents
+ * do not become wrong by changes of the stored instances, but only
+ * incomplete. Bulk data URIs are relative to the bulk data resource of the
+ * WADO-RS service.
+ *
+ * The Data Sets are encoded in the Native DICOM Model, as the XML metadata
+ * responses, which keeps the values as read from the file. DICOM JSON would
+ * turn DS and IS values into numbers, and binary encoding would inline the
+ * bulk data.
+ */
+@ApplicationScoped
+public class SeriesMetadataCache {
+
+    /**
+     * Maximal number of recorded invalidations. If exceeded, the oldest one
+     * is dropped and documents built before it are no longer cached.
+     */
+    private static final int MAX_VERSIONS = 10000;
+
+    @Inject
+    Device device;
+
+    private final LinkedHashMap<String, byte[]> documents =
+            new LinkedHashMap<String, byte[]>(64, 0.75f, true);
+
+    // in the order of the invalidations
+    private final LinkedHashMap<String, Long> versions =
+            new LinkedHashMap<String, Long>();
+
+    private long size;
+    private long clock;
+    // invalidations dropped from versions up to
+    private long minVersion;
+    private long hits;
+    private long misses;
+
+    static final class Entry {
+        final String iuid;
+        final String location;
+        final Attributes dataset;
+
+        Entry(String iuid, String location, Attributes dataset) {
+            this.iuid = iuid;
+            this.location = location;
+            this.dataset = dataset;
+        }
+    }
+
+    public boolean isEnabled() {
+        return maxSize() > 0;
+    }
+
+    /**
+     * Returns the value to pass to {@link #put}, obtained before the files
+     * of the series are read.
+     */
+    public synchronized long stamp() {
+        return clock;
+    }
+
+    public synchronized byte[] get(String seriesIUID) {
+        byte[] document = documents.get(seriesIUID);
+        if (document != null)
+            hits++;
+        else
+            misses++;
+        return document;
+    }
+
+    public synchronized void put(long stamp, String seriesIUID, byte[] document) {
+        long maxSize = maxSize();
+        if (document.length > maxSize || invalidatedSince(seriesIUID, stamp))
+            return;
+
+        remove(seriesIUID);
+        documents.put(seriesIUID, document);
+        size += document.length;
+        for (Iterator<byte[]> it = documents.values().iterator();
+                size > maxSize;) {
+            size -= it.next().length;
+            it.remove();
+        }
+    }
+
+    public synchronized void invalidate(String seriesIUID) {
+        versions.remove(seriesIUID);
+        versions.put(seriesIUID, ++clock);
+        if (versions.size() > MAX_VERSIONS) {
+            Iterator<Long> it = versions.values().iterator();
+            minVersion = it.next();
+            it.remove();
+        }
+        remove(seriesIUID);
+    }
+
+    private boolean invalidatedSince(String seriesIUID, long stamp) {
+        if (stamp < minVersion)
+            return true;
+        Long version = versions.get(seriesIUID);
+        return version != null && version > stamp;
+    }
+
+    private void remove(String seriesIUID) {
+        byte[] document = documents.remove(seriesIUID);
+        if (document != null)
+            size -= document.length;
+    }
+
+    private long maxSize() {
+        return device.getDeviceExtension(ArchiveDeviceExtension.class)
+                .getSeriesMetadataCacheSize() * 1024L * 1024L;
+    }
+
+    static String locationOf(ArchiveInstanceLocator inst) {
+        StringBuilder sb = new StringBuilder()
+            .append(inst.getStorageSystem().getStorageSystemGroup().getGroupID())
+            .append('/')
+            .append(inst.getStorageSystem().getStorageSystemID())
+            .append(':')
+            .append(inst.getFilePath());
+        if (inst.getEntryName() != null)
+            sb.append('!').append(inst.getEntryName());
+        return sb.toString();
+    }
+
+    static String relativeBulkDataURI(ArchiveInstanceLocator inst) {
+        return URI.create(inst.uri).getPath();
+    }
+
+    static byte[] encode(List<Entry> entries) throws IOException {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bout));
+        ByteArrayOutputStream xml = new ByteArrayOutputStream();
+        out.writeInt(entries.size());
+        for (Entry entry : entries) {
+            out.writeUTF(entry.iuid);
+            out.writeUTF(entry.location);
+            xml.reset();
+            try {
+                SAXTransformer.getSAXWriter(new StreamResult(xml))
+                        .write(entry.dataset);
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+            out.writeInt(xml.size());
+            xml.writeTo(out);
+        }
+        out.close();
+        return bout.toByteArray();
+    }
+
+    static List<Entry> decode(byte[] document) throws IOException {
+        DataInputStream in = new DataInputStream(new InflaterInputStream(
+                new ByteArrayInputStream(document)));
+        int n = in.readInt();
+        ArrayList<Entry> entries = new ArrayList<Entry>(n);
+        for (int i = 0; i < n; i++) {
+            String iuid = in.readUTF();
+            String location = in.readUTF();
+            byte[] xml = new byte[in.readInt()];
+            in.readFully(xml);
+            try {
+                entries.add(new Entry(iuid, location,
+                        SAXReader.parse(new ByteArrayInputStream(xml))));
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+        }
+        return entries;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "SeriesMetadataCache[documents=" + documents.size()
+                + ", bytes=" + size
+                + ", hits=" + hits
+                + ", misses=" + misses + "]";
+    }
+}
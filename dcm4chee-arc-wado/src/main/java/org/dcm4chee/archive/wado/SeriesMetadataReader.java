@@ -0,0 +1,145 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2014
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package org.dcm4chee.archive.wado;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.BulkData;
+import org.dcm4che3.data.VR;
+import org.dcm4chee.archive.dto.ArchiveInstanceLocator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Provides the Data Sets of the instance files of one WADO-RS metadata
+ * request from the documents of the {@link SeriesMetadataCache}, decoding
+ * the document of each series once. Series without document are scheduled
+ * for build by the {@link SeriesMetadataBuilder}.
+ */
+class SeriesMetadataReader {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SeriesMetadataReader.class);
+
+    private final SeriesMetadataCache cache;
+    private final SeriesMetadataBuilder builder;
+    private final String aet;
+    private final String bulkDataURIPrefix;
+    private final Map<String, Map<String, SeriesMetadataCache.Entry>> series =
+            new HashMap<String, Map<String, SeriesMetadataCache.Entry>>();
+
+    SeriesMetadataReader(SeriesMetadataCache cache, SeriesMetadataBuilder builder,
+            String aet, String bulkDataURIPrefix) {
+        this.cache = cache;
+        this.builder = builder;
+        this.aet = aet;
+        this.bulkDataURIPrefix = bulkDataURIPrefix;
+    }
+
+    /**
+     * Returns the Data Set of the file of the instance, as read with bulk
+     * data URIs and before any coercion, or {@code null} if the document of
+     * its series does not contain it for the location of the locator.
+     */
+    Attributes read(ArchiveInstanceLocator ref) {
+        String seriesIUID = ref.getSeriesInstanceUID();
+        if (seriesIUID == null || ref.getStorageSystem() == null)
+            return null;
+
+        if (!series.containsKey(seriesIUID))
+            series.put(seriesIUID, load(ref.getStudyInstanceUID(), seriesIUID));
+
+        Map<String, SeriesMetadataCache.Entry> entries = series.get(seriesIUID);
+        SeriesMetadataCache.Entry entry = entries != null
+                ? entries.remove(ref.iuid)
+                : null;
+        if (entry == null
+                || !entry.location.equals(SeriesMetadataCache.locationOf(ref)))
+            return null;
+
+        return withBulkDataURIPrefix(entry.dataset);
+    }
+
+    private Map<String, SeriesMetadataCache.Entry> load(String studyIUID,
+            String seriesIUID) {
+        byte[] document = cache.get(seriesIUID);
+        if (document == null) {
+            // from all instances of the series, not only the requested ones
+            if (studyIUID != null)
+                builder.schedule(aet, studyIUID, seriesIUID);
+            return null;
+        }
+        try {
+            List<SeriesMetadataCache.Entry> entries = SeriesMetadataCache.decode(document);
+            HashMap<String, SeriesMetadataCache.Entry> map =
+                    new HashMap<String, SeriesMetadataCache.Entry>(entries.size() * 4 / 3 + 1);
+            for (SeriesMetadataCache.Entry entry : entries)
+                map.put(entry.iuid, entry);
+            return map;
+        } catch (Exception e) {
+            LOG.warn("Failed to decode metadata document of series {}", seriesIUID, e);
+            cache.invalidate(seriesIUID);
+            return null;
+        }
+    }
+
+    private Attributes withBulkDataURIPrefix(Attributes dataset) {
+        try {
+            dataset.accept(new Attributes.Visitor() {
+
+                @Override
+                public boolean visit(Attributes attrs, int tag, VR vr, Object value) {
+                    if (value instanceof BulkData) {
+                        BulkData bulkData = (BulkData) value;
+                        attrs.setValue(tag, vr, new BulkData(null,
+                                bulkDataURIPrefix + bulkData.getURI(),
+                                bulkData.bigEndian()));
+                    }
+                    return true;
+                }
+            }, true);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        return dataset;
+    }
+}
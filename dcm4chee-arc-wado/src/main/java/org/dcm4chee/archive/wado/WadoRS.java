@@ -132,6 +132,12 @@ public class WadoRS extends Wado {
     @Inject
     private WeightWatcher weightWatcher;
 
+    @Inject
+    private SeriesMetadataCache metadataCache;
+
+    @Inject
+    private SeriesMetadataBuilder metadataBuilder;
+
     private static final int STATUS_OK = 200;
     private static final int STATUS_PARTIAL_CONTENT = 206;
     private static final int STATUS_NOT_ACCEPTABLE = 406;
@@ -191,8 +197,11 @@ public class WadoRS extends Wado {
     private String method;
 
     private String toBulkDataURI(String uri) {
-        return uriInfo.getBaseUri() + "wado/" + aetitle + "/bulkdata/"
-                + URI.create(uri).getPath();
+        return bulkDataURIPrefix() + URI.create(uri).getPath();
+    }
+
+    private String bulkDataURIPrefix() {
+        return uriInfo.getBaseUri() + "wado/" + aetitle + "/bulkdata/";
     }
 
     private void init(String method) {
@@ -759,6 +768,11 @@ public class WadoRS extends Wado {
         if (!acceptDicomXML && !acceptDicomJSON && !acceptAll)
             throw new WebApplicationException(Status.NOT_ACCEPTABLE);
 
+        SeriesMetadataReader documents = metadataCache.isEnabled()
+                ? new SeriesMetadataReader(metadataCache, metadataBuilder, aetitle,
+                        bulkDataURIPrefix())
+                : null;
+
         if (acceptDicomJSON) {
             ArrayList<ArchiveInstanceLocator> external = extractExternalLocators(refs);
             // prefer local copies
@@ -775,14 +789,14 @@ public class WadoRS extends Wado {
                 }
                 refs.addAll(external);
             }
-            streamingOutput = new DicomJSONOutput(aetitle, uriInfo, refs, context, storescuService);
+            streamingOutput = new DicomJSONOutput(aetitle, uriInfo, refs, context, storescuService, documents);
         } else {
             ArrayList<ArchiveInstanceLocator> external = extractExternalLocators(refs);
             // prefer local copies
             if ((!refs.isEmpty() && !external.isEmpty()) 
                     || (!refs.isEmpty() && external.isEmpty())) {
                 for (ArchiveInstanceLocator ref : refs)
-                    addMetadataTo(ref, multiPartOutput);
+                    addMetadataTo(ref, multiPartOutput, documents);
             }
             else if (!external.isEmpty()) {
                 FetchForwardCallBack fetchCallBack = new FetchForwardCallBack() {
@@ -790,7 +804,7 @@ public class WadoRS extends Wado {
                     public void onFetch(Collection<ArchiveInstanceLocator> instances,
                             BasicCStoreSCUResp resp) {
                         for (ArchiveInstanceLocator loc : instances)
-                            addMetadataTo(loc, multiPartOutput);
+                            addMetadataTo(loc, multiPartOutput, null);
                     }
                 };
                 
@@ -999,10 +1013,10 @@ public class WadoRS extends Wado {
     }
 
     private void addMetadataTo(ArchiveInstanceLocator ref,
-            MultipartRelatedOutput output) {
+            MultipartRelatedOutput output, SeriesMetadataReader documents) {
         Attributes attrs = (Attributes) ref.getObject();
         addPart(output, new DicomXMLOutput(ref, toBulkDataURI(ref.uri), attrs,
-                context, storescuService), MediaTypes.APPLICATION_DICOM_XML_TYPE, null, ref.iuid);
+                context, storescuService, documents), MediaTypes.APPLICATION_DICOM_XML_TYPE, null, ref.iuid);
     }
 
     private boolean isMultiframeMediaType(MediaType mediaType) {
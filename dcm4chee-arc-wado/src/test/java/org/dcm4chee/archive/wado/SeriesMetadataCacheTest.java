@@ -0,0 +1,160 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2014
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package org.dcm4chee.archive.wado;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.InflaterInputStream;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.BulkData;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.net.Device;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
+import org.junit.Test;
+
+public class SeriesMetadataCacheTest {
+
+    private static final String BULK_DATA_URI =
+            "/fs1/2015/1/1/1234?offset=1234&length=524288";
+
+    private static Attributes dataset(String iuid) {
+        Attributes attrs = new Attributes();
+        attrs.setString(Tag.SOPInstanceUID, VR.UI, iuid);
+        attrs.setString(Tag.PatientName, VR.PN, "Doe^John");
+        attrs.setString(Tag.SliceThickness, VR.DS, "1.50");
+        attrs.setString(Tag.PixelSpacing, VR.DS, "0.500", "+.5");
+        attrs.setString(Tag.InstanceNumber, VR.IS, "007");
+        attrs.setInt(Tag.Rows, VR.US, 512);
+        attrs.newSequence(Tag.ReferencedImageSequence, 1).add(
+                new Attributes(attrs, Tag.SOPInstanceUID));
+        attrs.setValue(Tag.PixelData, VR.OW,
+                new BulkData(null, BULK_DATA_URI, false));
+        return attrs;
+    }
+
+    @Test
+    public void testEncodeDecode() throws Exception {
+        List<SeriesMetadataCache.Entry> entries = Arrays.asList(
+                new SeriesMetadataCache.Entry("1.2.3.1", "DEFAULT/fs1:a/b/1", dataset("1.2.3.1")),
+                new SeriesMetadataCache.Entry("1.2.3.2", "DEFAULT/fs1:a/b/2!entry", dataset("1.2.3.2")));
+
+        List<SeriesMetadataCache.Entry> decoded = SeriesMetadataCache.decode(
+                SeriesMetadataCache.encode(entries));
+
+        assertEquals(entries.size(), decoded.size());
+        for (int i = 0; i < entries.size(); i++) {
+            SeriesMetadataCache.Entry expected = entries.get(i);
+            SeriesMetadataCache.Entry actual = decoded.get(i);
+            assertEquals(expected.iuid, actual.iuid);
+            assertEquals(expected.location, actual.location);
+            assertEquals(expected.iuid, actual.dataset.getString(Tag.SOPInstanceUID));
+            assertEquals("Doe^John", actual.dataset.getString(Tag.PatientName));
+            assertEquals(512, actual.dataset.getInt(Tag.Rows, 0));
+            assertEquals(expected.iuid, actual.dataset.getNestedDataset(
+                    Tag.ReferencedImageSequence).getString(Tag.SOPInstanceUID));
+            BulkData bulkData = (BulkData) actual.dataset.getValue(Tag.PixelData);
+            assertEquals(BULK_DATA_URI, bulkData.getURI());
+        }
+    }
+
+    @Test
+    public void testDecimalAndIntegerStringsKeptAsRead() throws Exception {
+        Attributes decoded = SeriesMetadataCache.decode(SeriesMetadataCache.encode(
+                Arrays.asList(new SeriesMetadataCache.Entry(
+                        "1.2.3.1", "DEFAULT/fs1:a/b/1", dataset("1.2.3.1")))))
+                .get(0).dataset;
+
+        assertEquals("1.50", decoded.getString(Tag.SliceThickness));
+        assertArrayEquals(new String[] { "0.500", "+.5" },
+                decoded.getStrings(Tag.PixelSpacing));
+        assertEquals("007", decoded.getString(Tag.InstanceNumber));
+    }
+
+    @Test
+    public void testEncodeDeflates() throws Exception {
+        byte[] document = SeriesMetadataCache.encode(Arrays.asList(
+                new SeriesMetadataCache.Entry("1.2.3.1", "DEFAULT/fs1:a/b/1", dataset("1.2.3.1"))));
+
+        DataInputStream in = new DataInputStream(new InflaterInputStream(
+                new ByteArrayInputStream(document)));
+        assertEquals(1, in.readInt());
+        assertEquals("1.2.3.1", in.readUTF());
+        assertEquals("DEFAULT/fs1:a/b/1", in.readUTF());
+        assertTrue(in.readInt() > document.length);
+    }
+
+    private static SeriesMetadataCache cache() {
+        ArchiveDeviceExtension arcDev = new ArchiveDeviceExtension();
+        arcDev.setSeriesMetadataCacheSize(1);
+        Device device = new Device("test");
+        device.addDeviceExtension(arcDev);
+        SeriesMetadataCache cache = new SeriesMetadataCache();
+        cache.device = device;
+        return cache;
+    }
+
+    @Test
+    public void ignoreDocumentBuiltBeforeInvalidationOfSeries() {
+        SeriesMetadataCache cache = cache();
+        long stamp = cache.stamp();
+        cache.invalidate("1.2.3");
+        cache.put(stamp, "1.2.3", new byte[10]);
+        assertNull(cache.get("1.2.3"));
+    }
+
+    @Test
+    public void keepDocumentBuiltBeforeInvalidationOfOtherSeries() {
+        SeriesMetadataCache cache = cache();
+        long stamp = cache.stamp();
+        cache.invalidate("1.2.3");
+        cache.put(stamp, "1.2.4", new byte[10]);
+        assertNotNull(cache.get("1.2.4"));
+    }
+}